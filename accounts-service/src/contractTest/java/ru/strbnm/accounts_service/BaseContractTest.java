@@ -155,6 +155,15 @@ public abstract class BaseContractTest {
             Mono.error(
                 new UserNotFoundException("Пользователь с логином test_user4 не существует")));
 
+    when(userService.getUserContact("test_user1"))
+        .thenReturn(Mono.just(new UserContact("test_user1", "Иванов Иван", "ivanov@example.ru")));
+    when(userService.getUserContact("test_user2"))
+        .thenReturn(Mono.just(new UserContact("test_user2", "Петров Петр", "petrov@example.ru")));
+    when(userService.getUserContact("test_user4"))
+        .thenReturn(
+            Mono.error(
+                new UserNotFoundException("Пользователь с логином test_user4 не существует")));
+
     when(userService.getUserList())
         .thenReturn(
             Flux.just(
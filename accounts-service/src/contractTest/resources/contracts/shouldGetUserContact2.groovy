@@ -0,0 +1,27 @@
+package contracts
+
+import org.springframework.cloud.contract.spec.Contract
+
+Contract.make {
+    description "Когда GET /api/v1/users/test_user2/contact вызван, сервис аккаунтов должен вернуть имя и email" +
+            " пользователя test_user2"
+    request {
+        method 'GET'
+        url '/api/v1/users/test_user2/contact'
+
+        headers {
+            accept('application/json')
+        }
+    }
+    response {
+        status 200
+        headers {
+            contentType(applicationJson())
+        }
+        body([
+                login: "test_user2",
+                name: "Петров Петр",
+                email: "petrov@example.ru"
+        ])
+    }
+}
@@ -0,0 +1,25 @@
+package contracts
+
+import org.springframework.cloud.contract.spec.Contract
+
+Contract.make {
+    description "Когда GET /api/v1/users/test_user4/contact вызван, сервис аккаунтов должен вернуть 404"
+    request {
+        method 'GET'
+        url '/api/v1/users/test_user4/contact'
+
+        headers {
+            accept('application/json')
+        }
+    }
+    response {
+        status 404
+        headers {
+            contentType(applicationJson())
+        }
+        body([
+            status_code: 404,
+            message: "Пользователь с логином test_user4 не существует"
+        ])
+    }
+}
@@ -0,0 +1,64 @@
+package ru.strbnm.accounts_service.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.*;
+import ru.strbnm.accounts_service.domain.AccountCurrencyEnum;
+import ru.strbnm.accounts_service.domain.AccountInfoRow;
+import ru.strbnm.accounts_service.mapper.AccountInfoRows;
+
+/*
+Дополнение списка счетов всеми валютами в findUserCurrencyAccounts:
+прежний вариант (HashMap + новый список + toString для логирования) против массива по ordinal.
+Запуск: ./gradlew :accounts-service:jmh (профилировщик аллокаций подключен через -prof gc).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountCurrencyPaddingBenchmark {
+
+  private List<AccountInfoRow> rows;
+
+  @Setup
+  public void setup() {
+    rows =
+        List.of(
+            new AccountInfoRow(AccountCurrencyEnum.RUB, new BigDecimal("150000.0"), true),
+            new AccountInfoRow(AccountCurrencyEnum.CNY, new BigDecimal("20000.0"), true));
+  }
+
+  // Прежняя реализация из AccountCustomRepositoryImpl
+  @Benchmark
+  public List<AccountInfoRow> paddingWithMap() {
+    List<AccountCurrencyEnum> allCurrencies = List.of(AccountCurrencyEnum.values());
+    Map<AccountCurrencyEnum, AccountInfoRow> accountMap =
+        rows.stream().collect(Collectors.toMap(AccountInfoRow::getCurrency, Function.identity()));
+    String mapDump = accountMap.toString();
+    List<AccountInfoRow> result =
+        allCurrencies.stream()
+            .map(
+                currency ->
+                    accountMap.getOrDefault(
+                        currency, new AccountInfoRow(currency, BigDecimal.ZERO, false)))
+            .toList();
+    String resultDump = result.toString();
+    return mapDump.length() + resultDump.length() > 0 ? result : List.of();
+  }
+
+  @Benchmark
+  public List<AccountInfoRow> paddingWithArray() {
+    AccountInfoRow[] byOrdinal = AccountInfoRows.byCurrency();
+    for (AccountInfoRow row : rows) {
+      byOrdinal[row.getCurrency().ordinal()] = row;
+    }
+    return Arrays.asList(AccountInfoRows.padMissingCurrencies(byOrdinal));
+  }
+}
@@ -0,0 +1,146 @@
+package ru.strbnm.accounts_service.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+import ru.strbnm.accounts_service.repository.AccountCustomRepositoryImpl;
+import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryCustomRepositoryImpl;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+import ru.strbnm.accounts_service.service.AccountMailbox;
+import ru.strbnm.accounts_service.service.AccountTransferEngine;
+
+/*
+Пропускная способность проводок по одному "горячему" счету: OPERATIONS параллельных снятий
+на встроенной H2 (время в результатах - на одну проводку). Абсолютные значения для Postgres
+здесь не получить, бенчмарк нужен для сравнения вариантов между собой.
+Запуск: ./gradlew :accounts-service:jmh -PjmhArgs=HotAccountPostingBenchmark
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(HotAccountPostingBenchmark.OPERATIONS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotAccountPostingBenchmark {
+
+  static final int OPERATIONS = 200;
+  private static final int CONCURRENCY = 16;
+  private static final long USER_ID = 1L;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+  private DatabaseClient databaseClient;
+  private AccountRepository accountRepository;
+  private LedgerEntryRepository ledgerEntryRepository;
+  private AccountTransferEngine accountTransferEngine;
+  private AccountMailbox accountMailbox;
+  private Long accountId;
+
+  @Setup
+  public void setup() {
+    ConnectionFactory connectionFactory =
+        ConnectionFactories.get(
+            "r2dbc:h2:mem:///hot_account_db;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=false;LOCK_TIMEOUT=10000");
+    R2dbcEntityTemplate template = new R2dbcEntityTemplate(connectionFactory);
+    databaseClient = template.getDatabaseClient();
+    // Таблицы в том виде, в каком их создает Liquibase (без ссылок на пользователей)
+    execute(
+        "CREATE TABLE accounts (id BIGINT AUTO_INCREMENT PRIMARY KEY, user_id BIGINT NOT NULL, "
+            + "currency VARCHAR(3) NOT NULL, balance DECIMAL(19,4) NOT NULL CHECK (balance >= 0), "
+            + "UNIQUE (user_id, currency))");
+    execute(
+        "CREATE TABLE ledger_entries (id BIGINT AUTO_INCREMENT PRIMARY KEY, account_id BIGINT NOT NULL, "
+            + "posting_id VARCHAR(36) NOT NULL, operation VARCHAR(16) NOT NULL, amount DECIMAL(19,4) NOT NULL, "
+            + "balance_after DECIMAL(19,4) NOT NULL, created_at BIGINT NOT NULL)");
+    execute("CREATE INDEX ix_ledger_entries_account_id_id ON ledger_entries (account_id, id)");
+    execute("INSERT INTO accounts (user_id, currency, balance) VALUES (1, 'RUB', 1000000000)");
+
+    R2dbcRepositoryFactory repositoryFactory = new R2dbcRepositoryFactory(template);
+    accountRepository =
+        repositoryFactory.getRepository(
+            AccountRepository.class,
+            RepositoryFragments.just(new AccountCustomRepositoryImpl(template)));
+    ledgerEntryRepository =
+        repositoryFactory.getRepository(
+            LedgerEntryRepository.class,
+            RepositoryFragments.just(new LedgerEntryCustomRepositoryImpl(template)));
+    accountTransferEngine =
+        new AccountTransferEngine(
+            accountRepository,
+            ledgerEntryRepository,
+            new R2dbcTransactionManager(connectionFactory),
+            5,
+            Duration.ofMillis(20),
+            new SimpleMeterRegistry());
+    accountMailbox =
+        new AccountMailbox(
+            accountRepository,
+            ledgerEntryRepository,
+            accountTransferEngine,
+            4,
+            256,
+            new SimpleMeterRegistry());
+    accountId =
+        databaseClient
+            .sql("SELECT id FROM accounts WHERE user_id = :userId")
+            .bind("userId", USER_ID)
+            .map(row -> row.get("id", Long.class))
+            .one()
+            .block();
+  }
+
+  @TearDown
+  public void tearDown() {
+    execute("DROP ALL OBJECTS");
+  }
+
+  private void execute(String sql) {
+    databaseClient.sql(sql).then().block();
+  }
+
+  // Путь cashOperation: условный UPDATE и запись журнала, отдельная транзакция на каждое снятие
+  @Benchmark
+  public long guardedCashWithdrawals() {
+    return Flux.range(0, OPERATIONS)
+        .flatMap(
+            i ->
+                accountTransferEngine.inTransaction(
+                    () ->
+                        accountRepository
+                            .applyBalanceDelta(USER_ID, "RUB", AMOUNT.negate())
+                            .flatMap(
+                                updated ->
+                                    ledgerEntryRepository.insertWithAccountBalance(
+                                        USER_ID,
+                                        "RUB",
+                                        LedgerEntry.CASH_OUT,
+                                        AMOUNT.negate(),
+                                        Instant.now().getEpochSecond()))),
+            CONCURRENCY)
+        .count()
+        .block();
+  }
+
+  // Режим application.accounts.mailbox.enabled: снятия объединяются в пачки с одним UPDATE на пачку
+  @Benchmark
+  public long mailboxCashWithdrawals() {
+    return Flux.range(0, OPERATIONS)
+        .flatMap(i -> accountMailbox.submit(accountId, null, AMOUNT, null, Mono::empty), CONCURRENCY)
+        .count()
+        .block();
+  }
+}
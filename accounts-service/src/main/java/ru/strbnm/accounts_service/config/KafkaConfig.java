@@ -0,0 +1,28 @@
+package ru.strbnm.accounts_service.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import ru.strbnm.kafka.dto.UserCacheInvalidationMessage;
+
+@Profile("!contracts")
+@Configuration
+public class KafkaConfig {
+
+    /*
+    Контейнер для сброса кэша профилей (UserProfileCacheInvalidationListener). Партиция назначается
+    вручную, без группы потребителей, а режим MANUAL без подтверждений не фиксирует смещения:
+    без group.id фиксация завершалась бы ошибкой, а брокеру нечего хранить.
+    */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, UserCacheInvalidationMessage> cacheInvalidationContainerFactory(
+            ConsumerFactory<String, UserCacheInvalidationMessage> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<String, UserCacheInvalidationMessage> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.strbnm.accounts_service.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import ru.strbnm.kafka.dto.NotificationMessage;
+import ru.strbnm.kafka.outbox.OutboxNotificationRelay;
+
+@Profile("!contracts")
+@Configuration
+public class OutboxRelayConfig {
+
+  @Bean
+  public OutboxNotificationRelay outboxNotificationRelay(
+      R2dbcEntityTemplate template,
+      KafkaTemplate<String, NotificationMessage> kafkaTemplate,
+      TransactionalOperator transactionalOperator,
+      @Value("${application.notification.limit:100}") int limit,
+      @Value("${application.notification.interval:1s}") Duration interval,
+      @Value("${application.notification.claim-timeout:30s}") Duration claimTimeout,
+      MeterRegistry meterRegistry) {
+    return new OutboxNotificationRelay(
+        "accounts-service",
+        template.getDatabaseClient(),
+        kafkaTemplate,
+        transactionalOperator,
+        limit,
+        interval,
+        claimTimeout,
+        meterRegistry);
+  }
+}
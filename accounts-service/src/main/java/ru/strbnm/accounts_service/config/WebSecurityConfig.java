@@ -31,7 +31,7 @@ public class WebSecurityConfig {
             exchange ->
                 exchange
                     .pathMatchers("/actuator/health/**", "/actuator/info", "/actuator/prometheus").permitAll()
-                    .pathMatchers("/api/v1/users/**")
+                    .pathMatchers("/api/v1/users/**", "/api/v1/user-directory", "/api/v1/postings/**")
                     .hasAuthority("SCOPE_resource.readwrite")
                     .anyExchange()
                     .authenticated())
@@ -10,6 +10,9 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.accounts_service.api.AccountsServiceApi;
 import ru.strbnm.accounts_service.domain.*;
+import ru.strbnm.accounts_service.service.AccountStatementService;
+import ru.strbnm.accounts_service.service.BulkPostingService;
+import ru.strbnm.accounts_service.service.IdempotencyService;
 import ru.strbnm.accounts_service.service.UserService;
 
 @Controller
@@ -17,16 +20,30 @@ import ru.strbnm.accounts_service.service.UserService;
 public class AccountsController implements AccountsServiceApi {
 
     private final UserService userService;
+    private final BulkPostingService bulkPostingService;
+    private final IdempotencyService idempotencyService;
+    private final AccountStatementService accountStatementService;
 
     @Autowired
-    public AccountsController(UserService userService) {
+    public AccountsController(UserService userService, BulkPostingService bulkPostingService, IdempotencyService idempotencyService,
+                              AccountStatementService accountStatementService) {
         this.userService = userService;
+        this.bulkPostingService = bulkPostingService;
+        this.idempotencyService = idempotencyService;
+        this.accountStatementService = accountStatementService;
     }
 
     @Override
-    public Mono<ResponseEntity<AccountOperationResponse>> cashTransaction(String login, Mono<CashRequest> cashRequest, ServerWebExchange exchange) {
+    public Mono<ResponseEntity<BulkPostingResponse>> bulkPostings(Mono<BulkPostingRequest> bulkPostingRequest, ServerWebExchange exchange) {
+        return bulkPostingRequest.flatMap(bulkPostingService::apply)
+                .map(ResponseEntity::ok);
+    }
+
+    @Override
+    public Mono<ResponseEntity<AccountOperationResponse>> cashTransaction(String login, Mono<CashRequest> cashRequest, String idempotencyKey, ServerWebExchange exchange) {
         return cashRequest.flatMap(
-                request -> userService.cashOperation(request, login))
+                request -> idempotencyService.execute(idempotencyKey, "cash", login, request,
+                        () -> userService.cashOperation(request, login)))
                 .flatMap(this::returnAccountOperationResponse);
     }
 
@@ -36,12 +53,24 @@ public class AccountsController implements AccountsServiceApi {
                 .flatMap(this::returnAccountOperationResponseCreated);
     }
 
+    @Override
+    public Mono<ResponseEntity<Flux<StatementEntry>>> getAccountStatement(String login, AccountCurrencyEnum currency, Long before, Integer limit, ServerWebExchange exchange) {
+        return accountStatementService.getAccountStatement(login, currency, before, limit)
+                .map(ResponseEntity::ok);
+    }
+
     @Override
     public Mono<ResponseEntity<UserDetailResponse>> getUser(String login, ServerWebExchange exchange) {
         return userService.getUserByLogin(login)
                 .flatMap(userDetailResponse -> Mono.just(ResponseEntity.ok().body(userDetailResponse)));
     }
 
+    @Override
+    public Mono<ResponseEntity<UserContact>> getUserContact(String login, ServerWebExchange exchange) {
+        return userService.getUserContact(login)
+                .map(ResponseEntity::ok);
+    }
+
     @Override
     public Mono<ResponseEntity<Flux<UserListResponseInner>>> getUserList(ServerWebExchange exchange) {
         Flux<UserListResponseInner> userList = userService.getUserList();
@@ -49,9 +78,16 @@ public class AccountsController implements AccountsServiceApi {
     }
 
     @Override
-    public Mono<ResponseEntity<AccountOperationResponse>> transferTransaction(String login, Mono<TransferRequest> transferRequest, ServerWebExchange exchange) {
+    public Mono<ResponseEntity<UserDirectoryPage>> getUserDirectory(String prefix, String cursor, Integer limit, ServerWebExchange exchange) {
+        return userService.getUserDirectory(prefix, cursor, limit)
+                .map(ResponseEntity::ok);
+    }
+
+    @Override
+    public Mono<ResponseEntity<AccountOperationResponse>> transferTransaction(String login, Mono<TransferRequest> transferRequest, String idempotencyKey, ServerWebExchange exchange) {
         return transferRequest.flatMap(
-                request -> userService.transferOperation(request, login))
+                request -> idempotencyService.execute(idempotencyKey, "transfer", login, request,
+                        () -> userService.transferOperation(request, login)))
                 .flatMap(this::returnAccountOperationResponse);
     }
 
@@ -0,0 +1,5 @@
+package ru.strbnm.accounts_service.dto;
+
+// Счет вместе с владельцем; для пользователя без счетов accountId и currency равны null
+public record AccountOwner(
+    Long userId, String login, String name, String email, Long accountId, String currency) {}
@@ -0,0 +1,18 @@
+package ru.strbnm.accounts_service.dto;
+
+import java.math.BigDecimal;
+
+// Записи журнала по счету после последней контрольной точки: сумма и значения для сверки
+public record LedgerCheckpointDelta(
+    Long accountId,
+    Long previousEntryId,
+    BigDecimal previousBalance,
+    Long lastEntryId,
+    BigDecimal delta,
+    BigDecimal ledgerBalanceAfter,
+    BigDecimal accountBalance) {
+
+  public BigDecimal ledgerSum() {
+    return previousBalance == null ? delta : previousBalance.add(delta);
+  }
+}
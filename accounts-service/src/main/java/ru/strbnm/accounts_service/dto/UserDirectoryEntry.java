@@ -0,0 +1,4 @@
+package ru.strbnm.accounts_service.dto;
+
+// id нужен только для курсора страницы и наружу не отдается
+public record UserDirectoryEntry(Long id, String login, String name) {}
@@ -0,0 +1,26 @@
+package ru.strbnm.accounts_service.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("idempotency_keys")
+public class IdempotencyKey {
+
+    @Id
+    @Column("idempotency_key")
+    private String idempotencyKey;
+
+    @Column("request_hash")
+    private String requestHash;
+
+    private String response;
+
+    @Column("created_at")
+    private Long createdAt;
+}
@@ -0,0 +1,81 @@
+package ru.strbnm.accounts_service.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("ledger_entries")
+public class LedgerEntry {
+
+    public static final String OPENING = "OPENING";
+    public static final String CASH_IN = "CASH_IN";
+    public static final String CASH_OUT = "CASH_OUT";
+    public static final String TRANSFER_IN = "TRANSFER_IN";
+    public static final String TRANSFER_OUT = "TRANSFER_OUT";
+
+    @Id
+    private Long id;
+
+    @Column("account_id")
+    private Long accountId;
+
+    // Общий идентификатор записей одной операции (списание и зачисление перевода)
+    @Column("posting_id")
+    private String postingId;
+
+    private String operation;
+
+    // Положительная сумма - зачисление, отрицательная - списание
+    private BigDecimal amount;
+
+    @Column("balance_after")
+    private BigDecimal balanceAfter;
+
+    @Column("created_at")
+    private Long createdAt;
+
+    /*
+    Записи журнала для одной проводки: списание со счета fromAccountId и/или зачисление на toAccountId
+    (при переводе обе записи получают общий posting_id). Балансы после проводки передает вызывающий,
+    который держит блокировку счетов.
+    */
+    public static List<LedgerEntry> forPosting(
+            Long fromAccountId, BigDecimal debit, BigDecimal fromBalanceAfter,
+            Long toAccountId, BigDecimal credit, BigDecimal toBalanceAfter,
+            long createdAt) {
+        boolean transfer = fromAccountId != null && toAccountId != null;
+        String postingId = UUID.randomUUID().toString();
+        List<LedgerEntry> entries = new ArrayList<>(2);
+        if (fromAccountId != null) {
+            entries.add(LedgerEntry.builder()
+                    .accountId(fromAccountId)
+                    .postingId(postingId)
+                    .operation(transfer ? TRANSFER_OUT : CASH_OUT)
+                    .amount(debit.negate())
+                    .balanceAfter(fromBalanceAfter)
+                    .createdAt(createdAt)
+                    .build());
+        }
+        if (toAccountId != null) {
+            entries.add(LedgerEntry.builder()
+                    .accountId(toAccountId)
+                    .postingId(postingId)
+                    .operation(transfer ? TRANSFER_IN : CASH_IN)
+                    .amount(credit)
+                    .balanceAfter(toBalanceAfter)
+                    .createdAt(createdAt)
+                    .build());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.strbnm.accounts_service.exception;
+
+public class AccountNotFoundException extends UserOperationException {
+
+  public AccountNotFoundException(String message) {
+    super(message);
+  }
+
+  public AccountNotFoundException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
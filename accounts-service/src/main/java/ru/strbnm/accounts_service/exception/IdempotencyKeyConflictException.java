@@ -0,0 +1,12 @@
+package ru.strbnm.accounts_service.exception;
+
+public class IdempotencyKeyConflictException extends UserOperationException {
+
+  public IdempotencyKeyConflictException(String message) {
+    super(message);
+  }
+
+  public IdempotencyKeyConflictException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -45,14 +45,18 @@ public class ReactiveGlobalExceptionHandler {
                 .body(response));
     }
 
-    @ExceptionHandler(UserAlreadyExistsException.class)
-    public Mono<ResponseEntity<AccountErrorResponse>> handleUserAlreadyExists(UserAlreadyExistsException exception) {
+    @ExceptionHandler({
+            UserAlreadyExistsException.class,
+            IdempotencyKeyConflictException.class
+    })
+    public Mono<ResponseEntity<AccountErrorResponse>> handleUserAlreadyExists(UserOperationException exception) {
         log.error("Ошибка {}", exception.getMessage(), exception);
         return Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).body(new AccountErrorResponse(exception.getMessage(), 409)));
     }
 
     @ExceptionHandler({
-            UserNotFoundException.class
+            UserNotFoundException.class,
+            AccountNotFoundException.class
     })
     public Mono<ResponseEntity<AccountErrorResponse>> handleUserOperationException(UserOperationException exception) {
         log.error("Ошибка {}", exception.getMessage(), exception);
@@ -0,0 +1,30 @@
+package ru.strbnm.accounts_service.mapper;
+
+import java.math.BigDecimal;
+import ru.strbnm.accounts_service.domain.AccountCurrencyEnum;
+import ru.strbnm.accounts_service.domain.AccountInfoRow;
+
+/*
+Список счетов пользователя по всем валютам. Строки собираются в массив, индексированный по
+ordinal валюты, отсутствующие валюты дополняются строкой с нулевым балансом (exists = false).
+Используется репозиториями счетов и пользователей.
+*/
+public final class AccountInfoRows {
+
+  private static final AccountCurrencyEnum[] CURRENCIES = AccountCurrencyEnum.values();
+
+  private AccountInfoRows() {}
+
+  public static AccountInfoRow[] byCurrency() {
+    return new AccountInfoRow[CURRENCIES.length];
+  }
+
+  public static AccountInfoRow[] padMissingCurrencies(AccountInfoRow[] byOrdinal) {
+    for (int i = 0; i < byOrdinal.length; i++) {
+      if (byOrdinal[i] == null) {
+        byOrdinal[i] = new AccountInfoRow(CURRENCIES[i], BigDecimal.ZERO, false);
+      }
+    }
+    return byOrdinal;
+  }
+}
@@ -1,9 +1,26 @@
 package ru.strbnm.accounts_service.repository;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.strbnm.accounts_service.domain.AccountInfoRow;
+import ru.strbnm.accounts_service.dto.AccountOwner;
+import ru.strbnm.accounts_service.entity.Account;
 
 public interface AccountCustomRepository {
 
     Flux<AccountInfoRow> findUserCurrencyAccounts(String login);
+
+    Mono<Long> applyBalanceDelta(Long userId, String currency, BigDecimal delta);
+
+    Flux<Account> lockAccountsOrdered(List<Long> accountIds);
+
+    Mono<Long> applyTransferLegs(Long fromAccountId, Long toAccountId, BigDecimal debit, BigDecimal credit);
+
+    Mono<Long> updateBalances(Map<Long, BigDecimal> balances);
+
+    Flux<AccountOwner> findAccountOwnersByLogins(Collection<String> logins);
 }
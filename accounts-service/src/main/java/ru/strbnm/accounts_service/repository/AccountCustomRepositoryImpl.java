@@ -1,10 +1,9 @@
 package ru.strbnm.accounts_service.repository;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -13,12 +12,17 @@ import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.strbnm.accounts_service.domain.AccountInfoRow;
 import ru.strbnm.accounts_service.domain.AccountCurrencyEnum;
+import ru.strbnm.accounts_service.dto.AccountOwner;
+import ru.strbnm.accounts_service.entity.Account;
+import ru.strbnm.accounts_service.mapper.AccountInfoRows;
 
 @Slf4j
 @Repository
 public class AccountCustomRepositoryImpl implements AccountCustomRepository {
+
   private final DatabaseClient databaseClient;
 
   @Autowired
@@ -38,6 +42,7 @@ public class AccountCustomRepositoryImpl implements AccountCustomRepository {
       WHERE u.login = :login
       """;
 
+    // Строки раскладываются в массив по ordinal валюты, отсутствующие валюты дополняются нулевыми
     return databaseClient
             .sql(query)
             .bind("login", login)
@@ -47,24 +52,119 @@ public class AccountCustomRepositoryImpl implements AccountCustomRepository {
                     row.get("exists", Boolean.class)
             ))
             .all()
-            .collectList()
-            .flatMapMany(existingAccounts -> {
-              // Список всех поддерживаемых валют
-              List<AccountCurrencyEnum> allCurrencies = List.of(AccountCurrencyEnum.values());
-
-              // Собираем карту существующих валют -> AccountInfoRow
-              Map<AccountCurrencyEnum, AccountInfoRow> accountMap = existingAccounts.stream()
-                      .collect(Collectors.toMap(AccountInfoRow::getCurrency, Function.identity()));
-              log.info(accountMap.toString());
-              // Для каждой валюты создаём либо реальную запись, либо дефолтную
-              List<AccountInfoRow> result = allCurrencies.stream()
-                      .map(currency -> accountMap.getOrDefault(
-                              currency,
-                              new AccountInfoRow(currency, BigDecimal.ZERO, false)
-                      ))
-                      .toList();
-              log.info(result.toString());
-              return Flux.fromIterable(result);
-            });
+            .collect(
+                    AccountInfoRows::byCurrency,
+                    (byOrdinal, row) -> byOrdinal[row.getCurrency().ordinal()] = row)
+            .flatMapMany(byOrdinal -> Flux.fromArray(AccountInfoRows.padMissingCurrencies(byOrdinal)));
+  }
+
+  @Override
+  public Mono<Long> applyBalanceDelta(Long userId, String currency, BigDecimal delta) {
+    // Условие на баланс проверяется повторно после ожидания блокировки строки, поэтому
+    // параллельные списания не могут увести баланс в минус
+    String query = """
+      UPDATE accounts
+      SET balance = balance + :delta
+      WHERE user_id = :userId AND currency = :currency AND balance + :delta >= 0
+      """;
+
+    return databaseClient
+            .sql(query)
+            .bind("delta", delta)
+            .bind("userId", userId)
+            .bind("currency", currency)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  @Override
+  public Flux<Account> lockAccountsOrdered(List<Long> accountIds) {
+    // Строки блокируются в порядке возрастания id, поэтому встречные переводы A->B и B->A
+    // ожидают друг друга, а не попадают во взаимную блокировку
+    String query = """
+      SELECT id, user_id, currency, balance
+      FROM accounts
+      WHERE id IN (:ids)
+      ORDER BY id
+      FOR UPDATE
+      """;
+
+    return databaseClient
+            .sql(query)
+            .bind("ids", accountIds)
+            .map(row -> Account.builder()
+                    .id(row.get("id", Long.class))
+                    .userId(row.get("user_id", Long.class))
+                    .currency(row.get("currency", String.class))
+                    .balance(row.get("balance", BigDecimal.class))
+                    .build())
+            .all();
+  }
+
+  @Override
+  public Mono<Long> applyTransferLegs(
+          Long fromAccountId, Long toAccountId, BigDecimal debit, BigDecimal credit) {
+    // Списание и зачисление одним запросом; если на счете отправителя меньше debit,
+    // не обновляется ни одна строка
+    String query = """
+      UPDATE accounts
+      SET balance = CASE WHEN id = :fromId THEN balance - :debit ELSE balance + :credit END
+      WHERE id IN (:fromId, :toId)
+        AND EXISTS (SELECT 1 FROM accounts WHERE id = :fromId AND balance >= :debit)
+      """;
+
+    return databaseClient
+            .sql(query)
+            .bind("fromId", fromAccountId)
+            .bind("toId", toAccountId)
+            .bind("debit", debit)
+            .bind("credit", credit)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  @Override
+  public Mono<Long> updateBalances(Map<Long, BigDecimal> balances) {
+    if (balances.isEmpty()) {
+      return Mono.just(0L);
+    }
+    // Новые балансы нескольких счетов одним запросом; строки должны быть заблокированы вызывающим
+    StringBuilder query = new StringBuilder("UPDATE accounts SET balance = CASE id");
+    List<Long> ids = List.copyOf(balances.keySet());
+    for (int i = 0; i < ids.size(); i++) {
+      query.append(" WHEN :id").append(i).append(" THEN :balance").append(i);
+    }
+    query.append(" ELSE balance END WHERE id IN (:ids)");
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.toString()).bind("ids", ids);
+    for (int i = 0; i < ids.size(); i++) {
+      spec = spec.bind("id" + i, ids.get(i)).bind("balance" + i, balances.get(ids.get(i)));
+    }
+    return spec.fetch().rowsUpdated();
+  }
+
+  @Override
+  public Flux<AccountOwner> findAccountOwnersByLogins(Collection<String> logins) {
+    if (logins.isEmpty()) {
+      return Flux.empty();
+    }
+    // Пользователи и все их счета для пачки логинов одним запросом
+    String query = """
+      SELECT u.id AS user_id, u.login, u.name, u.email, a.id AS account_id, a.currency
+      FROM users u
+      LEFT JOIN accounts a ON a.user_id = u.id
+      WHERE u.login IN (:logins)
+      """;
+    return databaseClient
+        .sql(query)
+        .bind("logins", List.copyOf(logins))
+        .map(row -> new AccountOwner(
+            row.get("user_id", Long.class),
+            row.get("login", String.class),
+            row.get("name", String.class),
+            row.get("email", String.class),
+            row.get("account_id", Long.class),
+            row.get("currency", String.class)))
+        .all();
   }
 }
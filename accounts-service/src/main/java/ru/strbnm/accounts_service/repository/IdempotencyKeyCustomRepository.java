@@ -0,0 +1,12 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.util.List;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+
+public interface IdempotencyKeyCustomRepository {
+
+  Mono<Long> insertCompleted(List<IdempotencyKey> keys);
+
+  Mono<Long> deleteCreatedBefore(long createdAt);
+}
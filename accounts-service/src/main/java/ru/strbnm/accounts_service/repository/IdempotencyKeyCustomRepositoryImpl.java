@@ -0,0 +1,60 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.util.List;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+
+@Repository
+public class IdempotencyKeyCustomRepositoryImpl implements IdempotencyKeyCustomRepository {
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public IdempotencyKeyCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Long> insertCompleted(List<IdempotencyKey> keys) {
+    if (keys.isEmpty()) {
+      return Mono.just(0L);
+    }
+    // Ключи вставляются сразу с ответом в транзакции проводок. Первичный ключ по idempotency_key:
+    // одновременный повтор ждет фиксации первой транзакции и откатывается с нарушением уникальности
+    StringBuilder query =
+        new StringBuilder(
+            "INSERT INTO idempotency_keys(idempotency_key, request_hash, response, created_at) VALUES ");
+    for (int i = 0; i < keys.size(); i++) {
+      if (i > 0) {
+        query.append(", ");
+      }
+      query.append("(:idempotencyKey").append(i)
+          .append(", :requestHash").append(i)
+          .append(", :response").append(i)
+          .append(", :createdAt").append(i).append(')');
+    }
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.toString());
+    for (int i = 0; i < keys.size(); i++) {
+      IdempotencyKey key = keys.get(i);
+      spec = spec.bind("idempotencyKey" + i, key.getIdempotencyKey())
+          .bind("requestHash" + i, key.getRequestHash())
+          .bind("response" + i, key.getResponse())
+          .bind("createdAt" + i, key.getCreatedAt());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+
+  @Override
+  public Mono<Long> deleteCreatedBefore(long createdAt) {
+    return databaseClient
+        .sql("DELETE FROM idempotency_keys WHERE created_at < :createdAt")
+        .bind("createdAt", createdAt)
+        .fetch()
+        .rowsUpdated();
+  }
+}
@@ -0,0 +1,7 @@
+package ru.strbnm.accounts_service.repository;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+
+public interface IdempotencyKeyRepository
+    extends ReactiveCrudRepository<IdempotencyKey, String>, IdempotencyKeyCustomRepository {}
@@ -0,0 +1,24 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.dto.LedgerCheckpointDelta;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+
+public interface LedgerEntryCustomRepository {
+
+  Mono<Long> insertAll(List<LedgerEntry> entries);
+
+  Mono<Long> insertWithAccountBalance(
+      Long userId, String currency, String operation, BigDecimal amount, long createdAt);
+
+  Flux<LedgerEntry> findStatementPage(Long accountId, Long beforeEntryId, int limit);
+
+  Mono<Long> findMaxEntryIdCreatedBefore(long createdAt);
+
+  Flux<LedgerCheckpointDelta> findUncheckedDeltas(long fromEntryId);
+
+  Mono<Long> saveCheckpoint(LedgerCheckpointDelta delta, long checkedAt);
+}
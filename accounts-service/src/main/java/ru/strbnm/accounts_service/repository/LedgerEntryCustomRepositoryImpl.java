@@ -0,0 +1,182 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.dto.LedgerCheckpointDelta;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+
+@Repository
+public class LedgerEntryCustomRepositoryImpl implements LedgerEntryCustomRepository {
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public LedgerEntryCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Long> insertAll(List<LedgerEntry> entries) {
+    if (entries.isEmpty()) {
+      return Mono.just(0L);
+    }
+    // Одна вставка на все записи пачки
+    StringBuilder query =
+        new StringBuilder(
+            "INSERT INTO ledger_entries(account_id, posting_id, operation, amount, balance_after, created_at) VALUES ");
+    for (int i = 0; i < entries.size(); i++) {
+      if (i > 0) {
+        query.append(", ");
+      }
+      query.append("(:accountId").append(i)
+          .append(", :postingId").append(i)
+          .append(", :operation").append(i)
+          .append(", :amount").append(i)
+          .append(", :balanceAfter").append(i)
+          .append(", :createdAt").append(i).append(')');
+    }
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.toString());
+    for (int i = 0; i < entries.size(); i++) {
+      LedgerEntry entry = entries.get(i);
+      spec = spec.bind("accountId" + i, entry.getAccountId())
+          .bind("postingId" + i, entry.getPostingId())
+          .bind("operation" + i, entry.getOperation())
+          .bind("amount" + i, entry.getAmount())
+          .bind("balanceAfter" + i, entry.getBalanceAfter())
+          .bind("createdAt" + i, entry.getCreatedAt());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+
+  @Override
+  public Mono<Long> insertWithAccountBalance(
+      Long userId, String currency, String operation, BigDecimal amount, long createdAt) {
+    // Баланс после проводки читается из строки счета, уже измененной и заблокированной этой транзакцией
+    String query = """
+      INSERT INTO ledger_entries(account_id, posting_id, operation, amount, balance_after, created_at)
+      SELECT id, :postingId, :operation, :amount, balance, :createdAt
+      FROM accounts
+      WHERE user_id = :userId AND currency = :currency
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("postingId", UUID.randomUUID().toString())
+        .bind("operation", operation)
+        .bind("amount", amount)
+        .bind("createdAt", createdAt)
+        .bind("userId", userId)
+        .bind("currency", currency)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  @Override
+  public Flux<LedgerEntry> findStatementPage(Long accountId, Long beforeEntryId, int limit) {
+    // Диапазонное чтение по индексу (account_id, id) в обратном порядке: стоимость страницы
+    // не зависит от числа проводок по счету и от ее положения в выписке
+    String query = """
+      SELECT id, account_id, posting_id, operation, amount, balance_after, created_at
+      FROM ledger_entries
+      WHERE account_id = :accountId%s
+      ORDER BY id DESC
+      LIMIT :limit
+      """.formatted(beforeEntryId != null ? " AND id < :beforeEntryId" : "");
+
+    DatabaseClient.GenericExecuteSpec spec =
+        databaseClient.sql(query).bind("accountId", accountId).bind("limit", limit);
+    if (beforeEntryId != null) {
+      spec = spec.bind("beforeEntryId", beforeEntryId);
+    }
+    return spec
+        .map(row -> LedgerEntry.builder()
+            .id(row.get("id", Long.class))
+            .accountId(row.get("account_id", Long.class))
+            .postingId(row.get("posting_id", String.class))
+            .operation(row.get("operation", String.class))
+            .amount(row.get("amount", BigDecimal.class))
+            .balanceAfter(row.get("balance_after", BigDecimal.class))
+            .createdAt(row.get("created_at", Long.class))
+            .build())
+        .all();
+  }
+
+  @Override
+  public Mono<Long> findMaxEntryIdCreatedBefore(long createdAt) {
+    return databaseClient
+        .sql("SELECT COALESCE(MAX(id), 0) AS max_id FROM ledger_entries WHERE created_at < :createdAt")
+        .bind("createdAt", createdAt)
+        .map(row -> row.get("max_id", Long.class))
+        .one();
+  }
+
+  @Override
+  public Flux<LedgerCheckpointDelta> findUncheckedDeltas(long fromEntryId) {
+    // Сумма записей после контрольной точки каждого счета, баланс после последней из них
+    // и материализованный баланс счета читаются одним запросом, то есть из одного снимка данных
+    String query = """
+      SELECT d.account_id, c.last_entry_id AS previous_entry_id, c.balance AS previous_balance,
+             d.last_entry_id, d.delta, e.balance_after, a.balance AS account_balance
+      FROM (
+        SELECT le.account_id, MAX(le.id) AS last_entry_id, SUM(le.amount) AS delta
+        FROM ledger_entries le
+        LEFT JOIN ledger_checkpoints lc ON lc.account_id = le.account_id
+        WHERE le.id > :fromEntryId AND le.id > COALESCE(lc.last_entry_id, 0)
+        GROUP BY le.account_id
+      ) d
+      JOIN ledger_entries e ON e.id = d.last_entry_id
+      LEFT JOIN ledger_checkpoints c ON c.account_id = d.account_id
+      LEFT JOIN accounts a ON a.id = d.account_id
+      ORDER BY d.account_id
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("fromEntryId", fromEntryId)
+        .map(row -> new LedgerCheckpointDelta(
+            row.get("account_id", Long.class),
+            row.get("previous_entry_id", Long.class),
+            row.get("previous_balance", BigDecimal.class),
+            row.get("last_entry_id", Long.class),
+            row.get("delta", BigDecimal.class),
+            row.get("balance_after", BigDecimal.class),
+            row.get("account_balance", BigDecimal.class)))
+        .all();
+  }
+
+  @Override
+  public Mono<Long> saveCheckpoint(LedgerCheckpointDelta delta, long checkedAt) {
+    if (delta.previousEntryId() == null) {
+      return databaseClient
+          .sql(
+              "INSERT INTO ledger_checkpoints(account_id, last_entry_id, balance, checked_at) "
+                  + "VALUES (:accountId, :lastEntryId, :balance, :checkedAt)")
+          .bind("accountId", delta.accountId())
+          .bind("lastEntryId", delta.lastEntryId())
+          .bind("balance", delta.ledgerSum())
+          .bind("checkedAt", checkedAt)
+          .fetch()
+          .rowsUpdated();
+    }
+    // Условие на прежнюю точку: если другая реплика успела продвинуть ее раньше, строка не изменится
+    return databaseClient
+        .sql(
+            "UPDATE ledger_checkpoints SET last_entry_id = :lastEntryId, balance = :balance, checked_at = :checkedAt "
+                + "WHERE account_id = :accountId AND last_entry_id = :previousEntryId")
+        .bind("lastEntryId", delta.lastEntryId())
+        .bind("balance", delta.ledgerSum())
+        .bind("checkedAt", checkedAt)
+        .bind("accountId", delta.accountId())
+        .bind("previousEntryId", delta.previousEntryId())
+        .fetch()
+        .rowsUpdated();
+  }
+}
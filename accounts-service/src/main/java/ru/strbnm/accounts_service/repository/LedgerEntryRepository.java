@@ -0,0 +1,7 @@
+package ru.strbnm.accounts_service.repository;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+
+public interface LedgerEntryRepository
+    extends ReactiveCrudRepository<LedgerEntry, Long>, LedgerEntryCustomRepository {}
@@ -0,0 +1,10 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.util.List;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.entity.OutboxNotification;
+
+public interface OutboxNotificationCustomRepository {
+
+  Mono<Long> insertAll(List<OutboxNotification> notifications);
+}
@@ -0,0 +1,49 @@
+package ru.strbnm.accounts_service.repository;
+
+import java.util.List;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.entity.OutboxNotification;
+
+@Repository
+public class OutboxNotificationCustomRepositoryImpl implements OutboxNotificationCustomRepository {
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public OutboxNotificationCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Long> insertAll(List<OutboxNotification> notifications) {
+    if (notifications.isEmpty()) {
+      return Mono.just(0L);
+    }
+    // Одна вставка на всю пачку вместо отдельного INSERT на каждое уведомление
+    StringBuilder query =
+        new StringBuilder("INSERT INTO outbox_notifications(user_id, email, message, created_at) VALUES ");
+    for (int i = 0; i < notifications.size(); i++) {
+      if (i > 0) {
+        query.append(", ");
+      }
+      query.append("(:userId").append(i)
+          .append(", :email").append(i)
+          .append(", :message").append(i)
+          .append(", :createdAt").append(i).append(')');
+    }
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.toString());
+    for (int i = 0; i < notifications.size(); i++) {
+      OutboxNotification notification = notifications.get(i);
+      spec = spec.bind("userId" + i, notification.getUserId())
+          .bind("email" + i, notification.getEmail())
+          .bind("message" + i, notification.getMessage())
+          .bind("createdAt" + i, notification.getCreatedAt());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+}
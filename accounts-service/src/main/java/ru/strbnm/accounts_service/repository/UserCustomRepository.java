@@ -1,9 +1,18 @@
 package ru.strbnm.accounts_service.repository;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.accounts_service.domain.UserDetailResponse;
+import ru.strbnm.accounts_service.domain.UserListResponseInner;
+import ru.strbnm.accounts_service.dto.UserDirectoryEntry;
 
 public interface UserCustomRepository {
 
     Mono<UserDetailResponse> getUserWithRolesByLogin(String login);
+
+    Mono<UserDetailResponse> getUserDetailByLogin(String login);
+
+    Flux<UserListResponseInner> findUserListOrderByName();
+
+    Flux<UserDirectoryEntry> findUserDirectoryPage(String namePrefix, String afterName, Long afterId, int limit);
 }
@@ -1,5 +1,6 @@
 package ru.strbnm.accounts_service.repository;
 
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
@@ -9,8 +10,15 @@ import lombok.NonNull;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.domain.AccountCurrencyEnum;
+import ru.strbnm.accounts_service.domain.AccountInfoRow;
 import ru.strbnm.accounts_service.domain.UserDetailResponse;
+import ru.strbnm.accounts_service.domain.UserListResponseInner;
+import ru.strbnm.accounts_service.dto.UserDirectoryEntry;
+import ru.strbnm.accounts_service.mapper.AccountInfoRows;
 
 @Repository
 public class UserCustomRepositoryImpl implements UserCustomRepository {
@@ -29,6 +37,17 @@ public class UserCustomRepositoryImpl implements UserCustomRepository {
             String role
     ) {}
 
+    private record UserDetailRow(
+            String login,
+            String password,
+            String name,
+            String email,
+            LocalDate birthdate,
+            String role,
+            String currency,
+            BigDecimal balance
+    ) {}
+
     @Override
     public Mono<UserDetailResponse> getUserWithRolesByLogin(String login) {
         String query =
@@ -70,4 +89,110 @@ public class UserCustomRepositoryImpl implements UserCustomRepository {
                     );
                 });
     }
+
+    /*
+    Пользователь, роли и счета одним запросом. Строк в результате не больше, чем ролей,
+    умноженных на счета пользователя (единицы), поэтому роли и счета собираются из строк
+    соединения без агрегатных функций, специфичных для Postgres.
+    */
+    @Override
+    public Mono<UserDetailResponse> getUserDetailByLogin(String login) {
+        String query =
+                """
+                SELECT u.login, u.password, u.name, u.email, u.birthdate, r.role_name, a.currency, a.balance
+                FROM users u
+                LEFT JOIN users_roles ur ON u.id = ur.user_id
+                LEFT JOIN roles r ON ur.role_id = r.id
+                LEFT JOIN accounts a ON u.id = a.user_id
+                WHERE u.login = :login
+                """;
+        return databaseClient
+                .sql(query)
+                .bind("login", login)
+                .map((row, metadata) -> new UserDetailRow(
+                        row.get("login", String.class),
+                        row.get("password", String.class),
+                        row.get("name", String.class),
+                        row.get("email", String.class),
+                        row.get("birthdate", LocalDate.class),
+                        row.get("role_name", String.class),
+                        row.get("currency", String.class),
+                        row.get("balance", BigDecimal.class)
+                ))
+                .all()
+                .collectList()
+                .filter(list -> !list.isEmpty())
+                .map(rows -> {
+                    UserDetailRow first = rows.getFirst();
+                    List<String> roles = rows.stream()
+                            .map(UserDetailRow::role)
+                            .filter(Objects::nonNull)
+                            .distinct()
+                            .toList();
+                    AccountInfoRow[] accounts = AccountInfoRows.byCurrency();
+                    for (UserDetailRow row : rows) {
+                        if (row.currency() != null) {
+                            AccountCurrencyEnum currency = AccountCurrencyEnum.valueOf(row.currency());
+                            accounts[currency.ordinal()] = new AccountInfoRow(currency, row.balance(), true);
+                        }
+                    }
+                    UserDetailResponse response = new UserDetailResponse(
+                            first.login(),
+                            first.password(),
+                            first.name(),
+                            first.email(),
+                            first.birthdate(),
+                            roles
+                    );
+                    response.setAccounts(Arrays.asList(AccountInfoRows.padMissingCurrencies(accounts)));
+                    return response;
+                });
+    }
+
+    // Только логин и имя: хеши паролей и прочие поля для списка не нужны
+    @Override
+    public Flux<UserListResponseInner> findUserListOrderByName() {
+        return databaseClient
+                .sql("SELECT login, name FROM users ORDER BY name, id")
+                .map((row, metadata) -> new UserListResponseInner(
+                        row.get("login", String.class),
+                        row.get("name", String.class)))
+                .all();
+    }
+
+    /*
+    Страница справочника по ключу (name, id): следующая страница начинается строго после
+    последней строки предыдущей, поэтому запрос читает из индекса ix_users_name_id только
+    limit строк независимо от номера страницы. Префикс ищется по lower(name) без учета регистра,
+    символы % и _ в префиксе экранируются.
+    */
+    @Override
+    public Flux<UserDirectoryEntry> findUserDirectoryPage(String namePrefix, String afterName, Long afterId, int limit) {
+        StringBuilder query = new StringBuilder("SELECT id, login, name FROM users WHERE 1 = 1");
+        if (namePrefix != null) {
+            query.append(" AND lower(name) LIKE :pattern ESCAPE '\\'");
+        }
+        if (afterName != null) {
+            query.append(" AND (name > :afterName OR (name = :afterName AND id > :afterId))");
+        }
+        query.append(" ORDER BY name, id LIMIT :limit");
+
+        GenericExecuteSpec spec = databaseClient.sql(query.toString()).bind("limit", limit);
+        if (namePrefix != null) {
+            spec = spec.bind("pattern", escapeLike(namePrefix.toLowerCase()) + "%");
+        }
+        if (afterName != null) {
+            spec = spec.bind("afterName", afterName).bind("afterId", afterId);
+        }
+        return spec
+                .map((row, metadata) -> new UserDirectoryEntry(
+                        row.get("id", Long.class),
+                        row.get("login", String.class),
+                        row.get("name", String.class)))
+                .all();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
 }
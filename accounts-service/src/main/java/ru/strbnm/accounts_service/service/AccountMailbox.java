@@ -0,0 +1,227 @@
+package ru.strbnm.accounts_service.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import ru.strbnm.accounts_service.entity.Account;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+
+@Slf4j
+@Component
+public class AccountMailbox {
+
+  /*
+  Последовательная обработка изменений баланса внутри сервиса для "горячих" счетов.
+  - проводка попадает в одну из stripes очередей по id счета списания (или зачисления, если
+    списания нет): проверка достаточности средств выполняется в памяти, поэтому все списания
+    одного счета должны обрабатываться одной очередью;
+  - очередь без блокировок: пока идет запись предыдущей пачки, новые проводки накапливаются
+    и записываются следующей пачкой (не более batch-size);
+  - пачка проводится в одной транзакции: все затронутые счета блокируются в порядке возрастания id,
+    проводки применяются в памяти по порядку поступления (проводка, уводящая баланс в минус,
+    отклоняется), новые балансы записываются одним UPDATE, записи журнала (ledger_entries) -
+    одной вставкой, затем пишутся уведомления в outbox;
+  - если транзакция пачки откатилась (например, не удалась запись уведомления одной из проводок),
+    проводки пачки повторяются по одной в отдельных транзакциях, чтобы ошибка одной проводки
+    не отменяла проводки остальных вызывающих;
+  - каждый вызывающий получает свой результат: true - проведено, false - недостаточно средств.
+  */
+
+  private final AccountRepository accountRepository;
+  private final LedgerEntryRepository ledgerEntryRepository;
+  private final AccountTransferEngine accountTransferEngine;
+  private final int batchSize;
+  private final Stripe[] stripes;
+  private final DistributionSummary batchSizeSummary;
+
+  public AccountMailbox(
+      AccountRepository accountRepository,
+      LedgerEntryRepository ledgerEntryRepository,
+      AccountTransferEngine accountTransferEngine,
+      @Value("${application.accounts.mailbox.stripes:16}") int stripes,
+      @Value("${application.accounts.mailbox.batch-size:256}") int batchSize,
+      MeterRegistry meterRegistry) {
+    this.accountRepository = accountRepository;
+    this.ledgerEntryRepository = ledgerEntryRepository;
+    this.accountTransferEngine = accountTransferEngine;
+    this.batchSize = batchSize;
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.batchSizeSummary =
+        DistributionSummary.builder("accounts.mailbox.batch.size")
+            .description("Количество проводок, объединенных в одну запись балансов")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  // Списание (fromAccountId) и/или зачисление (toAccountId); afterApply выполняется в транзакции вместе
+  // с проводкой и вызывается повторно, если пачка была отменена
+  public Mono<Boolean> submit(
+      Long fromAccountId,
+      Long toAccountId,
+      BigDecimal debit,
+      BigDecimal credit,
+      Supplier<Mono<Void>> afterApply) {
+    Posting posting =
+        new Posting(fromAccountId, toAccountId, debit, credit, afterApply, Sinks.one());
+    Long key = fromAccountId != null ? fromAccountId : toAccountId;
+    stripes[Math.floorMod(key.hashCode(), stripes.length)].submit(posting);
+    return posting.result().asMono();
+  }
+
+  private Mono<List<Boolean>> apply(List<Posting> batch) {
+    return accountTransferEngine.inTransaction(
+        () -> {
+          TreeSet<Long> accountIds = new TreeSet<>();
+          for (Posting posting : batch) {
+            if (posting.fromAccountId() != null) accountIds.add(posting.fromAccountId());
+            if (posting.toAccountId() != null) accountIds.add(posting.toAccountId());
+          }
+          return accountRepository
+              .lockAccountsOrdered(List.copyOf(accountIds))
+              .collectMap(Account::getId, Account::getBalance)
+              .flatMap(
+                  balances -> {
+                    Map<Long, BigDecimal> changed = new HashMap<>();
+                    List<LedgerEntry> entries = new ArrayList<>();
+                    List<Boolean> outcomes = new ArrayList<>(batch.size());
+                    long createdAt = Instant.now().getEpochSecond();
+                    for (Posting posting : batch) {
+                      outcomes.add(applyInMemory(posting, balances, changed, entries, createdAt));
+                    }
+                    List<Supplier<Mono<Void>>> notifications = new ArrayList<>();
+                    for (int i = 0; i < batch.size(); i++) {
+                      if (outcomes.get(i)) notifications.add(batch.get(i).afterApply());
+                    }
+                    return accountRepository
+                        .updateBalances(changed)
+                        .then(ledgerEntryRepository.insertAll(entries))
+                        .thenMany(Flux.fromIterable(notifications))
+                        .concatMap(Supplier::get)
+                        .then(Mono.just(outcomes));
+                  });
+        });
+  }
+
+  private boolean applyInMemory(
+      Posting posting,
+      Map<Long, BigDecimal> balances,
+      Map<Long, BigDecimal> changed,
+      List<LedgerEntry> entries,
+      long createdAt) {
+    if ((posting.fromAccountId() != null && !balances.containsKey(posting.fromAccountId()))
+        || (posting.toAccountId() != null && !balances.containsKey(posting.toAccountId()))) {
+      return false;
+    }
+    if (posting.fromAccountId() != null) {
+      BigDecimal balance = balances.get(posting.fromAccountId());
+      if (balance.compareTo(posting.debit()) < 0) {
+        return false;
+      }
+      balances.put(posting.fromAccountId(), balance.subtract(posting.debit()));
+      changed.put(posting.fromAccountId(), balances.get(posting.fromAccountId()));
+    }
+    if (posting.toAccountId() != null) {
+      balances.put(posting.toAccountId(), balances.get(posting.toAccountId()).add(posting.credit()));
+      changed.put(posting.toAccountId(), balances.get(posting.toAccountId()));
+    }
+    entries.addAll(
+        LedgerEntry.forPosting(
+            posting.fromAccountId(),
+            posting.debit(),
+            balances.get(posting.fromAccountId()),
+            posting.toAccountId(),
+            posting.credit(),
+            balances.get(posting.toAccountId()),
+            createdAt));
+    return true;
+  }
+
+  private record Posting(
+      Long fromAccountId,
+      Long toAccountId,
+      BigDecimal debit,
+      BigDecimal credit,
+      Supplier<Mono<Void>> afterApply,
+      Sinks.One<Boolean> result) {}
+
+  private final class Stripe {
+    private final Queue<Posting> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    void submit(Posting posting) {
+      queue.offer(posting);
+      drain();
+    }
+
+    // Пачку записывает только один поток; остальные лишь добавляют проводки в очередь
+    private void drain() {
+      if (queue.isEmpty() || !running.compareAndSet(false, true)) {
+        return;
+      }
+      List<Posting> batch = new ArrayList<>();
+      Posting posting;
+      while (batch.size() < batchSize && (posting = queue.poll()) != null) {
+        batch.add(posting);
+      }
+      if (batch.isEmpty()) {
+        running.set(false);
+        drain();
+        return;
+      }
+      batchSizeSummary.record(batch.size());
+      // Запись выполняется вне потока вызывающего, чтобы он сразу вернулся и мог поставить следующую проводку
+      applyAndComplete(batch)
+          .subscribeOn(Schedulers.boundedElastic())
+          .doFinally(
+              signal -> {
+                running.set(false);
+                drain();
+              })
+          .subscribe();
+    }
+
+    // Откат пачки ничего не записал, поэтому ее проводки можно безопасно провести по одной
+    private Mono<Void> applyAndComplete(List<Posting> batch) {
+      return apply(batch)
+          .doOnNext(
+              outcomes -> {
+                for (int i = 0; i < batch.size(); i++) {
+                  batch.get(i).result().tryEmitValue(outcomes.get(i));
+                }
+              })
+          .then()
+          .onErrorResume(
+              e -> {
+                if (batch.size() == 1) {
+                  log.error("Ошибка при записи проводки", e);
+                  batch.get(0).result().tryEmitError(e);
+                  return Mono.empty();
+                }
+                log.warn("Пачка из {} проводок отменена, проводки повторяются по одной", batch.size(), e);
+                return Flux.fromIterable(batch).concatMap(p -> applyAndComplete(List.of(p))).then();
+              });
+    }
+  }
+}
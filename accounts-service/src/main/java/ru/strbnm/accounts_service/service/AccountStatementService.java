@@ -0,0 +1,75 @@
+package ru.strbnm.accounts_service.service;
+
+import java.util.List;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.domain.AccountCurrencyEnum;
+import ru.strbnm.accounts_service.domain.StatementEntry;
+import ru.strbnm.accounts_service.dto.AccountOwner;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+import ru.strbnm.accounts_service.exception.AccountNotFoundException;
+import ru.strbnm.accounts_service.exception.UserNotFoundException;
+import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+
+@Service
+public class AccountStatementService {
+
+  /*
+  Выписка по счету из журнала проводок ledger_entries.
+  - пользователь и счет проверяются до начала ответа, чтобы ошибка вернулась кодом 404;
+  - страница читается по индексу (account_id, id) от новых проводок к старым, курсор - id
+    последней полученной проводки;
+  - строки передаются из R2DBC в ответ по одной с учетом backpressure, страница в памяти не собирается.
+  */
+
+  private static final String NOT_FOUND_USER = "Пользователь с логином %s не существует";
+  private static final String NOT_FOUND_ACCOUNT = "У пользователя %s нет счета в валюте %s";
+
+  private final AccountRepository accountRepository;
+  private final LedgerEntryRepository ledgerEntryRepository;
+
+  public AccountStatementService(
+      AccountRepository accountRepository, LedgerEntryRepository ledgerEntryRepository) {
+    this.accountRepository = accountRepository;
+    this.ledgerEntryRepository = ledgerEntryRepository;
+  }
+
+  public Mono<Flux<StatementEntry>> getAccountStatement(
+      String login, AccountCurrencyEnum currency, Long before, int limit) {
+    return accountRepository
+        .findAccountOwnersByLogins(List.of(login))
+        .collectList()
+        .flatMap(
+            rows -> {
+              if (rows.isEmpty()) {
+                return Mono.error(new UserNotFoundException(String.format(NOT_FOUND_USER, login)));
+              }
+              return Mono.justOrEmpty(
+                      rows.stream()
+                          .filter(row -> currency.name().equals(row.currency()))
+                          .map(AccountOwner::accountId)
+                          .findFirst())
+                  .switchIfEmpty(
+                      Mono.error(
+                          new AccountNotFoundException(
+                              String.format(NOT_FOUND_ACCOUNT, login, currency.name()))));
+            })
+        .map(
+            accountId ->
+                ledgerEntryRepository
+                    .findStatementPage(accountId, before, limit)
+                    .map(AccountStatementService::toStatementEntry));
+  }
+
+  private static StatementEntry toStatementEntry(LedgerEntry entry) {
+    return new StatementEntry(
+        entry.getId(),
+        entry.getPostingId(),
+        StatementEntry.OperationEnum.fromValue(entry.getOperation()),
+        entry.getAmount(),
+        entry.getBalanceAfter(),
+        entry.getCreatedAt());
+  }
+}
@@ -0,0 +1,184 @@
+package ru.strbnm.accounts_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.R2dbcException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import ru.strbnm.accounts_service.entity.Account;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+
+@Slf4j
+@Component
+public class AccountTransferEngine {
+
+  /*
+  Проведение перевода между двумя счетами.
+  - оба счета блокируются одним SELECT ... FOR UPDATE в порядке возрастания id, поэтому
+    встречные переводы не образуют взаимную блокировку;
+  - обе проводки выполняются одним UPDATE с условием на баланс отправителя: если не обновлено ни одной
+    строки, средств недостаточно; записи журнала (ledger_entries) с балансами после проводки,
+    вычисленными по заблокированным строкам, - одной вставкой;
+  - транзакция выполняется на READ COMMITTED: согласованность обеспечивают блокировки строк;
+  - транзакция целиком повторяется с экспоненциальной задержкой со случайным разбросом,
+    если БД вернула ошибку сериализации (40001) или взаимной блокировки (40P01).
+  */
+
+  private static final Set<String> TRANSIENT_SQL_STATES = Set.of("40001", "40P01");
+
+  private final AccountRepository accountRepository;
+  private final LedgerEntryRepository ledgerEntryRepository;
+  private final TransactionalOperator transactionalOperator;
+  private final int maxRetries;
+  private final Duration retryBackoff;
+  private final Timer lockWaitTimer;
+  private final DistributionSummary retriesSummary;
+  private final MeterRegistry meterRegistry;
+
+  public AccountTransferEngine(
+      AccountRepository accountRepository,
+      LedgerEntryRepository ledgerEntryRepository,
+      ReactiveTransactionManager transactionManager,
+      @Value("${application.transfer.max-retries:5}") int maxRetries,
+      @Value("${application.transfer.retry-backoff:20ms}") Duration retryBackoff,
+      MeterRegistry meterRegistry) {
+    this.accountRepository = accountRepository;
+    this.ledgerEntryRepository = ledgerEntryRepository;
+    DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+    definition.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    this.transactionalOperator = TransactionalOperator.create(transactionManager, definition);
+    this.maxRetries = maxRetries;
+    this.retryBackoff = retryBackoff;
+    this.meterRegistry = meterRegistry;
+    this.lockWaitTimer =
+        Timer.builder("accounts.transfer.lock.wait")
+            .description("Время ожидания блокировки счетов при переводе")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.retriesSummary =
+        DistributionSummary.builder("accounts.transfer.retries")
+            .description("Количество повторов транзакции перевода из-за конфликтов")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  /*
+  Возвращает true, если перевод проведен, и false, если на счете отправителя недостаточно средств.
+  afterApply выполняется только для проведенного перевода в той же транзакции (запись в outbox).
+  */
+  public Mono<Boolean> transfer(
+      Long fromAccountId,
+      Long toAccountId,
+      BigDecimal debit,
+      BigDecimal credit,
+      Supplier<Mono<Void>> afterApply) {
+    return inTransaction(
+        () -> applyTransfer(fromAccountId, toAccountId, debit, credit, afterApply));
+  }
+
+  // Выполняет work в транзакции READ COMMITTED, повторяя ее целиком при конфликтах в БД
+  public <T> Mono<T> inTransaction(Supplier<Mono<T>> work) {
+    AtomicInteger attempts = new AtomicInteger();
+    return Mono.defer(
+            () -> {
+              attempts.incrementAndGet();
+              return work.get().as(transactionalOperator::transactional);
+            })
+        .retryWhen(
+            Retry.backoff(maxRetries, retryBackoff)
+                .jitter(0.5)
+                .filter(this::isTransient)
+                .doBeforeRetry(
+                    signal ->
+                        log.warn(
+                            "Конфликт транзакции по счетам, повтор {}",
+                            signal.totalRetries() + 1,
+                            signal.failure())))
+        .doFinally(signal -> retriesSummary.record(attempts.get() - 1));
+  }
+
+  private Mono<Boolean> applyTransfer(
+      Long fromAccountId,
+      Long toAccountId,
+      BigDecimal debit,
+      BigDecimal credit,
+      Supplier<Mono<Void>> afterApply) {
+    Timer.Sample lockWait = Timer.start(meterRegistry);
+    return accountRepository
+        .lockAccountsOrdered(List.of(fromAccountId, toAccountId))
+        .collectList()
+        .doOnNext(accounts -> lockWait.stop(lockWaitTimer))
+        .flatMap(
+            accounts -> {
+              Account fromAccount = findAccount(accounts, fromAccountId);
+              Account toAccount = findAccount(accounts, toAccountId);
+              if (fromAccount == null || toAccount == null) {
+                return Mono.error(
+                    new IllegalStateException(
+                        String.format(
+                            "Счета %s и %s не найдены при переводе", fromAccountId, toAccountId)));
+              }
+              return accountRepository
+                  .applyTransferLegs(fromAccountId, toAccountId, debit, credit)
+                  .flatMap(
+                      updated -> {
+                        if (updated == 0) {
+                          return Mono.just(false);
+                        }
+                        List<LedgerEntry> entries =
+                            LedgerEntry.forPosting(
+                                fromAccountId,
+                                debit,
+                                fromAccount.getBalance().subtract(debit),
+                                toAccountId,
+                                credit,
+                                toAccount.getBalance().add(credit),
+                                Instant.now().getEpochSecond());
+                        return ledgerEntryRepository
+                            .insertAll(entries)
+                            .then(Mono.defer(afterApply))
+                            .thenReturn(true);
+                      });
+            });
+  }
+
+  private static Account findAccount(List<Account> accounts, Long accountId) {
+    return accounts.stream()
+        .filter(account -> account.getId().equals(accountId))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private boolean isTransient(Throwable error) {
+    for (Throwable e = error; e != null; e = e.getCause()) {
+      if (e instanceof R2dbcException r2dbcException
+          && TRANSIENT_SQL_STATES.contains(r2dbcException.getSqlState())) {
+        Counter.builder("accounts.transfer.conflicts")
+            .description("Количество конфликтов транзакций перевода")
+            .tag("sqlstate", r2dbcException.getSqlState())
+            .register(meterRegistry)
+            .increment();
+        return true;
+      }
+    }
+    return false;
+  }
+}
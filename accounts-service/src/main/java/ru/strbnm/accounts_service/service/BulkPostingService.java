@@ -0,0 +1,417 @@
+package ru.strbnm.accounts_service.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.domain.*;
+import ru.strbnm.accounts_service.dto.AccountOwner;
+import ru.strbnm.accounts_service.entity.Account;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
+import ru.strbnm.accounts_service.entity.OutboxNotification;
+import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.IdempotencyKeyRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+import ru.strbnm.accounts_service.repository.OutboxNotificationRepository;
+
+@Slf4j
+@Service
+public class BulkPostingService {
+
+  /*
+  Пакетное проведение операций пополнения/снятия и переводов.
+  - пользователи и счета всех операций читаются одним запросом, операции с ошибками
+    (нет пользователя, счета, неположительная сумма) отклоняются до начала транзакции;
+  - в одной транзакции все затронутые счета блокируются в порядке возрастания id,
+    операции применяются в памяти в порядке запроса, новые балансы записываются одним UPDATE,
+    записи журнала (ledger_entries) и уведомления в outbox - по одной вставке;
+  - atomic=false: операция, уводящая баланс в минус, отклоняется, остальные проводятся;
+    atomic=true: любая ошибка отменяет весь пакет, балансы не изменяются.
+  Стоимость пакета - несколько запросов независимо от числа операций.
+  Операция с idempotencyKey проводится один раз: ключи читаются одним запросом вместе с владельцами
+  счетов, для уже выполненной операции возвращается сохраненный ответ, а ключи новых операций
+  записываются с ответами в транзакции проводок. Если в пакете нет ни одной проводки, балансы
+  не меняются и ключи не записываются.
+  */
+
+  private static final String NOT_FOUND_USER = "Пользователь с логином %s не существует";
+  private static final String NOT_ITSELF_ACCOUNT = "У Вас отсутствует счет в выбранной валюте";
+  private static final String INSUFFICIENT_FUNDS = "На счете недостаточно средств";
+
+  private final AccountRepository accountRepository;
+  private final LedgerEntryRepository ledgerEntryRepository;
+  private final OutboxNotificationRepository outboxNotificationRepository;
+  private final AccountTransferEngine accountTransferEngine;
+  private final UserProfileCache userProfileCache;
+  private final IdempotencyKeyRepository idempotencyKeyRepository;
+  private final IdempotencyService idempotencyService;
+  private final DistributionSummary batchSizeSummary;
+
+  public BulkPostingService(
+      AccountRepository accountRepository,
+      LedgerEntryRepository ledgerEntryRepository,
+      OutboxNotificationRepository outboxNotificationRepository,
+      AccountTransferEngine accountTransferEngine,
+      UserProfileCache userProfileCache,
+      IdempotencyKeyRepository idempotencyKeyRepository,
+      IdempotencyService idempotencyService,
+      MeterRegistry meterRegistry) {
+    this.accountRepository = accountRepository;
+    this.ledgerEntryRepository = ledgerEntryRepository;
+    this.outboxNotificationRepository = outboxNotificationRepository;
+    this.accountTransferEngine = accountTransferEngine;
+    this.userProfileCache = userProfileCache;
+    this.idempotencyKeyRepository = idempotencyKeyRepository;
+    this.idempotencyService = idempotencyService;
+    this.batchSizeSummary =
+        DistributionSummary.builder("accounts.bulk.postings.size")
+            .description("Количество операций в пакетном запросе")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  public Mono<BulkPostingResponse> apply(BulkPostingRequest request) {
+    List<PostingItem> items = request.getItems();
+    boolean atomic = Boolean.TRUE.equals(request.getAtomic());
+    batchSizeSummary.record(items.size());
+
+    Set<String> logins = new LinkedHashSet<>();
+    List<String> hashes = new ArrayList<>(items.size());
+    Set<String> keys = new HashSet<>();
+    for (PostingItem item : items) {
+      logins.add(item.getLogin());
+      if (item.getTransfer() != null) logins.add(item.getTransfer().getToLogin());
+      String hash = requestHash(item);
+      hashes.add(hash);
+      if (hash != null) keys.add(item.getIdempotencyKey());
+    }
+    Mono<Map<String, IdempotencyKey>> storedKeys =
+        keys.isEmpty()
+            ? Mono.just(Map.of())
+            : idempotencyKeyRepository.findAllById(keys).collectMap(IdempotencyKey::getIdempotencyKey);
+
+    return Mono.zip(accountRepository.findAccountOwnersByLogins(logins).collectList(), storedKeys)
+        .flatMap(
+            tuple -> {
+              Owners directory = new Owners(tuple.getT1());
+              Set<String> batchKeys = new HashSet<>();
+              List<Outcome> resolved = new ArrayList<>(items.size());
+              for (int i = 0; i < items.size(); i++) {
+                resolved.add(resolve(items.get(i), hashes.get(i), tuple.getT2(), batchKeys, directory));
+              }
+              if (atomic && resolved.stream().anyMatch(Rejected.class::isInstance)) {
+                return Mono.just(rejectAll(resolved));
+              }
+              if (resolved.stream().noneMatch(Leg.class::isInstance)) {
+                return Mono.just(toResponse(resolved));
+              }
+              return accountTransferEngine
+                  .inTransaction(() -> post(items, hashes, resolved, atomic))
+                  .onErrorResume(
+                      e -> {
+                        log.error("Ошибка при проведении пакета из {} операций", items.size(), e);
+                        return Mono.just(
+                            failAll(
+                                items.size(),
+                                "Ошибка при сохранении изменений по счетам. Операция отменена"));
+                      });
+            });
+  }
+
+  private String requestHash(PostingItem item) {
+    if (item.getIdempotencyKey() == null || item.getIdempotencyKey().isBlank()) {
+      return null;
+    }
+    return item.getCash() != null
+        ? idempotencyService.requestHash("cash", item.getLogin(), item.getCash())
+        : idempotencyService.requestHash("transfer", item.getLogin(), item.getTransfer());
+  }
+
+  // Исход операции по ключу идемпотентности (сохраненный ответ или отказ) не проводится и не записывается
+  private Outcome resolve(
+      PostingItem item,
+      String hash,
+      Map<String, IdempotencyKey> storedKeys,
+      Set<String> batchKeys,
+      Owners directory) {
+    if (hash == null) {
+      return directory.resolve(item);
+    }
+    String key = item.getIdempotencyKey();
+    if (!batchKeys.add(key)) {
+      return new Replayed(failed(List.of("Ключ " + key + " повторяется в пакете")));
+    }
+    IdempotencyKey stored = storedKeys.get(key);
+    if (stored == null) {
+      return directory.resolve(item);
+    }
+    if (!stored.getRequestHash().equals(hash)) {
+      return new Replayed(failed(List.of("Ключ " + key + " уже использован для другого запроса")));
+    }
+    return new Replayed(idempotencyService.storedResponse(stored));
+  }
+
+  private List<IdempotencyKey> completedKeys(
+      List<PostingItem> items, List<String> hashes, List<Outcome> outcomes) {
+    List<IdempotencyKey> keys = new ArrayList<>();
+    for (int i = 0; i < items.size(); i++) {
+      if (hashes.get(i) != null && !(outcomes.get(i) instanceof Replayed)) {
+        keys.add(
+            idempotencyService.completedKey(
+                items.get(i).getIdempotencyKey(), hashes.get(i), response(outcomes.get(i))));
+      }
+    }
+    return keys;
+  }
+
+  private Mono<BulkPostingResponse> post(
+      List<PostingItem> items, List<String> hashes, List<Outcome> resolved, boolean atomic) {
+    TreeSet<Long> accountIds = new TreeSet<>();
+    for (Outcome outcome : resolved) {
+      if (outcome instanceof Leg leg) {
+        if (leg.fromAccountId() != null) accountIds.add(leg.fromAccountId());
+        if (leg.toAccountId() != null) accountIds.add(leg.toAccountId());
+      }
+    }
+    return accountRepository
+        .lockAccountsOrdered(List.copyOf(accountIds))
+        .collectMap(Account::getId, Account::getBalance)
+        .flatMap(
+            balances -> {
+              Map<Long, BigDecimal> changed = new HashMap<>();
+              List<LedgerEntry> entries = new ArrayList<>();
+              List<Outcome> outcomes = new ArrayList<>(resolved.size());
+              long createdAt = Instant.now().getEpochSecond();
+              for (Outcome outcome : resolved) {
+                outcomes.add(
+                    outcome instanceof Leg leg
+                        ? applyInMemory(leg, balances, changed, entries, createdAt)
+                        : outcome);
+              }
+              if (atomic && outcomes.stream().anyMatch(Rejected.class::isInstance)) {
+                return Mono.just(rejectAll(outcomes));
+              }
+              List<Leg> applied =
+                  outcomes.stream().filter(Leg.class::isInstance).map(Leg.class::cast).toList();
+              List<OutboxNotification> notifications =
+                  applied.stream().flatMap(leg -> leg.notifications().stream()).toList();
+              Set<String> touchedLogins =
+                  applied.stream()
+                      .flatMap(leg -> leg.logins().stream())
+                      .collect(Collectors.toCollection(LinkedHashSet::new));
+              return accountRepository
+                  .updateBalances(changed)
+                  .then(ledgerEntryRepository.insertAll(entries))
+                  .then(outboxNotificationRepository.insertAll(notifications))
+                  .then(idempotencyKeyRepository.insertCompleted(completedKeys(items, hashes, outcomes)))
+                  .thenMany(Flux.fromIterable(touchedLogins))
+                  .concatMap(login -> userProfileCache.evictAfterCommit(login, false))
+                  .then(Mono.fromSupplier(() -> toResponse(outcomes)));
+            });
+  }
+
+  // Проводка, уводящая баланс в минус, отклоняется
+  private Outcome applyInMemory(
+      Leg leg,
+      Map<Long, BigDecimal> balances,
+      Map<Long, BigDecimal> changed,
+      List<LedgerEntry> entries,
+      long createdAt) {
+    if ((leg.fromAccountId() != null && !balances.containsKey(leg.fromAccountId()))
+        || (leg.toAccountId() != null && !balances.containsKey(leg.toAccountId()))) {
+      return new Rejected(List.of(NOT_ITSELF_ACCOUNT));
+    }
+    if (leg.fromAccountId() != null) {
+      BigDecimal balance = balances.get(leg.fromAccountId());
+      if (balance.compareTo(leg.debit()) < 0) {
+        return new Rejected(List.of(INSUFFICIENT_FUNDS));
+      }
+      balances.put(leg.fromAccountId(), balance.subtract(leg.debit()));
+      changed.put(leg.fromAccountId(), balances.get(leg.fromAccountId()));
+    }
+    if (leg.toAccountId() != null) {
+      balances.put(leg.toAccountId(), balances.get(leg.toAccountId()).add(leg.credit()));
+      changed.put(leg.toAccountId(), balances.get(leg.toAccountId()));
+    }
+    entries.addAll(
+        LedgerEntry.forPosting(
+            leg.fromAccountId(),
+            leg.debit(),
+            balances.get(leg.fromAccountId()),
+            leg.toAccountId(),
+            leg.credit(),
+            balances.get(leg.toAccountId()),
+            createdAt));
+    return leg;
+  }
+
+  private BulkPostingResponse rejectAll(List<Outcome> outcomes) {
+    return new BulkPostingResponse(
+        outcomes.stream()
+            .map(
+                outcome ->
+                    outcome instanceof Leg
+                        ? failed(
+                            List.of(
+                                "Пакет отменен из-за ошибки в другой операции. Операция не проведена"))
+                        : response(outcome))
+            .toList());
+  }
+
+  private BulkPostingResponse failAll(int size, String error) {
+    List<AccountOperationResponse> results = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      results.add(failed(List.of(error)));
+    }
+    return new BulkPostingResponse(results);
+  }
+
+  private BulkPostingResponse toResponse(List<Outcome> outcomes) {
+    return new BulkPostingResponse(outcomes.stream().map(BulkPostingService::response).toList());
+  }
+
+  private static AccountOperationResponse response(Outcome outcome) {
+    if (outcome instanceof Rejected rejected) {
+      return failed(rejected.errors());
+    }
+    if (outcome instanceof Replayed replayed) {
+      return replayed.response();
+    }
+    return new AccountOperationResponse(AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of());
+  }
+
+  private static AccountOperationResponse failed(List<String> errors) {
+    return new AccountOperationResponse(AccountOperationResponse.OperationStatusEnum.FAILED, errors);
+  }
+
+  private static OutboxNotification notification(AccountOwner owner, String message) {
+    return OutboxNotification.builder()
+        .userId(owner.userId())
+        .email(owner.email())
+        .message(message)
+        .createdAt(Instant.now().getEpochSecond())
+        .build();
+  }
+
+  private sealed interface Outcome permits Leg, Rejected, Replayed {}
+
+  // Проводка одной операции: списание и/или зачисление, уведомления и логины для сброса кэша
+  private record Leg(
+      Long fromAccountId,
+      Long toAccountId,
+      BigDecimal debit,
+      BigDecimal credit,
+      List<OutboxNotification> notifications,
+      List<String> logins)
+      implements Outcome {}
+
+  private record Rejected(List<String> errors) implements Outcome {}
+
+  private record Replayed(AccountOperationResponse response) implements Outcome {}
+
+  private static final class Owners {
+    private final Map<String, AccountOwner> users = new HashMap<>();
+    private final Map<String, Long> accounts = new HashMap<>();
+
+    Owners(List<AccountOwner> rows) {
+      for (AccountOwner row : rows) {
+        users.putIfAbsent(row.login(), row);
+        if (row.accountId() != null) {
+          accounts.put(row.login() + ":" + row.currency(), row.accountId());
+        }
+      }
+    }
+
+    private Long account(String login, AccountCurrencyEnum currency) {
+      return accounts.get(login + ":" + currency.name());
+    }
+
+    Outcome resolve(PostingItem item) {
+      if ((item.getCash() == null) == (item.getTransfer() == null)) {
+        return new Rejected(List.of("Операция должна содержать ровно одно из полей cash или transfer"));
+      }
+      AccountOwner user = users.get(item.getLogin());
+      if (user == null) {
+        return new Rejected(List.of(String.format(NOT_FOUND_USER, item.getLogin())));
+      }
+      return item.getCash() != null
+          ? resolveCash(user, item.getCash())
+          : resolveTransfer(user, item.getTransfer());
+    }
+
+    private Outcome resolveCash(AccountOwner user, CashRequest cash) {
+      if (cash.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+        return new Rejected(List.of("Сумма должна быть положительной"));
+      }
+      Long accountId = account(user.login(), cash.getCurrency());
+      if (accountId == null) {
+        return new Rejected(List.of(NOT_ITSELF_ACCOUNT));
+      }
+      boolean withdrawal = cash.getAction() == CashRequest.ActionEnum.GET;
+      return new Leg(
+          withdrawal ? accountId : null,
+          withdrawal ? null : accountId,
+          cash.getAmount(),
+          cash.getAmount(),
+          List.of(notification(user, UserServiceImpl.cashOperationMessage(cash))),
+          List.of(user.login()));
+    }
+
+    private Outcome resolveTransfer(AccountOwner sender, TransferRequest transfer) {
+      AccountOwner recipient = users.get(transfer.getToLogin());
+      if (recipient == null) {
+        return new Rejected(List.of(String.format(NOT_FOUND_USER, transfer.getToLogin())));
+      }
+      boolean itself = sender.login().equals(recipient.login());
+      if (itself && transfer.getFromCurrency() == transfer.getToCurrency()) {
+        return new Rejected(List.of("Перевести можно только между разными счетами"));
+      }
+      if (transfer.getFromAmount().compareTo(BigDecimal.ZERO) <= 0
+          || transfer.getToAmount().compareTo(BigDecimal.ZERO) <= 0) {
+        return new Rejected(List.of("Сумма должна быть положительной"));
+      }
+      Long fromAccountId = account(sender.login(), transfer.getFromCurrency());
+      if (fromAccountId == null) {
+        return new Rejected(List.of(NOT_ITSELF_ACCOUNT));
+      }
+      Long toAccountId = account(recipient.login(), transfer.getToCurrency());
+      if (toAccountId == null) {
+        return new Rejected(List.of(
+            itself
+                ? NOT_ITSELF_ACCOUNT
+                : String.format(
+                    "У клиента %s отсутствует счет в выбранной валюте", recipient.name())));
+      }
+      List<OutboxNotification> notifications =
+          itself
+              ? List.of(notification(sender, UserServiceImpl.transferItselfMessage(transfer)))
+              : List.of(
+                  notification(
+                      sender, UserServiceImpl.transferSenderMessage(transfer, recipient.name())),
+                  notification(
+                      recipient,
+                      UserServiceImpl.transferRecipientMessage(transfer, sender.name())));
+      return new Leg(
+          fromAccountId,
+          toAccountId,
+          transfer.getFromAmount(),
+          transfer.getToAmount(),
+          notifications,
+          itself ? List.of(sender.login()) : List.of(sender.login(), recipient.login()));
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package ru.strbnm.accounts_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+import ru.strbnm.accounts_service.domain.AccountOperationResponse;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+import ru.strbnm.accounts_service.exception.IdempotencyKeyConflictException;
+import ru.strbnm.accounts_service.repository.IdempotencyKeyRepository;
+
+@Slf4j
+@Service
+public class IdempotencyService {
+
+  /*
+  Дедупликация операций по заголовку Idempotency-Key (cash-service передает id CashTransactionInfo,
+  transfer-service - id TransferTransactionInfo), чтобы повтор запроса WebClient после уже
+  зафиксированной операции не изменил баланс второй раз.
+  - повтор с уже записанным ключом получает сохраненный ответ без выполнения, с другим телом
+    запроса - отказ с кодом 409;
+  - ключ с хэшем запроса и ответом вставляется в той же транзакции, что и изменение баланса
+    (recordingKey), поэтому ключ и проводка фиксируются или откатываются вместе: отмена запроса
+    или таймаут после фиксации не оставляют ключ без ответа, а ошибка до фиксации - ключ без проводки;
+  - одновременный повтор блокируется на первичном ключе до фиксации первой попытки, его транзакция
+    откатывается, и он получает ответ первой попытки;
+  - отклоненная операция (недостаточно средств, нет счета) баланс не меняет, ключ для нее
+    не записывается и повтор выполняется заново;
+  - строки старше ttl удаляются фоновой задачей раз в cleanup-interval.
+  Операции пакета (BulkPostingService) записывают ключ так же в транзакции проводок,
+  хэш запроса вычисляется так же, поэтому ключ одинаково защищает одиночный и пакетный вызов.
+  Суммы хэшируются без учета масштаба: повтор, собранный из столбцов DECIMAL(19,4) (1000.0000),
+  совпадает с исходным запросом (1000.0).
+  */
+
+  private static final AccountOperationResponse APPLIED_RESPONSE =
+      new AccountOperationResponse(AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of());
+
+  private final IdempotencyKeyRepository idempotencyKeyRepository;
+  private final ObjectMapper objectMapper;
+  private final Duration ttl;
+  private final Duration cleanupInterval;
+  private final Counter replayCounter;
+  private Disposable cleanupTask;
+
+  public IdempotencyService(
+      IdempotencyKeyRepository idempotencyKeyRepository,
+      ObjectMapper objectMapper,
+      @Value("${application.accounts.idempotency.ttl:24h}") Duration ttl,
+      @Value("${application.accounts.idempotency.cleanup-interval:1h}") Duration cleanupInterval,
+      MeterRegistry meterRegistry) {
+    this.idempotencyKeyRepository = idempotencyKeyRepository;
+    this.objectMapper = objectMapper;
+    this.ttl = ttl;
+    this.cleanupInterval = cleanupInterval;
+    this.replayCounter =
+        Counter.builder("accounts.idempotency.replays")
+            .description("Количество повторных запросов, получивших сохраненный ответ")
+            .register(meterRegistry);
+  }
+
+  public Mono<AccountOperationResponse> execute(
+      String idempotencyKey,
+      String operation,
+      String login,
+      Object request,
+      Supplier<Mono<AccountOperationResponse>> action) {
+    if (idempotencyKey == null || idempotencyKey.isBlank()) {
+      return Mono.defer(action);
+    }
+    PendingKey pending = new PendingKey(idempotencyKey, requestHash(operation, login, request));
+    return replay(pending).switchIfEmpty(Mono.defer(() -> executeOnce(pending, action)));
+  }
+
+  private Mono<AccountOperationResponse> executeOnce(
+      PendingKey pending, Supplier<Mono<AccountOperationResponse>> action) {
+    return Mono.defer(action)
+        .contextWrite(Context.of(PendingKey.class, pending))
+        .flatMap(
+            response ->
+                response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS
+                    ? Mono.just(response)
+                    // Проводка могла откатиться из-за ключа, записанного одновременным повтором
+                    : replay(pending).defaultIfEmpty(response));
+  }
+
+  /*
+  Дополняет действие, выполняемое в транзакции проводки после изменения баланса, записью ключа
+  с ответом об успешной операции. Ключ передается из execute() через контекст Reactor и берется
+  при вызове, поэтому запись работает и для проводок, которые AccountMailbox выполняет вне цепочки запроса.
+  */
+  public Supplier<Mono<Void>> recordingKey(ContextView context, Supplier<Mono<Void>> afterApply) {
+    PendingKey pending = context.getOrDefault(PendingKey.class, null);
+    if (pending == null) {
+      return afterApply;
+    }
+    return () ->
+        Mono.defer(afterApply)
+            .then(
+                Mono.fromCallable(
+                    () -> completedKey(pending.idempotencyKey(), pending.requestHash(), APPLIED_RESPONSE)))
+            .flatMap(key -> idempotencyKeyRepository.insertCompleted(List.of(key)))
+            .then();
+  }
+
+  private Mono<AccountOperationResponse> replay(PendingKey pending) {
+    return idempotencyKeyRepository
+        .findById(pending.idempotencyKey())
+        .flatMap(
+            stored -> {
+              if (!stored.getRequestHash().equals(pending.requestHash())) {
+                return Mono.error(
+                    new IdempotencyKeyConflictException(
+                        "Ключ " + pending.idempotencyKey() + " уже использован для другого запроса"));
+              }
+              replayCounter.increment();
+              log.info(
+                  "Повторный запрос с ключом {}, возвращается сохраненный ответ",
+                  pending.idempotencyKey());
+              return Mono.fromCallable(() -> storedResponse(stored));
+            });
+  }
+
+  public Mono<Long> deleteExpired() {
+    return idempotencyKeyRepository.deleteCreatedBefore(
+        Instant.now().minus(ttl).getEpochSecond());
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleCleanup() {
+    cleanupTask =
+        Flux.interval(cleanupInterval, cleanupInterval)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    deleteExpired()
+                        .doOnNext(deleted -> log.debug("Удалено ключей идемпотентности: {}", deleted))
+                        .doOnError(e -> log.error("Ошибка при удалении ключей идемпотентности", e))
+                        .onErrorComplete())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (cleanupTask != null) {
+      cleanupTask.dispose();
+    }
+  }
+
+  public IdempotencyKey completedKey(
+      String idempotencyKey, String requestHash, AccountOperationResponse response) {
+    try {
+      return IdempotencyKey.builder()
+          .idempotencyKey(idempotencyKey)
+          .requestHash(requestHash)
+          .response(objectMapper.writeValueAsString(response))
+          .createdAt(Instant.now().getEpochSecond())
+          .build();
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Не удалось сохранить ответ операции", e);
+    }
+  }
+
+  public AccountOperationResponse storedResponse(IdempotencyKey key) {
+    try {
+      return objectMapper.readValue(key.getResponse(), AccountOperationResponse.class);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Не удалось прочитать сохраненный ответ операции", e);
+    }
+  }
+
+  public String requestHash(String operation, String login, Object request) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update((operation + ":" + login + ":").getBytes(StandardCharsets.UTF_8));
+      digest.update(objectMapper.writeValueAsBytes(canonical(objectMapper.valueToTree(request))));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+      throw new IllegalStateException("Не удалось вычислить хэш запроса", e);
+    }
+  }
+
+  // Числа приводятся к одной записи без незначащих нулей и экспоненты: 1000.0, 1000.0000 и 1E+3 совпадают
+  private static JsonNode canonical(JsonNode node) {
+    if (node.isNumber()) {
+      return DecimalNode.valueOf(new BigDecimal(node.decimalValue().stripTrailingZeros().toPlainString()));
+    }
+    if (node.isObject()) {
+      ObjectNode copy = ((ObjectNode) node).objectNode();
+      node.fields().forEachRemaining(field -> copy.set(field.getKey(), canonical(field.getValue())));
+      return copy;
+    }
+    if (node.isArray()) {
+      ArrayNode copy = ((ArrayNode) node).arrayNode();
+      node.forEach(element -> copy.add(canonical(element)));
+      return copy;
+    }
+    return node;
+  }
+
+  private record PendingKey(String idempotencyKey, String requestHash) {}
+}
@@ -0,0 +1,125 @@
+package ru.strbnm.accounts_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.dto.LedgerCheckpointDelta;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
+
+@Slf4j
+@Component
+public class LedgerCheckpointer {
+
+  /*
+  Фоновая сверка материализованных балансов (accounts.balance) с журналом ledger_entries.
+  - для каждого счета хранится контрольная точка (ledger_checkpoints): id последней проверенной записи
+    и сумма журнала до нее, поэтому каждый запуск суммирует только новые записи;
+  - проверяется, что сумма журнала совпадает с balance_after последней записи, а balance_after -
+    с текущим балансом счета; расхождения пишутся в лог и в счетчик accounts.ledger.mismatches;
+  - записи одного счета вставляются под блокировкой его строки, поэтому их id растут в порядке
+    фиксации. Между счетами порядок не гарантирован, поэтому нижняя граница просмотра (watermark)
+    сдвигается только до записей старше settle-delay, а повторный просмотр отсекается точкой счета.
+  */
+
+  private final LedgerEntryRepository ledgerEntryRepository;
+  private final Duration interval;
+  private final Duration settleDelay;
+  private final Counter mismatchCounter;
+  private final Counter checkedCounter;
+  private final AtomicLong watermark = new AtomicLong();
+  private Disposable checkpointTask;
+
+  public LedgerCheckpointer(
+      LedgerEntryRepository ledgerEntryRepository,
+      @Value("${application.accounts.ledger.checkpoint-interval:1m}") Duration interval,
+      @Value("${application.accounts.ledger.settle-delay:1m}") Duration settleDelay,
+      MeterRegistry meterRegistry) {
+    this.ledgerEntryRepository = ledgerEntryRepository;
+    this.interval = interval;
+    this.settleDelay = settleDelay;
+    this.mismatchCounter =
+        Counter.builder("accounts.ledger.mismatches")
+            .description("Количество расхождений баланса счета с журналом проводок")
+            .register(meterRegistry);
+    this.checkedCounter =
+        Counter.builder("accounts.ledger.checked.accounts")
+            .description("Количество счетов, сверенных с журналом проводок")
+            .register(meterRegistry);
+  }
+
+  // Возвращает количество счетов с расхождениями
+  public Mono<Integer> checkpoint() {
+    long now = Instant.now().getEpochSecond();
+    long fromEntryId = watermark.get();
+    return ledgerEntryRepository
+        .findMaxEntryIdCreatedBefore(now - settleDelay.toSeconds())
+        .flatMap(
+            settledEntryId ->
+                ledgerEntryRepository
+                    .findUncheckedDeltas(fromEntryId)
+                    .concatMap(delta -> verify(delta, now))
+                    .reduce(0, Integer::sum)
+                    .doOnSuccess(
+                        mismatches -> watermark.accumulateAndGet(settledEntryId, Math::max)));
+  }
+
+  private Mono<Integer> verify(LedgerCheckpointDelta delta, long checkedAt) {
+    checkedCounter.increment();
+    boolean chainBroken = delta.ledgerSum().compareTo(delta.ledgerBalanceAfter()) != 0;
+    // Счет удаляется только с нулевым балансом, для удаленного счета сверяется только журнал
+    boolean balanceDiffers =
+        delta.accountBalance() != null
+            && delta.accountBalance().compareTo(delta.ledgerBalanceAfter()) != 0;
+    if (chainBroken || balanceDiffers) {
+      mismatchCounter.increment();
+      log.error(
+          "Расхождение по счету {}: сумма журнала {}, баланс после записи {} - {}, баланс счета {}",
+          delta.accountId(),
+          delta.ledgerSum(),
+          delta.lastEntryId(),
+          delta.ledgerBalanceAfter(),
+          delta.accountBalance());
+    }
+    int mismatch = chainBroken || balanceDiffers ? 1 : 0;
+    return ledgerEntryRepository
+        .saveCheckpoint(delta, checkedAt)
+        .thenReturn(mismatch)
+        .onErrorResume(
+            e -> {
+              // Точку уже сохранила другая реплика; счет будет сверен при следующем запуске
+              log.warn("Не удалось сохранить контрольную точку счета {}", delta.accountId(), e);
+              return Mono.just(mismatch);
+            });
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleCheckpoints() {
+    checkpointTask =
+        Flux.interval(interval, interval)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    checkpoint()
+                        .doOnError(e -> log.error("Ошибка при сверке балансов с журналом", e))
+                        .onErrorComplete())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (checkpointTask != null) {
+      checkpointTask.dispose();
+    }
+  }
+}
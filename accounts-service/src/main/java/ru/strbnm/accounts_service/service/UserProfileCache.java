@@ -0,0 +1,161 @@
+package ru.strbnm.accounts_service.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.accounts_service.domain.UserDetailResponse;
+import ru.strbnm.accounts_service.domain.UserListResponseInner;
+import ru.strbnm.kafka.dto.UserCacheInvalidationMessage;
+
+@Slf4j
+@Component
+public class UserProfileCache {
+
+  /*
+  Кэш профилей пользователей (getUserByLogin) и списка пользователей (getUserList).
+  - размер ограничен max-size записями, запись вытесняется через ttl после загрузки;
+  - одновременные промахи по одному логину выполняют один запрос к БД;
+  - записи сбрасываются после фиксации транзакции, изменившей пользователя или его счета,
+    чтобы параллельное чтение не вернуло в кэш данные до изменения;
+  - о сбросе сообщается другим репликам через топик accounts-cache-invalidation
+    (UserProfileCacheInvalidationListener, без группы потребителей), при потере сообщения
+    устаревание ограничено ttl;
+  - профиль хранится вместе с хешем пароля (front-ui проверяет по нему вход), поэтому попадание
+    не обращается к БД; смена пароля сбрасывает запись, как и другие изменения пользователя.
+    Вызывающий получает копию, объект из кэша наружу не передается.
+  */
+
+  public static final String TOPIC = "accounts-cache-invalidation";
+  // Все сообщения сброса идут в одну партицию, которую каждая реплика назначает себе вручную
+  public static final int PARTITION = 0;
+  private static final String USER_LIST_KEY = "all";
+
+  private final AsyncCache<String, UserDetailResponse> profiles;
+  private final AsyncCache<String, List<UserListResponseInner>> userList;
+  private final KafkaTemplate<String, UserCacheInvalidationMessage> kafkaTemplate;
+  private final String instanceId = UUID.randomUUID().toString();
+
+  public UserProfileCache(
+      KafkaTemplate<String, UserCacheInvalidationMessage> kafkaTemplate,
+      @Value("${application.accounts.cache.max-size:10000}") long maxSize,
+      @Value("${application.accounts.cache.ttl:5m}") Duration ttl,
+      MeterRegistry meterRegistry) {
+    this.kafkaTemplate = kafkaTemplate;
+    this.profiles =
+        Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().buildAsync();
+    this.userList =
+        Caffeine.newBuilder().maximumSize(1).expireAfterWrite(ttl).recordStats().buildAsync();
+    // Метрики cache.gets (hit/miss), cache.evictions, cache.size с тегом cache
+    CaffeineCacheMetrics.monitor(meterRegistry, profiles, "accounts.user.profile");
+    CaffeineCacheMetrics.monitor(meterRegistry, userList, "accounts.user.list");
+  }
+
+  public Mono<UserDetailResponse> getProfile(
+      String login, Function<String, Mono<UserDetailResponse>> loader) {
+    // Ошибка загрузки (например, пользователь не найден) в кэше не сохраняется
+    return Mono.fromFuture(
+            () ->
+                profiles.get(
+                    login,
+                    (key, executor) -> loader.apply(key).map(UserProfileCache::copyOf).toFuture()),
+            true)
+        .map(UserProfileCache::copyOf);
+  }
+
+  private static UserDetailResponse copyOf(UserDetailResponse profile) {
+    UserDetailResponse copy =
+        new UserDetailResponse(
+            profile.getLogin(),
+            profile.getPassword(),
+            profile.getName(),
+            profile.getEmail(),
+            profile.getBirthdate(),
+            profile.getRoles());
+    copy.setAccounts(profile.getAccounts());
+    return copy;
+  }
+
+  public Flux<UserListResponseInner> getUserList(Supplier<Flux<UserListResponseInner>> loader) {
+    return Mono.fromFuture(
+            () -> userList.get(USER_LIST_KEY, (key, executor) -> loader.get().collectList().toFuture()),
+            true)
+        .flatMapIterable(Function.identity());
+  }
+
+  // Сброс после фиксации текущей транзакции; вне транзакции - сразу
+  public Mono<Void> evictAfterCommit(String login, boolean userListChanged) {
+    return TransactionSynchronizationManager.forCurrentTransaction()
+        .filter(TransactionSynchronizationManager::isSynchronizationActive)
+        .doOnNext(
+            synchronizationManager ->
+                synchronizationManager.registerSynchronization(
+                    new TransactionSynchronization() {
+                      @Override
+                      public Mono<Void> afterCommit() {
+                        return Mono.fromRunnable(() -> evictAndPublish(login, userListChanged));
+                      }
+                    }))
+        .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+        .switchIfEmpty(Mono.fromRunnable(() -> evictAndPublish(login, userListChanged)))
+        .then();
+  }
+
+  // Сообщение от другой реплики; собственные сообщения пропускаются, кэш уже сброшен
+  public void onInvalidation(UserCacheInvalidationMessage message) {
+    if (!instanceId.equals(message.getInstanceId())) {
+      evictLocal(message.getLogin(), message.isUserListChanged());
+    }
+  }
+
+  public void invalidateAll() {
+    profiles.synchronous().invalidateAll();
+    userList.synchronous().invalidateAll();
+  }
+
+  private void evictAndPublish(String login, boolean userListChanged) {
+    evictLocal(login, userListChanged);
+    UserCacheInvalidationMessage message =
+        UserCacheInvalidationMessage.builder()
+            .login(login)
+            .userListChanged(userListChanged)
+            .instanceId(instanceId)
+            .build();
+    // Ответ клиенту не ждет брокера: при ошибке отправки другие реплики обновятся по ttl
+    try {
+      kafkaTemplate
+          .send(TOPIC, PARTITION, login, message)
+          .whenComplete(
+              (result, e) -> {
+                if (e != null) {
+                  log.warn("Не удалось отправить сброс кэша пользователя {}", login, e);
+                }
+              });
+    } catch (Exception e) {
+      log.warn("Не удалось отправить сброс кэша пользователя {}", login, e);
+    }
+  }
+
+  private void evictLocal(String login, boolean userListChanged) {
+    if (login != null) {
+      profiles.synchronous().invalidate(login);
+    }
+    if (userListChanged) {
+      userList.synchronous().invalidate(USER_LIST_KEY);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package ru.strbnm.accounts_service.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Component;
+import ru.strbnm.kafka.dto.UserCacheInvalidationMessage;
+
+@Slf4j
+@Profile("!contracts")
+@Component
+public class UserProfileCacheInvalidationListener {
+
+  /*
+  Каждая реплика читает топик без группы потребителей: партиция UserProfileCache.PARTITION, в которую
+  отправляются все сообщения сброса, назначается вручную, смещения не фиксируются
+  (cacheInvalidationContainerFactory). Поэтому сброс получают все реплики, а выкладка не оставляет
+  в брокере группу на каждый под, как при группе, названной по имени реплики. Чтение начинается
+  с конца топика: после запуска кэш реплики пуст, и пропущенные сообщения ей не нужны.
+  */
+
+  private final UserProfileCache userProfileCache;
+
+  public UserProfileCacheInvalidationListener(UserProfileCache userProfileCache) {
+    this.userProfileCache = userProfileCache;
+  }
+
+  @KafkaListener(
+      topicPartitions =
+          @TopicPartition(topic = UserProfileCache.TOPIC, partitions = "" + UserProfileCache.PARTITION),
+      containerFactory = "cacheInvalidationContainerFactory",
+      properties = "auto.offset.reset=latest")
+  public void listen(UserCacheInvalidationMessage message) {
+    log.debug("Сброс кэша пользователя по сообщению {}", message);
+    userProfileCache.onInvalidation(message);
+  }
+}
@@ -9,7 +9,9 @@ public interface UserService {
     Mono<AccountOperationResponse> createUser(UserRequest userRequest);
     Mono<AccountOperationResponse> updateUser(UserRequest userRequest);
     Flux<UserListResponseInner> getUserList();
+    Mono<UserDirectoryPage> getUserDirectory(String prefix, String cursor, int limit);
     Mono<UserDetailResponse> getUserByLogin(String login);
+    Mono<UserContact> getUserContact(String login);
     Mono<AccountOperationResponse> updateUserPassword(UserPasswordRequest userPasswordRequest);
 
     // Операции со счетами пользователей
@@ -1,18 +1,19 @@
 package ru.strbnm.accounts_service.service;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
-import org.springframework.kafka.support.SendResult;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
@@ -22,13 +23,13 @@ import reactor.core.scheduler.Schedulers;
 import reactor.util.function.Tuple2;
 import ru.strbnm.accounts_service.domain.*;
 import ru.strbnm.accounts_service.dto.AccountCheckResult;
+import ru.strbnm.accounts_service.dto.UserDirectoryEntry;
 import ru.strbnm.accounts_service.entity.*;
 import ru.strbnm.accounts_service.exception.AccountNotFoundForCurrencyException;
 import ru.strbnm.accounts_service.exception.UserAlreadyExistsException;
 import ru.strbnm.accounts_service.exception.UserNotFoundException;
 import ru.strbnm.accounts_service.mapper.UserMapper;
 import ru.strbnm.accounts_service.repository.*;
-import ru.strbnm.kafka.dto.NotificationMessage;
 
 @Slf4j
 @Service
@@ -47,7 +48,13 @@ public class UserServiceImpl implements UserService {
   private final String NOT_ITSELF_ACCOUNT = "У Вас отсутствует счет в выбранной валюте";
   private final String NOT_FOUND_USER = "Пользователь с логином %s не существует";
 
-  private final KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private final OutboxNotificationRepository outboxNotificationRepository;
+  private final AccountTransferEngine accountTransferEngine;
+  private final AccountMailbox accountMailbox;
+  private final boolean mailboxEnabled;
+  private final UserProfileCache userProfileCache;
+  private final LedgerEntryRepository ledgerEntryRepository;
+  private final IdempotencyService idempotencyService;
 
   @Autowired
   public UserServiceImpl(
@@ -55,13 +62,26 @@ public class UserServiceImpl implements UserService {
           RoleRepository roleRepository,
           UserRoleRepository userRoleRepository,
           AccountRepository accountRepository,
-          UserMapper userMapper, KafkaTemplate<String, NotificationMessage> kafkaTemplate) {
+          UserMapper userMapper,
+          OutboxNotificationRepository outboxNotificationRepository,
+          AccountTransferEngine accountTransferEngine,
+          AccountMailbox accountMailbox,
+          @Value("${application.accounts.mailbox.enabled:false}") boolean mailboxEnabled,
+          UserProfileCache userProfileCache,
+          LedgerEntryRepository ledgerEntryRepository,
+          IdempotencyService idempotencyService) {
     this.userRepository = userRepository;
     this.roleRepository = roleRepository;
     this.userRoleRepository = userRoleRepository;
     this.accountRepository = accountRepository;
     this.userMapper = userMapper;
-      this.kafkaTemplate = kafkaTemplate;
+    this.outboxNotificationRepository = outboxNotificationRepository;
+    this.accountTransferEngine = accountTransferEngine;
+    this.accountMailbox = accountMailbox;
+    this.mailboxEnabled = mailboxEnabled;
+    this.userProfileCache = userProfileCache;
+    this.ledgerEntryRepository = ledgerEntryRepository;
+    this.idempotencyService = idempotencyService;
   }
 
   @Transactional(isolation = Isolation.REPEATABLE_READ)
@@ -94,6 +114,7 @@ public class UserServiceImpl implements UserService {
                                             user.getId(),
                                             user.getEmail(),
                                             "Вы успешно зарегистрированы.")
+                                        .then(userProfileCache.evictAfterCommit(null, true))
                                         .then(
                                             getAccountOperationResponse(
                                                 AccountOperationResponse.OperationStatusEnum
@@ -158,24 +179,17 @@ public class UserServiceImpl implements UserService {
                     .thenReturn(savedUser));
   }
 
+  // Уведомление сохраняется в outbox в текущей транзакции, в Kafka его отправляет OutboxNotificationRelay
   private Mono<Void> sendNotification(Long userId, String email, String message) {
-    NotificationMessage notificationMessage =
-        NotificationMessage.builder()
+    OutboxNotification notification =
+        OutboxNotification.builder()
+            .userId(userId)
             .email(email)
             .message(message)
-            .application("accounts-service")
+            .createdAt(Instant.now().getEpochSecond())
             .build();
-    log.info("sendNotification: {}", notificationMessage);
-    return Mono.fromFuture(() ->
-                    kafkaTemplate.send("notifications", notificationMessage)
-            )
-            .doOnSuccess(result -> {
-              RecordMetadata metadata = result.getRecordMetadata();
-              log.info("Сообщение отправлено. Topic = {}, partition = {}, offset = {}",
-                      metadata.topic(), metadata.partition(), metadata.offset());
-            })
-            .doOnError(e -> log.error("Ошибка при отправке сообщения", e))
-            .then(); // Mono<Void>
+    log.info("sendNotification: {}", notification);
+    return outboxNotificationRepository.save(notification).then();
   }
 
   private Mono<AccountOperationResponse> getAccountOperationResponse(
@@ -197,9 +211,14 @@ public class UserServiceImpl implements UserService {
                     .flatMap(
                         AccountOperationResponse ->
                             sendNotificationAfterUpdate(
-                                AccountOperationResponse,
-                                existingUser.getEmail(),
-                                existingUser.getId())));
+                                    AccountOperationResponse,
+                                    existingUser.getEmail(),
+                                    existingUser.getId())
+                                .flatMap(
+                                    response ->
+                                        userProfileCache
+                                            .evictAfterCommit(existingUser.getLogin(), true)
+                                            .thenReturn(response))));
   }
 
   private Mono<AccountOperationResponse> sendNotificationAfterUpdate(
@@ -218,30 +237,83 @@ public class UserServiceImpl implements UserService {
     return sendNotification(userId, email, msg.toString()).thenReturn(AccountOperationResponse);
   }
 
+  // Чтения идут через UserProfileCache, записи сбрасывают его после фиксации транзакции
   @Override
   public Flux<UserListResponseInner> getUserList() {
+    return userProfileCache.getUserList(userRepository::findUserListOrderByName);
+  }
+
+  /*
+  Страница справочника пользователей. Читается на одну строку больше limit: если она есть,
+  курсор следующей страницы указывает на последнюю строку текущей. Курсор - закодированные
+  в base64url id и имя последней строки, клиент передает его без изменений.
+  */
+  @Override
+  public Mono<UserDirectoryPage> getUserDirectory(String prefix, String cursor, int limit) {
+    String namePrefix = prefix == null || prefix.isBlank() ? null : prefix.strip();
+    UserDirectoryEntry after = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
     return userRepository
-        .findAllOrderByNameAsc()
-        .map(user -> new UserListResponseInner(user.getLogin(), user.getName()));
+        .findUserDirectoryPage(
+            namePrefix,
+            after == null ? null : after.name(),
+            after == null ? null : after.id(),
+            limit + 1)
+        .collectList()
+        .map(
+            entries -> {
+              List<UserDirectoryEntry> page =
+                  entries.size() > limit ? entries.subList(0, limit) : entries;
+              UserDirectoryPage response =
+                  new UserDirectoryPage(
+                      page.stream()
+                          .map(entry -> new UserListResponseInner(entry.login(), entry.name()))
+                          .toList());
+              if (entries.size() > limit) {
+                response.setNextCursor(encodeCursor(page.getLast()));
+              }
+              return response;
+            });
+  }
+
+  private String encodeCursor(UserDirectoryEntry entry) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString((entry.id() + ":" + entry.name()).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private UserDirectoryEntry decodeCursor(String cursor) {
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      int separator = decoded.indexOf(':');
+      return new UserDirectoryEntry(
+          Long.parseLong(decoded.substring(0, separator)), null, decoded.substring(separator + 1));
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Некорректный курсор страницы: " + cursor);
+    }
   }
 
   @Override
   public Mono<UserDetailResponse> getUserByLogin(String login) {
-    return userRepository
-        .findUserByLogin(login)
-        .switchIfEmpty(Mono.error(new UserNotFoundException(String.format(NOT_FOUND_USER, login))))
-        .flatMap(
-            user ->
-                Mono.zip(
-                        userRepository.getUserWithRolesByLogin(login),
-                        accountRepository.findUserCurrencyAccounts(login).collectList())
-                    .map(
-                        tuple2 -> {
-                          UserDetailResponse existingUser = tuple2.getT1();
-                          List<AccountInfoRow> accounts = tuple2.getT2();
-                          existingUser.accounts(accounts);
-                          return existingUser;
-                        }));
+    // Попадание в кэш обслуживается без обращения к БД, промах загружается одним запросом
+    return getCachedProfile(login);
+  }
+
+  @Override
+  public Mono<UserContact> getUserContact(String login) {
+    // Берется из кэша профилей, счета и хеш пароля наружу не передаются
+    return getCachedProfile(login)
+        .map(user -> new UserContact(user.getLogin(), user.getName(), user.getEmail()));
+  }
+
+  // Пользователь, роли и счета читаются одним запросом
+  private Mono<UserDetailResponse> getCachedProfile(String login) {
+    return userProfileCache.getProfile(
+        login,
+        key ->
+            userRepository
+                .getUserDetailByLogin(key)
+                .switchIfEmpty(
+                    Mono.error(new UserNotFoundException(String.format(NOT_FOUND_USER, key)))));
   }
 
   @Transactional(isolation = Isolation.REPEATABLE_READ)
@@ -277,6 +349,7 @@ public class UserServiceImpl implements UserService {
         .flatMap(
             user ->
                 sendNotification(user.getId(), user.getEmail(), "Пароль успешно обновлен")
+                    .then(userProfileCache.evictAfterCommit(user.getLogin(), false))
                     .then(
                         getAccountOperationResponse(
                             AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of())))
@@ -291,105 +364,175 @@ public class UserServiceImpl implements UserService {
             });
   }
 
-  @Transactional(isolation = Isolation.SERIALIZABLE)
+  /*
+  Баланс изменяется одним условным UPDATE (balance + delta >= 0) без предварительного чтения счета.
+  Конкурентные операции по одному счету упорядочиваются блокировкой строки в БД, поэтому
+  достаточно READ COMMITTED и не возникает ошибок сериализации. Причина отказа (нет счета или
+  недостаточно средств) выясняется отдельным запросом только если ни одна строка не обновлена.
+  В режиме application.accounts.mailbox.enabled операция передается в AccountMailbox и
+  записывается вместе с другими операциями по тому же счету.
+  */
   @Override
   public Mono<AccountOperationResponse> cashOperation(CashRequest cashRequest, String login) {
     return userRepository
         .findUserByLogin(login)
         .switchIfEmpty(Mono.error(new UserNotFoundException(String.format(NOT_FOUND_USER, login))))
         .flatMap(
-            existingUser ->
-                checkCashTransaction(cashRequest, existingUser)
-                    .flatMap(
-                        accountCheckResult -> {
-                          if (!accountCheckResult.errors().isEmpty()
-                              || accountCheckResult.account() == null) {
-                            return getAccountOperationResponse(
-                                AccountOperationResponse.OperationStatusEnum.FAILED,
-                                accountCheckResult.errors());
-                          } else {
-                            return getAccountOperationResponseAfterCashTransaction(
-                                cashRequest, existingUser, accountCheckResult);
-                          }
-                        }));
-  }
-
-  private Mono<AccountOperationResponse> getAccountOperationResponseAfterCashTransaction(
-      CashRequest cashRequest, User existingUser, AccountCheckResult accountCheckResult) {
-    Account account = accountCheckResult.account();
+            existingUser -> {
+              if (cashRequest.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+                return getAccountOperationResponse(
+                    AccountOperationResponse.OperationStatusEnum.FAILED,
+                    List.of("Сумма должна быть положительной"));
+              }
+              return processCashOperation(cashRequest, existingUser);
+            });
+  }
+
+  private Mono<AccountOperationResponse> processCashOperation(
+      CashRequest cashRequest, User existingUser) {
+    String currency = cashRequest.getCurrency().name();
+    // Уведомление и ключ идемпотентности записываются в транзакции проводки
+    Mono<AccountOperationResponse> result =
+        Mono.deferContextual(
+            context -> {
+              Supplier<Mono<Void>> afterApply =
+                  idempotencyService.recordingKey(
+                      context,
+                      () ->
+                          sendNotificationAfterCashTransaction(
+                                  cashRequest, existingUser.getEmail(), existingUser.getId())
+                              .then(userProfileCache.evictAfterCommit(existingUser.getLogin(), false)));
+              return mailboxEnabled
+                  ? processCashOperationViaMailbox(cashRequest, existingUser, afterApply)
+                  : accountTransferEngine.inTransaction(
+                      () -> applyCashOperation(cashRequest, existingUser, afterApply));
+            });
+
+    return result.onErrorResume(
+        e -> {
+          log.error(
+              "Ошибка при сохранении изменений по счету {} пользователя {}",
+              currency,
+              existingUser.getId(),
+              e);
+          List<String> errors =
+              List.of("Ошибка при сохранении изменений по счету" + currency + ". Операция отменена");
+          return getAccountOperationResponse(
+              AccountOperationResponse.OperationStatusEnum.FAILED, errors);
+        });
+  }
+
+  private Mono<AccountOperationResponse> applyCashOperation(
+      CashRequest cashRequest, User existingUser, Supplier<Mono<Void>> afterApply) {
+    BigDecimal delta =
+        cashRequest.getAction() == CashRequest.ActionEnum.GET
+            ? cashRequest.getAmount().negate()
+            : cashRequest.getAmount();
+    String currency = cashRequest.getCurrency().name();
 
-    if (cashRequest.getAction() == CashRequest.ActionEnum.GET) {
-      account.setBalance(account.getBalance().subtract(cashRequest.getAmount()));
-    } else if (cashRequest.getAction() == CashRequest.ActionEnum.PUT) {
-      account.setBalance(account.getBalance().add(cashRequest.getAmount()));
-    }
     return accountRepository
-        .save(account)
+        .applyBalanceDelta(existingUser.getId(), currency, delta)
         .flatMap(
-            savedAccount ->
-                sendNotificationAfterCashTransaction(
-                        cashRequest, existingUser.getEmail(), existingUser.getId())
-                    .then(
-                        getAccountOperationResponse(
-                            AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of())))
-        .onErrorResume(
-            e -> {
-              log.error("Ошибка при сохранении изменений по счету {}", account.getId(), e);
-              List<String> errors =
-                  List.of(
-                      "Ошибка при сохранении изменений по счету"
-                          + cashRequest.getCurrency().name()
-                          + ". Операция отменена");
-              return getAccountOperationResponse(
-                  AccountOperationResponse.OperationStatusEnum.FAILED, errors);
+            updated -> {
+              if (updated == 0) {
+                return getRejectedCashOperationResponse(existingUser.getId(), currency);
+              }
+              return ledgerEntryRepository
+                  .insertWithAccountBalance(
+                      existingUser.getId(),
+                      currency,
+                      cashRequest.getAction() == CashRequest.ActionEnum.GET
+                          ? LedgerEntry.CASH_OUT
+                          : LedgerEntry.CASH_IN,
+                      delta,
+                      Instant.now().getEpochSecond())
+                  .then(Mono.defer(afterApply))
+                  .then(
+                      getAccountOperationResponse(
+                          AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of()));
             });
   }
 
+  private Mono<AccountOperationResponse> processCashOperationViaMailbox(
+      CashRequest cashRequest, User existingUser, Supplier<Mono<Void>> afterApply) {
+    boolean withdrawal = cashRequest.getAction() == CashRequest.ActionEnum.GET;
+    return accountRepository
+        .findByUserIdAndCurrency(existingUser.getId(), cashRequest.getCurrency().name())
+        .flatMap(
+            account ->
+                accountMailbox
+                    .submit(
+                        withdrawal ? account.getId() : null,
+                        withdrawal ? null : account.getId(),
+                        cashRequest.getAmount(),
+                        cashRequest.getAmount(),
+                        afterApply)
+                    .flatMap(this::getAppliedOperationResponse))
+        .switchIfEmpty(
+            getAccountOperationResponse(
+                AccountOperationResponse.OperationStatusEnum.FAILED, List.of(NOT_ITSELF_ACCOUNT)));
+  }
+
+  private Mono<AccountOperationResponse> getAppliedOperationResponse(boolean applied) {
+    return applied
+        ? getAccountOperationResponse(AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of())
+        : getAccountOperationResponse(
+            AccountOperationResponse.OperationStatusEnum.FAILED,
+            List.of("На счете недостаточно средств"));
+  }
+
+  private Mono<AccountOperationResponse> getRejectedCashOperationResponse(
+      Long userId, String currency) {
+    return accountRepository
+        .findByUserIdAndCurrency(userId, currency)
+        .map(account -> List.of("На счете недостаточно средств"))
+        .defaultIfEmpty(List.of(NOT_ITSELF_ACCOUNT))
+        .flatMap(
+            errors ->
+                getAccountOperationResponse(
+                    AccountOperationResponse.OperationStatusEnum.FAILED, errors));
+  }
+
   private Mono<Void> sendNotificationAfterCashTransaction(
       CashRequest cashRequest, String email, Long userId) {
+    return sendNotification(userId, email, cashOperationMessage(cashRequest)).then();
+  }
 
-    StringBuilder msg;
-
+  // Тексты уведомлений об операциях используются также при пакетном проведении (BulkPostingService)
+  static String cashOperationMessage(CashRequest cashRequest) {
     if (cashRequest.getAction() == CashRequest.ActionEnum.GET) {
-      msg =
-          new StringBuilder(
-              String.format(
-                  "Снятие наличных в размере %s %s со счета",
-                  cashRequest.getAmount(), cashRequest.getCurrency()));
-    } else {
-      msg =
-          new StringBuilder(
-              String.format(
-                  "Пополнение счета на сумму %s %s",
-                  cashRequest.getAmount(), cashRequest.getCurrency()));
+      return String.format(
+          "Снятие наличных в размере %s %s со счета",
+          cashRequest.getAmount(), cashRequest.getCurrency());
     }
-    return sendNotification(userId, email, msg.toString()).then();
+    return String.format(
+        "Пополнение счета на сумму %s %s", cashRequest.getAmount(), cashRequest.getCurrency());
   }
 
-  private Mono<AccountCheckResult> checkCashTransaction(CashRequest cashRequest, User user) {
-    return accountRepository
-        .findByUserIdAndCurrency(user.getId(), cashRequest.getCurrency().name())
-        .map(account -> new AccountCheckResult(account, new ArrayList<>()))
-        .switchIfEmpty(
-            Mono.just(new AccountCheckResult(null, new ArrayList<>(List.of(NOT_ITSELF_ACCOUNT)))))
-        .flatMap(
-            accountCheckResult -> {
-              // Дополнительная проверка и добавление ошибок
-              if (cashRequest.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-                accountCheckResult.errors().add("Сумма должна быть положительной");
-              }
-              if (accountCheckResult.account() != null) {
-                Account account = accountCheckResult.account();
-                if (cashRequest.getAction() == CashRequest.ActionEnum.GET
-                    && account.getBalance().compareTo(cashRequest.getAmount()) < 0) {
-                  accountCheckResult.errors().add("На счете недостаточно средств");
-                }
-              }
-              return Mono.just(accountCheckResult);
-            });
+  static String transferSenderMessage(TransferRequest transferRequest, String recipientName) {
+    return String.format(
+        "Перевод суммы %s со счета %s клиенту %s выполнен успешно",
+        transferRequest.getFromAmount(),
+        transferRequest.getFromCurrency().name(),
+        recipientName);
+  }
+
+  static String transferRecipientMessage(TransferRequest transferRequest, String senderName) {
+    return String.format(
+        "Поступление суммы %s на счет %s от клиента %s",
+        transferRequest.getToAmount(), transferRequest.getToCurrency().name(), senderName);
+  }
+
+  static String transferItselfMessage(TransferRequest transferRequest) {
+    return String.format(
+        "Перевод между счетами выполнен успешно. Списано со счета %s: %s. Зачисленно на счет %s: %s.",
+        transferRequest.getFromCurrency().name(),
+        transferRequest.getFromAmount(),
+        transferRequest.getToCurrency().name(),
+        transferRequest.getToAmount());
   }
 
-  @Transactional(isolation = Isolation.SERIALIZABLE)
+  // Транзакцией и повторами при конфликтах управляет AccountTransferEngine
   @Override
   public Mono<AccountOperationResponse> transferOperation(
       TransferRequest transferRequest, String login) {
@@ -471,18 +614,13 @@ public class UserServiceImpl implements UserService {
     AccountCheckResult senderAccountCheckResult = accountCheckResultTuple.getT1();
     AccountCheckResult recipientAccountCheckResult = accountCheckResultTuple.getT2();
 
-    Account senderAccount = senderAccountCheckResult.account();
-    Account recipientAccount = recipientAccountCheckResult.account();
-
-    if (senderAccount.getBalance().compareTo(transferRequest.getFromAmount()) < 0) {
-      senderAccountCheckResult.errors().add("На счете недостаточно средств");
-
-      return getAccountOperationResponse(
-          AccountOperationResponse.OperationStatusEnum.FAILED, senderAccountCheckResult.errors());
-    } else {
-      return applyTransferOtherOperation(
-          transferRequest, sender, recipient, senderAccount, recipientAccount);
-    }
+    // Достаточность средств проверяет условный UPDATE в AccountTransferEngine, а не прочитанный здесь баланс
+    return applyTransferOtherOperation(
+        transferRequest,
+        sender,
+        recipient,
+        senderAccountCheckResult.account(),
+        recipientAccountCheckResult.account());
   }
 
   private Mono<AccountOperationResponse> processAccountOperationForTransferItselfOperation(
@@ -493,17 +631,11 @@ public class UserServiceImpl implements UserService {
     AccountCheckResult senderAccountCheckResult = accountCheckResultTuple.getT1();
     AccountCheckResult recipientAccountCheckResult = accountCheckResultTuple.getT2();
 
-    Account senderAccount = senderAccountCheckResult.account();
-    Account recipientAccount = recipientAccountCheckResult.account();
-
-    if (senderAccount.getBalance().compareTo(transferRequest.getFromAmount()) < 0) {
-      senderAccountCheckResult.errors().add("На счете недостаточно средств");
-
-      return getAccountOperationResponse(
-          AccountOperationResponse.OperationStatusEnum.FAILED, senderAccountCheckResult.errors());
-    } else {
-      return applyTransferItselfOperation(transferRequest, user, senderAccount, recipientAccount);
-    }
+    return applyTransferItselfOperation(
+        transferRequest,
+        user,
+        senderAccountCheckResult.account(),
+        recipientAccountCheckResult.account());
   }
 
   private Mono<AccountOperationResponse> applyTransferOtherOperation(
@@ -512,30 +644,48 @@ public class UserServiceImpl implements UserService {
       User recipient,
       Account senderAccount,
       Account recipientAccount) {
-
-    senderAccount.setBalance(senderAccount.getBalance().subtract(transferRequest.getFromAmount()));
-    recipientAccount.setBalance(recipientAccount.getBalance().add(transferRequest.getToAmount()));
-
-    return accountRepository
-        .saveAll(List.of(senderAccount, recipientAccount))
-        .then(sendNotificationAfterTransferOtherTransaction(transferRequest, sender, recipient))
-        .then(
-            getAccountOperationResponse(
-                AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of()))
-        .onErrorResume(
-            e -> processErrorApplyTransferOtherOperation(senderAccount, recipientAccount, e));
+    return applyTransfer(
+        transferRequest,
+        senderAccount,
+        recipientAccount,
+        () -> sendNotificationAfterTransferOtherTransaction(transferRequest, sender, recipient));
   }
 
   private Mono<AccountOperationResponse> applyTransferItselfOperation(
       TransferRequest transferRequest, User user, Account senderAccount, Account recipientAccount) {
-    senderAccount.setBalance(senderAccount.getBalance().subtract(transferRequest.getFromAmount()));
-    recipientAccount.setBalance(recipientAccount.getBalance().add(transferRequest.getToAmount()));
-    return accountRepository
-        .saveAll(List.of(senderAccount, recipientAccount))
-        .then(sendNotificationAfterTransferItselfTransaction(transferRequest, user))
-        .then(
-            getAccountOperationResponse(
-                AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of()))
+    return applyTransfer(
+        transferRequest,
+        senderAccount,
+        recipientAccount,
+        () -> sendNotificationAfterTransferItselfTransaction(transferRequest, user));
+  }
+
+  private Mono<AccountOperationResponse> applyTransfer(
+      TransferRequest transferRequest,
+      Account senderAccount,
+      Account recipientAccount,
+      Supplier<Mono<Void>> sendNotifications) {
+    Mono<Boolean> applied =
+        Mono.deferContextual(
+            context -> {
+              Supplier<Mono<Void>> afterApply =
+                  idempotencyService.recordingKey(context, sendNotifications);
+              return mailboxEnabled
+                  ? accountMailbox.submit(
+                      senderAccount.getId(),
+                      recipientAccount.getId(),
+                      transferRequest.getFromAmount(),
+                      transferRequest.getToAmount(),
+                      afterApply)
+                  : accountTransferEngine.transfer(
+                      senderAccount.getId(),
+                      recipientAccount.getId(),
+                      transferRequest.getFromAmount(),
+                      transferRequest.getToAmount(),
+                      afterApply);
+            });
+    return applied
+        .flatMap(this::getAppliedOperationResponse)
         .onErrorResume(
             e -> processErrorApplyTransferOtherOperation(senderAccount, recipientAccount, e));
   }
@@ -573,35 +723,19 @@ public class UserServiceImpl implements UserService {
 
   private Mono<Void> sendNotificationAfterTransferOtherTransaction(
       TransferRequest transferRequest, User sender, User recipient) {
-    String senderMessage =
-        String.format(
-            "Перевод суммы %s со счета %s клиенту %s выполнен успешно",
-            transferRequest.getFromAmount(),
-            transferRequest.getFromCurrency().name(),
-            recipient.getName());
-    String recipientMessage =
-        String.format(
-            "Поступление суммы %s на счет %s от клиента %s",
-            transferRequest.getToAmount(),
-            transferRequest.getToCurrency().name(),
-            sender.getName());
-
-    return Mono.zip(
-            sendNotification(sender.getId(), sender.getEmail(), senderMessage),
-            sendNotification(recipient.getId(), recipient.getEmail(), recipientMessage))
-        .then();
+    String senderMessage = transferSenderMessage(transferRequest, recipient.getName());
+    String recipientMessage = transferRecipientMessage(transferRequest, sender.getName());
+
+    return sendNotification(sender.getId(), sender.getEmail(), senderMessage)
+        .then(sendNotification(recipient.getId(), recipient.getEmail(), recipientMessage))
+        .then(userProfileCache.evictAfterCommit(sender.getLogin(), false))
+        .then(userProfileCache.evictAfterCommit(recipient.getLogin(), false));
   }
 
   private Mono<Void> sendNotificationAfterTransferItselfTransaction(
       TransferRequest transferRequest, User user) {
-    String userMessage =
-        String.format(
-            "Перевод между счетами выполнен успешно. Списано со счета %s: %s. Зачисленно на счет %s: %s.",
-            transferRequest.getFromCurrency().name(),
-            transferRequest.getFromAmount(),
-            transferRequest.getToCurrency().name(),
-            transferRequest.getToAmount());
-    return sendNotification(user.getId(), user.getEmail(), userMessage).then();
+    return sendNotification(user.getId(), user.getEmail(), transferItselfMessage(transferRequest))
+        .then(userProfileCache.evictAfterCommit(user.getLogin(), false));
   }
 
   private Mono<AccountOperationResponse> updateExistingUser(
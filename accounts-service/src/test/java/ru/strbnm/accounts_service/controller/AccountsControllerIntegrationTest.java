@@ -10,11 +10,13 @@ import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
 import ru.strbnm.accounts_service.config.TestSecurityConfig;
 import ru.strbnm.accounts_service.domain.*;
+import ru.strbnm.accounts_service.service.UserProfileCache;
 
 import java.math.BigDecimal;
 import java.nio.file.Files;
@@ -32,13 +34,16 @@ import static org.springframework.security.test.web.reactive.server.SecurityMock
         properties = {"spring.config.name=application-test"})
 @AutoConfigureWebTestClient(timeout = "36000")
 @Import(TestSecurityConfig.class)
-@EmbeddedKafka(topics = "notifications")
+@EmbeddedKafka(topics = {"notifications", UserProfileCache.TOPIC})
+// Контексты тестов используют одну БД H2: закрываем контекст, чтобы его outbox-relay не забирал чужие уведомления
+@DirtiesContext
 class AccountsControllerIntegrationTest {
 
     @Autowired
     private DatabaseClient databaseClient;
 
     @Autowired private WebTestClient webTestClient;
+    @Autowired private UserProfileCache userProfileCache;
 
 
     private static final String INIT_SCRIPT_PATH = "src/test/resources/scripts/INIT_STORE_RECORD.sql";
@@ -61,6 +66,7 @@ class AccountsControllerIntegrationTest {
                     "DatabaseClient не инициализирован. Проверьте конфигурацию тестов.");
         }
         executeSqlScript(CLEAN_SCRIPT_PATH).block();
+        userProfileCache.invalidateAll();
     }
 
     private Mono<Void> executeSqlScript(String scriptPath) {
@@ -337,6 +343,31 @@ class AccountsControllerIntegrationTest {
                         });
     }
 
+    @Test
+    void getUserContact() {
+        webTestClient
+                .mutateWith(mockJwt())
+                .get()
+                .uri("/api/v1/users/test_user3/contact")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.login").isEqualTo("test_user3")
+                .jsonPath("$.name").isEqualTo("Сидоров Степан")
+                .jsonPath("$.email").isEqualTo("sidorov@example.ru")
+                .jsonPath("$.password").doesNotExist()
+                .jsonPath("$.accounts").doesNotExist();
+
+        webTestClient
+                .mutateWith(mockJwt())
+                .get()
+                .uri("/api/v1/users/test_user4/contact")
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
     @Test
     void getUserList() {
         List<UserListResponseInner> expected = List.of(
@@ -735,4 +766,334 @@ class AccountsControllerIntegrationTest {
                             assertEquals("$2a$12$i3Mc.UTtmmFNgiqx0csrHe.dGbdVwXPbuEJ0T92InqlzX4YTzmwBa", userDetailResponse.getPassword());
                         });
     }
-}
\ No newline at end of file
+
+    private BigDecimal balance(String login, AccountCurrencyEnum currency) {
+        return databaseClient.sql("SELECT a.balance FROM accounts a JOIN users u ON u.id = a.user_id WHERE u.login = :login AND a.currency = :currency")
+                .bind("login", login)
+                .bind("currency", currency.name())
+                .map(row -> row.get("balance", BigDecimal.class))
+                .one()
+                .block();
+    }
+
+    @Test
+    void bulkPostings_shouldApplyValidItemsAndReportPerItemErrors() {
+        String body = """
+                {"items": [
+                  {"login": "test_user1", "cash": {"currency": "RUB", "amount": 10000.0, "action": "GET"}},
+                  {"login": "test_user1", "transfer": {"fromCurrency": "RUB", "toCurrency": "CNY", "fromAmount": 1000.0, "toAmount": 100.0, "toLogin": "test_user2"}},
+                  {"login": "test_user3", "cash": {"currency": "CNY", "amount": 6000.0, "action": "GET"}},
+                  {"login": "test_user4", "cash": {"currency": "RUB", "amount": 100.0, "action": "PUT"}},
+                  {"login": "test_user1", "cash": {"currency": "USD", "amount": 100.0, "action": "PUT"}}
+                ]}
+                """;
+        webTestClient
+                .mutateWith(mockJwt())
+                .post()
+                .uri("/api/v1/postings/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(BulkPostingResponse.class)
+                .value(
+                        response -> {
+                            List<AccountOperationResponse> results = response.getResults();
+                            assertEquals(5, results.size());
+                            assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, results.get(0).getOperationStatus());
+                            assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, results.get(1).getOperationStatus());
+                            assertEquals(List.of("На счете недостаточно средств"), results.get(2).getErrors());
+                            assertEquals(List.of("Пользователь с логином test_user4 не существует"), results.get(3).getErrors());
+                            assertEquals(List.of("У Вас отсутствует счет в выбранной валюте"), results.get(4).getErrors());
+                        });
+
+        assertEquals(0, new BigDecimal("139000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+        assertEquals(0, new BigDecimal("12100.0").compareTo(balance("test_user2", AccountCurrencyEnum.CNY)));
+        assertEquals(0, new BigDecimal("5000.0").compareTo(balance("test_user3", AccountCurrencyEnum.CNY)));
+    }
+
+    @Test
+    void bulkPostingsAtomic_shouldRejectWholeBatchOnAnyError() {
+        String body = """
+                {"atomic": true, "items": [
+                  {"login": "test_user1", "cash": {"currency": "RUB", "amount": 10000.0, "action": "GET"}},
+                  {"login": "test_user3", "transfer": {"fromCurrency": "CNY", "toCurrency": "RUB", "fromAmount": 6000.0, "toAmount": 60000.0, "toLogin": "test_user1"}}
+                ]}
+                """;
+        webTestClient
+                .mutateWith(mockJwt())
+                .post()
+                .uri("/api/v1/postings/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(BulkPostingResponse.class)
+                .value(
+                        response -> {
+                            assertTrue(response.getResults().stream()
+                                    .allMatch(result -> result.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.FAILED));
+                            assertEquals(List.of("На счете недостаточно средств"), response.getResults().get(1).getErrors());
+                        });
+
+        assertEquals(0, new BigDecimal("150000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+        assertEquals(0, new BigDecimal("5000.0").compareTo(balance("test_user3", AccountCurrencyEnum.CNY)));
+    }
+
+    @Test
+    void bulkPostingsWithIdempotencyKeys_shouldApplyOnceAndReplayResponses() {
+        String body = """
+                {"items": [
+                  {"login": "test_user1", "idempotencyKey": "cash-command-1", "cash": {"currency": "RUB", "amount": 10000.0, "action": "GET"}},
+                  {"login": "test_user3", "idempotencyKey": "cash-command-2", "cash": {"currency": "CNY", "amount": 6000.0, "action": "GET"}},
+                  {"login": "test_user1", "idempotencyKey": "cash-command-1", "cash": {"currency": "RUB", "amount": 10000.0, "action": "GET"}}
+                ]}
+                """;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/postings/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(body)
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody(BulkPostingResponse.class)
+                    .value(
+                            response -> {
+                                List<AccountOperationResponse> results = response.getResults();
+                                assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, results.get(0).getOperationStatus());
+                                assertEquals(List.of("На счете недостаточно средств"), results.get(1).getErrors());
+                                assertEquals(List.of("Ключ cash-command-1 повторяется в пакете"), results.get(2).getErrors());
+                            });
+        }
+
+        assertEquals(0, new BigDecimal("140000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+
+        // Ключ, использованный для другой операции, отклоняется без проводки
+        webTestClient
+                .mutateWith(mockJwt())
+                .post()
+                .uri("/api/v1/postings/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"items": [
+                          {"login": "test_user1", "idempotencyKey": "cash-command-1", "cash": {"currency": "RUB", "amount": 500.0, "action": "GET"}}
+                        ]}
+                        """)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(BulkPostingResponse.class)
+                .value(
+                        response ->
+                                assertEquals(
+                                        List.of("Ключ cash-command-1 уже использован для другого запроса"),
+                                        response.getResults().get(0).getErrors()));
+        assertEquals(0, new BigDecimal("140000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+    }
+
+    @Test
+    void bulkPostingsWithIdempotencyKeys_shouldReplayRedeliveredCommandWithColumnScale() {
+        // Повторная доставка команды cash-service собирает сумму из столбца DECIMAL(19,4)
+        for (String amount : List.of("10000.0", "10000.0000")) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/postings/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"items\": [{\"login\": \"test_user1\", \"idempotencyKey\": \"cash-command-9\", "
+                            + "\"cash\": {\"currency\": \"RUB\", \"amount\": " + amount + ", \"action\": \"GET\"}}]}")
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody(BulkPostingResponse.class)
+                    .value(
+                            response -> {
+                                assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, response.getResults().get(0).getOperationStatus());
+                                assertEquals(List.of(), response.getResults().get(0).getErrors());
+                            });
+        }
+        assertEquals(0, new BigDecimal("140000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+    }
+
+    @Test
+    void cashTransactionWithIdempotencyKey_shouldApplyOnceAndReplayResponse() {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/users/test_user1/cash")
+                    .header("Idempotency-Key", "cash-1")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"currency\": \"RUB\", \"amount\": 10000.0, \"action\": \"GET\"}")
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody(AccountOperationResponse.class)
+                    .value(
+                            accountOperationResponse ->
+                                    assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, accountOperationResponse.getOperationStatus()));
+        }
+        // Повтор с тем же ключом не списал сумму второй раз
+        assertEquals(0, new BigDecimal("140000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+
+        // Тот же ключ с другим телом запроса
+        webTestClient
+                .mutateWith(mockJwt())
+                .post()
+                .uri("/api/v1/users/test_user1/cash")
+                .header("Idempotency-Key", "cash-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"currency\": \"RUB\", \"amount\": 20000.0, \"action\": \"GET\"}")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(409)
+                .expectBody(AccountErrorResponse.class)
+                .value(
+                        accountErrorResponse ->
+                                assertEquals("Ключ cash-1 уже использован для другого запроса", accountErrorResponse.getMessage()));
+        assertEquals(0, new BigDecimal("140000.0").compareTo(balance("test_user1", AccountCurrencyEnum.RUB)));
+    }
+
+    @Test
+    void transferTransactionWithIdempotencyKey_shouldReplayRequestRebuiltWithColumnScale() {
+        // Повтор восстановления саги собирает суммы из столбцов DECIMAL(19,4) перевода
+        for (String amount : List.of("1000.0", "1000.0000")) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/users/test_user1/transfer")
+                    .header("Idempotency-Key", "transfer-7")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"fromCurrency\": \"CNY\", \"toCurrency\": \"CNY\", \"fromAmount\": " + amount
+                            + ", \"toAmount\": " + amount + ", \"toLogin\": \"test_user2\"}")
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody(AccountOperationResponse.class)
+                    .value(
+                            accountOperationResponse ->
+                                    assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, accountOperationResponse.getOperationStatus()));
+        }
+        assertEquals(0, new BigDecimal("19000.0").compareTo(balance("test_user1", AccountCurrencyEnum.CNY)));
+        assertEquals(0, new BigDecimal("13000.0").compareTo(balance("test_user2", AccountCurrencyEnum.CNY)));
+
+        // Другая сумма по-прежнему отклоняется
+        webTestClient
+                .mutateWith(mockJwt())
+                .post()
+                .uri("/api/v1/users/test_user1/transfer")
+                .header("Idempotency-Key", "transfer-7")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"fromCurrency\": \"CNY\", \"toCurrency\": \"CNY\", \"fromAmount\": 1000.5, \"toAmount\": 1000.5, \"toLogin\": \"test_user2\"}")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(409);
+    }
+
+    @Test
+    void transferTransactionWithIdempotencyKey_shouldNotRecordRejectedOrFailedOperations() {
+        // Отклоненный перевод баланс не меняет: ключ не записывается, повтор проверяет средства заново
+        String body = "{\"fromCurrency\": \"CNY\", \"toCurrency\": \"CNY\", \"fromAmount\": 30000.0, \"toAmount\": 30000.0, \"toLogin\": \"test_user2\"}";
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/users/test_user1/transfer")
+                    .header("Idempotency-Key", "transfer-1")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(body)
+                    .exchange()
+                    .expectStatus()
+                    .isEqualTo(422)
+                    .expectBody(AccountOperationResponse.class)
+                    .value(
+                            accountOperationResponse ->
+                                    assertEquals(List.of("На счете недостаточно средств"), accountOperationResponse.getErrors()));
+        }
+
+        // Ошибка выполнения (пользователь не найден) также не записывает ключ
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/users/test_user4/transfer")
+                    .header("Idempotency-Key", "transfer-2")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(body)
+                    .exchange()
+                    .expectStatus()
+                    .isNotFound();
+        }
+        assertEquals(0L, databaseClient.sql("SELECT COUNT(*) AS cnt FROM idempotency_keys WHERE idempotency_key IN ('transfer-1', 'transfer-2')")
+                .map(row -> row.get("cnt", Long.class))
+                .one()
+                .block());
+    }
+
+    @Test
+    void getAccountStatement_shouldPageFromNewestByCursor() {
+        for (String amount : List.of("100.0", "200.0", "300.0")) {
+            webTestClient
+                    .mutateWith(mockJwt())
+                    .post()
+                    .uri("/api/v1/users/test_user1/cash")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"currency\": \"RUB\", \"amount\": " + amount + ", \"action\": \"PUT\"}")
+                    .exchange()
+                    .expectStatus()
+                    .isOk();
+        }
+
+        List<StatementEntry> firstPage = webTestClient
+                .mutateWith(mockJwt())
+                .get()
+                .uri("/api/v1/users/test_user1/accounts/RUB/statement?limit=2")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(StatementEntry.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(firstPage);
+        assertEquals(2, firstPage.size());
+        assertEquals(0, new BigDecimal("300.0").compareTo(firstPage.get(0).getAmount()));
+        assertEquals(0, new BigDecimal("150600.0").compareTo(firstPage.get(0).getBalanceAfter()));
+        assertEquals(StatementEntry.OperationEnum.CASH_IN, firstPage.get(1).getOperation());
+
+        webTestClient
+                .mutateWith(mockJwt())
+                .get()
+                .uri("/api/v1/users/test_user1/accounts/RUB/statement?limit=10&before=" + firstPage.get(1).getId())
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(StatementEntry.class)
+                .value(
+                        entries -> {
+                            assertEquals(2, entries.size());
+                            assertEquals(0, new BigDecimal("100.0").compareTo(entries.get(0).getAmount()));
+                            assertEquals(StatementEntry.OperationEnum.OPENING, entries.get(1).getOperation());
+                            assertEquals(0, new BigDecimal("150000.0").compareTo(entries.get(1).getBalanceAfter()));
+                        });
+    }
+
+    @Test
+    void getAccountStatement_shouldReturnNotFoundForMissingAccount() {
+        webTestClient
+                .mutateWith(mockJwt())
+                .get()
+                .uri("/api/v1/users/test_user1/accounts/USD/statement")
+                .exchange()
+                .expectStatus()
+                .isNotFound()
+                .expectBody(AccountErrorResponse.class)
+                .value(
+                        accountErrorResponse ->
+                                assertEquals("У пользователя test_user1 нет счета в валюте USD", accountErrorResponse.getMessage()));
+    }
+}
@@ -0,0 +1,218 @@
+package ru.strbnm.accounts_service.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import ru.strbnm.kafka.dto.NotificationMessage;
+import ru.strbnm.kafka.outbox.OutboxNotificationRelay;
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+// Плановый запуск relay отодвинут, чтобы тесты сами управляли отправкой пачек
+@SpringBootTest(properties = {"application.notification.interval=1h"})
+@EmbeddedKafka(topics = "notifications")
+@DirtiesContext
+class OutboxNotificationRelayTest {
+
+  private static final String INIT_SCRIPT_PATH = "src/test/resources/scripts/INIT_STORE_RECORD.sql";
+  private static final String CLEAN_SCRIPT_PATH =
+      "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
+
+  @Autowired private DatabaseClient databaseClient;
+  @Autowired SpringLiquibase liquibase;
+  @Autowired private OutboxNotificationRelay outboxNotificationRelay;
+  @Autowired private TransactionalOperator transactionalOperator;
+  @Autowired private ConsumerFactory<String, NotificationMessage> consumerFactory;
+
+  private Consumer<String, NotificationMessage> consumer;
+
+  @BeforeAll
+  void setupSchema() throws LiquibaseException {
+    liquibase.afterPropertiesSet();
+    databaseClient.sql("SELECT 1").fetch().rowsUpdated().block();
+    consumer = consumerFactory.createConsumer("outbox-relay-test", null);
+    consumer.subscribe(List.of(OutboxNotificationRelay.TOPIC));
+  }
+
+  @AfterAll
+  void tearDown() {
+    consumer.close();
+  }
+
+  @BeforeEach
+  void setupDatabase() throws Exception {
+    databaseClient.sql(new String(Files.readAllBytes(Paths.get(INIT_SCRIPT_PATH)))).then().block();
+  }
+
+  @AfterEach
+  void cleanupDatabase() throws Exception {
+    databaseClient.sql(new String(Files.readAllBytes(Paths.get(CLEAN_SCRIPT_PATH)))).then().block();
+  }
+
+  private void insertNotifications(int count, Long claimedUntil) {
+    insertNotifications(count, claimedUntil, "Уведомление");
+  }
+
+  private void insertNotifications(int count, Long claimedUntil, String message) {
+    for (int i = 0; i < count; i++) {
+      databaseClient
+          .sql(
+              "INSERT INTO outbox_notifications(user_id, email, message, created_at) "
+                  + "VALUES (1, :email, :message, :createdAt)")
+          .bind("email", "ivanov@example.ru")
+          .bind("message", message + " " + i)
+          .bind("createdAt", Instant.now().getEpochSecond())
+          .then()
+          .block();
+    }
+    if (claimedUntil != null) {
+      databaseClient
+          .sql("UPDATE outbox_notifications SET claimed_until = :claimedUntil")
+          .bind("claimedUntil", claimedUntil)
+          .then()
+          .block();
+    }
+  }
+
+  private long countUnsent() {
+    return databaseClient
+        .sql("SELECT COUNT(*) AS cnt FROM outbox_notifications WHERE is_sent = FALSE")
+        .map(row -> row.get("cnt", Long.class))
+        .one()
+        .block();
+  }
+
+  private long countClaimed() {
+    return databaseClient
+        .sql("SELECT COUNT(*) AS cnt FROM outbox_notifications WHERE claimed_until IS NOT NULL AND is_sent = FALSE")
+        .map(row -> row.get("cnt", Long.class))
+        .one()
+        .block();
+  }
+
+  // Топик общий для тестов класса, поэтому учитываются только сообщения с заданным текстом
+  private List<NotificationMessage> receive(int count, String message) {
+    List<NotificationMessage> messages = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (messages.size() < count && System.currentTimeMillis() < deadline) {
+      for (ConsumerRecord<String, NotificationMessage> record :
+          KafkaTestUtils.getRecords(consumer, Duration.ofSeconds(1))) {
+        if (record.value().getMessage().startsWith(message)) {
+          messages.add(record.value());
+        }
+      }
+    }
+    return messages;
+  }
+
+  private OutboxNotificationRelay relayWith(
+      KafkaTemplate<String, NotificationMessage> kafkaTemplate, MeterRegistry meterRegistry) {
+    return new OutboxNotificationRelay(
+        "accounts-service",
+        databaseClient,
+        kafkaTemplate,
+        transactionalOperator,
+        10,
+        Duration.ofHours(1),
+        Duration.ofSeconds(30),
+        meterRegistry);
+  }
+
+  @Test
+  void relayPending_shouldSendAllBatchesAndMarkThemSent() {
+    // Больше одной пачки (limit = 10 в application-test.yml)
+    insertNotifications(12, null, "Пачка");
+
+    outboxNotificationRelay.relayPending().block();
+
+    assertEquals(0, countUnsent());
+    List<NotificationMessage> messages = receive(12, "Пачка");
+    assertEquals(12, messages.size());
+    assertTrue(messages.stream().allMatch(m -> "accounts-service".equals(m.getApplication())));
+  }
+
+  @Test
+  void relayBatch_shouldSkipRowsLeasedByAnotherReplica() {
+    // Строки, захваченные другой репликой, пропускаются до истечения аренды
+    insertNotifications(3, Instant.now().getEpochSecond() + 60);
+    assertEquals(0, outboxNotificationRelay.relayBatch().block());
+    assertEquals(3, countUnsent());
+
+    // Аренда упавшей реплики истекла: строки снова доступны
+    databaseClient
+        .sql("UPDATE outbox_notifications SET claimed_until = :expired")
+        .bind("expired", Instant.now().getEpochSecond() - 1)
+        .then()
+        .block();
+    assertEquals(3, outboxNotificationRelay.relayBatch().block());
+    assertEquals(0, countUnsent());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void relayBatch_shouldCommitClaimBeforeWaitingForBroker() {
+    insertNotifications(2, null);
+    KafkaTemplate<String, NotificationMessage> kafkaTemplate = mock(KafkaTemplate.class);
+    CompletableFuture<SendResult<String, NotificationMessage>> ack = new CompletableFuture<>();
+    when(kafkaTemplate.send(eq(OutboxNotificationRelay.TOPIC), any(NotificationMessage.class))).thenReturn(ack);
+
+    CompletableFuture<Integer> relayed = relayWith(kafkaTemplate, new SimpleMeterRegistry()).relayBatch().toFuture();
+
+    // Пока брокер не ответил, аренда уже зафиксирована и видна другим соединениям
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (countClaimed() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(2, countClaimed());
+    assertFalse(relayed.isDone());
+
+    ack.complete(null);
+    assertEquals(2, relayed.join());
+    assertEquals(0, countUnsent());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void relayBatch_shouldReleaseRowsWhenBrokerFails() {
+    insertNotifications(2, null);
+    KafkaTemplate<String, NotificationMessage> kafkaTemplate = mock(KafkaTemplate.class);
+    when(kafkaTemplate.send(eq(OutboxNotificationRelay.TOPIC), any(NotificationMessage.class)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker unavailable")));
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    assertEquals(0, relayWith(kafkaTemplate, meterRegistry).relayBatch().block());
+
+    // Строки остаются в очереди и сразу доступны для следующей попытки
+    assertEquals(2, countUnsent());
+    assertEquals(0, countClaimed());
+    assertEquals(2.0, meterRegistry.counter("outbox.notifications.failed").count());
+    verify(kafkaTemplate, times(2)).send(eq(OutboxNotificationRelay.TOPIC), any(NotificationMessage.class));
+  }
+}
@@ -9,11 +9,14 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import liquibase.exception.LiquibaseException;
 import liquibase.integration.spring.SpringLiquibase;
 import lombok.extern.slf4j.Slf4j;
@@ -27,27 +30,39 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.test.context.EmbeddedKafka;
-import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
 import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import ru.strbnm.accounts_service.domain.*;
+import ru.strbnm.accounts_service.entity.IdempotencyKey;
+import ru.strbnm.accounts_service.entity.LedgerEntry;
 import ru.strbnm.accounts_service.exception.AccountNotFoundForCurrencyException;
 import ru.strbnm.accounts_service.exception.UserAlreadyExistsException;
 import ru.strbnm.accounts_service.exception.UserNotFoundException;
 import ru.strbnm.accounts_service.mapper.UserMapper;
 import ru.strbnm.accounts_service.repository.AccountRepository;
+import ru.strbnm.accounts_service.repository.IdempotencyKeyRepository;
+import ru.strbnm.accounts_service.repository.LedgerEntryRepository;
 import ru.strbnm.accounts_service.repository.UserRepository;
 import ru.strbnm.kafka.dto.NotificationMessage;
+import ru.strbnm.kafka.dto.UserCacheInvalidationMessage;
+import ru.strbnm.testing.H2QueryStatistics;
 
 @Slf4j
 @ActiveProfiles("test")
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @SpringBootTest
-@EmbeddedKafka(topics = "notifications")
+@EmbeddedKafka(topics = {"notifications", UserProfileCache.TOPIC})
+// Контексты тестов используют одну БД H2: закрываем контекст, чтобы его outbox-relay не забирал чужие уведомления
+@DirtiesContext
 class UserServiceImplTest {
 
   @Autowired private DatabaseClient databaseClient;
@@ -55,7 +70,18 @@ class UserServiceImplTest {
 
   @Autowired private UserRepository userRepository;
   @Autowired private AccountRepository accountRepository;
+  @Autowired private LedgerEntryRepository ledgerEntryRepository;
   @Autowired private UserService userService;
+  @Autowired private MeterRegistry meterRegistry;
+  @Autowired private AccountTransferEngine accountTransferEngine;
+  @Autowired private UserProfileCache userProfileCache;
+  @Autowired private BulkPostingService bulkPostingService;
+  @Autowired private AccountStatementService accountStatementService;
+  @Autowired private IdempotencyService idempotencyService;
+  @Autowired private IdempotencyKeyRepository idempotencyKeyRepository;
+  @Autowired private KafkaTemplate<String, UserCacheInvalidationMessage> cacheInvalidationTemplate;
+  @Autowired private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+  private H2QueryStatistics queryStatistics;
 
     @Autowired
     private ConsumerFactory<String, NotificationMessage> consumerFactory;
@@ -70,6 +96,7 @@ class UserServiceImplTest {
   void setupSchema() throws LiquibaseException {
     liquibase.afterPropertiesSet(); // Запускаем Liquibase вручную
     databaseClient.sql("SELECT 1").fetch().rowsUpdated().block(); // Ждем завершения
+    queryStatistics = new H2QueryStatistics(databaseClient);
 
       consumer = consumerFactory.createConsumer();
       consumer.subscribe(List.of("notifications"));
@@ -96,6 +123,7 @@ class UserServiceImplTest {
           "DatabaseClient не инициализирован. Проверьте конфигурацию тестов.");
     }
     executeSqlScript(CLEAN_SCRIPT_PATH).block();
+    userProfileCache.invalidateAll();
   }
 
   private Mono<Void> executeSqlScript(String scriptPath) {
@@ -159,12 +187,16 @@ class UserServiceImplTest {
               .message("Вы успешно зарегистрированы.")
               .application("accounts-service")
               .build();
-      ConsumerRecords<String, NotificationMessage> records = KafkaTestUtils.getRecords(consumer, Duration.ofSeconds(5));
-      NotificationMessage found = StreamSupport.stream(records.spliterator(), false)
-              .map(ConsumerRecord::value)
-              .filter(msg -> msg.equals(expected))
-              .findFirst()
-              .orElseThrow();
+      // Уведомление отправляется из outbox асинхронно, поэтому читаем топик, пока оно не появится
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      boolean found = false;
+      while (!found && System.nanoTime() < deadline) {
+          ConsumerRecords<String, NotificationMessage> records = consumer.poll(Duration.ofMillis(500));
+          found = StreamSupport.stream(records.spliterator(), false)
+                  .map(ConsumerRecord::value)
+                  .anyMatch(msg -> msg.equals(expected));
+      }
+      assertTrue(found, "Уведомление о регистрации должно быть отправлено в Kafka");
   }
 
   @Test
@@ -433,6 +465,97 @@ class UserServiceImplTest {
               .verifyComplete();
   }
 
+  @Test
+  void getUserDirectory_shouldPageByKeysetAndFilterByPrefix() {
+      UserDirectoryPage firstPage = userService.getUserDirectory(null, null, 2).block();
+      assertNotNull(firstPage);
+      assertEquals(List.of("test_user1", "test_user2"),
+              firstPage.getItems().stream().map(UserListResponseInner::getLogin).toList());
+      assertNotNull(firstPage.getNextCursor(), "Должен быть курсор следующей страницы");
+
+      StepVerifier.create(userService.getUserDirectory(null, firstPage.getNextCursor(), 2))
+              .assertNext(page -> {
+                  assertEquals(List.of("test_user3"),
+                          page.getItems().stream().map(UserListResponseInner::getLogin).toList());
+                  assertNull(page.getNextCursor(), "Последняя страница без курсора");
+              })
+              .verifyComplete();
+
+      // Поиск по началу имени без учета регистра
+      StepVerifier.create(userService.getUserDirectory("пЕтр", null, 20))
+              .assertNext(page -> assertEquals(List.of(new UserListResponseInner("test_user2", "Петров Петр")), page.getItems()))
+              .verifyComplete();
+      StepVerifier.create(userService.getUserDirectory("%", null, 20))
+              .assertNext(page -> assertTrue(page.getItems().isEmpty(), "Символ % ищется буквально"))
+              .verifyComplete();
+
+      assertThrows(IllegalArgumentException.class, () -> userService.getUserDirectory(null, "not-a-cursor", 20));
+  }
+
+  @Test
+  void getUserByLogin_shouldServeFromCacheUntilInvalidationFromOtherReplica() {
+      // Сброс кэша читается из одной вручную назначенной партиции
+      kafkaListenerEndpointRegistry.getListenerContainers().forEach(container ->
+              ContainerTestUtils.waitForAssignment(container, 1));
+      double hitsBefore = meterRegistry.get("cache.gets")
+              .tags("cache", "accounts.user.profile", "result", "hit").functionCounter().count();
+
+      StepVerifier.create(userService.getUserByLogin("test_user3"))
+              .assertNext(user -> assertEquals("Сидоров Степан", user.getName()))
+              .verifyComplete();
+
+      // Изменение в обход сервиса (как на другой реплике): ответ берется из кэша
+      databaseClient.sql("UPDATE users SET name = 'Степанов Степан' WHERE login = 'test_user3'")
+              .fetch().rowsUpdated().block();
+      StepVerifier.create(userService.getUserByLogin("test_user3"))
+              .assertNext(user -> assertEquals("Сидоров Степан", user.getName()))
+              .verifyComplete();
+      assertEquals(1.0, meterRegistry.get("cache.gets")
+              .tags("cache", "accounts.user.profile", "result", "hit").functionCounter().count() - hitsBefore);
+
+      // Другая реплика сообщает о сбросе через Kafka
+      cacheInvalidationTemplate.send(UserProfileCache.TOPIC, UserProfileCache.PARTITION, "test_user3",
+              UserCacheInvalidationMessage.builder()
+                      .login("test_user3")
+                      .instanceId("other-replica")
+                      .build());
+
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      String name = null;
+      while (!"Степанов Степан".equals(name) && System.nanoTime() < deadline) {
+          name = userService.getUserByLogin("test_user3").block().getName();
+          if (!"Степанов Степан".equals(name)) {
+              Mono.delay(Duration.ofMillis(100)).block();
+          }
+      }
+      assertEquals("Степанов Степан", name, "Кэш должен быть сброшен по сообщению из Kafka");
+  }
+
+  @Test
+  void getUserByLogin_shouldServeHitWithoutQueriesUntilPasswordChange() {
+      StepVerifier.create(userService.getUserByLogin("test_user3"))
+              .assertNext(user -> assertNotNull(user.getPassword()))
+              .verifyComplete();
+
+      // Профиль вместе с хешем пароля уже в кэше: повторный вызов не обращается к БД
+      queryStatistics.start();
+      StepVerifier.create(userService.getUserByLogin("test_user3"))
+              .assertNext(user -> {
+                  assertNotNull(user.getPassword());
+                  assertEquals("Сидоров Степан", user.getName());
+              })
+              .verifyComplete();
+      assertEquals(0, queryStatistics.executed("FROM users"));
+      queryStatistics.stop();
+
+      // Смена пароля через сервис сбрасывает запись
+      String hash = "$2a$12$DpyrJV1Ob2RR7WZnEEUsVOShUOexUQIg.J/lzad8FNYty6/BDByo6";
+      userService.updateUserPassword(new UserPasswordRequest("test_user3", hash)).block();
+      StepVerifier.create(userService.getUserByLogin("test_user3"))
+              .assertNext(user -> assertEquals(hash, user.getPassword()))
+              .verifyComplete();
+  }
+
   @Test
   void getUserByLogin_shouldReturnUserDetailResponse() {
       AccountInfoRow rubAccount = new AccountInfoRow(AccountCurrencyEnum.RUB, BigDecimal.ZERO, false);
@@ -467,6 +590,22 @@ class UserServiceImplTest {
               .verifyComplete();
   }
 
+  @Test
+  void getUserByLogin_shouldLoadUserRolesAndAccountsWithOneStatement() {
+      userProfileCache.invalidateAll();
+      queryStatistics.start();
+      StepVerifier.create(userService.getUserByLogin("test_user1"))
+              .assertNext(user -> {
+                  assertNotNull(user.getPassword());
+                  assertEquals(List.of("ROLE_CLIENT"), user.getRoles());
+                  assertEquals(AccountCurrencyEnum.values().length, user.getAccounts().size());
+              })
+              .verifyComplete();
+      // Пользователь, роли и счета читаются одним оператором, каждый из прежних запросов соединялся с users
+      assertEquals(1, queryStatistics.executed("users"));
+      queryStatistics.stop();
+  }
+
     @Test
     void getUserByLoginNotExistingUser_shouldReturnUserNotFoundError() {
         StepVerifier.create(userService.getUserByLogin("test_user4"))
@@ -673,6 +812,272 @@ class UserServiceImplTest {
                         });
     }
 
+    @Test
+    void cashOperationConcurrentWithdrawals_shouldNeverOverdrawHotAccount() {
+        // 50 параллельных снятий по 5000 с одного счета на 150000: успешны ровно 30
+        CashRequest cashRequest = new CashRequest(
+                AccountCurrencyEnum.RUB,
+                new BigDecimal("5000.0"),
+                CashRequest.ActionEnum.GET
+        );
+        int operations = 50;
+
+        queryStatistics.start();
+        List<AccountOperationResponse> responses = Flux.range(0, operations)
+                .flatMap(i -> userService.cashOperation(cashRequest, "test_user1"), 16)
+                .collectList()
+                .block(Duration.ofSeconds(60));
+        // Каждое снятие - один условный UPDATE без предварительного чтения счета; журнал пишется только для успешных
+        long updates = queryStatistics.executed("UPDATE accounts");
+        long ledgerInserts = queryStatistics.executed("INSERT INTO ledger_entries");
+        queryStatistics.stop();
+
+        assertEquals(operations, updates);
+        assertEquals(30, ledgerInserts);
+        assertNotNull(responses);
+        assertEquals(operations, responses.size());
+        assertEquals(30, responses.stream()
+                .filter(r -> r.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS)
+                .count());
+        assertTrue(responses.stream()
+                .filter(r -> r.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.FAILED)
+                .allMatch(r -> r.getErrors().equals(List.of("На счете недостаточно средств"))));
+
+        StepVerifier.create(accountRepository.findByUserIdAndCurrency(1L, "RUB"))
+                .assertNext(account -> assertEquals(0, BigDecimal.ZERO.compareTo(account.getBalance())))
+                .verifyComplete();
+    }
+
+    @Test
+    void accountMailbox_shouldIsolateFailedNotificationFromOtherPostingsOfBatch() {
+        SimpleMeterRegistry mailboxMeterRegistry = new SimpleMeterRegistry();
+        AccountMailbox accountMailbox =
+                new AccountMailbox(accountRepository, ledgerEntryRepository, accountTransferEngine, 1, 256, mailboxMeterRegistry);
+        Long rubAccountId = accountRepository.findByUserIdAndCurrency(1L, "RUB").block().getId();
+
+        // Проводка ставится в очередь при вызове submit: первая задерживает очередь, две следующие попадают в одну пачку
+        Mono<Boolean> first = accountMailbox.submit(
+                rubAccountId, null, new BigDecimal("1000.0"), null, () -> Mono.delay(Duration.ofMillis(300)).then());
+        Mono<Boolean> second = accountMailbox.submit(rubAccountId, null, new BigDecimal("2000.0"), null, Mono::empty);
+        Mono<Boolean> failed = accountMailbox.submit(
+                rubAccountId, null, new BigDecimal("4000.0"), null, () -> Mono.error(new IllegalStateException("outbox")));
+
+        StepVerifier.create(first).expectNext(true).verifyComplete();
+        StepVerifier.create(second).expectNext(true).verifyComplete();
+        StepVerifier.create(failed).expectErrorMessage("outbox").verify(Duration.ofSeconds(10));
+        assertEquals(2.0, mailboxMeterRegistry.get("accounts.mailbox.batch.size").summary().max());
+        // Отменена только проводка с ошибкой записи уведомления
+        StepVerifier.create(accountRepository.findById(rubAccountId))
+                .assertNext(account -> assertEquals(0, new BigDecimal("147000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+    }
+
+    @Test
+    void accountMailbox_shouldCoalesceConcurrentPostingsOnHotAccount() {
+        SimpleMeterRegistry mailboxMeterRegistry = new SimpleMeterRegistry();
+        AccountMailbox accountMailbox =
+                new AccountMailbox(accountRepository, ledgerEntryRepository, accountTransferEngine, 4, 256, mailboxMeterRegistry);
+        Long rubAccountId = accountRepository.findByUserIdAndCurrency(1L, "RUB").block().getId();
+        Long cnyAccountId = accountRepository.findByUserIdAndCurrency(1L, "CNY").block().getId();
+        int operations = 200;
+
+        // Снятия по 1000 RUB и переводы по 100 CNY -> 100 RUB на тот же счет RUB
+        queryStatistics.start();
+        List<Boolean> results = Flux.range(0, operations)
+                .flatMap(i -> i % 2 == 0
+                        ? accountMailbox.submit(rubAccountId, null, new BigDecimal("1000.0"), null, Mono::empty)
+                        : accountMailbox.submit(
+                                cnyAccountId, rubAccountId, new BigDecimal("100.0"), new BigDecimal("100.0"), Mono::empty),
+                        operations)
+                .collectList()
+                .block(Duration.ofSeconds(60));
+        long updates = queryStatistics.executed("UPDATE accounts");
+        long ledgerInserts = queryStatistics.executed("INSERT INTO ledger_entries");
+        queryStatistics.stop();
+
+        assertNotNull(results);
+        assertEquals(operations, results.size());
+        assertTrue(results.stream().allMatch(Boolean::booleanValue));
+        // 100 снятий по 1000 и 100 зачислений по 100: 150000 - 100000 + 10000
+        StepVerifier.create(accountRepository.findById(rubAccountId))
+                .assertNext(account -> assertEquals(0, new BigDecimal("60000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+        StepVerifier.create(accountRepository.findById(cnyAccountId))
+                .assertNext(account -> assertEquals(0, new BigDecimal("10000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+        // Проводки объединяются: пачек меньше, чем операций, и каждая пачка записывает балансы
+        // одним UPDATE, а журнал - одной вставкой
+        long batches = mailboxMeterRegistry.get("accounts.mailbox.batch.size").summary().count();
+        assertTrue(batches < operations);
+        assertEquals(batches, updates);
+        assertEquals(batches, ledgerInserts);
+        // Журнал пачек согласован с балансами: 100 снятий и 100 переводов по две записи
+        assertEquals(0, newLedgerCheckpointer().checkpoint().block());
+        StepVerifier.create(ledgerEntryRepository.count())
+                .expectNext(5L + 100 + 2 * 100)
+                .verifyComplete();
+    }
+
+    private LedgerCheckpointer newLedgerCheckpointer() {
+        return new LedgerCheckpointer(ledgerEntryRepository, Duration.ofHours(1), Duration.ZERO, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void accountStatement_shouldPageThroughWholeHistoryOfOneAccount() {
+        Long rubAccountId = accountRepository.findByUserIdAndCurrency(1L, "RUB").block().getId();
+        Long cnyAccountId = accountRepository.findByUserIdAndCurrency(1L, "CNY").block().getId();
+        // История вперемешку по счету RUB и по соседнему счету CNY
+        List<LedgerEntry> history = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            history.add(LedgerEntry.builder()
+                    .accountId(i % 2 == 0 ? rubAccountId : cnyAccountId)
+                    .postingId((i % 2 == 0 ? "rub-" : "cny-") + i)
+                    .operation(LedgerEntry.CASH_IN)
+                    .amount(BigDecimal.ONE)
+                    .balanceAfter(BigDecimal.ONE)
+                    .createdAt(0L)
+                    .build());
+        }
+        ledgerEntryRepository.insertAll(history).block();
+
+        // Страницы по 50 записей, курсор - id последней записи предыдущей страницы
+        List<StatementEntry> statement = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        Long before = null;
+        while (true) {
+            List<StatementEntry> page = accountStatementService
+                    .getAccountStatement("test_user1", AccountCurrencyEnum.RUB, before, 50)
+                    .flatMapMany(flux -> flux)
+                    .collectList()
+                    .block(Duration.ofSeconds(5));
+            assertNotNull(page);
+            pageSizes.add(page.size());
+            if (page.isEmpty()) {
+                break;
+            }
+            statement.addAll(page);
+            before = page.get(page.size() - 1).getId();
+        }
+
+        // 125 проводок RUB и начальная запись счета, без проводок CNY и без повторов между страницами
+        assertEquals(List.of(50, 50, 26, 0), pageSizes);
+        assertEquals(126, statement.size());
+        assertTrue(statement.stream().noneMatch(entry -> entry.getPostingId().startsWith("cny-")));
+        for (int i = 1; i < statement.size(); i++) {
+            // От новых проводок к старым
+            assertTrue(statement.get(i - 1).getId() > statement.get(i).getId());
+        }
+        assertEquals("rub-248", statement.get(0).getPostingId());
+        assertEquals(StatementEntry.OperationEnum.OPENING, statement.get(statement.size() - 1).getOperation());
+    }
+
+    @Test
+    void ledgerCheckpointer_shouldVerifyPostingsIncrementallyAndDetectBalanceDrift() {
+        LedgerCheckpointer checkpointer = newLedgerCheckpointer();
+        userService.cashOperation(new CashRequest(AccountCurrencyEnum.RUB, new BigDecimal("1000.0"), CashRequest.ActionEnum.GET), "test_user1").block();
+        userService.transferOperation(new TransferRequest(AccountCurrencyEnum.CNY, AccountCurrencyEnum.CNY,
+                new BigDecimal("500.0"), new BigDecimal("500.0"), "test_user2"), "test_user1").block();
+
+        // Начальные записи пяти счетов, снятие и две записи перевода с общим posting_id
+        StepVerifier.create(ledgerEntryRepository.findAll().collectList())
+                .assertNext(entries -> {
+                    assertEquals(8, entries.size());
+                    List<LedgerEntry> transfer = entries.subList(6, 8);
+                    assertEquals(transfer.get(0).getPostingId(), transfer.get(1).getPostingId());
+                    assertEquals(List.of(LedgerEntry.TRANSFER_OUT, LedgerEntry.TRANSFER_IN),
+                            transfer.stream().map(LedgerEntry::getOperation).toList());
+                    assertEquals(0, new BigDecimal("149000.0").compareTo(entries.get(5).getBalanceAfter()));
+                    assertEquals(0, new BigDecimal("-1000.0").compareTo(entries.get(5).getAmount()));
+                })
+                .verifyComplete();
+        assertEquals(0, checkpointer.checkpoint().block());
+        // Новых записей нет - повторный запуск ничего не пересчитывает
+        assertEquals(0, checkpointer.checkpoint().block());
+
+        // Баланс изменен в обход журнала: следующая проводка по счету выявляет расхождение
+        databaseClient.sql("UPDATE accounts SET balance = balance + 1 WHERE user_id = 1 AND currency = 'RUB'").then().block();
+        userService.cashOperation(new CashRequest(AccountCurrencyEnum.RUB, new BigDecimal("10.0"), CashRequest.ActionEnum.PUT), "test_user1").block();
+        assertEquals(1, checkpointer.checkpoint().block());
+    }
+
+  @Test
+  void idempotentCashOperation_shouldRollBackPostingWhenConcurrentRetryRecordedKey() {
+    CashRequest withdrawal =
+        new CashRequest(AccountCurrencyEnum.RUB, new BigDecimal("1000.0"), CashRequest.ActionEnum.GET);
+    String requestHash = idempotencyService.requestHash("cash", "test_user1", withdrawal);
+    IdempotencyKey recorded =
+        idempotencyService.completedKey(
+            "cash-race",
+            requestHash,
+            new AccountOperationResponse(AccountOperationResponse.OperationStatusEnum.SUCCESS, List.of()));
+
+    // Одновременный повтор зафиксировал ключ после проверки ключа этой попыткой, но до ее проводки
+    AccountOperationResponse response =
+        idempotencyService
+            .execute(
+                "cash-race",
+                "cash",
+                "test_user1",
+                withdrawal,
+                () ->
+                    idempotencyKeyRepository
+                        .insertCompleted(List.of(recorded))
+                        .then(userService.cashOperation(withdrawal, "test_user1")))
+            .block();
+
+    // Вставка ключа в транзакции проводки нарушила первичный ключ: проводка и уведомление откатились,
+    // вызывающий получил ответ первой попытки
+    assertNotNull(response);
+    assertEquals(AccountOperationResponse.OperationStatusEnum.SUCCESS, response.getOperationStatus());
+    StepVerifier.create(accountRepository.findByUserIdAndCurrency(1L, "RUB"))
+        .assertNext(account -> assertEquals(0, new BigDecimal("150000.0").compareTo(account.getBalance())))
+        .verifyComplete();
+    assertEquals(
+        0L,
+        databaseClient
+            .sql("SELECT COUNT(*) AS cnt FROM outbox_notifications WHERE message LIKE 'Снятие наличных%'")
+            .map(row -> row.get("cnt", Long.class))
+            .one()
+            .block());
+  }
+
+    @Test
+    void bulkPostings_shouldWriteBatchWithOneStatementPerTable() {
+        int operations = 50;
+        CashRequest deposit = new CashRequest(AccountCurrencyEnum.RUB, new BigDecimal("10.0"), CashRequest.ActionEnum.PUT);
+
+        // По одной операции на вызов: отдельные UPDATE баланса и вставки журнала и outbox на каждую операцию
+        queryStatistics.start();
+        Flux.range(0, operations)
+                .concatMap(i -> userService.cashOperation(deposit, "test_user1"))
+                .blockLast(Duration.ofSeconds(120));
+        assertEquals(operations, queryStatistics.executed("UPDATE accounts"));
+        assertEquals(operations, queryStatistics.executed("INSERT INTO ledger_entries"));
+        assertEquals(operations, queryStatistics.executed("INSERT INTO outbox_notifications"));
+
+        // Те же операции одним пакетом: по одному оператору на таблицу
+        List<PostingItem> items = new ArrayList<>();
+        for (int i = 0; i < operations; i++) {
+            PostingItem item = new PostingItem("test_user1");
+            item.setCash(deposit);
+            items.add(item);
+        }
+        queryStatistics.start();
+        BulkPostingResponse response = bulkPostingService.apply(new BulkPostingRequest(items)).block(Duration.ofSeconds(60));
+        assertEquals(1, queryStatistics.executed("UPDATE accounts"));
+        assertEquals(1, queryStatistics.executed("INSERT INTO ledger_entries"));
+        assertEquals(1, queryStatistics.executed("INSERT INTO outbox_notifications"));
+        queryStatistics.stop();
+
+        assertNotNull(response);
+        assertTrue(response.getResults().stream()
+                .allMatch(result -> result.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS));
+        // 150000 + 2 * 50 * 10
+        StepVerifier.create(accountRepository.findByUserIdAndCurrency(1L, "RUB"))
+                .assertNext(account -> assertEquals(0, new BigDecimal("151000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+    }
+
     @Test
     void transferOperationOtherOk_shouldReturnAccountOperationResponseWithSuccess() {
     TransferRequest transferRequestOtherSuccess = new TransferRequest(
@@ -736,6 +1141,37 @@ class UserServiceImplTest {
                 }).verifyComplete();
     }
 
+    @Test
+    void transferOperationCounterTransfers_shouldNotDeadlockAndKeepBalances() {
+        // Встречные переводы A->B и B->A по 100 CNY выполняются параллельно
+        TransferRequest fromUser1 = new TransferRequest(
+                AccountCurrencyEnum.CNY, AccountCurrencyEnum.CNY,
+                new BigDecimal("100.0"), new BigDecimal("100.0"), "test_user2");
+        TransferRequest fromUser2 = new TransferRequest(
+                AccountCurrencyEnum.CNY, AccountCurrencyEnum.CNY,
+                new BigDecimal("100.0"), new BigDecimal("100.0"), "test_user1");
+        int transfers = 40;
+
+        List<AccountOperationResponse> responses = Flux.range(0, transfers)
+                .flatMap(i -> i % 2 == 0
+                        ? userService.transferOperation(fromUser1, "test_user1")
+                        : userService.transferOperation(fromUser2, "test_user2"), 16)
+                .collectList()
+                .block(Duration.ofSeconds(60));
+
+        assertNotNull(responses);
+        assertTrue(responses.stream()
+                .allMatch(r -> r.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS));
+
+        StepVerifier.create(accountRepository.findByUserIdAndCurrency(1L, "CNY"))
+                .assertNext(account -> assertEquals(0, new BigDecimal("20000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+        StepVerifier.create(accountRepository.findByUserIdAndCurrency(2L, "CNY"))
+                .assertNext(account -> assertEquals(0, new BigDecimal("12000.0").compareTo(account.getBalance())))
+                .verifyComplete();
+        assertTrue(meterRegistry.get("accounts.transfer.lock.wait").timer().count() >= transfers);
+    }
+
     @Test
     void transferOperationOtherWithMissingAccountIfself_shouldReturnAccountNotFoundForCurrencyException() {
         TransferRequest transferRequestOtherSuccess = new TransferRequest(
@@ -891,6 +1327,7 @@ class UserServiceImplTest {
                                     .findFirst().get()));
                 }).verifyComplete();
 
+        queryStatistics.start();
         StepVerifier.create(userService.transferOperation(transferRequestOtherSuccess, "test_user1"))
                 .assertNext(
                         accountOperationResponse -> {
@@ -903,6 +1340,10 @@ class UserServiceImplTest {
                             assertEquals(List.of("На счете недостаточно средств"), accountOperationResponse.getErrors());
                         })
                 .verifyComplete();
+        // Нехватку средств определяет условный UPDATE, не изменивший ни одной строки; журнал не пишется
+        assertEquals(1, queryStatistics.executed("UPDATE accounts"));
+        assertEquals(0, queryStatistics.executed("INSERT INTO ledger_entries"));
+        queryStatistics.stop();
 
         StepVerifier.create(userService.getUserByLogin("test_user1"))
                 .assertNext(userDetailResponse -> {
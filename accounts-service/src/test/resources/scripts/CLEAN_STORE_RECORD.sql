@@ -1,3 +1,7 @@
+DELETE FROM ledger_checkpoints;
+DELETE FROM ledger_entries;
+DELETE FROM idempotency_keys;
+DELETE FROM outbox_notifications;
 DELETE FROM accounts;
 DELETE FROM users_roles;
 DELETE FROM roles;
@@ -5,3 +9,5 @@ DELETE FROM users;
 ALTER TABLE users ALTER COLUMN id RESTART WITH 1;
 ALTER TABLE roles ALTER COLUMN id RESTART WITH 1;
 ALTER TABLE accounts ALTER COLUMN id RESTART WITH 1;
+ALTER TABLE outbox_notifications ALTER COLUMN id RESTART WITH 1;
+ALTER TABLE ledger_entries ALTER COLUMN id RESTART WITH 1;
@@ -16,4 +16,7 @@ INSERT INTO accounts(user_id, currency, balance) VALUES
     (1, 'CNY', 20000.0),
     (2, 'USD', 1000.0),
     (2, 'CNY', 12000.0),
-    (3, 'CNY', 5000.0);
\ No newline at end of file
+    (3, 'CNY', 5000.0);
+
+INSERT INTO ledger_entries(account_id, posting_id, operation, amount, balance_after, created_at)
+SELECT id, 'opening-' || id, 'OPENING', balance, balance, 0 FROM accounts;
@@ -0,0 +1,20 @@
+package ru.strbnm.kafka.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Builder
+@Data
+@AllArgsConstructor
+@RequiredArgsConstructor
+public class CashCommandMessage {
+    private String commandId;
+    private String login;
+    private String currency;
+    private BigDecimal amount;
+    private String action;
+}
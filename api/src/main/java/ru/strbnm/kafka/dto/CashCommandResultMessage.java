@@ -0,0 +1,19 @@
+package ru.strbnm.kafka.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Builder
+@Data
+@AllArgsConstructor
+@RequiredArgsConstructor
+public class CashCommandResultMessage {
+    private String commandId;
+    private String login;
+    private String operationStatus;
+    private List<String> errors;
+}
@@ -0,0 +1,16 @@
+package ru.strbnm.kafka.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+@Builder
+@Data
+@AllArgsConstructor
+@RequiredArgsConstructor
+public class UserCacheInvalidationMessage {
+    private String login;           // null, если изменился только список пользователей
+    private boolean userListChanged;
+    private String instanceId;      // реплика, которая уже сбросила свой кэш
+}
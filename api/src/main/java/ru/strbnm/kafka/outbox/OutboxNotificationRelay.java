@@ -0,0 +1,214 @@
+package ru.strbnm.kafka.outbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.kafka.dto.NotificationMessage;
+
+@Slf4j
+public class OutboxNotificationRelay {
+
+  /*
+  Пересылка уведомлений из таблицы outbox_notifications в Kafka, общая для сервисов с outbox.
+  Уведомление записывается в outbox в той же транзакции, что и бизнес-операция, поэтому ответ
+  клиенту не ждет подтверждения брокера, а при откате транзакции уведомление не отправляется.
+  Пачка захватывается короткой транзакцией: строки выбираются через FOR UPDATE SKIP LOCKED и
+  получают аренду claimed_until, после чего транзакция фиксируется. Отправка в Kafka идет уже без
+  открытой транзакции и блокировок, подтвержденные строки помечаются отправленными отдельным
+  запросом, а неотправленные освобождаются для следующей попытки. Если реплика упала между
+  отправкой и отметкой, строки вернутся в очередь по истечении аренды (доставка at-least-once).
+  */
+
+  public static final String TOPIC = "notifications";
+
+  private final String application;
+  private final DatabaseClient databaseClient;
+  private final KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private final TransactionalOperator transactionalOperator;
+  private final int limit;
+  private final Duration interval;
+  private final Duration claimTimeout;
+  private final Counter sentCounter;
+  private final Counter failedCounter;
+  private final DistributionSummary lagSummary;
+  private Disposable relayTask;
+
+  public OutboxNotificationRelay(
+      String application,
+      DatabaseClient databaseClient,
+      KafkaTemplate<String, NotificationMessage> kafkaTemplate,
+      TransactionalOperator transactionalOperator,
+      int limit,
+      Duration interval,
+      Duration claimTimeout,
+      MeterRegistry meterRegistry) {
+    this.application = application;
+    this.databaseClient = databaseClient;
+    this.kafkaTemplate = kafkaTemplate;
+    this.transactionalOperator = transactionalOperator;
+    this.limit = limit;
+    this.interval = interval;
+    this.claimTimeout = claimTimeout;
+    this.sentCounter =
+        Counter.builder("outbox.notifications.sent")
+            .description("Количество уведомлений, отправленных из outbox в Kafka")
+            .register(meterRegistry);
+    this.failedCounter =
+        Counter.builder("outbox.notifications.failed")
+            .description("Количество уведомлений, которые не удалось отправить в Kafka")
+            .register(meterRegistry);
+    this.lagSummary =
+        DistributionSummary.builder("outbox.notifications.lag")
+            .description("Задержка между записью уведомления в outbox и его отправкой")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+  }
+
+  // Отправляет пачки, пока очередь не опустеет или брокер не откажет
+  public Mono<Void> relayPending() {
+    return relayBatch().expand(sent -> sent == limit ? relayBatch() : Mono.empty()).then();
+  }
+
+  public Mono<Integer> relayBatch() {
+    return claimBatch()
+        .flatMap(
+            batch -> {
+              if (batch.isEmpty()) {
+                return Mono.just(0);
+              }
+              return Flux.fromIterable(batch)
+                  .flatMap(this::send)
+                  .collectList()
+                  .flatMap(sent -> complete(batch, sent));
+            });
+  }
+
+  // Короткая транзакция: выбор свободных строк и выдача им аренды
+  private Mono<List<PendingNotification>> claimBatch() {
+    long now = Instant.now().getEpochSecond();
+    return databaseClient
+        .sql(
+            """
+            SELECT id, email, message, created_at
+            FROM outbox_notifications
+            WHERE is_sent = FALSE AND (claimed_until IS NULL OR claimed_until < :now)
+            ORDER BY id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """)
+        .bind("now", now)
+        .bind("limit", limit)
+        .map(
+            row ->
+                new PendingNotification(
+                    row.get("id", Long.class),
+                    row.get("email", String.class),
+                    row.get("message", String.class),
+                    row.get("created_at", Long.class)))
+        .all()
+        .collectList()
+        .flatMap(
+            batch ->
+                batch.isEmpty()
+                    ? Mono.just(batch)
+                    : databaseClient
+                        .sql("UPDATE outbox_notifications SET claimed_until = :claimedUntil WHERE id IN (:ids)")
+                        .bind("claimedUntil", now + claimTimeout.toSeconds())
+                        .bind("ids", ids(batch))
+                        .fetch()
+                        .rowsUpdated()
+                        .thenReturn(batch))
+        .as(transactionalOperator::transactional);
+  }
+
+  // Ошибка отправки одного сообщения не мешает остальным сообщениям пачки
+  private Mono<PendingNotification> send(PendingNotification notification) {
+    return Mono.defer(() -> Mono.fromFuture(kafkaTemplate.send(TOPIC, toMessage(notification))))
+        .thenReturn(notification)
+        .onErrorResume(
+            e -> {
+              failedCounter.increment();
+              log.warn("Не удалось отправить уведомление {} из outbox: {}", notification.id(), e.getMessage());
+              return Mono.empty();
+            });
+  }
+
+  private Mono<Integer> complete(List<PendingNotification> batch, List<PendingNotification> sent) {
+    long now = Instant.now().getEpochSecond();
+    List<PendingNotification> failed = batch.stream().filter(n -> !sent.contains(n)).toList();
+    Mono<Long> markSent =
+        sent.isEmpty()
+            ? Mono.just(0L)
+            : databaseClient
+                .sql("UPDATE outbox_notifications SET is_sent = TRUE, updated_at = :sentAt WHERE id IN (:ids)")
+                .bind("sentAt", now)
+                .bind("ids", ids(sent))
+                .fetch()
+                .rowsUpdated();
+    // Неотправленные строки освобождаются сразу, не дожидаясь истечения аренды
+    Mono<Long> release =
+        failed.isEmpty()
+            ? Mono.just(0L)
+            : databaseClient
+                .sql("UPDATE outbox_notifications SET claimed_until = NULL WHERE id IN (:ids)")
+                .bind("ids", ids(failed))
+                .fetch()
+                .rowsUpdated();
+    return markSent
+        .then(release)
+        .doOnSuccess(
+            updated -> {
+              sentCounter.increment(sent.size());
+              sent.forEach(n -> lagSummary.record(now - n.createdAt()));
+            })
+        .thenReturn(sent.size());
+  }
+
+  private static List<Long> ids(List<PendingNotification> notifications) {
+    return notifications.stream().map(PendingNotification::id).toList();
+  }
+
+  private NotificationMessage toMessage(PendingNotification notification) {
+    return NotificationMessage.builder()
+        .email(notification.email())
+        .message(notification.message())
+        .application(application)
+        .build();
+  }
+
+  // Запуск после старта приложения, когда миграции Liquibase уже применены
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleTask() {
+    relayTask =
+        Flux.interval(interval, interval)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    relayPending()
+                        .doOnError(e -> log.error("Ошибка при отправке уведомлений из outbox", e))
+                        .onErrorComplete())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (relayTask != null) {
+      relayTask.dispose();
+    }
+  }
+
+  private record PendingNotification(Long id, String email, String message, Long createdAt) {}
+}
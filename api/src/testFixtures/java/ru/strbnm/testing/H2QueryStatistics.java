@@ -0,0 +1,38 @@
+package ru.strbnm.testing;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+public final class H2QueryStatistics {
+
+  /*
+  Число выполненных операторов по статистике запросов H2 (INFORMATION_SCHEMA.QUERY_STATISTICS)
+  для тестов, проверяющих количество запросов. start() сбрасывает статистику повторным включением,
+  executed() суммирует выполнения операторов, текст которых содержит заданный фрагмент,
+  stop() выключает сбор, чтобы он не замедлял остальные тесты.
+  */
+
+  private final DatabaseClient databaseClient;
+
+  public H2QueryStatistics(DatabaseClient databaseClient) {
+    this.databaseClient = databaseClient;
+  }
+
+  public void start() {
+    databaseClient.sql("SET QUERY_STATISTICS FALSE").then().block();
+    databaseClient.sql("SET QUERY_STATISTICS TRUE").then().block();
+  }
+
+  public long executed(String statement) {
+    return databaseClient
+        .sql("SELECT COALESCE(SUM(EXECUTION_COUNT), 0) AS cnt FROM INFORMATION_SCHEMA.QUERY_STATISTICS "
+            + "WHERE SQL_STATEMENT LIKE :pattern")
+        .bind("pattern", "%" + statement + "%")
+        .map(row -> row.get("cnt", Number.class).longValue())
+        .one()
+        .block();
+  }
+
+  public void stop() {
+    databaseClient.sql("SET QUERY_STATISTICS FALSE").then().block();
+  }
+}
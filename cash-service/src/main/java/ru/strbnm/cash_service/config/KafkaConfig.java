@@ -0,0 +1,58 @@
+package ru.strbnm.cash_service.config;
+
+import java.time.Duration;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
+import ru.strbnm.cash_service.service.CashCommandListener;
+import ru.strbnm.kafka.dto.CashCommandMessage;
+
+@Profile("!contracts")
+@Configuration
+public class KafkaConfig {
+
+    // Число партиций ограничивает число одновременно обрабатываемых пачек команд во всех репликах
+    @Bean
+    public NewTopic cashCommandsTopic(@Value("${application.cash.commands.partitions:6}") int partitions) {
+        return TopicBuilder.name(CashCommandListener.TOPIC).partitions(partitions).build();
+    }
+
+    @Bean
+    public NewTopic cashCommandResultsTopic(@Value("${application.cash.commands.partitions:6}") int partitions) {
+        return TopicBuilder.name(CashCommandListener.RESULT_TOPIC).partitions(partitions).build();
+    }
+
+    @Bean
+    public NewTopic cashCommandsDeadLetterTopic(@Value("${application.cash.commands.partitions:6}") int partitions) {
+        return TopicBuilder.name(CashCommandListener.DEAD_LETTER_TOPIC).partitions(partitions).build();
+    }
+
+    /*
+    Пачка, завершившаяся ошибкой (недоступность сервисов, брокера), повторяется с растущей паузой
+    не более max-retries раз. После этого команды пачки публикуются в cash-commands-dlt в ту же
+    партицию и смещения фиксируются, чтобы одна пачка не останавливала партицию навсегда.
+    */
+    @Bean
+    public DefaultErrorHandler kafkaErrorHandler(
+            KafkaTemplate<String, CashCommandMessage> kafkaTemplate,
+            @Value("${application.cash.commands.retry.initial-interval:1s}") Duration initialInterval,
+            @Value("${application.cash.commands.retry.max-interval:1m}") Duration maxInterval,
+            @Value("${application.cash.commands.retry.max-retries:10}") int maxRetries) {
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(maxRetries);
+        backOff.setInitialInterval(initialInterval.toMillis());
+        backOff.setMultiplier(2.0);
+        backOff.setMaxInterval(maxInterval.toMillis());
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(
+                kafkaTemplate,
+                (record, e) -> new TopicPartition(CashCommandListener.DEAD_LETTER_TOPIC, record.partition()));
+        return new DefaultErrorHandler(recoverer, backOff);
+    }
+}
@@ -26,7 +26,11 @@ public class CashTransactionInfo {
     private String currency;
     
     private String action;
-    
+
+    // Идентификатор команды из Kafka, для операций через REST не заполняется
+    @Column("command_id")
+    private String commandId;
+
     @Column("is_blocked")
     private boolean isBlocked;
 
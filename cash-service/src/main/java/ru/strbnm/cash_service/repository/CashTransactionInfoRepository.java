@@ -1,8 +1,13 @@
 package ru.strbnm.cash_service.repository;
 
+import java.util.Collection;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import ru.strbnm.cash_service.entity.CashTransactionInfo;
 
 @Repository
-public interface CashTransactionInfoRepository extends ReactiveCrudRepository<CashTransactionInfo, Long> {}
+public interface CashTransactionInfoRepository extends ReactiveCrudRepository<CashTransactionInfo, Long> {
+
+    Flux<CashTransactionInfo> findByCommandIdIn(Collection<String> commandIds);
+}
@@ -0,0 +1,135 @@
+package ru.strbnm.cash_service.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import ru.strbnm.cash_service.domain.CashCurrencyEnum;
+import ru.strbnm.cash_service.domain.CashOperationRequest;
+import ru.strbnm.cash_service.domain.CashOperationResponse;
+import ru.strbnm.kafka.dto.CashCommandMessage;
+import ru.strbnm.kafka.dto.CashCommandResultMessage;
+
+@Slf4j
+@Profile("!contracts")
+@Component
+public class CashCommandListener {
+
+  /*
+  Прием операций с наличными из Kafka. Команды публикуются в топик cash-commands с ключом login,
+  поэтому команды одного пользователя попадают в одну партицию и выполняются по порядку,
+  а пропускная способность растет с числом партиций и реплик сервиса.
+  Полученная пачка разбирается по партициям: команды партиции проводятся пакетными вызовами
+  accounts-service, партиции обрабатываются параллельно. Результаты публикуются в
+  cash-command-results с тем же ключом, смещения фиксируются после подтверждения брокером
+  всех результатов. Если пачка завершилась ошибкой, она обрабатывается повторно
+  (KafkaConfig), повторная проводка исключена ключом идемпотентности команды. Пачка, не
+  обработанная за max-retries повторов, передается в cash-commands-dlt.
+  */
+
+  public static final String TOPIC = "cash-commands";
+  public static final String RESULT_TOPIC = "cash-command-results";
+  public static final String DEAD_LETTER_TOPIC = "cash-commands-dlt";
+
+  private final CashService cashService;
+  private final KafkaTemplate<String, CashCommandResultMessage> kafkaTemplate;
+
+  public CashCommandListener(
+      CashService cashService, KafkaTemplate<String, CashCommandResultMessage> kafkaTemplate) {
+    this.cashService = cashService;
+    this.kafkaTemplate = kafkaTemplate;
+  }
+
+  // Нечитаемое сообщение приходит как null и пропускается, не блокируя партицию.
+  // Новая группа читает топик с начала, чтобы не потерять команды, отправленные до ее создания
+  @KafkaListener(
+      topics = TOPIC,
+      groupId = "cash-service-commands",
+      batch = "true",
+      concurrency = "${application.cash.commands.concurrency:1}",
+      properties = {
+        "auto.offset.reset=earliest",
+        "max.poll.records=${application.cash.commands.max-poll-records:500}",
+        "value.deserializer=org.springframework.kafka.support.serializer.ErrorHandlingDeserializer",
+        "spring.deserializer.value.delegate.class=org.springframework.kafka.support.serializer.JsonDeserializer",
+        "spring.json.use.type.headers=false",
+        "spring.json.value.default.type=ru.strbnm.kafka.dto.CashCommandMessage"
+      })
+  public void listen(List<ConsumerRecord<String, CashCommandMessage>> records) {
+    Map<Integer, List<CashCommandMessage>> byPartition = new LinkedHashMap<>();
+    List<CashCommandResultMessage> results = new ArrayList<>();
+    Set<String> commandIds = new HashSet<>();
+    for (ConsumerRecord<String, CashCommandMessage> record : records) {
+      CashCommandMessage command = record.value();
+      if (command == null) {
+        log.error(
+            "Нечитаемая команда {}-{}@{} пропущена", record.topic(), record.partition(), record.offset());
+        continue;
+      }
+      List<String> errors = validate(command);
+      if (!errors.isEmpty()) {
+        results.add(failed(command, errors));
+      } else if (commandIds.add(command.getCommandId())) {
+        byPartition.computeIfAbsent(record.partition(), partition -> new ArrayList<>()).add(command);
+      } else {
+        log.info("Повторная команда {} в пачке пропущена", command.getCommandId());
+      }
+    }
+
+    List<List<CashCommandResultMessage>> processed =
+        Flux.fromIterable(byPartition.values())
+            .flatMap(cashService::processCashCommands)
+            .collectList()
+            .block();
+    processed.forEach(results::addAll);
+
+    CompletableFuture<?>[] futures =
+        results.stream()
+            .map(result -> kafkaTemplate.send(RESULT_TOPIC, result.getLogin(), result))
+            .toArray(CompletableFuture<?>[]::new);
+    CompletableFuture.allOf(futures).join();
+  }
+
+  private List<String> validate(CashCommandMessage command) {
+    List<String> errors = new ArrayList<>();
+    if (command.getCommandId() == null || command.getCommandId().isBlank()) {
+      errors.add("Не указан идентификатор команды");
+    }
+    if (command.getLogin() == null || !command.getLogin().matches("^[A-Za-z\\d_-]+$")) {
+      errors.add("Некорректный логин пользователя");
+    }
+    try {
+      CashCurrencyEnum.fromValue(command.getCurrency());
+    } catch (IllegalArgumentException e) {
+      errors.add("Некорректная валюта операции");
+    }
+    if (command.getAmount() == null) {
+      errors.add("Не указана сумма операции");
+    }
+    try {
+      CashOperationRequest.ActionEnum.fromValue(command.getAction());
+    } catch (IllegalArgumentException e) {
+      errors.add("Некорректный тип операции");
+    }
+    return errors;
+  }
+
+  private CashCommandResultMessage failed(CashCommandMessage command, List<String> errors) {
+    return CashCommandResultMessage.builder()
+        .commandId(command.getCommandId())
+        .login(command.getLogin())
+        .operationStatus(CashOperationResponse.OperationStatusEnum.FAILED.getValue())
+        .errors(errors)
+        .build();
+  }
+}
@@ -1,9 +1,15 @@
 package ru.strbnm.cash_service.service;
 
+import java.util.List;
 import reactor.core.publisher.Mono;
 import ru.strbnm.cash_service.domain.CashOperationRequest;
 import ru.strbnm.cash_service.domain.CashOperationResponse;
+import ru.strbnm.kafka.dto.CashCommandMessage;
+import ru.strbnm.kafka.dto.CashCommandResultMessage;
 
 public interface CashService {
     Mono<CashOperationResponse> processCashTransaction(CashOperationRequest cashRequest);
+
+    // Результаты возвращаются в порядке команд
+    Mono<List<CashCommandResultMessage>> processCashCommands(List<CashCommandMessage> commands);
 }
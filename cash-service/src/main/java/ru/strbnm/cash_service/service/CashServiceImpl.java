@@ -2,26 +2,35 @@ package ru.strbnm.cash_service.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 import reactor.util.retry.Retry;
 import ru.strbnm.cash_service.client.accounts.api.AccountsServiceApi;
 import ru.strbnm.cash_service.client.accounts.domain.AccountCurrencyEnum;
 import ru.strbnm.cash_service.client.accounts.domain.AccountOperationResponse;
+import ru.strbnm.cash_service.client.accounts.domain.BulkPostingRequest;
+import ru.strbnm.cash_service.client.accounts.domain.BulkPostingResponse;
 import ru.strbnm.cash_service.client.accounts.domain.CashRequest;
+import ru.strbnm.cash_service.client.accounts.domain.PostingItem;
 import ru.strbnm.cash_service.client.accounts.domain.UserDetailResponse;
 import ru.strbnm.cash_service.client.blocker.api.BlockerServiceApi;
 import ru.strbnm.cash_service.client.blocker.domain.BlockerCurrencyEnum;
@@ -35,6 +44,8 @@ import ru.strbnm.cash_service.exception.BlockerServiceException;
 import ru.strbnm.cash_service.exception.CashOperationException;
 import ru.strbnm.cash_service.exception.UnavailabilityAccountsServiceException;
 import ru.strbnm.cash_service.repository.CashTransactionInfoRepository;
+import ru.strbnm.kafka.dto.CashCommandMessage;
+import ru.strbnm.kafka.dto.CashCommandResultMessage;
 import ru.strbnm.kafka.dto.NotificationMessage;
 
 @Slf4j
@@ -44,21 +55,24 @@ public class CashServiceImpl implements CashService {
   private final AccountsServiceApi accountsServiceApi;
   private final BlockerServiceApi blockerServiceApi;
   private final CashTransactionInfoRepository cashTransactionInfoRepository;
-  private final KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private final NotificationDispatcher notificationDispatcher;
   private final ObjectMapper objectMapper = new ObjectMapper();
   private final MeterRegistry meterRegistry;
+  private final int bulkSize;
 
   @Autowired
   public CashServiceImpl(
           @Qualifier("accountsServiceApi") AccountsServiceApi accountsServiceApi,
           BlockerServiceApi blockerServiceApi,
           CashTransactionInfoRepository cashTransactionInfoRepository,
-          KafkaTemplate<String, NotificationMessage> kafkaTemplate, MeterRegistry meterRegistry) {
+          NotificationDispatcher notificationDispatcher, MeterRegistry meterRegistry,
+          @Value("${application.cash.commands.bulk-size:500}") int bulkSize) {
     this.accountsServiceApi = accountsServiceApi;
     this.blockerServiceApi = blockerServiceApi;
     this.cashTransactionInfoRepository = cashTransactionInfoRepository;
-    this.kafkaTemplate = kafkaTemplate;
+    this.notificationDispatcher = notificationDispatcher;
     this.meterRegistry = meterRegistry;
+    this.bulkSize = bulkSize;
   }
 
     @Override
@@ -74,6 +88,105 @@ public class CashServiceImpl implements CashService {
                 .onErrorResume(e -> handleProcessingError(cashTransactionInfo, e));
     }
 
+    /*
+    Пачка команд из Kafka: проверки пользователя и блокировки выполняются по каждой команде,
+    а прошедшие проверку операции проводятся пакетными вызовами accounts-service (atomic=false)
+    по bulkSize операций. Ошибка отдельной команды завершает только ее, недоступность
+    сервисов завершает ошибкой всю пачку, чтобы она была прочитана повторно: повторная
+    доставка находит записи команд по command_id, а ключ идемпотентности команды не дает
+    провести операцию дважды.
+    */
+    @Override
+    public Mono<List<CashCommandResultMessage>> processCashCommands(List<CashCommandMessage> commands) {
+        log.info("Получена пачка из {} команд", commands.size());
+
+        return saveCommands(commands)
+                .flatMap(saved -> Flux.range(0, saved.size())
+                        .flatMapSequential(i -> checkCommand(saved.get(i), commandIdempotencyKey(commands.get(i))))
+                        .collectList())
+                .flatMap(checked -> postCheckedCommands(checked)
+                        .map(posted -> {
+                            List<CashCommandResultMessage> results = new ArrayList<>(commands.size());
+                            for (int i = 0; i < commands.size(); i++) {
+                                CheckedCommand command = checked.get(i);
+                                CashOperationResponse response = command.response() != null
+                                        ? command.response()
+                                        : posted.get(command.info().getId());
+                                results.add(CashCommandResultMessage.builder()
+                                        .commandId(commands.get(i).getCommandId())
+                                        .login(commands.get(i).getLogin())
+                                        .operationStatus(response.getOperationStatus().getValue())
+                                        .errors(response.getErrors())
+                                        .build());
+                            }
+                            return results;
+                        }));
+    }
+
+    // Записи команд в порядке пачки; записанные при прошлой доставке используются повторно
+    private Mono<List<CashTransactionInfo>> saveCommands(List<CashCommandMessage> commands) {
+        List<String> commandIds = commands.stream().map(CashCommandMessage::getCommandId).toList();
+        return cashTransactionInfoRepository.findByCommandIdIn(commandIds)
+                .collectMap(CashTransactionInfo::getCommandId)
+                .flatMap(existing -> {
+                    List<CashTransactionInfo> created = commands.stream()
+                            .filter(command -> !existing.containsKey(command.getCommandId()))
+                            .map(command -> CashTransactionInfo.builder()
+                                    .login(command.getLogin())
+                                    .currency(command.getCurrency())
+                                    .amount(command.getAmount())
+                                    .action(command.getAction())
+                                    .commandId(command.getCommandId())
+                                    .build())
+                            .toList();
+                    return cashTransactionInfoRepository.saveAll(created)
+                            .collectMap(CashTransactionInfo::getCommandId, info -> info, () -> new HashMap<>(existing))
+                            .map(saved -> commandIds.stream().map(saved::get).toList());
+                });
+    }
+
+    // Команда с готовым ответом (блокировка, ошибка) в проводку не попадает
+    private record CheckedCommand(
+            CashTransactionInfo info, UserDetailResponse user, String idempotencyKey, CashOperationResponse response) {}
+
+    private Mono<CheckedCommand> checkCommand(CashTransactionInfo info, String idempotencyKey) {
+        return Mono.zip(getUserDetailResponseMono(info.getLogin()), checkTransaction(info))
+                .flatMap(tuple -> {
+                    UserDetailResponse user = tuple.getT1();
+                    CheckTransactionResponse check = tuple.getT2();
+                    if (check.getIsBlocked()) {
+                        return updateBlockedTransactionAndNotify(info, user, "Блокировка операции: " + check.getReason(),
+                                        List.of(check.getReason()))
+                                .map(response -> new CheckedCommand(info, user, idempotencyKey, response));
+                    }
+                    info.setBlocked(false);
+                    info.setUpdatedAt(Instant.now().getEpochSecond());
+                    return cashTransactionInfoRepository.save(info)
+                            .map(updated -> new CheckedCommand(updated, user, idempotencyKey, null));
+                })
+                .onErrorResume(
+                        error -> !(error instanceof CashOperationException),
+                        error -> handleProcessingError(info, error)
+                                .map(response -> new CheckedCommand(info, null, idempotencyKey, response)));
+    }
+
+    // Ответы проведенных команд по идентификатору транзакции
+    private Mono<Map<Long, CashOperationResponse>> postCheckedCommands(List<CheckedCommand> checked) {
+        return Flux.fromIterable(checked)
+                .filter(command -> command.response() == null)
+                .buffer(bulkSize)
+                .concatMap(chunk -> getBulkPostingResponse(chunk)
+                        // Ответы сопоставляются с командами по позиции, поэтому их число должно совпадать
+                        .filter(bulk -> bulk.getResults() != null && bulk.getResults().size() == chunk.size())
+                        .switchIfEmpty(Mono.error(() -> new AccountsServiceException(
+                                "Число результатов пакетной проводки не совпадает с числом операций: " + chunk.size())))
+                        .flatMapMany(bulk -> Flux.range(0, chunk.size())
+                                .concatMap(i -> completeAccountOperation(
+                                                chunk.get(i).info(), chunk.get(i).user(), bulk.getResults().get(i))
+                                        .map(response -> Tuples.of(chunk.get(i).info().getId(), response)))))
+                .collectMap(Tuple2::getT1, Tuple2::getT2);
+    }
+
     private CashTransactionInfo buildCashTransactionInfo(CashOperationRequest request) {
         return CashTransactionInfo.builder()
                 .login(request.getLogin())
@@ -101,24 +214,27 @@ public class CashServiceImpl implements CashService {
     private Mono<CashOperationResponse> performAccountOperation(CashTransactionInfo info, UserDetailResponse user) {
         CashRequest request = buildCashRequest(info);
 
-        return getAccountOperationResponse(request, user.getLogin())
-                .flatMap(response -> {
-                    log.info("Ответ сервиса аккаунтов: {}", response);
-                    boolean isSuccess = response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS;
-                    String msg = isSuccess
-                            ? buildSuccessMessage(info)
-                            : "Отмена операции c наличными. Список ошибок: " + response.getErrors();
+        return getAccountOperationResponse(request, user.getLogin(), idempotencyKey(info))
+                .flatMap(response -> completeAccountOperation(info, user, response));
+    }
 
-                    info.setSuccess(isSuccess);
-                    info.setUpdatedAt(Instant.now().getEpochSecond());
+    private Mono<CashOperationResponse> completeAccountOperation(
+            CashTransactionInfo info, UserDetailResponse user, AccountOperationResponse response) {
+        log.info("Ответ сервиса аккаунтов: {}", response);
+        boolean isSuccess = response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS;
+        String msg = isSuccess
+                ? buildSuccessMessage(info)
+                : "Отмена операции c наличными. Список ошибок: " + response.getErrors();
 
-                    return cashTransactionInfoRepository.save(info)
-                            .flatMap(saved -> sendNotification(saved.getId(), user.getEmail(), msg)
-                                    .then(getCashOperationResponse(
-                                            isSuccess ? CashOperationResponse.OperationStatusEnum.SUCCESS : CashOperationResponse.OperationStatusEnum.FAILED,
-                                            isSuccess ? List.of() : response.getErrors()
-                                    )));
-                });
+        info.setSuccess(isSuccess);
+        info.setUpdatedAt(Instant.now().getEpochSecond());
+
+        return cashTransactionInfoRepository.save(info)
+                .flatMap(saved -> sendNotification(saved.getId(), user.getEmail(), msg)
+                        .then(getCashOperationResponse(
+                                isSuccess ? CashOperationResponse.OperationStatusEnum.SUCCESS : CashOperationResponse.OperationStatusEnum.FAILED,
+                                isSuccess ? List.of() : response.getErrors()
+                        )));
     }
 
     private Mono<CashOperationResponse> updateBlockedTransactionAndNotify(
@@ -165,8 +281,56 @@ public class CashServiceImpl implements CashService {
                 info.getAmount() + info.getCurrency();
     }
 
-    private Mono<AccountOperationResponse> getAccountOperationResponse(CashRequest cashRequest, String login) {
-        return accountsServiceApi.cashTransaction(login, cashRequest)
+    // Ключ идемпотентности постоянен для транзакции, поэтому повтор после таймаута не проводит операцию дважды
+    private String idempotencyKey(CashTransactionInfo info) {
+        return "cash-" + info.getId();
+    }
+
+    // Команда из Kafka доставляется повторно с тем же commandId, в отличие от транзакции, создаваемой заново
+    private String commandIdempotencyKey(CashCommandMessage command) {
+        return "cash-command-" + command.getCommandId();
+    }
+
+    private Mono<BulkPostingResponse> getBulkPostingResponse(List<CheckedCommand> chunk) {
+        BulkPostingRequest request = new BulkPostingRequest();
+        request.setAtomic(false);
+        request.setItems(chunk.stream()
+                .map(command -> {
+                    PostingItem item = new PostingItem();
+                    item.setLogin(command.user().getLogin());
+                    CashRequest cash = buildCashRequest(command.info());
+                    // Запись, прочитанная при повторной доставке, хранит сумму с масштабом столбца (100.0000):
+                    // сумма без незначащих нулей делает тело пакета таким же, как при первой доставке
+                    cash.setAmount(new BigDecimal(cash.getAmount().stripTrailingZeros().toPlainString()));
+                    item.setCash(cash);
+                    item.setIdempotencyKey(command.idempotencyKey());
+                    return item;
+                })
+                .toList());
+        return accountsServiceApi.bulkPostings(request)
+                .retryWhen(
+                        Retry.max(1)
+                                .filter(
+                                        throwable ->
+                                                (throwable instanceof WebClientResponseException
+                                                        && ((WebClientResponseException) throwable).getStatusCode() == HttpStatus.INTERNAL_SERVER_ERROR)
+                                                        || throwable instanceof WebClientRequestException)
+                                .onRetryExhaustedThrow(
+                                        (spec, signal) ->
+                                                new UnavailabilityAccountsServiceException("Сервис аккаунтов временно недоступен.")))
+                // Отклоненный пакет не будет принят и при повторе, поэтому завершает ошибкой все его операции
+                .onErrorResume(WebClientResponseException.class, ex -> {
+                    AccountOperationResponse failed = new AccountOperationResponse();
+                    failed.setOperationStatus(AccountOperationResponse.OperationStatusEnum.FAILED);
+                    failed.setErrors(List.of("Ошибка при обработке транзакции: " + ex.getMessage()));
+                    BulkPostingResponse response = new BulkPostingResponse();
+                    response.setResults(chunk.stream().map(command -> failed).toList());
+                    return Mono.just(response);
+                });
+    }
+
+    private Mono<AccountOperationResponse> getAccountOperationResponse(CashRequest cashRequest, String login, String idempotencyKey) {
+        return accountsServiceApi.cashTransaction(login, cashRequest, idempotencyKey)
                 .retryWhen(
                         Retry.max(1)
                                 .filter(
@@ -240,16 +404,8 @@ public class CashServiceImpl implements CashService {
                         .application("cash-service")
                         .build();
         log.info("sendNotification: {}", notificationMessage);
-        return Mono.fromFuture(() ->
-                        kafkaTemplate.send("notifications", notificationMessage)
-                )
-                .doOnSuccess(result -> {
-                    RecordMetadata metadata = result.getRecordMetadata();
-                    log.info("Сообщение отправлено. Topic = {}, partition = {}, offset = {}",
-                            metadata.topic(), metadata.partition(), metadata.offset());
-                })
-                .doOnError(e -> log.error("Ошибка при отправке сообщения", e))
-                .then(); // Mono<Void>
+        // Отправка в Kafka выполняется диспетчером асинхронно, ответ клиенту не ждет подтверждения брокера
+        return notificationDispatcher.dispatch(notificationMessage);
     }
 
     private Mono<CashOperationResponse> getCashOperationResponse(CashOperationResponse.OperationStatusEnum status, List<String> errors) {
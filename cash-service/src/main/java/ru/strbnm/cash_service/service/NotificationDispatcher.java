@@ -0,0 +1,281 @@
+package ru.strbnm.cash_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.strbnm.kafka.dto.NotificationMessage;
+
+@Slf4j
+@Component
+public class NotificationDispatcher {
+
+  /*
+  Асинхронная отправка уведомлений в Kafka без ожидания подтверждения брокера в запросе.
+  - dispatch() кладет сообщение в ограниченную очередь в памяти и сразу завершается;
+  - очередь разбирается пачками на выделенном планировщике, он же обрабатывает колбэки продюсера;
+  - при переполнении очереди сообщение дописывается в локальный файл (по одному JSON на строку)
+    на планировщике boundedElastic, поэтому блокирующая запись не выполняется в потоке запроса;
+  - при ошибке отправки, в том числе синхронной, сообщение также сохраняется в файл;
+  - если файл достиг предельного размера, сообщение отбрасывается.
+  Файл только дописывается, позиция чтения хранится рядом в файле <spill-file>.offset: возврат
+  сообщений в очередь читает файл с этой позиции, а не целиком. Когда все сообщения прочитаны,
+  файл и позиция удаляются. Файл переживает перезапуск сервиса: при старте накопленные
+  в нем сообщения отправляются повторно.
+  */
+
+  private static final String TOPIC = "notifications";
+
+  private final KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final BlockingQueue<NotificationMessage> queue;
+  private final int batchSize;
+  private final Duration flushInterval;
+  private final Duration shutdownTimeout;
+  private final Path spillFile;
+  private final Path offsetFile;
+  private final long spillMaxBytes;
+  private final Scheduler scheduler = Schedulers.newSingle("notification-dispatcher");
+  private final AtomicLong spilledPending = new AtomicLong();
+  private final Counter sentCounter;
+  private final Counter spilledCounter;
+  private final Counter droppedCounter;
+  private final Counter failedCounter;
+  private long readOffset;
+  private volatile CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+  private Disposable flushTask;
+
+  public NotificationDispatcher(
+      KafkaTemplate<String, NotificationMessage> kafkaTemplate,
+      @Value("${application.notification.queue-capacity:10000}") int queueCapacity,
+      @Value("${application.notification.batch-size:100}") int batchSize,
+      @Value("${application.notification.flush-interval:200ms}") Duration flushInterval,
+      @Value("${application.notification.shutdown-timeout:10s}") Duration shutdownTimeout,
+      @Value("${application.notification.spill-file:${java.io.tmpdir}/cash-service-notifications.ndjson}")
+          Path spillFile,
+      @Value("${application.notification.spill-max-size:64MB}") DataSize spillMaxSize,
+      MeterRegistry meterRegistry) {
+    this.kafkaTemplate = kafkaTemplate;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.batchSize = batchSize;
+    this.flushInterval = flushInterval;
+    this.shutdownTimeout = shutdownTimeout;
+    this.spillFile = spillFile;
+    this.offsetFile = spillFile.resolveSibling(spillFile.getFileName() + ".offset");
+    this.spillMaxBytes = spillMaxSize.toBytes();
+    Gauge.builder("notification.dispatcher.queue.size", queue, BlockingQueue::size)
+        .description("Количество уведомлений в очереди на отправку")
+        .register(meterRegistry);
+    Gauge.builder("notification.dispatcher.spill.size", spilledPending, AtomicLong::get)
+        .description("Количество уведомлений, ожидающих отправки в файле переполнения")
+        .register(meterRegistry);
+    this.sentCounter =
+        Counter.builder("notification.dispatcher.sent")
+            .description("Количество уведомлений, подтвержденных брокером")
+            .register(meterRegistry);
+    this.spilledCounter =
+        Counter.builder("notification.dispatcher.spilled")
+            .description("Количество уведомлений, записанных в файл переполнения")
+            .register(meterRegistry);
+    this.droppedCounter =
+        Counter.builder("notification.dispatcher.dropped")
+            .description("Количество отброшенных уведомлений")
+            .register(meterRegistry);
+    this.failedCounter =
+        Counter.builder("notification.dispatcher.failed")
+            .description("Количество неудачных попыток отправки уведомлений")
+            .register(meterRegistry);
+  }
+
+  // Запись в файл при переполнении очереди выполняется вне потока запроса
+  public Mono<Void> dispatch(NotificationMessage message) {
+    return Mono.defer(
+        () ->
+            queue.offer(message)
+                ? Mono.empty()
+                : Mono.<Void>fromRunnable(() -> spill(List.of(message)))
+                    .subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  // Отправка одной пачки из очереди; результат завершается после обработки ответов брокера на всю пачку
+  CompletableFuture<Void> flush() {
+    refillFromSpill();
+    List<NotificationMessage> batch = new ArrayList<>(batchSize);
+    queue.drainTo(batch, batchSize);
+    if (batch.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      NotificationMessage message = batch.get(i);
+      CompletableFuture<?> sent;
+      try {
+        sent = kafkaTemplate.send(TOPIC, message);
+      } catch (RuntimeException e) {
+        // Синхронная ошибка продюсера обрабатывается так же, как отказ брокера
+        sent = CompletableFuture.failedFuture(e);
+      }
+      futures[i] = sent.whenCompleteAsync((result, e) -> onSendComplete(message, e), scheduler::schedule);
+    }
+    CompletableFuture<Void> completed = CompletableFuture.allOf(futures).exceptionally(e -> null);
+    inFlight = completed;
+    return completed;
+  }
+
+  private void onSendComplete(NotificationMessage message, Throwable error) {
+    if (error == null) {
+      sentCounter.increment();
+      return;
+    }
+    failedCounter.increment();
+    log.error("Ошибка при отправке уведомления, сообщение будет отправлено повторно", error);
+    spill(List.of(message));
+  }
+
+  private synchronized void spill(List<NotificationMessage> messages) {
+    try {
+      if (Files.exists(spillFile) && Files.size(spillFile) >= spillMaxBytes) {
+        droppedCounter.increment(messages.size());
+        log.warn("Файл переполнения {} заполнен, уведомления отброшены: {}", spillFile, messages);
+        return;
+      }
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(
+              spillFile,
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND)) {
+        for (NotificationMessage message : messages) {
+          writer.write(objectMapper.writeValueAsString(message));
+          writer.write('\n');
+        }
+      }
+      spilledPending.addAndGet(messages.size());
+      spilledCounter.increment(messages.size());
+    } catch (IOException e) {
+      droppedCounter.increment(messages.size());
+      log.error("Не удалось записать уведомления в файл переполнения {}", spillFile, e);
+    }
+  }
+
+  // Возвращает сообщения из файла в очередь, если в ней есть место хотя бы для половины емкости
+  private synchronized void refillFromSpill() {
+    if (spilledPending.get() == 0 || queue.remainingCapacity() < queue.size()) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+      channel.position(readOffset);
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+      String line;
+      while (queue.remainingCapacity() > 0 && (line = reader.readLine()) != null) {
+        NotificationMessage message = null;
+        try {
+          message = objectMapper.readValue(line, NotificationMessage.class);
+        } catch (IOException e) {
+          droppedCounter.increment();
+          log.error("Поврежденная запись в файле переполнения {} пропущена: {}", spillFile, line, e);
+        }
+        // Очередь могли заполнить параллельные запросы: позиция сдвигается только после постановки в очередь
+        if (message != null && !queue.offer(message)) {
+          break;
+        }
+        readOffset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        spilledPending.decrementAndGet();
+      }
+      if (readOffset >= channel.size()) {
+        // Файл прочитан полностью: следующая запись начнет новый файл
+        Files.deleteIfExists(spillFile);
+        Files.deleteIfExists(offsetFile);
+        readOffset = 0;
+        spilledPending.set(0);
+      } else {
+        Files.writeString(offsetFile, Long.toString(readOffset), StandardCharsets.UTF_8);
+      }
+    } catch (IOException e) {
+      log.error("Не удалось прочитать файл переполнения {}", spillFile, e);
+    }
+  }
+
+  @PostConstruct
+  public void start() throws IOException {
+    if (Files.exists(spillFile)) {
+      if (Files.exists(offsetFile)) {
+        readOffset = Long.parseLong(Files.readString(offsetFile, StandardCharsets.UTF_8).trim());
+      }
+      try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+        channel.position(readOffset);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        spilledPending.set(reader.lines().count());
+      }
+    }
+    // Следующая пачка отправляется после ответа брокера на текущую, тики во время отправки пропускаются
+    flushTask =
+        Flux.interval(flushInterval, flushInterval, scheduler)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    Mono.fromFuture(this::flush)
+                        .doOnError(e -> log.error("Ошибка при отправке пачки уведомлений", e))
+                        .onErrorComplete(),
+                0)
+            .subscribe();
+  }
+
+  /*
+  При остановке новые пачки не запускаются, колбэки текущей пачки дорабатывают на планировщике
+  (неотправленные сообщения попадают в файл), и только после этого планировщик останавливается.
+  Оставшиеся в памяти сообщения сохраняются в файл.
+  */
+  @PreDestroy
+  public void stop() {
+    if (flushTask != null) {
+      flushTask.dispose();
+    }
+    try {
+      inFlight.get(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.warn("Брокер не ответил на пачку уведомлений за {}", shutdownTimeout);
+    } catch (Exception e) {
+      log.warn("Ошибка при ожидании отправки пачки уведомлений", e);
+    }
+    scheduler.dispose();
+    List<NotificationMessage> rest = new ArrayList<>();
+    queue.drainTo(rest);
+    if (!rest.isEmpty()) {
+      spill(rest);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package ru.strbnm.cash_service.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import ru.strbnm.cash_service.config.LiquibaseConfig;
+import ru.strbnm.kafka.dto.CashCommandMessage;
+import ru.strbnm.kafka.dto.CashCommandResultMessage;
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = {"spring.config.name=application-test"})
+@Import(LiquibaseConfig.class)
+@EmbeddedKafka(topics = "notifications")
+class CashCommandListenerTest {
+
+  private static final String CLEAN_SCRIPT_PATH =
+      "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
+  private static final String SUCCESS = "{\"operationStatus\":\"SUCCESS\",\"errors\":[]}";
+
+  @Autowired private DatabaseClient databaseClient;
+  @Autowired SpringLiquibase liquibase;
+  @Autowired private KafkaTemplate<String, CashCommandMessage> kafkaTemplate;
+  @Autowired private ConsumerFactory<String, CashCommandResultMessage> consumerFactory;
+  @Autowired private ConsumerFactory<String, CashCommandMessage> deadLetterConsumerFactory;
+
+  private Consumer<String, CashCommandResultMessage> consumer;
+  private Consumer<String, CashCommandMessage> deadLetterConsumer;
+
+  // Порты совпадают с spring.rest.*.url из application-test.yml
+  private final WireMockServer blockerService = new WireMockServer(7085);
+  private final WireMockServer accountsService = new WireMockServer(7086);
+
+  @BeforeAll
+  void setup() throws LiquibaseException {
+    liquibase.afterPropertiesSet();
+    databaseClient.sql("SELECT 1").fetch().rowsUpdated().block();
+    accountsService.start();
+    blockerService.start();
+    consumer = consumerFactory.createConsumer("cash-command-results-test", null);
+    consumer.subscribe(List.of(CashCommandListener.RESULT_TOPIC));
+    deadLetterConsumer = deadLetterConsumerFactory.createConsumer("cash-commands-dlt-test", null);
+    deadLetterConsumer.subscribe(List.of(CashCommandListener.DEAD_LETTER_TOPIC));
+  }
+
+  @BeforeEach
+  void stubServices() {
+    accountsService.resetAll();
+    blockerService.resetAll();
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/test_user1"))
+            .willReturn(
+                okJson("{\"login\":\"test_user1\",\"password\":\"password\",\"name\":\"Иванов Иван\","
+                    + "\"email\":\"ivanov@example.ru\",\"birthdate\":\"2000-01-01\",\"roles\":[]}")));
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkCashTransaction"))
+            .withRequestBody(matchingJsonPath("$.amount", equalTo("999999")))
+            .willReturn(okJson("{\"transactionId\":1,\"isBlocked\":true,\"reason\":\"Подозрительная операция\"}")));
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkCashTransaction"))
+            .atPriority(10)
+            .willReturn(okJson("{\"transactionId\":1,\"isBlocked\":false,\"reason\":null}")));
+  }
+
+  @AfterEach
+  void cleanupDatabase() throws Exception {
+    String sql = new String(Files.readAllBytes(Paths.get(CLEAN_SCRIPT_PATH)));
+    databaseClient.sql(sql).then().block();
+  }
+
+  @AfterAll
+  void tearDown() {
+    consumer.close();
+    deadLetterConsumer.close();
+    accountsService.stop();
+    blockerService.stop();
+  }
+
+  private void send(String commandId, BigDecimal amount, String action) {
+    kafkaTemplate.send(
+        CashCommandListener.TOPIC,
+        "test_user1",
+        new CashCommandMessage(commandId, "test_user1", "RUB", amount, action));
+  }
+
+  private Map<String, CashCommandResultMessage> results(int count) {
+    Map<String, CashCommandResultMessage> results = new HashMap<>();
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (results.size() < count && System.currentTimeMillis() < deadline) {
+      for (ConsumerRecord<String, CashCommandResultMessage> record :
+          KafkaTestUtils.getRecords(consumer, Duration.ofSeconds(1))) {
+        assertEquals("test_user1", record.key());
+        results.put(record.value().getCommandId(), record.value());
+      }
+    }
+    assertEquals(count, results.size());
+    return results;
+  }
+
+  private long countTransactions(String commandId) {
+    return databaseClient
+        .sql("SELECT COUNT(*) AS cnt FROM cash_transactions WHERE command_id = :commandId")
+        .bind("commandId", commandId)
+        .map(row -> row.get("cnt", Long.class))
+        .one()
+        .block();
+  }
+
+  @Test
+  void listen_shouldPostCommandsInBulkAndPublishResults() {
+    // Команды могут прийти одной или двумя пачками: число результатов совпадает с числом операций
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .withRequestBody(matchingJsonPath("$.items[1]"))
+            .willReturn(okJson("{\"results\":[" + SUCCESS + "," + SUCCESS + "]}")));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .atPriority(10)
+            .willReturn(okJson("{\"results\":[" + SUCCESS + "]}")));
+
+    send("c-1", new BigDecimal("100.0"), "PUT");
+    send("c-2", new BigDecimal("999999"), "GET");
+    send("c-3", new BigDecimal("50.0"), "GET");
+    send("c-4", new BigDecimal("10.0"), "TAKE");
+
+    Map<String, CashCommandResultMessage> results = results(4);
+    assertEquals("SUCCESS", results.get("c-1").getOperationStatus());
+    assertEquals("FAILED", results.get("c-2").getOperationStatus());
+    assertEquals(List.of("Подозрительная операция"), results.get("c-2").getErrors());
+    assertEquals("SUCCESS", results.get("c-3").getOperationStatus());
+    assertEquals(List.of("Некорректный тип операции"), results.get("c-4").getErrors());
+
+    // Заблокированная и некорректная команды в проводку не попадают
+    accountsService.verify(
+        postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk"))
+            .withRequestBody(matchingJsonPath("$.atomic", equalTo("false")))
+            .withRequestBody(matchingJsonPath("$.items[?(@.idempotencyKey == 'cash-command-c-1')]")));
+    accountsService.verify(
+        postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk"))
+            .withRequestBody(matchingJsonPath("$.items[?(@.idempotencyKey == 'cash-command-c-3')]")));
+    accountsService.verify(
+        0,
+        postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk"))
+            .withRequestBody(matchingJsonPath("$.items[?(@.idempotencyKey == 'cash-command-c-2')]")));
+    accountsService.verify(
+        0, postRequestedFor(urlPathMatching("/api/v1/users/.*/cash")));
+  }
+
+  @Test
+  void listen_shouldRetryBatchWhenAccountsServiceUnavailable() {
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .inScenario("unavailable")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(serverError())
+            .willSetStateTo("retry"));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .inScenario("unavailable")
+            .whenScenarioStateIs("retry")
+            .willReturn(serverError())
+            .willSetStateTo("available"));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .inScenario("unavailable")
+            .whenScenarioStateIs("available")
+            .willReturn(okJson("{\"results\":[" + SUCCESS + "]}")));
+
+    send("c-5", new BigDecimal("100.0"), "PUT");
+
+    Map<String, CashCommandResultMessage> results = results(1);
+    assertEquals("SUCCESS", results.get("c-5").getOperationStatus());
+    // Повтор пачки отправляет тот же ключ идемпотентности и использует запись первой доставки
+    accountsService.verify(
+        3,
+        postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk"))
+            .withRequestBody(matchingJsonPath("$.items[0].idempotencyKey", equalTo("cash-command-c-5"))));
+    // Повторная доставка собирает пакет из записи в БД, тело совпадает с первой попыткой
+    List<String> bodies =
+        accountsService.findAll(postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk"))).stream()
+            .map(LoggedRequest::getBodyAsString)
+            .distinct()
+            .toList();
+    assertEquals(1, bodies.size());
+    assertTrue(bodies.get(0).matches(".*\"amount\":100[,}].*"), bodies.get(0));
+    assertEquals(1, countTransactions("c-5"));
+  }
+
+  @Test
+  void listen_shouldRetryBatchWhenBulkResultsDoNotMatchCommands() {
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .inScenario("mismatch")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(okJson("{\"results\":[" + SUCCESS + "," + SUCCESS + "]}"))
+            .willSetStateTo("fixed"));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/postings/bulk"))
+            .inScenario("mismatch")
+            .whenScenarioStateIs("fixed")
+            .willReturn(okJson("{\"results\":[" + SUCCESS + "]}")));
+
+    send("c-6", new BigDecimal("100.0"), "PUT");
+
+    // Ответ с другим числом результатов не сопоставляется с командами, пачка читается повторно
+    Map<String, CashCommandResultMessage> results = results(1);
+    assertEquals("SUCCESS", results.get("c-6").getOperationStatus());
+    accountsService.verify(2, postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk")));
+    assertEquals(1, countTransactions("c-6"));
+  }
+
+  @Test
+  void listen_shouldPublishBatchToDeadLetterTopicWhenRetriesExhausted() {
+    accountsService.stubFor(post(urlPathEqualTo("/api/v1/postings/bulk")).willReturn(serverError()));
+
+    send("c-8", new BigDecimal("100.0"), "PUT");
+
+    List<CashCommandMessage> deadLetters = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (deadLetters.isEmpty() && System.currentTimeMillis() < deadline) {
+      for (ConsumerRecord<String, CashCommandMessage> record :
+          KafkaTestUtils.getRecords(deadLetterConsumer, Duration.ofSeconds(1))) {
+        assertEquals("test_user1", record.key());
+        deadLetters.add(record.value());
+      }
+    }
+    assertEquals(List.of("c-8"), deadLetters.stream().map(CashCommandMessage::getCommandId).toList());
+    // Первая попытка и max-retries = 2 повтора, каждая с одним повтором вызова внутри пачки
+    accountsService.verify(6, postRequestedFor(urlPathEqualTo("/api/v1/postings/bulk")));
+    assertEquals(1, countTransactions("c-8"));
+  }
+}
@@ -0,0 +1,165 @@
+package ru.strbnm.cash_service.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.unit.DataSize;
+import ru.strbnm.kafka.dto.NotificationMessage;
+
+class NotificationDispatcherTest {
+
+  @TempDir Path tempDir;
+
+  private KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private MeterRegistry meterRegistry;
+  private NotificationDispatcher dispatcher;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() {
+    kafkaTemplate = mock(KafkaTemplate.class);
+    when(kafkaTemplate.send(eq("notifications"), any(NotificationMessage.class)))
+        .thenAnswer(invocation -> CompletableFuture.completedFuture(mock(SendResult.class)));
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (dispatcher != null) {
+      dispatcher.stop();
+    }
+  }
+
+  private NotificationDispatcher createDispatcher(int capacity, DataSize spillMaxSize) {
+    return new NotificationDispatcher(
+        kafkaTemplate,
+        capacity,
+        10,
+        Duration.ofMinutes(1),
+        Duration.ofSeconds(5),
+        tempDir.resolve("spill.ndjson"),
+        spillMaxSize,
+        meterRegistry);
+  }
+
+  private NotificationMessage message(int i) {
+    return NotificationMessage.builder()
+        .email("user" + i + "@example.ru")
+        .message("Сообщение " + i)
+        .application("cash-service")
+        .build();
+  }
+
+  @Test
+  @DisplayName("Переполнение очереди сохраняется в файл и отправляется после освобождения очереди")
+  void dispatch_shouldSpillOverflowAndReplayIt() {
+    dispatcher = createDispatcher(2, DataSize.ofMegabytes(1));
+    for (int i = 0; i < 5; i++) {
+      dispatcher.dispatch(message(i)).block();
+    }
+    assertEquals(2.0, meterRegistry.get("notification.dispatcher.queue.size").gauge().value());
+    assertEquals(3.0, meterRegistry.get("notification.dispatcher.spill.size").gauge().value());
+    assertEquals(3.0, meterRegistry.get("notification.dispatcher.spilled").counter().count());
+
+    for (int i = 0; i < 3; i++) {
+      dispatcher.flush().join();
+    }
+
+    verify(kafkaTemplate, times(5)).send(eq("notifications"), any(NotificationMessage.class));
+    for (int i = 0; i < 5; i++) {
+      verify(kafkaTemplate).send("notifications", message(i));
+    }
+    assertEquals(0.0, meterRegistry.get("notification.dispatcher.spill.size").gauge().value());
+    assertFalse(Files.exists(tempDir.resolve("spill.ndjson")));
+  }
+
+  @Test
+  @DisplayName("Сообщения отбрасываются, если файл переполнения достиг предельного размера")
+  void dispatch_shouldDropWhenSpillFileIsFull() {
+    dispatcher = createDispatcher(1, DataSize.ofBytes(1));
+    dispatcher.dispatch(message(0)).block();
+    dispatcher.dispatch(message(1)).block();
+    dispatcher.dispatch(message(2)).block();
+
+    assertEquals(1.0, meterRegistry.get("notification.dispatcher.spilled").counter().count());
+    assertEquals(1.0, meterRegistry.get("notification.dispatcher.dropped").counter().count());
+  }
+
+  @Test
+  @DisplayName("Возврат из файла читает его с сохраненной позиции и не переписывает файл")
+  void flush_shouldReadSpillFileFromOffset() throws Exception {
+    dispatcher = createDispatcher(2, DataSize.ofMegabytes(1));
+    for (int i = 0; i < 5; i++) {
+      dispatcher.dispatch(message(i)).block();
+    }
+    Path spillFile = tempDir.resolve("spill.ndjson");
+    long spillSize = Files.size(spillFile);
+
+    dispatcher.flush().join();
+    dispatcher.flush().join();
+
+    // Две строки из трех возвращены в очередь, файл только дописывается
+    assertEquals(spillSize, Files.size(spillFile));
+    assertEquals(1.0, meterRegistry.get("notification.dispatcher.spill.size").gauge().value());
+    long offset = Long.parseLong(Files.readString(tempDir.resolve("spill.ndjson.offset")));
+    assertTrue(offset > 0 && offset < spillSize);
+
+    // После перезапуска чтение продолжается с сохраненной позиции
+    dispatcher.stop();
+    dispatcher = createDispatcher(10, DataSize.ofMegabytes(1));
+    dispatcher.start();
+    dispatcher.flush().join();
+    verify(kafkaTemplate, times(1)).send("notifications", message(4));
+    verify(kafkaTemplate, times(1)).send("notifications", message(2));
+  }
+
+  @Test
+  @DisplayName("Синхронная ошибка продюсера не теряет пачку")
+  void flush_shouldSpillBatchWhenSendThrows() {
+    when(kafkaTemplate.send(eq("notifications"), any(NotificationMessage.class)))
+        .thenThrow(new IllegalStateException("producer closed"));
+    dispatcher = createDispatcher(10, DataSize.ofMegabytes(1));
+    dispatcher.dispatch(message(0)).block();
+    dispatcher.dispatch(message(1)).block();
+
+    dispatcher.flush().join();
+
+    assertEquals(2.0, meterRegistry.get("notification.dispatcher.failed").counter().count());
+    assertEquals(2.0, meterRegistry.get("notification.dispatcher.spill.size").gauge().value());
+  }
+
+  @Test
+  @DisplayName("Остановка дожидается ответа брокера на текущую пачку")
+  void stop_shouldWaitForPendingCallbacks() {
+    CompletableFuture<SendResult<String, NotificationMessage>> ack = new CompletableFuture<>();
+    when(kafkaTemplate.send(eq("notifications"), any(NotificationMessage.class))).thenReturn(ack);
+    dispatcher = createDispatcher(10, DataSize.ofMegabytes(1));
+    dispatcher.dispatch(message(0)).block();
+    CompletableFuture<Void> flushed = dispatcher.flush();
+
+    CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS)
+        .execute(() -> ack.completeExceptionally(new IllegalStateException("broker unavailable")));
+    dispatcher.stop();
+    dispatcher = null;
+
+    // Колбэк отработал до остановки планировщика: сообщение сохранено в файл
+    assertTrue(flushed.isDone());
+    assertEquals(1.0, meterRegistry.get("notification.dispatcher.spilled").counter().count());
+  }
+}
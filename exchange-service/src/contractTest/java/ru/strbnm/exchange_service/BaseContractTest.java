@@ -13,10 +13,13 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.exchange_service.config.ContractTestSecurityConfig;
+import ru.strbnm.exchange_service.domain.BatchConvertResponse;
+import ru.strbnm.exchange_service.domain.BatchConvertedAmount;
 import ru.strbnm.exchange_service.domain.Rate;
 import ru.strbnm.exchange_service.service.ExchangeService;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import static org.mockito.Mockito.*;
 
@@ -40,6 +43,20 @@ public abstract class BaseContractTest {
     when(exchangeService.convert("USD", "USD", BigDecimal.valueOf(1000.0))).thenReturn(Mono.just(BigDecimal.valueOf(1000)));
     when(exchangeService.convert("CNY", "CNY", BigDecimal.valueOf(1000.0))).thenReturn(Mono.just(BigDecimal.valueOf(1000)));
     when(exchangeService.convert("RUB", "CNY", BigDecimal.valueOf(200000.0))).thenReturn(Mono.just(BigDecimal.valueOf(22000)));
+    when(exchangeService.convertBatch(anyList())).thenReturn(Mono.just(BatchConvertResponse.builder()
+            .ratesVersion(1L)
+            .items(List.of(
+                    BatchConvertedAmount.builder()
+                            .from("RUB").to("USD")
+                            .amount(BigDecimal.valueOf(1000.0))
+                            .convertedAmount(BigDecimal.valueOf(12.0))
+                            .build(),
+                    BatchConvertedAmount.builder()
+                            .from("RUB").to("CNY")
+                            .amount(BigDecimal.valueOf(200000.0))
+                            .convertedAmount(BigDecimal.valueOf(22000.0))
+                            .build()))
+            .build()));
     when(exchangeService.getRates()).thenReturn(Flux.just(
             Rate.builder()
                     .title("Юань")
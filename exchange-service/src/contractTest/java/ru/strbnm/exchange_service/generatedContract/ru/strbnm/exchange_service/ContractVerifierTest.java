@@ -37,6 +37,34 @@ public class ContractVerifierTest extends BaseContractTest {
 			assertThatJson(parsedJson).field("['amount']").isEqualTo(12.0);
 	}
 
+	@Test
+	public void validate_shouldConvertAmountBatch() throws Exception {
+		// given:
+			WebTestClientRequestSpecification request = given()
+					.header("Content-Type", "application/json")
+					.header("Accept", "application/json")
+					.body("{\"items\":[{\"from\":\"RUB\",\"to\":\"USD\",\"amount\":1000.0},{\"from\":\"RUB\",\"to\":\"CNY\",\"amount\":200000.0}]}");
+
+		// when:
+			WebTestClientResponse response = given().spec(request)
+					.post("/api/v1/convert/batch");
+
+		// then:
+			assertThat(response.statusCode()).isEqualTo(200);
+			assertThat(response.header("Content-Type")).matches("application/json.*");
+
+		// and:
+			DocumentContext parsedJson = JsonPath.parse(response.getBody().asString());
+			assertThatJson(parsedJson).field("['ratesVersion']").isEqualTo(1);
+			assertThatJson(parsedJson).array("['items']").contains("['from']").isEqualTo("RUB");
+			assertThatJson(parsedJson).array("['items']").contains("['to']").isEqualTo("USD");
+			assertThatJson(parsedJson).array("['items']").contains("['amount']").isEqualTo(1000.0);
+			assertThatJson(parsedJson).array("['items']").contains("['convertedAmount']").isEqualTo(12.0);
+			assertThatJson(parsedJson).array("['items']").contains("['to']").isEqualTo("CNY");
+			assertThatJson(parsedJson).array("['items']").contains("['amount']").isEqualTo(200000.0);
+			assertThatJson(parsedJson).array("['items']").contains("['convertedAmount']").isEqualTo(22000.0);
+	}
+
 	@Test
 	public void validate_shouldConvertAmountCNY2CNY() throws Exception {
 		// given:
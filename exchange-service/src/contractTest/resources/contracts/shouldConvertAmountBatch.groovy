@@ -0,0 +1,35 @@
+package contracts
+
+import org.springframework.cloud.contract.spec.Contract
+
+Contract.make {
+    description "Когда POST /api/v1/convert/batch вызван, сервис конвертации валют рассчитывает по одному снимку курсов суммы конвертации для всех запросов пакета и возвращает их вместе с версией курсов"
+    request {
+        method 'POST'
+        url '/api/v1/convert/batch'
+        body([
+            "items": [
+                ["from": "RUB", "to": "USD", "amount": 1000.0],
+                ["from": "RUB", "to": "CNY", "amount": 200000.0]
+            ]
+        ])
+
+        headers {
+            contentType('application/json')
+            accept('application/json')
+        }
+    }
+    response {
+        status 200
+        headers {
+            contentType(applicationJson())
+        }
+        body([
+                "ratesVersion": 1,
+                "items": [
+                        ["from": "RUB", "to": "USD", "amount": 1000.0, "convertedAmount": 12.0],
+                        ["from": "RUB", "to": "CNY", "amount": 200000.0, "convertedAmount": 22000.0]
+                ]
+        ])
+    }
+}
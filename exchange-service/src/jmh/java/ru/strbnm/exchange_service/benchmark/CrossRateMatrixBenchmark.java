@@ -0,0 +1,64 @@
+package ru.strbnm.exchange_service.benchmark;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ru.strbnm.exchange_service.domain.Rate;
+import ru.strbnm.exchange_service.dto.CrossRateMatrix;
+
+/*
+Сравнение расчета конвертации на BigDecimal и на long с масштабом 4.
+Запуск: ./gradlew :exchange-service:jmh (профилировщик аллокаций подключен через -prof gc).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrossRateMatrixBenchmark {
+
+  private CrossRateMatrix matrix;
+  private int from;
+  private int to;
+  private BigDecimal amount;
+  private long scaledAmount;
+
+  @Param({"RUB:USD", "USD:RUB", "USD:CNY"})
+  private String pair;
+
+  @Setup
+  public void setup() {
+    matrix =
+        CrossRateMatrix.of(
+            List.of(
+                rate("RUB", "1"),
+                rate("USD", "0.012"),
+                rate("CNY", "0.11")));
+    String[] currencies = pair.split(":");
+    from = matrix.indexOf(currencies[0]);
+    to = matrix.indexOf(currencies[1]);
+    amount = new BigDecimal("12345.67");
+    scaledAmount = amount.movePointRight(CrossRateMatrix.RATE_SCALE).longValueExact();
+  }
+
+  @Benchmark
+  public BigDecimal decimal() {
+    return matrix.convertDecimal(from, to, amount);
+  }
+
+  @Benchmark
+  public long scaled() {
+    return matrix.convertScaled(from, to, scaledAmount);
+  }
+
+  @Benchmark
+  public BigDecimal scaledWithDecimalBoundary() {
+    return matrix.convert(from, to, amount);
+  }
+
+  private static Rate rate(String name, String value) {
+    return Rate.builder().title(name).name(name).value(new BigDecimal(value)).build();
+  }
+}
@@ -25,9 +25,9 @@ public class WebSecurityConfig {
         .authorizeExchange(
             exchange ->
                 exchange
-                    .pathMatchers(HttpMethod.GET, "/api/v1/rates").permitAll() // <-- разрешаем GET
+                    .pathMatchers(HttpMethod.GET, "/api/v1/rates", "/api/v1/rates/stream").permitAll() // <-- разрешаем GET
                     .pathMatchers("/actuator/health/**", "/actuator/info", "/actuator/prometheus").permitAll()
-                    .pathMatchers("/api/v1/rates", "/api/v1/convert")
+                    .pathMatchers("/api/v1/rates", "/api/v1/rates/history", "/api/v1/convert", "/api/v1/convert/batch")
                     .hasAuthority("SCOPE_resource.readwrite")
                     .anyExchange()
                     .authenticated())
@@ -1,27 +1,39 @@
 package ru.strbnm.exchange_service.controller;
 
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import java.time.Duration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.exchange_service.api.ExchangeServiceApi;
+import ru.strbnm.exchange_service.domain.BatchConvertRequest;
+import ru.strbnm.exchange_service.domain.BatchConvertResponse;
 import ru.strbnm.exchange_service.domain.ConvertRequest;
 import ru.strbnm.exchange_service.domain.ConvertedAmount;
+import ru.strbnm.exchange_service.domain.HistoricalRate;
 import ru.strbnm.exchange_service.domain.Rate;
+import ru.strbnm.exchange_service.domain.RatesSnapshotEvent;
 import ru.strbnm.exchange_service.service.ExchangeService;
 
 @Controller
 @RequestMapping("${openapi.service.base-path:/}")
 public class ExchangeRatesController implements ExchangeServiceApi {
+  private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
   private final ExchangeService exchangeService;
 
   @Autowired
@@ -48,6 +60,20 @@ public class ExchangeRatesController implements ExchangeServiceApi {
                             ResponseEntity.ok(ConvertedAmount.builder().amount(amount).build()))));
   }
 
+  @RequestMapping(
+      method = RequestMethod.POST,
+      value = "/api/v1/convert/batch",
+      produces = {"application/json"},
+      consumes = {"application/json"})
+  public Mono<ResponseEntity<BatchConvertResponse>> convertCurrencyBatch(
+      @Parameter(name = "BatchConvertRequest", description = "", required = true) @Valid @RequestBody
+          Mono<BatchConvertRequest> batchConvertRequest,
+      @Parameter(hidden = true) final ServerWebExchange exchange) {
+    return batchConvertRequest
+        .flatMap(request -> exchangeService.convertBatch(request.getItems()))
+        .map(ResponseEntity::ok);
+  }
+
   @CrossOrigin(origins = {"http://bankapp.test.local", "http://bankapp.prod.local"})
   @RequestMapping(
       method = RequestMethod.GET,
@@ -58,4 +84,58 @@ public class ExchangeRatesController implements ExchangeServiceApi {
     Flux<Rate> rates = exchangeService.getRates();
     return Mono.just(ResponseEntity.ok(rates));
   }
+
+  @RequestMapping(
+      method = RequestMethod.GET,
+      value = "/api/v1/rates/history",
+      produces = {"application/json"})
+  public Mono<ResponseEntity<HistoricalRate>> getRateAt(
+      @NotNull
+          @Size(min = 3, max = 3)
+          @Parameter(
+              name = "currency",
+              description = "Код валюты",
+              required = true,
+              in = ParameterIn.QUERY)
+          @Valid
+          @RequestParam(value = "currency", required = true)
+          String currency,
+      @NotNull
+          @Parameter(
+              name = "timestamp",
+              description = "Момент времени (Unix time, секунды)",
+              required = true,
+              in = ParameterIn.QUERY)
+          @Valid
+          @RequestParam(value = "timestamp", required = true)
+          Long timestamp,
+      @Parameter(hidden = true) final ServerWebExchange exchange) {
+    return exchangeService.getRateAt(currency, timestamp).map(ResponseEntity::ok);
+  }
+
+  /*
+  Поток курсов валют в формате Server-Sent Events. Все подписчики получают события из одной
+  общей публикации снимков курсов, комментарий-heartbeat поддерживает соединение через прокси.
+  */
+  @CrossOrigin(origins = {"http://bankapp.test.local", "http://bankapp.prod.local"})
+  @RequestMapping(
+      method = RequestMethod.GET,
+      value = "/api/v1/rates/stream",
+      produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+  public Mono<ResponseEntity<Flux<ServerSentEvent<RatesSnapshotEvent>>>> streamRates(
+      @Parameter(hidden = true) final ServerWebExchange exchange) {
+    Flux<ServerSentEvent<RatesSnapshotEvent>> rates =
+        exchangeService
+            .streamRates()
+            .map(
+                event ->
+                    ServerSentEvent.builder(event)
+                        .id(String.valueOf(event.getVersion()))
+                        .event("rates")
+                        .build());
+    Flux<ServerSentEvent<RatesSnapshotEvent>> heartbeat =
+        Flux.interval(HEARTBEAT_INTERVAL)
+            .map(tick -> ServerSentEvent.<RatesSnapshotEvent>builder().comment("heartbeat").build());
+    return Mono.just(ResponseEntity.ok(Flux.merge(rates, heartbeat)));
+  }
 }
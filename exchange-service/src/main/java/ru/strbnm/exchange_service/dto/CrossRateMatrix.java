@@ -0,0 +1,181 @@
+package ru.strbnm.exchange_service.dto;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ru.strbnm.exchange_service.domain.Rate;
+
+public final class CrossRateMatrix {
+
+  /*
+  Матрица кросс-курсов N×N, индексируемая порядковым номером валюты в снимке курсов.
+  Для каждой пары валют заранее вычислен вид конвертации и целочисленные операнды
+  (курсы с масштабом 4), поэтому расчет выполняется на long без создания BigDecimal.
+  Кросс-курс не сворачивается в одно число: деление на курс исходной валюты с округлением
+  до 8 знаков и последующее умножение сохранены, чтобы результат совпадал с расчетом на BigDecimal.
+  Курсы, которые после округления до 4 знаков не положительны, в матрицу не попадают: такая валюта
+  не имеет индекса и не конвертируется ни расчетом на long, ни расчетом на BigDecimal.
+  */
+
+  public static final String BASE_CURRENCY = "RUB";
+  public static final int RATE_SCALE = 4;
+  public static final long NOT_CONVERTIBLE = Long.MIN_VALUE;
+
+  private static final int INTERMEDIATE_SCALE = 8;
+  private static final long RATE_FACTOR = 10_000L;
+  private static final long INTERMEDIATE_FACTOR = 100_000_000L;
+  private static final int MAX_AMOUNT_INTEGER_DIGITS = 14;
+
+  private static final byte IDENTITY = 1;
+  private static final byte FROM_BASE = 2;
+  private static final byte TO_BASE = 3;
+  private static final byte CROSS = 4;
+
+  private static final CrossRateMatrix EMPTY = of(List.of());
+
+  private final Map<String, Integer> indexes;
+  private final BigDecimal[] decimalRates;
+  private final int size;
+  private final byte[] kinds;
+  private final long[] divisors;
+  private final long[] multipliers;
+
+  private CrossRateMatrix(Map<String, Integer> indexes, BigDecimal[] decimalRates) {
+    this.indexes = indexes;
+    this.decimalRates = decimalRates;
+    this.size = decimalRates.length;
+    this.kinds = new byte[size * size];
+    this.divisors = new long[size * size];
+    this.multipliers = new long[size * size];
+    int baseIndex = indexes.get(BASE_CURRENCY);
+    for (int from = 0; from < size; from++) {
+      for (int to = 0; to < size; to++) {
+        int cell = from * size + to;
+        long fromRate = decimalRates[from].unscaledValue().longValueExact();
+        long toRate = decimalRates[to].unscaledValue().longValueExact();
+        if (from == to) {
+          kinds[cell] = IDENTITY;
+        } else if (from == baseIndex) {
+          kinds[cell] = FROM_BASE;
+          multipliers[cell] = toRate;
+        } else if (to == baseIndex) {
+          kinds[cell] = TO_BASE;
+          divisors[cell] = fromRate;
+        } else {
+          kinds[cell] = CROSS;
+          divisors[cell] = fromRate;
+          multipliers[cell] = toRate;
+        }
+      }
+    }
+  }
+
+  public static CrossRateMatrix empty() {
+    return EMPTY;
+  }
+
+  public static CrossRateMatrix of(List<Rate> rates) {
+    Map<String, Integer> indexes = new HashMap<>();
+    // Базовая валюта присутствует в матрице всегда, даже если ее нет в сообщении с курсами
+    indexes.put(BASE_CURRENCY, 0);
+    BigDecimal[] decimalRates = new BigDecimal[rates.size() + 1];
+    decimalRates[0] = BigDecimal.ONE.setScale(RATE_SCALE);
+    int size = 1;
+    for (Rate rate : rates) {
+      BigDecimal value = rate.getValue().setScale(RATE_SCALE, RoundingMode.HALF_UP);
+      if (value.signum() <= 0) continue;
+      Integer index = indexes.get(rate.getName());
+      if (index == null) {
+        index = size++;
+        indexes.put(rate.getName(), index);
+      }
+      decimalRates[index] = value;
+    }
+    BigDecimal[] trimmed = new BigDecimal[size];
+    System.arraycopy(decimalRates, 0, trimmed, 0, size);
+    return new CrossRateMatrix(Map.copyOf(indexes), trimmed);
+  }
+
+  public int indexOf(String currencyCode) {
+    Integer index = indexes.get(currencyCode);
+    return index == null ? -1 : index;
+  }
+
+  public BigDecimal rateToRub(String currencyCode) {
+    int index = indexOf(currencyCode);
+    return index < 0 ? null : decimalRates[index];
+  }
+
+  public BigDecimal convert(int from, int to, BigDecimal amount) {
+    if (amount.scale() <= RATE_SCALE
+        && amount.precision() - amount.scale() <= MAX_AMOUNT_INTEGER_DIGITS) {
+      long scaled = convertScaled(from, to, amount.movePointRight(RATE_SCALE).longValueExact());
+      if (scaled != NOT_CONVERTIBLE) return BigDecimal.valueOf(scaled, RATE_SCALE);
+    }
+    return convertDecimal(from, to, amount);
+  }
+
+  /*
+  Конвертация суммы, заданной в виде long с масштабом 4. Возвращает сумму с масштабом 4
+  либо NOT_CONVERTIBLE, если промежуточный результат не помещается в long.
+  */
+  public long convertScaled(int from, int to, long amount) {
+    int cell = from * size + to;
+    switch (kinds[cell]) {
+      case IDENTITY:
+        return amount;
+      case FROM_BASE:
+        return multiplyAndRound(amount, multipliers[cell], RATE_FACTOR);
+      case TO_BASE:
+        long toBase = multiplyAndRound(amount, INTERMEDIATE_FACTOR, divisors[cell]);
+        return toBase == NOT_CONVERTIBLE ? NOT_CONVERTIBLE : divideHalfUp(toBase, RATE_FACTOR);
+      case CROSS:
+        long intermediate = multiplyAndRound(amount, INTERMEDIATE_FACTOR, divisors[cell]);
+        return intermediate == NOT_CONVERTIBLE
+            ? NOT_CONVERTIBLE
+            : multiplyAndRound(intermediate, multipliers[cell], INTERMEDIATE_FACTOR);
+      default:
+        return NOT_CONVERTIBLE;
+    }
+  }
+
+  // Эталонный расчет на BigDecimal, используется для сумм, не помещающихся в long
+  public BigDecimal convertDecimal(int from, int to, BigDecimal amount) {
+    int cell = from * size + to;
+    BigDecimal fromRate = decimalRates[from];
+    BigDecimal toRate = decimalRates[to];
+    switch (kinds[cell]) {
+      case IDENTITY:
+        return amount;
+      case FROM_BASE:
+        return round(amount.multiply(toRate));
+      case TO_BASE:
+        return round(amount.divide(fromRate, INTERMEDIATE_SCALE, RoundingMode.HALF_UP));
+      default:
+        return round(
+            amount.divide(fromRate, INTERMEDIATE_SCALE, RoundingMode.HALF_UP).multiply(toRate));
+    }
+  }
+
+  private static BigDecimal round(BigDecimal value) {
+    return value.setScale(RATE_SCALE, RoundingMode.HALF_UP);
+  }
+
+  private static long multiplyAndRound(long value, long multiplier, long divisor) {
+    long high = Math.multiplyHigh(value, multiplier);
+    long low = value * multiplier;
+    if (high != (low >> 63)) return NOT_CONVERTIBLE;
+    return divideHalfUp(low, divisor);
+  }
+
+  private static long divideHalfUp(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    long remainder = dividend % divisor;
+    if (Math.abs(remainder) >= divisor - Math.abs(remainder)) {
+      quotient += dividend < 0 ? -1 : 1;
+    }
+    return quotient;
+  }
+}
@@ -0,0 +1,32 @@
+package ru.strbnm.exchange_service.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+import ru.strbnm.exchange_service.domain.Rate;
+
+/*
+Неизменяемый снимок курсов валют. Каждое обновление курсов публикует новый снимок
+с увеличенной версией, поэтому все расчеты в рамках одного запроса выполняются
+по согласованному набору курсов. Матрица кросс-курсов рассчитывается один раз при создании снимка.
+*/
+public record RatesSnapshot(long version, long timestamp, List<Rate> rates, CrossRateMatrix crossRates) {
+
+  private static final RatesSnapshot EMPTY =
+      new RatesSnapshot(0L, 0L, List.of(), CrossRateMatrix.empty());
+
+  public static RatesSnapshot empty() {
+    return EMPTY;
+  }
+
+  public static RatesSnapshot of(long version, long timestamp, List<Rate> rates) {
+    return new RatesSnapshot(version, timestamp, List.copyOf(rates), CrossRateMatrix.of(rates));
+  }
+
+  public boolean isEmpty() {
+    return rates.isEmpty();
+  }
+
+  public BigDecimal rateToRub(String currencyCode) {
+    return crossRates.rateToRub(currencyCode);
+  }
+}
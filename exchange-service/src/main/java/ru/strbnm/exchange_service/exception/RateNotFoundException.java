@@ -0,0 +1,12 @@
+package ru.strbnm.exchange_service.exception;
+
+public class RateNotFoundException extends RuntimeException {
+
+  public RateNotFoundException(String message) {
+    super(message);
+  }
+
+  public RateNotFoundException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -1,5 +1,6 @@
 package ru.strbnm.exchange_service.exception;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -14,4 +15,9 @@ public class ReactiveGlobalExceptionHandler {
         return Mono.just(ResponseEntity.badRequest().body(new ExchangeErrorResponse(exception.getMessage(), 400)));
     }
 
+    @ExceptionHandler(RateNotFoundException.class)
+    public Mono<ResponseEntity<ExchangeErrorResponse>> handleRateNotFound(RateNotFoundException exception) {
+        return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ExchangeErrorResponse(exception.getMessage(), 404)));
+    }
+
 }
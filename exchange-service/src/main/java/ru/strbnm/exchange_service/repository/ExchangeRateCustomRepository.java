@@ -0,0 +1,10 @@
+package ru.strbnm.exchange_service.repository;
+
+import java.util.List;
+import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+
+public interface ExchangeRateCustomRepository {
+
+    Mono<Long> upsertAll(List<ExchangeRate> exchangeRates);
+}
@@ -0,0 +1,61 @@
+package ru.strbnm.exchange_service.repository;
+
+import java.util.List;
+import java.util.StringJoiner;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+
+@Repository
+public class ExchangeRateCustomRepositoryImpl implements ExchangeRateCustomRepository {
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public ExchangeRateCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  /*
+  Пакетный upsert курсов одним запросом по уникальному индексу на currency_code.
+  Строки, у которых курс и название не изменились, не перезаписываются и не порождают
+  мертвых версий строк в Postgres. Возвращает количество вставленных и обновленных строк.
+  */
+  @Override
+  public Mono<Long> upsertAll(List<ExchangeRate> exchangeRates) {
+    if (exchangeRates.isEmpty()) return Mono.just(0L);
+
+    StringJoiner values = new StringJoiner(", ");
+    for (int i = 0; i < exchangeRates.size(); i++) {
+      values.add(
+          String.format(
+              "(CAST(:title%1$d AS VARCHAR(255)), CAST(:currencyCode%1$d AS VARCHAR(3)), "
+                  + "CAST(:rateToRub%1$d AS DECIMAL(10,8)), CAST(:createdAt%1$d AS BIGINT))",
+              i));
+    }
+    String query = """
+      MERGE INTO exchange_rates t
+      USING (VALUES %s) AS s(title, currency_code, rate_to_rub, created_at)
+      ON t.currency_code = s.currency_code
+      WHEN MATCHED AND (t.rate_to_rub <> s.rate_to_rub OR t.title <> s.title) THEN
+        UPDATE SET title = s.title, rate_to_rub = s.rate_to_rub, created_at = s.created_at
+      WHEN NOT MATCHED THEN
+        INSERT (title, currency_code, rate_to_rub, created_at)
+        VALUES (s.title, s.currency_code, s.rate_to_rub, s.created_at)
+      """.formatted(values);
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query);
+    for (int i = 0; i < exchangeRates.size(); i++) {
+      ExchangeRate exchangeRate = exchangeRates.get(i);
+      spec =
+          spec.bind("title" + i, exchangeRate.getTitle())
+              .bind("currencyCode" + i, exchangeRate.getCurrencyCode())
+              .bind("rateToRub" + i, exchangeRate.getRateToRub())
+              .bind("createdAt" + i, exchangeRate.getCreatedAt());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+}
@@ -0,0 +1,23 @@
+package ru.strbnm.exchange_service.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+
+public interface ExchangeRateHistoryRepository {
+
+    Mono<Long> appendAll(List<ExchangeRate> exchangeRates);
+
+    Mono<ExchangeRate> findRateAt(String currencyCode, long timestamp);
+
+    Mono<Long> downsample(long from, long to, long bucketSeconds);
+
+    Mono<Long> findDownsampledTo(long bucketSeconds);
+
+    Mono<Void> saveDownsampledTo(long bucketSeconds, long processedTo);
+
+    Mono<Long> findOldestCreatedAt();
+
+    Mono<Void> createDailyPartition(LocalDate day);
+}
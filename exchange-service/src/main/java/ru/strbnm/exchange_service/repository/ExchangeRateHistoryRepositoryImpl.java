@@ -0,0 +1,167 @@
+package ru.strbnm.exchange_service.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.StringJoiner;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+
+@Slf4j
+@Repository
+public class ExchangeRateHistoryRepositoryImpl implements ExchangeRateHistoryRepository {
+  private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public ExchangeRateHistoryRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Long> appendAll(List<ExchangeRate> exchangeRates) {
+    if (exchangeRates.isEmpty()) return Mono.just(0L);
+
+    StringJoiner values = new StringJoiner(", ");
+    for (int i = 0; i < exchangeRates.size(); i++) {
+      values.add(String.format("(:currencyCode%1$d, :rateToRub%1$d, :createdAt%1$d)", i));
+    }
+    String query =
+        "INSERT INTO exchange_rates_history (currency_code, rate_to_rub, created_at) VALUES "
+            + values;
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query);
+    for (int i = 0; i < exchangeRates.size(); i++) {
+      ExchangeRate exchangeRate = exchangeRates.get(i);
+      spec =
+          spec.bind("currencyCode" + i, exchangeRate.getCurrencyCode())
+              .bind("rateToRub" + i, exchangeRate.getRateToRub())
+              .bind("createdAt" + i, exchangeRate.getCreatedAt());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+
+  /*
+  Поиск по индексу (currency_code, created_at DESC). В Postgres из-за секции по умолчанию (DEFAULT)
+  секции нельзя просматривать по порядку (ordered append): планировщик использует MergeAppend,
+  который берет из индекса каждой секции, подходящей под created_at <= :timestamp, первую строку
+  и выбирает самую новую. Стоимость - по одному короткому поиску по индексу на секцию.
+  */
+  @Override
+  public Mono<ExchangeRate> findRateAt(String currencyCode, long timestamp) {
+    String query = """
+      SELECT currency_code, rate_to_rub, created_at
+      FROM exchange_rates_history
+      WHERE currency_code = :currencyCode AND created_at <= :timestamp
+      ORDER BY created_at DESC
+      LIMIT 1
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("currencyCode", currencyCode)
+        .bind("timestamp", timestamp)
+        .map(
+            row ->
+                ExchangeRate.builder()
+                    .currencyCode(row.get("currency_code", String.class))
+                    .rateToRub(row.get("rate_to_rub", BigDecimal.class))
+                    .createdAt(row.get("created_at", Long.class))
+                    .build())
+        .one();
+  }
+
+  /*
+  Прореживание истории в интервале [from, to): в каждом интервале длиной bucketSeconds
+  остается только последняя запись по каждой валюте, то есть курс на конец интервала.
+  */
+  @Override
+  public Mono<Long> downsample(long from, long to, long bucketSeconds) {
+    String query = """
+      DELETE FROM exchange_rates_history h
+      WHERE h.created_at >= :from AND h.created_at < :to
+        AND EXISTS (
+          SELECT 1 FROM exchange_rates_history n
+          WHERE n.currency_code = h.currency_code
+            AND n.created_at > h.created_at
+            AND n.created_at < h.created_at - MOD(h.created_at, :bucket) + :bucket
+        )
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("from", from)
+        .bind("to", to)
+        .bind("bucket", bucketSeconds)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  @Override
+  public Mono<Long> findDownsampledTo(long bucketSeconds) {
+    return databaseClient
+        .sql("SELECT processed_to FROM exchange_rates_history_downsampling WHERE bucket_seconds = :bucket")
+        .bind("bucket", bucketSeconds)
+        .map(row -> row.get("processed_to", Long.class))
+        .one();
+  }
+
+  @Override
+  public Mono<Void> saveDownsampledTo(long bucketSeconds, long processedTo) {
+    String query = """
+      MERGE INTO exchange_rates_history_downsampling t
+      USING (VALUES (CAST(:bucket AS BIGINT), CAST(:processedTo AS BIGINT))) AS s(bucket_seconds, processed_to)
+      ON t.bucket_seconds = s.bucket_seconds
+      WHEN MATCHED THEN
+        UPDATE SET processed_to = s.processed_to
+      WHEN NOT MATCHED THEN
+        INSERT (bucket_seconds, processed_to) VALUES (s.bucket_seconds, s.processed_to)
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("bucket", bucketSeconds)
+        .bind("processedTo", processedTo)
+        .then();
+  }
+
+  @Override
+  public Mono<Long> findOldestCreatedAt() {
+    return databaseClient
+        .sql("SELECT created_at FROM exchange_rates_history ORDER BY created_at LIMIT 1")
+        .map(row -> row.get("created_at", Long.class))
+        .one();
+  }
+
+  // Секции по дням создаются только в Postgres, в остальных СУБД история хранится в обычной таблице
+  @Override
+  public Mono<Void> createDailyPartition(LocalDate day) {
+    if (!isPostgres()) return Mono.empty();
+
+    long from = day.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    long to = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    String query =
+        String.format(
+            "CREATE TABLE IF NOT EXISTS exchange_rates_history_%s PARTITION OF exchange_rates_history"
+                + " FOR VALUES FROM (%d) TO (%d)",
+            PARTITION_SUFFIX.format(day), from, to);
+    return databaseClient
+        .sql(query)
+        .then()
+        .doOnError(e -> log.error("Ошибка при создании секции истории курсов за {}", day, e))
+        .onErrorComplete();
+  }
+
+  private boolean isPostgres() {
+    return databaseClient.getConnectionFactory().getMetadata().getName().contains("PostgreSQL");
+  }
+}
@@ -6,7 +6,7 @@ import reactor.core.publisher.Mono;
 import ru.strbnm.exchange_service.entity.ExchangeRate;
 
 @Repository
-public interface ExchangeRateRepository extends ReactiveCrudRepository<ExchangeRate, Long> {
+public interface ExchangeRateRepository extends ReactiveCrudRepository<ExchangeRate, Long>, ExchangeRateCustomRepository {
   Mono<ExchangeRate> findByCurrencyCode(String currencyCode);
 
 }
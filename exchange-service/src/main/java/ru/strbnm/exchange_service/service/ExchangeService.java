@@ -1,11 +1,19 @@
 package ru.strbnm.exchange_service.service;
 
 import java.math.BigDecimal;
+import java.util.List;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.domain.BatchConvertResponse;
+import ru.strbnm.exchange_service.domain.ConvertRequest;
+import ru.strbnm.exchange_service.domain.HistoricalRate;
 import ru.strbnm.exchange_service.domain.Rate;
+import ru.strbnm.exchange_service.domain.RatesSnapshotEvent;
 
 public interface ExchangeService {
     Mono<BigDecimal> convert(String from, String to, BigDecimal amount);
+    Mono<BatchConvertResponse> convertBatch(List<ConvertRequest> requests);
     Flux<Rate> getRates();
+    Flux<RatesSnapshotEvent> streamRates();
+    Mono<HistoricalRate> getRateAt(String currency, long timestamp);
 }
@@ -1,75 +1,118 @@
 package ru.strbnm.exchange_service.service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.domain.BatchConvertResponse;
+import ru.strbnm.exchange_service.domain.BatchConvertedAmount;
+import ru.strbnm.exchange_service.domain.ConvertRequest;
+import ru.strbnm.exchange_service.domain.HistoricalRate;
 import ru.strbnm.exchange_service.domain.Rate;
-import ru.strbnm.exchange_service.entity.ExchangeRate;
-import ru.strbnm.exchange_service.repository.ExchangeRateRepository;
+import ru.strbnm.exchange_service.domain.RatesSnapshotEvent;
+import ru.strbnm.exchange_service.dto.CrossRateMatrix;
+import ru.strbnm.exchange_service.dto.RatesSnapshot;
+import ru.strbnm.exchange_service.exception.RateNotFoundException;
+import ru.strbnm.exchange_service.repository.ExchangeRateHistoryRepository;
 
-@Transactional(isolation = Isolation.REPEATABLE_READ)
 @Service
 public class ExchangeServiceImpl implements ExchangeService {
 
-  private final ExchangeRateRepository exchangeRateRepository;
-  private final String BASE_CURRENCY = "RUB";
+  private final RatesSnapshotHolder ratesSnapshotHolder;
+  private final ExchangeRateHistoryRepository exchangeRateHistoryRepository;
 
-  public ExchangeServiceImpl(ExchangeRateRepository exchangeRateRepository) {
-    this.exchangeRateRepository = exchangeRateRepository;
+  public ExchangeServiceImpl(
+      RatesSnapshotHolder ratesSnapshotHolder,
+      ExchangeRateHistoryRepository exchangeRateHistoryRepository) {
+    this.ratesSnapshotHolder = ratesSnapshotHolder;
+    this.exchangeRateHistoryRepository = exchangeRateHistoryRepository;
   }
 
   @Override
   public Mono<BigDecimal> convert(String from, String to, BigDecimal amount) {
     if (from.equals(to)) return Mono.just(amount);
-    if (BASE_CURRENCY.equals(from)) {
-      return fromBaseCurrency(to, amount);
-    } else if (BASE_CURRENCY.equals(to)) {
-      return toBaseCurrency(from, amount);
-    } else {
-      return fromIntermediateCurrency(from, to, amount);
-    }
+    return ratesSnapshotHolder
+        .snapshot()
+        .mapNotNull(snapshot -> convert(snapshot, from, to, amount));
   }
 
-  private Mono<BigDecimal> fromBaseCurrency(String to, BigDecimal amount) {
-    return exchangeRateRepository
-        .findByCurrencyCode(to)
-        .map(toRate -> round(amount.multiply(toRate.getRateToRub())));
-  }
-
-  private Mono<BigDecimal> toBaseCurrency(String from, BigDecimal amount) {
-    return exchangeRateRepository
-            .findByCurrencyCode(from)
-            .map(fromRate -> round(amount.divide(fromRate.getRateToRub(), 8, RoundingMode.HALF_UP)));
-  }
-
-  private Mono<BigDecimal> fromIntermediateCurrency(String from, String to, BigDecimal amount) {
-    return exchangeRateRepository.findByCurrencyCode(from)
-            .zipWith(exchangeRateRepository.findByCurrencyCode(to))
-            .map(tuple -> {
-              BigDecimal fromRate = tuple.getT1().getRateToRub();
-              BigDecimal toRate = tuple.getT2().getRateToRub();
-              return round(amount.divide(fromRate, 8, RoundingMode.HALF_UP).multiply(toRate));
+  @Override
+  public Mono<BatchConvertResponse> convertBatch(List<ConvertRequest> requests) {
+    // Все суммы пакета рассчитываются по одному снимку курсов
+    return ratesSnapshotHolder
+        .snapshot()
+        .map(
+            snapshot -> {
+              List<BatchConvertedAmount> items = new ArrayList<>(requests.size());
+              for (ConvertRequest request : requests) {
+                BigDecimal converted =
+                    request.getFrom().equals(request.getTo())
+                        ? request.getAmount()
+                        : convert(snapshot, request.getFrom(), request.getTo(), request.getAmount());
+                if (converted == null) {
+                  throw new IllegalArgumentException(
+                      String.format(
+                          "Отсутствует курс для конвертации %s -> %s",
+                          request.getFrom(), request.getTo()));
+                }
+                items.add(
+                    BatchConvertedAmount.builder()
+                        .from(request.getFrom())
+                        .to(request.getTo())
+                        .amount(request.getAmount())
+                        .convertedAmount(converted)
+                        .build());
+              }
+              return BatchConvertResponse.builder()
+                  .ratesVersion(snapshot.version())
+                  .items(items)
+                  .build();
             });
   }
 
-  private BigDecimal round(BigDecimal value) {
-    return value.setScale(4, RoundingMode.HALF_UP);
+  private BigDecimal convert(RatesSnapshot snapshot, String from, String to, BigDecimal amount) {
+    CrossRateMatrix crossRates = snapshot.crossRates();
+    int fromIndex = crossRates.indexOf(from);
+    int toIndex = crossRates.indexOf(to);
+    if (fromIndex < 0 || toIndex < 0) return null;
+    return crossRates.convert(fromIndex, toIndex, amount);
   }
 
   @Override
   public Flux<Rate> getRates() {
-    return exchangeRateRepository.findAll().map(this::toRate);
+    return ratesSnapshotHolder.snapshot().flatMapIterable(RatesSnapshot::rates);
   }
 
-  private Rate toRate(ExchangeRate entity) {
-    return Rate.builder()
-        .title(entity.getTitle())
-        .name(entity.getCurrencyCode())
-        .value(entity.getRateToRub())
-        .build();
+  @Override
+  public Flux<RatesSnapshotEvent> streamRates() {
+    return ratesSnapshotHolder
+        .updates()
+        .map(
+            snapshot ->
+                RatesSnapshotEvent.builder()
+                    .version(snapshot.version())
+                    .timestamp(snapshot.timestamp())
+                    .rates(snapshot.rates())
+                    .build());
+  }
+
+  @Override
+  public Mono<HistoricalRate> getRateAt(String currency, long timestamp) {
+    return exchangeRateHistoryRepository
+        .findRateAt(currency, timestamp)
+        .map(
+            rate ->
+                HistoricalRate.builder()
+                    .name(rate.getCurrencyCode())
+                    .value(rate.getRateToRub())
+                    .timestamp(rate.getCreatedAt())
+                    .build())
+        .switchIfEmpty(
+            Mono.error(
+                new RateNotFoundException(
+                    String.format(
+                        "Курс валюты %s на момент времени %d не найден", currency, timestamp))));
   }
 }
@@ -4,8 +4,10 @@ package ru.strbnm.exchange_service.service;
 import java.math.RoundingMode;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.observation.Observation;
@@ -17,10 +19,10 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.reactive.TransactionalOperator;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.context.Context;
 import ru.strbnm.exchange_service.entity.ExchangeRate;
+import ru.strbnm.exchange_service.repository.ExchangeRateHistoryRepository;
 import ru.strbnm.exchange_service.repository.ExchangeRateRepository;
 import ru.strbnm.kafka.dto.ExchangeRateMessage;
 
@@ -30,14 +32,21 @@ import ru.strbnm.kafka.dto.ExchangeRateMessage;
 public class KafkaConsumerService{
 
     private final ExchangeRateRepository exchangeRateRepository;
+    private final ExchangeRateHistoryRepository exchangeRateHistoryRepository;
+    private final RatesSnapshotHolder ratesSnapshotHolder;
     private final TransactionalOperator transactionalOperator;
     private final AtomicReference<Instant> lastRateUpdate = new AtomicReference<>(Instant.EPOCH);
     private final MeterRegistry meterRegistry;
     private final ObservationRegistry observationRegistry;
+    private DistributionSummary rowsWritten;
+    private DistributionSummary rowsSkipped;
 
-    public KafkaConsumerService(ExchangeRateRepository exchangeRateRepository,
+    public KafkaConsumerService(ExchangeRateRepository exchangeRateRepository, ExchangeRateHistoryRepository exchangeRateHistoryRepository,
+                                RatesSnapshotHolder ratesSnapshotHolder,
                                 TransactionalOperator transactionalOperator, MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
         this.exchangeRateRepository = exchangeRateRepository;
+        this.exchangeRateHistoryRepository = exchangeRateHistoryRepository;
+        this.ratesSnapshotHolder = ratesSnapshotHolder;
         this.transactionalOperator = transactionalOperator;
         this.meterRegistry = meterRegistry;
         this.observationRegistry = observationRegistry;
@@ -50,6 +59,9 @@ public class KafkaConsumerService{
                     .lowCardinalityKeyValue("kafka.topic", "exchange-rates")
                     .start();
 
+            // Снимок в памяти обновляется сразу, запись в БД нужна только для прогрева после перезапуска
+            ratesSnapshotHolder.publish(message);
+
             return transactionalOperator.execute(status ->
                             updateRates(message)
                                     .contextWrite(Context.of(ObservationThreadLocalAccessor.KEY, observation)) // нужно для передачи контекста
@@ -60,24 +72,34 @@ public class KafkaConsumerService{
     }
 
     private Mono<Void> updateRates(ExchangeRateMessage rateMessage) {
-        return exchangeRateRepository.deleteAll()
-                .thenMany(
-                        Flux.fromIterable(rateMessage.getRates())
-                                .map(rate -> ExchangeRate.builder()
-                                        .title(rate.getTitle())
-                                        .currencyCode(rate.getName())
-                                        .rateToRub(rate.getValue().setScale(4, RoundingMode.HALF_UP))
-                                        .createdAt(rateMessage.getTimestamp())
-                                        .build()
-                                )
-                )
-                .as(exchangeRateRepository::saveAll)
+        List<ExchangeRate> exchangeRates = rateMessage.getRates().stream()
+                .map(rate -> ExchangeRate.builder()
+                        .title(rate.getTitle())
+                        .currencyCode(rate.getName())
+                        .rateToRub(rate.getValue().setScale(4, RoundingMode.HALF_UP))
+                        .createdAt(rateMessage.getTimestamp())
+                        .build())
+                .toList();
+        return exchangeRateRepository.upsertAll(exchangeRates)
+                .doOnNext(written -> {
+                    rowsWritten.record(written);
+                    rowsSkipped.record(exchangeRates.size() - written);
+                })
+                .then(exchangeRateHistoryRepository.appendAll(exchangeRates))
                 .then()
                 .doOnSuccess(v -> lastRateUpdate.set(Instant.now()));
     }
 
     @PostConstruct
     public void initMetrics() {
+        rowsWritten = DistributionSummary.builder("currency.rate.upsert.rows")
+                .tag("result", "written")
+                .description("Количество строк курсов, вставленных или обновленных при обработке сообщения")
+                .register(meterRegistry);
+        rowsSkipped = DistributionSummary.builder("currency.rate.upsert.rows")
+                .tag("result", "skipped")
+                .description("Количество строк курсов, пропущенных при обработке сообщения из-за неизменного курса")
+                .register(meterRegistry);
         Gauge.builder("currency.rate.delay.seconds", () ->
                         Duration.between(lastRateUpdate.get(), Instant.now()).getSeconds())
                 .description("Время в секундах с момента последнего обновления курса валют")
@@ -0,0 +1,129 @@
+package ru.strbnm.exchange_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.exchange_service.repository.ExchangeRateHistoryRepository;
+
+@Slf4j
+@Profile("!contracts")
+@Component
+public class RateHistoryMaintenanceScheduler {
+
+  /*
+  Обслуживание истории курсов валют:
+  - заранее создает дневные секции таблицы exchange_rates_history на ближайшие дни;
+  - прореживает историю: сырые записи хранятся rawRetention, затем до minuteRetention
+    остается одна запись в минуту, после этого - одна запись в час.
+  Прореживание продолжается с границы, сохраненной предыдущим запуском (exchange_rates_history_downsampling),
+  окнами шириной lookback, поэтому после простоя сервиса пропущенные интервалы догоняются, а один
+  запрос обрабатывает ограниченный объем строк. Без сохраненной границы история обрабатывается
+  с самой старой записи.
+  Секции на сегодня и завтра создаются при миграции (changeSet 1747931624039-5), до начала
+  чтения курсов из Kafka: строки, попавшие в секцию по умолчанию, не дают создать секцию
+  за тот же день. Первый запуск выполняется сразу после старта приложения (когда миграции уже
+  применены), затем каждые interval.
+  */
+
+  private static final long MINUTE_BUCKET = 60;
+  private static final long HOUR_BUCKET = 3600;
+  private static final int PARTITIONS_AHEAD = 2;
+
+  private final ExchangeRateHistoryRepository historyRepository;
+  private final Duration rawRetention;
+  private final Duration minuteRetention;
+  private final Duration lookback;
+  private final Duration interval;
+  private final Counter downsampledRows;
+  private Disposable maintenanceTask;
+
+  public RateHistoryMaintenanceScheduler(
+      ExchangeRateHistoryRepository historyRepository,
+      @Value("${application.rates.history.raw-retention:1h}") Duration rawRetention,
+      @Value("${application.rates.history.minute-retention:7d}") Duration minuteRetention,
+      @Value("${application.rates.history.lookback:1d}") Duration lookback,
+      @Value("${application.rates.history.interval:5m}") Duration interval,
+      MeterRegistry meterRegistry) {
+    this.historyRepository = historyRepository;
+    this.rawRetention = rawRetention;
+    this.minuteRetention = minuteRetention;
+    this.lookback = lookback;
+    this.interval = interval;
+    this.downsampledRows =
+        Counter.builder("currency.rate.history.downsampled.rows")
+            .description("Количество строк истории курсов, удаленных при прореживании")
+            .register(meterRegistry);
+  }
+
+  public Mono<Void> maintain() {
+    long now = Instant.now().getEpochSecond();
+    // Шаги независимы: ошибка одного не отменяет остальные
+    return createPartitions()
+        .then(downsample(now - rawRetention.getSeconds(), MINUTE_BUCKET))
+        .then(downsample(now - minuteRetention.getSeconds(), HOUR_BUCKET));
+  }
+
+  private Mono<Void> createPartitions() {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    return Flux.range(0, PARTITIONS_AHEAD + 1)
+        .concatMap(offset -> historyRepository.createDailyPartition(today.plusDays(offset)))
+        .then()
+        .doOnError(e -> log.error("Ошибка при создании секций истории курсов валют", e))
+        .onErrorComplete();
+  }
+
+  private Mono<Void> downsample(long before, long bucket) {
+    // Обрабатываются только завершенные интервалы, чтобы не удалить запись из текущего интервала
+    long to = before - Math.floorMod(before, bucket);
+    return historyRepository
+        .findDownsampledTo(bucket)
+        .switchIfEmpty(
+            historyRepository
+                .findOldestCreatedAt()
+                .map(oldest -> oldest - Math.floorMod(oldest, bucket)))
+        .flatMap(from -> downsampleWindows(from, to, bucket))
+        .doOnError(e -> log.error("Ошибка при прореживании истории курсов валют", e))
+        .onErrorComplete();
+  }
+
+  // Граница сохраняется после каждого окна, чтобы прерванная догонка продолжилась с него же
+  private Mono<Void> downsampleWindows(long from, long to, long bucket) {
+    if (from >= to) return Mono.empty();
+
+    long windowTo = Math.min(from + lookback.getSeconds(), to);
+    return historyRepository
+        .downsample(from, windowTo, bucket)
+        .doOnNext(downsampledRows::increment)
+        .then(historyRepository.saveDownsampledTo(bucket, windowTo))
+        .then(Mono.defer(() -> downsampleWindows(windowTo, to, bucket)));
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleTask() {
+    maintenanceTask =
+        Flux.interval(Duration.ZERO, interval)
+            .onBackpressureDrop()
+            .concatMap(tick -> maintain())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (maintenanceTask != null) {
+      maintenanceTask.dispose();
+    }
+  }
+}
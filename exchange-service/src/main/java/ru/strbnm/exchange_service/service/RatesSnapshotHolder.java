@@ -0,0 +1,148 @@
+package ru.strbnm.exchange_service.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.strbnm.exchange_service.domain.Rate;
+import ru.strbnm.exchange_service.dto.RatesSnapshot;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+import ru.strbnm.exchange_service.repository.ExchangeRateRepository;
+import ru.strbnm.kafka.dto.ExchangeRateMessage;
+
+@Slf4j
+@Component
+public class RatesSnapshotHolder {
+
+  /*
+  Хранит актуальный снимок курсов в памяти. Снимок подменяется атомарно при получении
+  нового сообщения из Kafka, а база данных используется только как долговременная копия
+  для прогрева после перезапуска сервиса.
+  Каждый новый снимок публикуется в общий горячий поток, который повторяет последний снимок
+  новым подписчикам, поэтому все SSE-подписчики разделяют одну публикацию без чтения из БД.
+  */
+
+  private final ExchangeRateRepository exchangeRateRepository;
+  private final MeterRegistry meterRegistry;
+  private final AtomicReference<RatesSnapshot> snapshot =
+      new AtomicReference<>(RatesSnapshot.empty());
+  private final Sinks.Many<RatesSnapshot> updates = Sinks.many().replay().latest();
+
+  public RatesSnapshotHolder(
+      ExchangeRateRepository exchangeRateRepository, MeterRegistry meterRegistry) {
+    this.exchangeRateRepository = exchangeRateRepository;
+    this.meterRegistry = meterRegistry;
+  }
+
+  public RatesSnapshot current() {
+    return snapshot.get();
+  }
+
+  public Mono<RatesSnapshot> snapshot() {
+    RatesSnapshot current = snapshot.get();
+    if (!current.isEmpty()) return Mono.just(current);
+    return loadFromDatabase();
+  }
+
+  /*
+  Поток снимков курсов. Медленный подписчик не накапливает очередь: при отставании
+  промежуточные снимки отбрасываются и доставляется только самый свежий.
+  */
+  public Flux<RatesSnapshot> updates() {
+    return snapshot()
+        .thenMany(updates.asFlux())
+        .onBackpressureLatest()
+        .distinctUntilChanged(RatesSnapshot::version);
+  }
+
+  // Принудительная перезагрузка снимка из БД без учета метки времени текущего снимка
+  public Mono<RatesSnapshot> reload() {
+    return exchangeRateRepository
+        .findAll()
+        .collectList()
+        .map(
+            entities ->
+                replace(
+                    current ->
+                        RatesSnapshot.of(
+                            current.version() + 1,
+                            maxTimestamp(entities),
+                            entities.stream().map(this::toRate).toList())));
+  }
+
+  public RatesSnapshot publish(ExchangeRateMessage message) {
+    List<Rate> rates =
+        message.getRates().stream()
+            .map(
+                rate ->
+                    Rate.builder()
+                        .title(rate.getTitle())
+                        .name(rate.getName())
+                        .value(rate.getValue().setScale(4, RoundingMode.HALF_UP))
+                        .build())
+            .toList();
+    return publish(message.getTimestamp(), rates);
+  }
+
+  private RatesSnapshot publish(long timestamp, List<Rate> rates) {
+    return replace(
+        current -> {
+          // Сообщения с устаревшей меткой времени не должны откатывать курсы назад
+          if (!current.isEmpty() && timestamp < current.timestamp()) return current;
+          return RatesSnapshot.of(current.version() + 1, timestamp, rates);
+        });
+  }
+
+  // Подмена снимка и публикация в поток выполняются под одной блокировкой, чтобы порядок версий в потоке сохранялся
+  private synchronized RatesSnapshot replace(UnaryOperator<RatesSnapshot> update) {
+    RatesSnapshot current = snapshot.get();
+    RatesSnapshot updated = update.apply(current);
+    if (updated != current) {
+      snapshot.set(updated);
+      updates.emitNext(updated, Sinks.EmitFailureHandler.FAIL_FAST);
+      log.debug("Опубликован снимок курсов версии {}", updated.version());
+    }
+    return updated;
+  }
+
+  private Mono<RatesSnapshot> loadFromDatabase() {
+    return exchangeRateRepository
+        .findAll()
+        .collectList()
+        .map(
+            entities -> {
+              if (entities.isEmpty()) return snapshot.get();
+              return publish(maxTimestamp(entities), entities.stream().map(this::toRate).toList());
+            });
+  }
+
+  private long maxTimestamp(List<ExchangeRate> entities) {
+    return entities.stream().mapToLong(ExchangeRate::getCreatedAt).max().orElse(0L);
+  }
+
+  private Rate toRate(ExchangeRate entity) {
+    return Rate.builder()
+        .title(entity.getTitle())
+        .name(entity.getCurrencyCode())
+        .value(entity.getRateToRub())
+        .build();
+  }
+
+  @PostConstruct
+  public void initMetrics() {
+    Gauge.builder("currency.rate.stream.subscribers", updates, Sinks.Many::currentSubscriberCount)
+        .description("Количество подписчиков потока курсов валют")
+        .register(meterRegistry);
+    Gauge.builder("currency.rate.snapshot.version", snapshot, ref -> ref.get().version())
+        .description("Версия актуального снимка курсов валют")
+        .register(meterRegistry);
+  }
+}
@@ -13,14 +13,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import ru.strbnm.exchange_service.config.TestSecurityConfig;
+import ru.strbnm.exchange_service.domain.BatchConvertResponse;
 import ru.strbnm.exchange_service.domain.ConvertedAmount;
+import ru.strbnm.exchange_service.domain.RatesSnapshotEvent;
 import ru.strbnm.exchange_service.repository.ExchangeRateRepository;
 
 @ActiveProfiles("test")
@@ -79,6 +83,73 @@ public class ExchangeControllerIntegrationTest {
             });
   }
 
+  @Test
+  void testConvertCurrencyBatch_shouldReturnConvertedAmountsWithRatesVersion() {
+
+    webTestClient
+        .mutateWith(mockJwt())
+        .post()
+        .uri("/api/v1/convert/batch")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(
+            "{\"items\": ["
+                + "{\"from\": \"RUB\", \"to\": \"USD\", \"amount\": 1000.0},"
+                + "{\"from\": \"USD\", \"to\": \"CNY\", \"amount\": 1.0},"
+                + "{\"from\": \"CNY\", \"to\": \"CNY\", \"amount\": 5.0}]}")
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody(BatchConvertResponse.class)
+        .value(
+            response -> {
+              assertNotNull(response);
+              assertTrue(response.getRatesVersion() > 0);
+              assertEquals(3, response.getItems().size());
+              assertEquals(new BigDecimal("12.0000"), response.getItems().get(0).getConvertedAmount());
+              assertEquals(new BigDecimal("9.1667"), response.getItems().get(1).getConvertedAmount());
+              assertEquals(0, new BigDecimal("5").compareTo(response.getItems().get(2).getConvertedAmount()));
+            });
+  }
+
+  @Test
+  void testConvertCurrencyBatch_withUnknownCurrency_shouldReturnBadRequest() {
+
+    webTestClient
+        .mutateWith(mockJwt())
+        .post()
+        .uri("/api/v1/convert/batch")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"items\": [{\"from\": \"RUB\", \"to\": \"EUR\", \"amount\": 1000.0}]}")
+        .exchange()
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  @Test
+  void testStreamRates_shouldReturnLatestSnapshotAsServerSentEvent() {
+
+    var events =
+        webTestClient
+            .mutateWith(mockJwt())
+            .get()
+            .uri("/api/v1/rates/stream")
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .returnResult(new ParameterizedTypeReference<ServerSentEvent<RatesSnapshotEvent>>() {})
+            .getResponseBody();
+
+    StepVerifier.create(events.take(1))
+        .assertNext(
+            event -> {
+              assertEquals("rates", event.event());
+              assertNotNull(event.data());
+              assertEquals(3, event.data().getRates().size());
+            })
+        .verifyComplete();
+  }
+
   @Test
   void testConvertCurrency_withNegativeAmount_shouldReturnBadRequest() {
 
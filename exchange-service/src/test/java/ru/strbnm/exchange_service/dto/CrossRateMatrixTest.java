@@ -0,0 +1,111 @@
+package ru.strbnm.exchange_service.dto;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.strbnm.exchange_service.domain.Rate;
+
+class CrossRateMatrixTest {
+
+  private final CrossRateMatrix matrix =
+      CrossRateMatrix.of(
+          List.of(
+              rate("CNY", "0.11"),
+              rate("RUB", "1"),
+              rate("USD", "0.012")));
+
+  @Test
+  @DisplayName("Расчет на long совпадает с известными значениями")
+  void testKnownValues() {
+    int rub = matrix.indexOf("RUB");
+    int usd = matrix.indexOf("USD");
+    int cny = matrix.indexOf("CNY");
+
+    assertEquals(new BigDecimal("1.2000"), matrix.convert(rub, usd, new BigDecimal("100")));
+    assertEquals(new BigDecimal("83.3333"), matrix.convert(usd, rub, new BigDecimal("1")));
+    assertEquals(new BigDecimal("9.1667"), matrix.convert(usd, cny, new BigDecimal("1")));
+  }
+
+  @Test
+  @DisplayName("Неизвестная валюта не имеет индекса в матрице")
+  void testUnknownCurrency() {
+    assertEquals(-1, matrix.indexOf("EUR"));
+    assertNull(matrix.rateToRub("EUR"));
+  }
+
+  @Test
+  @DisplayName("Неположительный курс не попадает в матрицу")
+  void testNonPositiveRateIsRejected() {
+    CrossRateMatrix rejecting =
+        CrossRateMatrix.of(
+            List.of(
+                rate("USD", "0"),
+                rate("CNY", "-0.11"),
+                rate("EUR", "0.00004"),
+                rate("RUB", "-1"),
+                rate("KZT", "5.5")));
+
+    assertEquals(-1, rejecting.indexOf("USD"));
+    assertEquals(-1, rejecting.indexOf("CNY"));
+    assertEquals(-1, rejecting.indexOf("EUR"));
+    assertNull(rejecting.rateToRub("USD"));
+    // Базовая валюта сохраняет курс 1, остальные валюты конвертируются
+    assertEquals(0, BigDecimal.ONE.compareTo(rejecting.rateToRub("RUB")));
+    assertEquals(
+        new BigDecimal("55.0000"),
+        rejecting.convert(rejecting.indexOf("RUB"), rejecting.indexOf("KZT"), BigDecimal.TEN));
+    assertEquals(
+        new BigDecimal("1.8182"),
+        rejecting.convertDecimal(
+            rejecting.indexOf("KZT"), rejecting.indexOf("RUB"), BigDecimal.TEN));
+  }
+
+  @Test
+  @DisplayName("Расчет на long совпадает с расчетом на BigDecimal с точностью до округления")
+  void testScaledParityWithDecimal() {
+    Random random = new Random(20250601L);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      CrossRateMatrix randomMatrix =
+          CrossRateMatrix.of(
+              List.of(
+                  rate("USD", randomDecimal(random, 1_000_000L, 4)),
+                  rate("CNY", randomDecimal(random, 10_000_000L, 4)),
+                  rate("EUR", randomDecimal(random, 100_000L, 4))));
+      for (int amountIndex = 0; amountIndex < 50; amountIndex++) {
+        BigDecimal amount =
+            randomDecimal(random, (long) Math.pow(10, 1 + random.nextInt(12)), random.nextInt(5));
+        for (int from = 0; from < 4; from++) {
+          for (int to = 0; to < 4; to++) {
+            long scaled =
+                randomMatrix.convertScaled(
+                    from, to, amount.movePointRight(CrossRateMatrix.RATE_SCALE).longValueExact());
+            BigDecimal expected = randomMatrix.convertDecimal(from, to, amount);
+            if (scaled != CrossRateMatrix.NOT_CONVERTIBLE && from != to) {
+              assertEquals(
+                  expected,
+                  BigDecimal.valueOf(scaled, CrossRateMatrix.RATE_SCALE),
+                  () -> "amount=" + amount);
+            }
+            assertEquals(0, expected.compareTo(randomMatrix.convert(from, to, amount)));
+          }
+        }
+      }
+    }
+  }
+
+  private static BigDecimal randomDecimal(Random random, long bound, int scale) {
+    return BigDecimal.valueOf(1 + (long) (random.nextDouble() * bound), scale);
+  }
+
+  private static Rate rate(String name, String value) {
+    return rate(name, new BigDecimal(value));
+  }
+
+  private static Rate rate(String name, BigDecimal value) {
+    return Rate.builder().title(name).name(name).value(value).build();
+  }
+}
@@ -1,8 +1,11 @@
 package ru.strbnm.exchange_service.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import liquibase.exception.LiquibaseException;
 import liquibase.integration.spring.SpringLiquibase;
@@ -17,12 +20,23 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import ru.strbnm.exchange_service.config.LiquibaseConfig;
 import ru.strbnm.exchange_service.domain.Rate;
+import ru.strbnm.exchange_service.entity.ExchangeRate;
+import ru.strbnm.exchange_service.exception.RateNotFoundException;
+import ru.strbnm.exchange_service.repository.ExchangeRateHistoryRepository;
+import ru.strbnm.exchange_service.repository.ExchangeRateHistoryRepositoryImpl;
 import ru.strbnm.exchange_service.repository.ExchangeRateRepository;
+import ru.strbnm.kafka.dto.ExchangeRateMessage;
 
 @ActiveProfiles("test")
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @DataR2dbcTest(properties = {"spring.config.name=application-test"})
-@Import({LiquibaseConfig.class, ExchangeServiceImpl.class})
+@Import({
+  LiquibaseConfig.class,
+  ExchangeServiceImpl.class,
+  RatesSnapshotHolder.class,
+  ExchangeRateHistoryRepositoryImpl.class,
+  SimpleMeterRegistry.class
+})
 class ExchangeServiceImplTest {
 
   @Autowired private DatabaseClient databaseClient;
@@ -32,6 +46,10 @@ class ExchangeServiceImplTest {
 
   @Autowired private ExchangeService exchangeService;
 
+  @Autowired private RatesSnapshotHolder ratesSnapshotHolder;
+
+  @Autowired private ExchangeRateHistoryRepository exchangeRateHistoryRepository;
+
   private static final String INIT_SCRIPT_PATH = "src/test/resources/scripts/INIT_STORE_RECORD.sql";
   private static final String CLEAN_SCRIPT_PATH =
       "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
@@ -49,6 +67,7 @@ class ExchangeServiceImplTest {
           "DatabaseClient не инициализирован. Проверьте конфигурацию тестов.");
     }
     executeSqlScript(INIT_SCRIPT_PATH).block();
+    ratesSnapshotHolder.reload().block();
   }
 
   @AfterEach
@@ -124,4 +143,172 @@ class ExchangeServiceImplTest {
         .expectNextCount(3) // по 1 курсу на RUB, USD, CNY (последние)
         .verifyComplete();
   }
+
+  @Test
+  @DisplayName("Конвертация по снимку курсов в памяти без обращения к БД")
+  void testConvertFromPublishedSnapshot() {
+    ratesSnapshotHolder.publish(
+        ExchangeRateMessage.builder()
+            .timestamp(Instant.now().getEpochSecond())
+            .rates(
+                List.of(
+                    new ru.strbnm.kafka.dto.Rate("Российский рубль", "RUB", BigDecimal.ONE),
+                    new ru.strbnm.kafka.dto.Rate("Американский доллар", "USD", new BigDecimal("0.010")),
+                    new ru.strbnm.kafka.dto.Rate("Юань", "CNY", new BigDecimal("0.15"))))
+            .build());
+    exchangeRateRepository.deleteAll().block();
+
+    StepVerifier.create(exchangeService.convert("RUB", "USD", new BigDecimal("100")))
+        .expectNext(new BigDecimal("1.0000"))
+        .verifyComplete();
+    StepVerifier.create(exchangeService.getRates()).expectNextCount(3).verifyComplete();
+  }
+
+  @Test
+  @DisplayName("Поток курсов повторяет последний снимок и публикует новые")
+  void testStreamRates() {
+    long version = ratesSnapshotHolder.current().version();
+
+    StepVerifier.create(exchangeService.streamRates().take(2))
+        .assertNext(event -> Assertions.assertEquals(version, event.getVersion()))
+        .then(
+            () ->
+                ratesSnapshotHolder.publish(
+                    ExchangeRateMessage.builder()
+                        .timestamp(Instant.now().getEpochSecond())
+                        .rates(
+                            List.of(
+                                new ru.strbnm.kafka.dto.Rate(
+                                    "Американский доллар", "USD", new BigDecimal("0.011"))))
+                        .build()))
+        .assertNext(
+            event -> {
+              Assertions.assertEquals(version + 1, event.getVersion());
+              Assertions.assertEquals(1, event.getRates().size());
+            })
+        .verifyComplete();
+  }
+
+  @Test
+  @DisplayName("Upsert курсов перезаписывает только изменившиеся строки")
+  void testUpsertSkipsUnchangedRates() {
+    List<ExchangeRate> rates =
+        List.of(
+            new ExchangeRate(null, "Юань", "CNY", new BigDecimal("0.1100"), 1747939860L),
+            new ExchangeRate(null, "Российский рубль", "RUB", new BigDecimal("1.0000"), 1747939860L),
+            new ExchangeRate(null, "Американский доллар", "USD", new BigDecimal("0.0130"), 1747939860L),
+            new ExchangeRate(null, "Евро", "EUR", new BigDecimal("0.0110"), 1747939860L));
+
+    StepVerifier.create(exchangeRateRepository.upsertAll(rates)).expectNext(2L).verifyComplete();
+    StepVerifier.create(exchangeRateRepository.findByCurrencyCode("USD"))
+        .assertNext(
+            rate -> Assertions.assertEquals(0, new BigDecimal("0.013").compareTo(rate.getRateToRub())))
+        .verifyComplete();
+    StepVerifier.create(exchangeRateRepository.count()).expectNext(4L).verifyComplete();
+  }
+
+  @Test
+  @DisplayName("Получение курса на момент времени из истории")
+  void testGetRateAt() {
+    exchangeRateHistoryRepository
+        .appendAll(
+            List.of(
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0120"), 1000L),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0130"), 2000L),
+                new ExchangeRate(null, null, "CNY", new BigDecimal("0.1100"), 1500L)))
+        .block();
+
+    StepVerifier.create(exchangeService.getRateAt("USD", 1999L))
+        .assertNext(
+            rate -> {
+              Assertions.assertEquals(0, new BigDecimal("0.012").compareTo(rate.getValue()));
+              Assertions.assertEquals(1000L, rate.getTimestamp());
+            })
+        .verifyComplete();
+    StepVerifier.create(exchangeService.getRateAt("USD", 2000L))
+        .assertNext(rate -> Assertions.assertEquals(2000L, rate.getTimestamp()))
+        .verifyComplete();
+    StepVerifier.create(exchangeService.getRateAt("USD", 999L))
+        .expectError(RateNotFoundException.class)
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Прореживание истории оставляет последнюю запись в каждом интервале")
+  void testDownsampleHistory() {
+    exchangeRateHistoryRepository
+        .appendAll(
+            List.of(
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0120"), 60L),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0121"), 90L),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0122"), 119L),
+                new ExchangeRate(null, null, "CNY", new BigDecimal("0.1100"), 100L),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0123"), 120L)))
+        .block();
+
+    StepVerifier.create(exchangeRateHistoryRepository.downsample(0L, 120L, 60L))
+        .expectNext(2L)
+        .verifyComplete();
+    StepVerifier.create(exchangeService.getRateAt("USD", 119L))
+        .assertNext(rate -> Assertions.assertEquals(119L, rate.getTimestamp()))
+        .verifyComplete();
+    StepVerifier.create(exchangeService.getRateAt("USD", 100L))
+        .expectError(RateNotFoundException.class)
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Прореживание продолжается с сохраненной границы и догоняет интервалы старше lookback")
+  void testDownsampleCatchesUpFromLastProcessedBucket() {
+    RateHistoryMaintenanceScheduler scheduler =
+        new RateHistoryMaintenanceScheduler(
+            exchangeRateHistoryRepository,
+            Duration.ofHours(1),
+            Duration.ofDays(7),
+            Duration.ofDays(1),
+            Duration.ofMinutes(5),
+            new SimpleMeterRegistry());
+    long now = Instant.now().getEpochSecond();
+    long processedTo = now - Duration.ofDays(3).toSeconds();
+    processedTo -= Math.floorMod(processedTo, 60L);
+    // Минута до сохраненной границы уже обработана, минута двое суток назад - нет
+    long processedMinute = processedTo - 60;
+    long missedMinute = now - Duration.ofDays(2).toSeconds();
+    missedMinute -= Math.floorMod(missedMinute, 60L);
+    exchangeRateHistoryRepository.saveDownsampledTo(60L, processedTo).block();
+    exchangeRateHistoryRepository
+        .appendAll(
+            List.of(
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0120"), processedMinute),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0121"), processedMinute + 30),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0122"), missedMinute),
+                new ExchangeRate(null, null, "USD", new BigDecimal("0.0123"), missedMinute + 30)))
+        .block();
+
+    scheduler.maintain().block();
+
+    StepVerifier.create(
+            databaseClient
+                .sql("SELECT created_at FROM exchange_rates_history ORDER BY created_at")
+                .map(row -> row.get("created_at", Long.class))
+                .all())
+        .expectNext(processedMinute, processedMinute + 30, missedMinute + 30)
+        .verifyComplete();
+    long expectedTo = now - Duration.ofHours(1).toSeconds();
+    expectedTo -= Math.floorMod(expectedTo, 60L);
+    Assertions.assertTrue(exchangeRateHistoryRepository.findDownsampledTo(60L).block() >= expectedTo);
+  }
+
+  @Test
+  @DisplayName("Устаревшее сообщение не откатывает снимок курсов")
+  void testStaleMessageIsIgnored() {
+    long version = ratesSnapshotHolder.snapshot().block().version();
+    ratesSnapshotHolder.publish(
+        ExchangeRateMessage.builder()
+            .timestamp(0L)
+            .rates(List.of(new ru.strbnm.kafka.dto.Rate("Американский доллар", "USD", BigDecimal.TEN)))
+            .build());
+
+    Assertions.assertEquals(version, ratesSnapshotHolder.current().version());
+  }
 }
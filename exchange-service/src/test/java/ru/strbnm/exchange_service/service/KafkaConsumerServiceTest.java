@@ -31,6 +31,9 @@ public class KafkaConsumerServiceTest {
     @Autowired
     private ExchangeRateRepository exchangeRateRepository;
 
+    @Autowired
+    private RatesSnapshotHolder ratesSnapshotHolder;
+
     @Autowired
     private KafkaTemplate<String, ExchangeRateMessage> kafkaTemplate;
 
@@ -74,6 +77,7 @@ public class KafkaConsumerServiceTest {
                             .withComparatorForType((a, b) -> ((BigDecimal) a).compareTo((BigDecimal) b), BigDecimal.class)
                             .ignoringCollectionOrder()
                             .isEqualTo(lastRates);
+                    assertThat(ratesSnapshotHolder.current().rateToRub("USD")).isEqualByComparingTo("0.010");
                 });
     }
 
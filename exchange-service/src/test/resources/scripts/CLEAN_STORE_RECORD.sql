@@ -1,2 +1,4 @@
 DELETE FROM exchange_rates;
 ALTER TABLE exchange_rates ALTER COLUMN id RESTART WITH 1;
+DELETE FROM exchange_rates_history;
+DELETE FROM exchange_rates_history_downsampling;
@@ -14,8 +14,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.WebSession;
-import org.thymeleaf.spring6.context.webflux.ReactiveDataDriverContextVariable;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.front_ui.client.accounts.domain.*;
 import ru.strbnm.front_ui.client.cash.domain.CashCurrencyEnum;
@@ -23,8 +21,10 @@ import ru.strbnm.front_ui.client.cash.domain.CashOperationRequest;
 import ru.strbnm.front_ui.client.cash.domain.CashOperationResponse;
 import ru.strbnm.front_ui.client.transfer.domain.TransferCurrencyEnum;
 import ru.strbnm.front_ui.client.transfer.domain.TransferOperationRequest;
-import ru.strbnm.front_ui.client.transfer.domain.TransferOperationResponse;
+import ru.strbnm.front_ui.client.transfer.domain.TransferStatus;
 import ru.strbnm.front_ui.dto.*;
+import ru.strbnm.front_ui.exception.TransferServiceException;
+import ru.strbnm.front_ui.exception.UnavailabilityTransferServiceException;
 import ru.strbnm.front_ui.service.FrontUiService;
 import ru.strbnm.front_ui.utils.Currency;
 import ru.strbnm.front_ui.utils.CurrentUserService;
@@ -50,13 +50,15 @@ public class FrontUiController {
   @GetMapping("/main")
   @PreAuthorize("isAuthenticated()")
   public Mono<String> mainPage(Model model, WebSession session) {
-    Flux<UserListResponseInner> usersFlux = frontUiService.getAllUsers();
     return currentUserService
         .getCurrentUserLogin()
         .flatMap(
             userLogin ->
-                frontUiService
-                    .getUserDetailByLogin(userLogin)
+                Mono.when(
+                        resolvePendingTransfer(userLogin, session, model, "transferPending", "transferErrors", "transferInfo"),
+                        resolvePendingTransfer(
+                            userLogin, session, model, "transferOtherPending", "transferOtherErrors", "transferOtherInfo"))
+                    .then(frontUiService.getUserDetailByLogin(userLogin))
                     .doOnNext(
                         user -> {
                           model.addAttribute("login", userLogin);
@@ -72,11 +74,17 @@ public class FrontUiController {
                           addSessionErrorsToModel(session, model, "transferErrors");
                           addSessionErrorsToModel(session, model, "transferOtherErrors");
                         })
-                    .thenReturn("main")
-                    .doOnSuccess(
-                        viewName ->
-                            model.addAttribute(
-                                "users", new ReactiveDataDriverContextVariable(usersFlux))));
+                    .thenReturn("main"));
+  }
+
+  // Получатель перевода выбирается по подсказкам, полный список пользователей на страницу не выводится
+  @GetMapping("/users/search")
+  @PreAuthorize("isAuthenticated()")
+  @ResponseBody
+  public Mono<UserDirectoryPage> searchUsers(
+      @RequestParam(required = false) String prefix,
+      @RequestParam(required = false) String cursor) {
+    return frontUiService.searchUsers(prefix, cursor);
   }
 
   @PostMapping("/user/{login}/editPassword")
@@ -169,6 +177,10 @@ public class FrontUiController {
       @PathVariable String login,
       @ModelAttribute TransferFormDto form,
       WebSession session) {
+    // Перевод отправляется асинхронно: итог показывается на главной странице, когда сервис переводов его запишет
+    boolean isItself = login.equals(form.getToLogin());
+    String errorKey = isItself ? "transferErrors" : "transferOtherErrors";
+    String pendingKey = isItself ? "transferPending" : "transferOtherPending";
     return currentUserService
         .getCurrentUserLogin()
         .flatMap(
@@ -180,31 +192,29 @@ public class FrontUiController {
                     "Логин не совпадает с логином аутентифицированного пользователя. Операция отклонена.");
               if (form.getAmount().compareTo(BigDecimal.ZERO) <= 0)
                 errors.add("Сумма операции не может быть отрицательной или равна 0");
-              if (login.equals(form.getToLogin()) && form.getFromCurrency().equals(form.getToCurrency()))
+              if (isItself && form.getFromCurrency().equals(form.getToCurrency()))
                 errors.add("Перевести можно только между разными счетами");
               if (!errors.isEmpty()) {
-                return Mono.just(
-                    new TransferOperationResponse(
-                        TransferOperationResponse.OperationStatusEnum.FAILED, errors));
-              } else {
-                return frontUiService.performTransferOperation(
-                    userLogin,
-                    TransferOperationRequest.builder()
-                        .fromLogin(userLogin)
-                        .toLogin(form.getToLogin())
-                        .fromCurrency(TransferCurrencyEnum.fromValue(form.getFromCurrency()))
-                        .toCurrency(TransferCurrencyEnum.fromValue(form.getToCurrency()))
-                        .amount(form.getAmount())
-                        .build());
-              }
-            })
-        .doOnNext(
-            operationResponse -> {
-              if (login.equals(form.getToLogin())) {
-                handleTransferResponseError(session, operationResponse, "transferErrors");
-              } else {
-                handleTransferResponseError(session, operationResponse, "transferOtherErrors");
+                session.getAttributes().put(errorKey, errors);
+                return Mono.empty();
               }
+              return frontUiService
+                  .submitTransferOperation(
+                      userLogin,
+                      TransferOperationRequest.builder()
+                          .fromLogin(userLogin)
+                          .toLogin(form.getToLogin())
+                          .fromCurrency(TransferCurrencyEnum.fromValue(form.getFromCurrency()))
+                          .toCurrency(TransferCurrencyEnum.fromValue(form.getToCurrency()))
+                          .amount(form.getAmount())
+                          .build())
+                  .doOnNext(status -> session.getAttributes().put(pendingKey, status.getTransactionId()))
+                  .onErrorResume(
+                      UnavailabilityTransferServiceException.class,
+                      e -> {
+                        session.getAttributes().put(errorKey, List.of(e.getMessage()));
+                        return Mono.empty();
+                      });
             })
         .thenReturn("redirect:/main");
   }
@@ -292,10 +302,40 @@ public class FrontUiController {
         }
     }
 
-    private void handleTransferResponseError(WebSession session, TransferOperationResponse operationResponse, String errorKey) {
-        if (operationResponse.getOperationStatus() == TransferOperationResponse.OperationStatusEnum.FAILED) {
-            session.getAttributes().put(errorKey, operationResponse.getErrors());
+    /*
+    Состояние отправленного перевода запрашивается при открытии главной страницы: ошибки выводятся
+    как ошибки формы, пока перевод обрабатывается, выводится сообщение и перевод остается в сессии.
+    */
+    private Mono<Void> resolvePendingTransfer(
+            String login, WebSession session, Model model, String pendingKey, String errorKey, String infoKey) {
+        Long transactionId = session.getAttribute(pendingKey);
+        model.addAttribute(infoKey, null);
+        if (transactionId == null) {
+            return Mono.empty();
         }
+        return frontUiService
+                .getTransferStatus(login, transactionId)
+                .doOnNext(status -> {
+                    if (status.getOperationStatus() == TransferStatus.OperationStatusEnum.PENDING) {
+                        model.addAttribute(infoKey, "Перевод обрабатывается. Обновите страницу, чтобы узнать результат.");
+                        return;
+                    }
+                    session.getAttributes().remove(pendingKey);
+                    if (status.getOperationStatus() == TransferStatus.OperationStatusEnum.FAILED) {
+                        session.getAttributes().put(errorKey, status.getErrors());
+                    } else {
+                        model.addAttribute(infoKey, "Перевод выполнен");
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Не удалось получить состояние перевода {}", transactionId, e);
+                    if (e instanceof TransferServiceException) {
+                        session.getAttributes().remove(pendingKey);
+                    }
+                    model.addAttribute(infoKey, "Не удалось получить состояние перевода");
+                    return Mono.empty();
+                })
+                .then();
     }
 
     public boolean isValidCurrency(String value) {
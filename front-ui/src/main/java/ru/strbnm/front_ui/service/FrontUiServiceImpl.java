@@ -7,7 +7,6 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 import ru.strbnm.front_ui.client.accounts.api.AccountsServiceApi;
@@ -17,7 +16,7 @@ import ru.strbnm.front_ui.client.cash.domain.CashOperationRequest;
 import ru.strbnm.front_ui.client.cash.domain.CashOperationResponse;
 import ru.strbnm.front_ui.client.transfer.api.TransferServiceApi;
 import ru.strbnm.front_ui.client.transfer.domain.TransferOperationRequest;
-import ru.strbnm.front_ui.client.transfer.domain.TransferOperationResponse;
+import ru.strbnm.front_ui.client.transfer.domain.TransferStatus;
 import ru.strbnm.front_ui.exception.*;
 
 import java.io.IOException;
@@ -31,6 +30,7 @@ public class FrontUiServiceImpl implements FrontUiService {
     private final TransferServiceApi transferServiceApi;
     private final ObjectMapper objectMapper;
     private final PasswordEncoder passwordEncoder;
+    private static final int USER_SEARCH_LIMIT = 20;
 
     @Autowired
     public FrontUiServiceImpl(
@@ -51,9 +51,11 @@ public class FrontUiServiceImpl implements FrontUiService {
 
     }
 
+    // Подсказки получателя перевода: первая страница справочника по началу имени
     @Override
-    public Flux<UserListResponseInner> getAllUsers() {
-        return  withRetryAndErrorHandlingUserListResponse(accountsServiceApi.getUserList());
+    public Mono<UserDirectoryPage> searchUsers(String prefix, String cursor) {
+        return withRetryAndErrorHandlingUserDirectoryPage(
+                accountsServiceApi.getUserDirectory(prefix, cursor, USER_SEARCH_LIMIT));
     }
 
     @Override
@@ -86,8 +88,18 @@ public class FrontUiServiceImpl implements FrontUiService {
     }
 
     @Override
-    public Mono<TransferOperationResponse> performTransferOperation(String login, TransferOperationRequest transferOperation) {
-        return withRetryAndErrorHandlingTransferOperationResponse(transferServiceApi.transferTransaction(transferOperation));
+    public Mono<TransferStatus> submitTransferOperation(String login, TransferOperationRequest transferOperation) {
+        // Без повтора: повторная отправка после обрыва связи могла бы создать второй перевод
+        return withErrorHandlingTransferStatus(transferServiceApi.submitTransferTransaction(transferOperation));
+    }
+
+    @Override
+    public Mono<TransferStatus> getTransferStatus(String login, Long transactionId) {
+        return withErrorHandlingTransferStatus(
+                transferServiceApi.getTransferStatus(transactionId, login)
+                        .retryWhen(Retry.max(1)
+                                .filter(this::isRetryableException)
+                                .onRetryExhaustedThrow((spec, signal) -> signal.failure())));
     }
 
    private Mono<UserDetailResponse> withRetryAndErrorHandlingUserDetailResponse(Mono<UserDetailResponse> mono) {
@@ -103,8 +115,8 @@ public class FrontUiServiceImpl implements FrontUiService {
                         ex -> Mono.error(new AccountsServiceException("Ошибка при получении данных клиента: " + ex.getMessage())));
     }
 
-    private Flux<UserListResponseInner> withRetryAndErrorHandlingUserListResponse(Flux<UserListResponseInner> flux) {
-        return flux.retryWhen(
+    private Mono<UserDirectoryPage> withRetryAndErrorHandlingUserDirectoryPage(Mono<UserDirectoryPage> mono) {
+        return mono.retryWhen(
                         Retry.max(1)
                                 .filter(this::isRetryableException)
                                 .onRetryExhaustedThrow(
@@ -139,15 +151,15 @@ public class FrontUiServiceImpl implements FrontUiService {
                                 CashServiceException::new));
     }
 
-    private Mono<TransferOperationResponse> withRetryAndErrorHandlingTransferOperationResponse(Mono<TransferOperationResponse> mono) {
+    // 503 означает заполненную очередь переводов или недоступность сервиса, запрос можно повторить позже
+    private Mono<TransferStatus> withErrorHandlingTransferStatus(Mono<TransferStatus> mono) {
         return mono
-                .retryWhen(Retry.max(1)
-                        .filter(this::isRetryableException)
-                        .onRetryExhaustedThrow((spec, signal) ->
-                                new UnavailabilityTransferServiceException("Сервис переводов временно не доступен.")))
+                .onErrorResume(WebClientRequestException.class,
+                        ex -> Mono.error(new UnavailabilityTransferServiceException("Сервис переводов временно не доступен.")))
                 .onErrorResume(WebClientResponseException.class,
-                        ex -> handleOperationError(ex, TransferOperationResponse.class,
-                                TransferServiceException::new));
+                        ex -> ex.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE
+                                ? Mono.error(new UnavailabilityTransferServiceException("Сервис переводов перегружен. Повторите попытку позже."))
+                                : Mono.error(new TransferServiceException("Ошибка при обработке запроса: " + ex.getMessage())));
     }
 
     private boolean isRetryableException(Throwable throwable) {
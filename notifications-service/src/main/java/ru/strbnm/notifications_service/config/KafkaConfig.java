@@ -1,20 +1,45 @@
 package ru.strbnm.notifications_service.config;
 
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
 import ru.strbnm.kafka.dto.NotificationMessage;
 
 @Configuration
 @EnableKafka
 public class KafkaConfig {
 
+    private static final String DLT_SUFFIX = "-for-analys-dlt";
+
+    /*
+    Слушатель получает сообщения пачками. Если пачку не удалось сохранить из-за одной записи,
+    слушатель бросает BatchListenerFailedException с ее индексом: смещения предыдущих записей
+    фиксируются, проблемная запись повторяется с экспоненциальной задержкой и после исчерпания
+    попыток отправляется в DLT, остальные записи пачки доставляются повторно.
+    */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, NotificationMessage> kafkaListenerContainerFactory(ConsumerFactory<String, NotificationMessage> consumerFactory) {
+    public ConcurrentKafkaListenerContainerFactory<String, NotificationMessage> kafkaListenerContainerFactory(
+            ConsumerFactory<String, NotificationMessage> consumerFactory,
+            KafkaTemplate<Object, Object> kafkaTemplate) {
         ConcurrentKafkaListenerContainerFactory<String, NotificationMessage> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
+        factory.setBatchListener(true);
+
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(
+                kafkaTemplate,
+                (record, exception) -> new TopicPartition(record.topic() + DLT_SUFFIX, -1));
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(2);
+        backOff.setInitialInterval(1000);
+        backOff.setMultiplier(2);
+        backOff.setMaxInterval(5000);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(recoverer, backOff));
         return factory;
     }
-}
\ No newline at end of file
+}
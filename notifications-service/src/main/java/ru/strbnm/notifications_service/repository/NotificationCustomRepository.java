@@ -0,0 +1,15 @@
+package ru.strbnm.notifications_service.repository;
+
+import java.util.List;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.notifications_service.entity.Notification;
+
+public interface NotificationCustomRepository {
+
+  Mono<Long> insertAll(List<Notification> notifications);
+
+  Flux<Notification> lockUnsentBatch(int limit);
+
+  Mono<Long> markSent(List<Long> ids);
+}
@@ -0,0 +1,94 @@
+package ru.strbnm.notifications_service.repository;
+
+import java.util.List;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.notifications_service.entity.Notification;
+
+@Repository
+public class NotificationCustomRepositoryImpl implements NotificationCustomRepository {
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public NotificationCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Long> insertAll(List<Notification> notifications) {
+    if (notifications.isEmpty()) {
+      return Mono.just(0L);
+    }
+    // Одна вставка на всю пачку вместо отдельного INSERT на каждое уведомление
+    StringBuilder query =
+        new StringBuilder("INSERT INTO notifications(email, message, application, is_sent) VALUES ");
+    for (int i = 0; i < notifications.size(); i++) {
+      if (i > 0) {
+        query.append(", ");
+      }
+      query.append("(:email").append(i)
+          .append(", :message").append(i)
+          .append(", :application").append(i)
+          .append(", :isSent").append(i).append(')');
+    }
+
+    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.toString());
+    for (int i = 0; i < notifications.size(); i++) {
+      Notification notification = notifications.get(i);
+      spec = bindNullable(spec, "email" + i, notification.getEmail());
+      spec = bindNullable(spec, "message" + i, notification.getMessage());
+      spec = bindNullable(spec, "application" + i, notification.getApplication());
+      spec = spec.bind("isSent" + i, notification.isSent());
+    }
+    return spec.fetch().rowsUpdated();
+  }
+
+  @Override
+  public Flux<Notification> lockUnsentBatch(int limit) {
+    // SKIP LOCKED: строки, уже захваченные другой репликой, пропускаются без ожидания
+    String query = """
+      SELECT id, email, message, application, is_sent
+      FROM notifications
+      WHERE is_sent = FALSE
+      ORDER BY id
+      LIMIT :limit
+      FOR UPDATE SKIP LOCKED
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("limit", limit)
+        .map(
+            row ->
+                Notification.builder()
+                    .id(row.get("id", Long.class))
+                    .email(row.get("email", String.class))
+                    .message(row.get("message", String.class))
+                    .application(row.get("application", String.class))
+                    .isSent(false)
+                    .build())
+        .all();
+  }
+
+  @Override
+  public Mono<Long> markSent(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return Mono.just(0L);
+    }
+    return databaseClient
+        .sql("UPDATE notifications SET is_sent = TRUE WHERE id IN (:ids)")
+        .bind("ids", ids)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  private DatabaseClient.GenericExecuteSpec bindNullable(
+      DatabaseClient.GenericExecuteSpec spec, String name, String value) {
+    return value == null ? spec.bindNull(name, String.class) : spec.bind(name, value);
+  }
+}
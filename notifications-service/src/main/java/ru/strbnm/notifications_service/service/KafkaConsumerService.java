@@ -3,15 +3,9 @@ package ru.strbnm.notifications_service.service;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.annotation.RetryableTopic;
-import org.springframework.kafka.retrytopic.DltStrategy;
-import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.retry.annotation.Backoff;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import ru.strbnm.kafka.dto.NotificationMessage;
 import ru.strbnm.notifications_service.entity.Notification;
 import ru.strbnm.notifications_service.repository.NotificationRepository;
@@ -27,27 +21,36 @@ public class KafkaConsumerService {
         this.notificationRepository = notificationRepository;
     }
 
-    @RetryableTopic(
-            backoff = @Backoff(delay = 1000, multiplier = 2, maxDelay = 5000),
-            dltTopicSuffix = "-for-analys-dlt",
-            dltStrategy = DltStrategy.FAIL_ON_ERROR
-    )
+    /*
+    Все сообщения, полученные за один poll, сохраняются одним многострочным INSERT.
+    Если пакетная вставка не удалась, сообщения сохраняются по одному, чтобы найти проблемную
+    запись: она передается обработчику ошибок контейнера (повтор и DLT), а остальная пачка
+    не теряется.
+    */
     @KafkaListener(
             topics = {"notifications"},
             idIsGroup = false
     )
-    public Mono<Void> listen(NotificationMessage message) {
-        log.info(String.valueOf(message));
-        return processNotification(message)
-                .doOnError(error -> log.error("Ошибка при сохранении уведомлений в БД", error))
-                .then();
+    public void listen(List<NotificationMessage> messages) {
+        log.info("Получено уведомлений: {}", messages.size());
+        List<Notification> notifications = messages.stream().map(this::convertToEntity).toList();
+        try {
+            notificationRepository.insertAll(notifications).block();
+        } catch (RuntimeException e) {
+            log.warn("Ошибка при пакетном сохранении уведомлений в БД, сохранение по одному", e);
+            saveOneByOne(notifications);
+        }
     }
 
-    private Mono<Void> processNotification(NotificationMessage message) {
-        return Mono.just(message)
-                .map(this::convertToEntity)
-                .flatMap(notificationRepository::save)
-                .then();
+    private void saveOneByOne(List<Notification> notifications) {
+        for (int i = 0; i < notifications.size(); i++) {
+            try {
+                notificationRepository.save(notifications.get(i)).block();
+            } catch (RuntimeException e) {
+                log.error("Ошибка при сохранении уведомления в БД: {}", notifications.get(i), e);
+                throw new BatchListenerFailedException("Ошибка при сохранении уведомления в БД", e, i);
+            }
+        }
     }
 
     private Notification convertToEntity(NotificationMessage msg) {
@@ -1,15 +1,20 @@
 package ru.strbnm.notifications_service.service;
 
 import io.micrometer.core.instrument.MeterRegistry;
-import jakarta.annotation.PostConstruct;
 import java.time.Duration;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.strbnm.notifications_service.entity.Notification;
 import ru.strbnm.notifications_service.repository.NotificationRepository;
 
 @Slf4j
@@ -18,51 +23,109 @@ public class ReactiveScheduler {
 
   /*
   Компонент для имитации отправки уведомлений на электронную почту. Сообщения выводятся в лог.
-  Для шедулинга с заданным интервалом используется Flux.interval().
+  - пачка неотправленных уведомлений захватывается через FOR UPDATE SKIP LOCKED, поэтому
+    несколько реплик разбирают очередь параллельно, не отправляя одно уведомление дважды;
+  - уведомления пачки отправляются параллельно (не более concurrency одновременно), отправленные
+    помечаются одним UPDATE ... WHERE id IN (...) в той же транзакции;
+  - пока есть очередь, пачки забираются без паузы, а размер пачки удваивается до max-limit;
+    когда очередь разобрана, размер пачки уменьшается вдвое до limit и разбор ждет следующего тика.
   */
 
   private final NotificationRepository notificationRepository;
-  private final int limit;
+  private final TransactionalOperator transactionalOperator;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int concurrency;
+  private final Duration interval;
+  private final int failureRate;
   private final MeterRegistry meterRegistry;
+  private final AtomicInteger batchSize;
 
   public ReactiveScheduler(
           NotificationRepository notificationRepository,
-          @Value("${application.notification.limit:10}") int limit, MeterRegistry meterRegistry) {
+          TransactionalOperator transactionalOperator,
+          @Value("${application.notification.limit:10}") int minLimit,
+          @Value("${application.notification.max-limit:500}") int maxLimit,
+          @Value("${application.notification.concurrency:8}") int concurrency,
+          @Value("${application.notification.interval:5s}") Duration interval,
+          @Value("${application.notification.failure-rate:30}") int failureRate,
+          MeterRegistry meterRegistry) {
     this.notificationRepository = notificationRepository;
-    this.limit = limit;
-      this.meterRegistry = meterRegistry;
+    this.transactionalOperator = transactionalOperator;
+    this.minLimit = minLimit;
+    this.maxLimit = Math.max(minLimit, maxLimit);
+    this.concurrency = concurrency;
+    this.interval = interval;
+    this.failureRate = failureRate;
+    this.meterRegistry = meterRegistry;
+    this.batchSize = new AtomicInteger(minLimit);
   }
 
+  // Разбирает очередь пачками, пока она не опустеет
   public Mono<Void> processNotifications() {
+    return processBatch().expand(hasMore -> hasMore ? processBatch() : Mono.empty()).then();
+  }
+
+  // Возвращает true, если в очереди, вероятно, остались неотправленные уведомления
+  Mono<Boolean> processBatch() {
+    int limit = batchSize.get();
     return notificationRepository
-        .findUnsentLimited(limit)
-        .mapNotNull(
-            notification -> {
-                boolean fail = ThreadLocalRandom.current().nextInt(100) < 30;
-                if (fail) {
-                  meterRegistry.counter("notification.failed", "email", notification.getEmail()).increment();
-                  return null;
-                } else {
-                  log.info(
-                      "Отправка сообщения на электронную почту {}: {}",
-                      notification.getEmail(),
-                      notification.getMessage());
-                  return notification;
-                }})
-        .map(
-            n -> {
-              n.setSent(true);
-              return n;
-            })
+        .lockUnsentBatch(limit)
         .collectList()
-        .flatMapMany(notificationRepository::saveAll)
-        .then();
+        .flatMap(
+            batch ->
+                Flux.fromIterable(batch)
+                    .flatMap(this::send, concurrency)
+                    .map(Notification::getId)
+                    .collectList()
+                    .flatMap(
+                        sentIds ->
+                            notificationRepository
+                                .markSent(sentIds)
+                                .doOnSuccess(updated -> meterRegistry.counter("notification.sent").increment(sentIds.size()))
+                                .thenReturn(adjustBatchSize(limit, batch.size(), sentIds.size()))))
+        .as(transactionalOperator::transactional);
+  }
+
+  private boolean adjustBatchSize(int limit, int claimed, int sent) {
+    if (claimed == limit) {
+      batchSize.set(Math.min(limit * 2, maxLimit));
+      // Если не удалось отправить ни одного уведомления, не повторяем пачку сразу
+      return sent > 0;
+    }
+    batchSize.set(Math.max(limit / 2, minLimit));
+    return false;
+  }
+
+  // Отправка может блокироваться на I/O, поэтому выполняется на boundedElastic
+  private Mono<Notification> send(Notification notification) {
+    return Mono.fromCallable(
+            () -> {
+              boolean fail = ThreadLocalRandom.current().nextInt(100) < failureRate;
+              if (fail) {
+                meterRegistry.counter("notification.failed", "email", notification.getEmail()).increment();
+                return null;
+              }
+              log.info(
+                  "Отправка сообщения на электронную почту {}: {}",
+                  notification.getEmail(),
+                  notification.getMessage());
+              notification.setSent(true);
+              return notification;
+            })
+        .subscribeOn(Schedulers.boundedElastic());
   }
 
-  @PostConstruct
+  // Запуск после старта приложения, когда миграции Liquibase уже применены
+  @EventListener(ApplicationReadyEvent.class)
   public void scheduleTask() {
-    Flux.interval(Duration.ofSeconds(60), Duration.ofSeconds(30))
-        .flatMap(tick -> processNotifications())
+    Flux.interval(interval, interval)
+        .onBackpressureDrop()
+        .concatMap(
+            tick ->
+                processNotifications()
+                    .doOnError(e -> log.error("Ошибка при отправке уведомлений", e))
+                    .onErrorComplete())
         .subscribe(); // запускаем поток
   }
 }
@@ -9,12 +9,22 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
 import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
 import org.springframework.test.context.ActiveProfiles;
 import ru.strbnm.kafka.dto.NotificationMessage;
 import ru.strbnm.notifications_service.entity.Notification;
@@ -22,7 +32,7 @@ import ru.strbnm.notifications_service.repository.NotificationRepository;
 
 @ActiveProfiles("test")
 @SpringBootTest
-@EmbeddedKafka(topics = {"notifications"})
+@EmbeddedKafka(topics = {"notifications", "notifications-for-analys-dlt"})
 public class KafkaConsumerServiceTest {
 
     @Autowired
@@ -31,6 +41,28 @@ public class KafkaConsumerServiceTest {
     @Autowired
     private KafkaTemplate<String, NotificationMessage> kafkaTemplate;
 
+    @Autowired
+    private ConsumerFactory<String, NotificationMessage> consumerFactory;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    // При auto-offset-reset: latest сообщения, отправленные до назначения партиций, будут пропущены
+    @BeforeEach
+    void waitForAssignment() {
+        for (MessageListenerContainer container : kafkaListenerEndpointRegistry.getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(container, embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void cleanup() {
+        notificationRepository.deleteAll().block();
+    }
+
     @Test
     void testProcessNotificationMessages() throws ExecutionException, InterruptedException {
 
@@ -51,7 +83,7 @@ public class KafkaConsumerServiceTest {
 
         // ждём, пока сообщения обработаются и попадут в БД
         Awaitility.await()
-                .atMost(Duration.ofSeconds(5))
+                .atMost(Duration.ofSeconds(10))
                 .untilAsserted(() -> {
                     List<Notification> all = notificationRepository.findAll().collectList().block();
                     assertThat(all).hasSize(2);
@@ -61,5 +93,37 @@ public class KafkaConsumerServiceTest {
                 });
     }
 
+    @Test
+    void testPoisonMessageGoesToDltWithoutLosingBatch() throws ExecutionException, InterruptedException {
+        NotificationMessage validMessage = NotificationMessage.builder()
+                .email("test@example.ru")
+                .message("test message_transfer_service")
+                .application("transfer-service")
+                .build();
+        // Сообщение без email нарушает ограничение NOT NULL и не может быть сохранено
+        NotificationMessage poisonMessage = NotificationMessage.builder()
+                .message("poison message")
+                .application("transfer-service")
+                .build();
+
+        try (Consumer<String, NotificationMessage> dltConsumer = consumerFactory.createConsumer("dlt-test-group", null)) {
+            dltConsumer.subscribe(List.of("notifications-for-analys-dlt"));
+            dltConsumer.poll(Duration.ofMillis(500));
+
+            kafkaTemplate.send("notifications", UUID.randomUUID().toString(), poisonMessage).get();
+            kafkaTemplate.send("notifications", UUID.randomUUID().toString(), validMessage).get();
+
+            ConsumerRecord<String, NotificationMessage> dltRecord =
+                    KafkaTestUtils.getSingleRecord(dltConsumer, "notifications-for-analys-dlt", Duration.ofSeconds(20));
+            assertThat(dltRecord.value()).isEqualTo(poisonMessage);
+        }
 
+        Awaitility.await()
+                .atMost(Duration.ofSeconds(10))
+                .untilAsserted(() -> {
+                    List<Notification> all = notificationRepository.findAll().collectList().block();
+                    assertThat(all).hasSize(1);
+                    assertThat(all.getFirst().getMessage()).isEqualTo("test message_transfer_service");
+                });
+    }
 }
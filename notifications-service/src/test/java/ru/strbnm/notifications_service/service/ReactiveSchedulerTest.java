@@ -1,20 +1,27 @@
 package ru.strbnm.notifications_service.service;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
 import java.util.List;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import ru.strbnm.notifications_service.entity.Notification;
 import ru.strbnm.notifications_service.repository.NotificationRepository;
@@ -26,38 +33,41 @@ class ReactiveSchedulerTest {
     private NotificationRepository notificationRepository;
 
     @Mock
+    private TransactionalOperator transactionalOperator;
+
     private MeterRegistry meterRegistry;
 
     private ReactiveScheduler reactiveScheduler;
 
     @BeforeEach
     void setUp() {
-        reactiveScheduler = new ReactiveScheduler(notificationRepository, 2, meterRegistry);
+        meterRegistry = new SimpleMeterRegistry();
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(inv -> inv.getArgument(0));
+        reactiveScheduler = new ReactiveScheduler(
+                notificationRepository, transactionalOperator, 2, 4, 2, Duration.ofSeconds(5), 0, meterRegistry);
     }
 
-    @Test
-    void shouldMarkNotificationsAsSentAndSaveThem() {
-        // given
-        Notification n1 = Notification.builder()
-                .id(1L)
-                .email("test1@example.ru")
-                .message("message1")
+    private Notification notification(long id) {
+        return Notification.builder()
+                .id(id)
+                .email("test" + id + "@example.ru")
+                .message("message" + id)
                 .application("accounts-service")
                 .isSent(false)
                 .build();
+    }
 
-        Notification n2= Notification.builder()
-                .id(2L)
-                .email("test2@example.ru")
-                .message("message2")
-                .application("cash-service")
-                .isSent(false)
-                .build();
-
-        List<Notification> unsent = List.of(n1, n2);
+    @Test
+    void shouldMarkNotificationsAsSentAndDrainBacklogWithGrowingBatch() {
+        // given
+        Notification n1 = notification(1L);
+        Notification n2 = notification(2L);
+        Notification n3 = notification(3L);
 
-        when(notificationRepository.findUnsentLimited(2)).thenReturn(Flux.fromIterable(unsent));
-        when(notificationRepository.saveAll(anyList())).thenAnswer(inv -> Flux.fromIterable(inv.getArgument(0)));
+        when(notificationRepository.lockUnsentBatch(2)).thenReturn(Flux.just(n1, n2));
+        when(notificationRepository.lockUnsentBatch(4)).thenReturn(Flux.just(n3));
+        when(notificationRepository.markSent(anyList()))
+                .thenAnswer(inv -> Mono.just((long) ((List<?>) inv.getArgument(0)).size()));
 
         // when + then
         StepVerifier.create(reactiveScheduler.processNotifications())
@@ -65,10 +75,33 @@ class ReactiveSchedulerTest {
 
         assertTrue(n1.isSent());
         assertTrue(n2.isSent());
+        assertTrue(n3.isSent());
+
+        // полная пачка из 2 уведомлений увеличивает размер следующей пачки до 4
+        verify(notificationRepository).lockUnsentBatch(2);
+        verify(notificationRepository).lockUnsentBatch(4);
+        verify(notificationRepository).markSent(argThat(ids -> ids.size() == 2 && ids.containsAll(List.of(1L, 2L))));
+        verify(notificationRepository).markSent(List.of(3L));
+        assertEquals(3.0, meterRegistry.get("notification.sent").counter().count());
+    }
+
+    @Test
+    void shouldShrinkBatchWhenBacklogIsDrained() {
+        // given
+        when(notificationRepository.lockUnsentBatch(2)).thenReturn(Flux.just(notification(1L), notification(2L)));
+        when(notificationRepository.lockUnsentBatch(4)).thenReturn(Flux.empty());
+        when(notificationRepository.markSent(anyList()))
+                .thenAnswer(inv -> Mono.just((long) ((List<?>) inv.getArgument(0)).size()));
+
+        // when + then
+        StepVerifier.create(reactiveScheduler.processNotifications())
+            .verifyComplete();
+        StepVerifier.create(reactiveScheduler.processBatch())
+            .expectNext(true)
+            .verifyComplete();
 
-        verify(notificationRepository).findUnsentLimited(2);
-        verify(notificationRepository).saveAll((Iterable<Notification>) argThat(list ->
-            ((List<Notification>) list).stream().allMatch(Notification::isSent)
-        ));
+        // после пустой пачки размер вернулся к минимальному: следующая пачка снова из 2 строк
+        verify(notificationRepository, times(2)).lockUnsentBatch(2);
+        verify(notificationRepository).lockUnsentBatch(4);
     }
 }
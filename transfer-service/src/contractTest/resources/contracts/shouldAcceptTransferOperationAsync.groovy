@@ -0,0 +1,36 @@
+package contracts
+
+import org.springframework.cloud.contract.spec.Contract
+
+Contract.make {
+    description "Когда POST /api/v1/transfer/async вызван, сервис переводов должен записать перевод и поставить его в очередь обработки " +
+            "и вернуть ответ с кодом 202, идентификатором перевода, состоянием CREATED и статусом PENDING"
+    request {
+        method 'POST'
+        url '/api/v1/transfer/async'
+        body([
+                fromLogin: "test_user1",
+                fromCurrency: "CNY",
+                toLogin: "test_user2",
+                toCurrency: "CNY",
+                amount: 1000.0,
+        ])
+
+        headers {
+            contentType('application/json')
+            accept('application/json')
+        }
+    }
+    response {
+        status 202
+        headers {
+            contentType(applicationJson())
+        }
+        body([
+                "transactionId": $(producer(anyPositiveInt()), consumer(1)),
+                "state": "CREATED",
+                "operationStatus": "PENDING",
+                "errors": []
+        ])
+    }
+}
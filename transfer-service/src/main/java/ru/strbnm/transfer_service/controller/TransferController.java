@@ -1,21 +1,31 @@
 package ru.strbnm.transfer_service.controller;
 
+import java.time.Duration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.transfer_service.api.TransferServiceApi;
 import ru.strbnm.transfer_service.domain.TransferOperationRequest;
 import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.domain.TransferStatus;
 import ru.strbnm.transfer_service.service.TransferService;
 
 @Controller
 @RequestMapping("${openapi.service.base-path:/}")
 public class TransferController implements TransferServiceApi {
 
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+
     private final TransferService transferService;
 
     @Autowired
@@ -27,6 +37,8 @@ public class TransferController implements TransferServiceApi {
     private Mono<ResponseEntity<TransferOperationResponse>> returnCashOperationResponse(TransferOperationResponse accountOperationResponse) {
         if (accountOperationResponse.getOperationStatus() == TransferOperationResponse.OperationStatusEnum.FAILED) {
             return Mono.just(ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(accountOperationResponse));
+        } else if (accountOperationResponse.getOperationStatus() == TransferOperationResponse.OperationStatusEnum.PENDING) {
+            return Mono.just(ResponseEntity.status(HttpStatus.ACCEPTED).body(accountOperationResponse));
         } else {
             return Mono.just(ResponseEntity.ok().body(accountOperationResponse));
         }
@@ -37,4 +49,41 @@ public class TransferController implements TransferServiceApi {
         return transferOperationRequest.flatMap(transferService::processTransferTransaction)
                 .flatMap(this::returnCashOperationResponse);
     }
+
+    @Override
+    public Mono<ResponseEntity<TransferStatus>> submitTransferTransaction(Mono<TransferOperationRequest> transferOperationRequest, ServerWebExchange exchange) {
+        return transferOperationRequest.flatMap(transferService::submitTransferTransaction)
+                .map(status -> ResponseEntity.status(HttpStatus.ACCEPTED).body(status));
+    }
+
+    @Override
+    public Mono<ResponseEntity<TransferStatus>> getTransferStatus(Long transactionId, String login, ServerWebExchange exchange) {
+        return transferService.getTransferStatus(transactionId, login).map(ResponseEntity::ok);
+    }
+
+    /*
+    Поток состояний перевода в формате Server-Sent Events (схема TransferStatus в спецификации).
+    Наличие перевода проверяется до открытия потока, чтобы отсутствующий или чужой перевод давал 404.
+    Поток и heartbeat завершаются вместе с итоговым состоянием перевода.
+    */
+    @RequestMapping(
+            method = RequestMethod.GET,
+            value = "/api/v1/transfer/{transactionId}/stream",
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Mono<ResponseEntity<Flux<ServerSentEvent<TransferStatus>>>> streamTransferStatus(
+            @PathVariable("transactionId") Long transactionId,
+            @RequestParam("login") String login,
+            final ServerWebExchange exchange) {
+        return transferService
+                .getTransferStatus(transactionId, login)
+                .map(found -> ResponseEntity.ok(
+                        transferService
+                                .streamTransferStatus(transactionId, login)
+                                .map(status -> ServerSentEvent.builder(status).event("status").build())
+                                .publish(events -> Flux.merge(
+                                        events,
+                                        Flux.interval(HEARTBEAT_INTERVAL)
+                                                .map(tick -> ServerSentEvent.<TransferStatus>builder().comment("heartbeat").build())
+                                                .takeUntilOther(events.ignoreElements())))));
+    }
 }
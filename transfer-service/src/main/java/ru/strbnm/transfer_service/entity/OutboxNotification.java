@@ -0,0 +1,36 @@
+package ru.strbnm.transfer_service.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("outbox_notifications")
+public class OutboxNotification {
+
+    @Id
+    private Long id;
+
+    @Column("transaction_id")
+    private Long transactionId;
+
+    private String email;
+
+    private String message;
+
+    @Column("created_at")
+    private Long createdAt;
+
+    @Column("updated_at")
+    private Long updatedAt;
+
+    @Column("is_sent")
+    private boolean isSent;
+
+    @Column("claimed_until")
+    private Long claimedUntil;
+}
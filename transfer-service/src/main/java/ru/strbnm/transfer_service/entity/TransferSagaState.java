@@ -0,0 +1,37 @@
+package ru.strbnm.transfer_service.entity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/*
+Состояния саги перевода:
+- CREATED - перевод записан, идентификатор выдан;
+- CHECKED - проверка блокировок пройдена;
+- CONVERTED - сумма зачисления зафиксирована, перевод можно отправлять в сервис аккаунтов;
+- NOTIFIED - итог записан вместе с уведомлениями в outbox;
+- FAILED - перевод отклонен или прерван до проводки;
+- ABANDONED - исход проводки не установлен за max-age восстановления, нужен ручной разбор.
+Проверка блокировок и конвертация выполняются параллельно, поэтому конвейер переходит
+из CREATED сразу в CONVERTED. Повтор проводки из CONVERTED безопасен благодаря ключу идемпотентности.
+*/
+public enum TransferSagaState {
+  CREATED,
+  CHECKED,
+  CONVERTED,
+  NOTIFIED,
+  FAILED,
+  ABANDONED;
+
+  public Set<TransferSagaState> next() {
+    return switch (this) {
+      case CREATED -> EnumSet.of(CHECKED, CONVERTED, FAILED);
+      case CHECKED -> EnumSet.of(CONVERTED, FAILED);
+      case CONVERTED -> EnumSet.of(NOTIFIED, FAILED, ABANDONED);
+      case NOTIFIED, FAILED, ABANDONED -> EnumSet.noneOf(TransferSagaState.class);
+    };
+  }
+
+  public boolean isTerminal() {
+    return next().isEmpty();
+  }
+}
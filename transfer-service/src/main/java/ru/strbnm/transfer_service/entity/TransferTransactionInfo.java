@@ -48,4 +48,20 @@ public class TransferTransactionInfo {
 
     @Column("updated_at")
     private Long updatedAt;
+
+    @Builder.Default
+    @Column("state")
+    private TransferSagaState state = TransferSagaState.CREATED;
+
+    // Момент перехода в текущее состояние, мс; по нему ищутся зависшие саги
+    @Builder.Default
+    @Column("state_changed_at")
+    private Long stateChangedAt = Instant.now().toEpochMilli();
+
+    @Column("recovery_attempts")
+    private int recoveryAttempts;
+
+    // Причина отказа, которую видит клиент асинхронного перевода
+    @Column("failure_reason")
+    private String failureReason;
 }
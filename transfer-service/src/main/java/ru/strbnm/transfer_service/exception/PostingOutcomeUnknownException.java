@@ -0,0 +1,8 @@
+package ru.strbnm.transfer_service.exception;
+
+public class PostingOutcomeUnknownException extends RuntimeException {
+
+  public PostingOutcomeUnknownException(String message) {
+    super(message);
+  }
+}
@@ -46,10 +46,17 @@ public class ReactiveGlobalExceptionHandler {
     @ExceptionHandler({
             UnavailabilityAccountsServiceException.class,
             UnavailabilityBlockerServiceException.class,
-            UnavailabilityExchangeServiceException.class
+            UnavailabilityExchangeServiceException.class,
+            TransferQueueOverflowException.class
     })
     public Mono<ResponseEntity<TransferErrorResponse>> handleCashOperationException(CashOperationException exception) {
         log.error("Ошибка {}", exception.getMessage(), exception);
         return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new TransferErrorResponse(exception.getMessage(), 503)));
     }
+
+    @ExceptionHandler(TransferNotFoundException.class)
+    public Mono<ResponseEntity<TransferErrorResponse>> handleTransferNotFound(TransferNotFoundException exception) {
+        log.error("Ошибка {}", exception.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(new TransferErrorResponse(exception.getMessage(), 404)));
+    }
 }
@@ -0,0 +1,8 @@
+package ru.strbnm.transfer_service.exception;
+
+public class TransferNotFoundException extends RuntimeException {
+
+  public TransferNotFoundException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,8 @@
+package ru.strbnm.transfer_service.exception;
+
+public class TransferQueueOverflowException extends CashOperationException {
+
+  public TransferQueueOverflowException(String message) {
+    super(message);
+  }
+}
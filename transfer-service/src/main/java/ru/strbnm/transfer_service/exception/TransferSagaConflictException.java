@@ -0,0 +1,8 @@
+package ru.strbnm.transfer_service.exception;
+
+public class TransferSagaConflictException extends RuntimeException {
+
+  public TransferSagaConflictException(String message) {
+    super(message);
+  }
+}
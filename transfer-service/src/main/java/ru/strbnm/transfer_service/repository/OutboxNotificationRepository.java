@@ -0,0 +1,6 @@
+package ru.strbnm.transfer_service.repository;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import ru.strbnm.transfer_service.entity.OutboxNotification;
+
+public interface OutboxNotificationRepository extends ReactiveCrudRepository<OutboxNotification, Long> {}
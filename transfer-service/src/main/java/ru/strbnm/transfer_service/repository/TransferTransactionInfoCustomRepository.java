@@ -0,0 +1,18 @@
+package ru.strbnm.transfer_service.repository;
+
+import java.util.Collection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+
+public interface TransferTransactionInfoCustomRepository {
+
+  Mono<Boolean> updateState(
+      TransferTransactionInfo info, TransferSagaState expectedState, long expectedStateChangedAt);
+
+  Flux<TransferTransactionInfo> findStuck(
+      Collection<TransferSagaState> states, long stateChangedBefore, long createdStateChangedBefore, int limit);
+
+  Mono<Boolean> claimForRecovery(TransferTransactionInfo info, long claimedAt);
+}
@@ -0,0 +1,131 @@
+package ru.strbnm.transfer_service.repository;
+
+import io.r2dbc.spi.Readable;
+import java.math.BigDecimal;
+import java.util.Collection;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+
+@Repository
+public class TransferTransactionInfoCustomRepositoryImpl
+    implements TransferTransactionInfoCustomRepository {
+  // Размер столбца failure_reason
+  private static final int FAILURE_REASON_LENGTH = 1000;
+
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public TransferTransactionInfoCustomRepositoryImpl(@NonNull R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+  }
+
+  @Override
+  public Mono<Boolean> updateState(
+      TransferTransactionInfo info, TransferSagaState expectedState, long expectedStateChangedAt) {
+    // Переход применяется, только если сагу не продвинул параллельный обработчик
+    String query = """
+      UPDATE transfer_transactions
+      SET to_amount = :toAmount, is_blocked = :isBlocked, is_success = :isSuccess,
+          state = :state, state_changed_at = :stateChangedAt, updated_at = :updatedAt,
+          failure_reason = :failureReason
+      WHERE id = :id AND state = :expectedState AND state_changed_at = :expectedStateChangedAt
+      """;
+
+    DatabaseClient.GenericExecuteSpec spec =
+        databaseClient
+            .sql(query)
+            .bind("isBlocked", info.isBlocked())
+            .bind("isSuccess", info.isSuccess())
+            .bind("state", info.getState().name())
+            .bind("stateChangedAt", info.getStateChangedAt())
+            .bind("updatedAt", info.getUpdatedAt())
+            .bind("id", info.getId())
+            .bind("expectedState", expectedState.name())
+            .bind("expectedStateChangedAt", expectedStateChangedAt);
+    spec =
+        info.getToAmount() == null
+            ? spec.bindNull("toAmount", BigDecimal.class)
+            : spec.bind("toAmount", info.getToAmount());
+    spec =
+        info.getFailureReason() == null
+            ? spec.bindNull("failureReason", String.class)
+            : spec.bind("failureReason", truncate(info.getFailureReason()));
+    return spec.fetch().rowsUpdated().map(updated -> updated == 1);
+  }
+
+  @Override
+  public Flux<TransferTransactionInfo> findStuck(
+      Collection<TransferSagaState> states, long stateChangedBefore, long createdStateChangedBefore, int limit) {
+    // Для CREATED свой порог: такой перевод может ждать обработчика в очереди асинхронных переводов
+    String query = """
+      SELECT id, from_login, to_login, from_amount, to_amount, from_currency, to_currency,
+             is_blocked, is_success, created_at, updated_at, state, state_changed_at, recovery_attempts,
+             failure_reason
+      FROM transfer_transactions
+      WHERE state IN (:states)
+        AND state_changed_at < CASE WHEN state = 'CREATED' THEN :createdStateChangedBefore ELSE :stateChangedBefore END
+      ORDER BY state_changed_at
+      LIMIT :limit
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("states", states.stream().map(TransferSagaState::name).toList())
+        .bind("stateChangedBefore", stateChangedBefore)
+        .bind("createdStateChangedBefore", createdStateChangedBefore)
+        .bind("limit", limit)
+        .map(TransferTransactionInfoCustomRepositoryImpl::mapRow)
+        .all();
+  }
+
+  @Override
+  public Mono<Boolean> claimForRecovery(TransferTransactionInfo info, long claimedAt) {
+    // Захват саги одной репликой: сдвиг state_changed_at скрывает ее от других до следующего таймаута
+    String query = """
+      UPDATE transfer_transactions
+      SET state_changed_at = :claimedAt, recovery_attempts = recovery_attempts + 1
+      WHERE id = :id AND state = :state AND state_changed_at = :stateChangedAt
+      """;
+
+    return databaseClient
+        .sql(query)
+        .bind("claimedAt", claimedAt)
+        .bind("id", info.getId())
+        .bind("state", info.getState().name())
+        .bind("stateChangedAt", info.getStateChangedAt())
+        .fetch()
+        .rowsUpdated()
+        .map(updated -> updated == 1);
+  }
+
+  private static String truncate(String value) {
+    return value.length() > FAILURE_REASON_LENGTH ? value.substring(0, FAILURE_REASON_LENGTH) : value;
+  }
+
+  private static TransferTransactionInfo mapRow(Readable row) {
+    return TransferTransactionInfo.builder()
+        .id(row.get("id", Long.class))
+        .fromLogin(row.get("from_login", String.class))
+        .toLogin(row.get("to_login", String.class))
+        .fromAmount(row.get("from_amount", BigDecimal.class))
+        .toAmount(row.get("to_amount", BigDecimal.class))
+        .fromCurrency(row.get("from_currency", String.class))
+        .toCurrency(row.get("to_currency", String.class))
+        .isBlocked(Boolean.TRUE.equals(row.get("is_blocked", Boolean.class)))
+        .isSuccess(Boolean.TRUE.equals(row.get("is_success", Boolean.class)))
+        .createdAt(row.get("created_at", Long.class))
+        .updatedAt(row.get("updated_at", Long.class))
+        .state(TransferSagaState.valueOf(row.get("state", String.class)))
+        .stateChangedAt(row.get("state_changed_at", Long.class))
+        .recoveryAttempts(row.get("recovery_attempts", Integer.class))
+        .failureReason(row.get("failure_reason", String.class))
+        .build();
+  }
+}
@@ -5,4 +5,6 @@ import org.springframework.stereotype.Repository;
 import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
 
 @Repository
-public interface TransferTransactionInfoRepository extends ReactiveCrudRepository<TransferTransactionInfo, Long> {}
+public interface TransferTransactionInfoRepository
+    extends ReactiveCrudRepository<TransferTransactionInfo, Long>,
+        TransferTransactionInfoCustomRepository {}
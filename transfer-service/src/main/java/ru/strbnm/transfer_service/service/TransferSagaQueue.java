@@ -0,0 +1,89 @@
+package ru.strbnm.transfer_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+
+@Slf4j
+@Component
+public class TransferSagaQueue {
+
+  /*
+  Очередь асинхронных переводов, ожидающих обработчика. Место резервируется до записи перевода,
+  поэтому при заполненной очереди клиент сразу получает отказ, а не перевод, который никто не обработает.
+  Очередь хранится в памяти: переводы, не дождавшиеся обработки до остановки реплики,
+  остаются в CREATED и завершаются TransferSagaRecovery.
+  Ожидание в очереди ограничено max-wait: перевод, записанный раньше, обработчику не выдается.
+  Поэтому TransferSagaRecovery любой реплики считает перевод в CREATED зависшим только через
+  max-wait + stuck-after и не завершает переводы, которые еще ждут обработчика.
+  */
+
+  private final Sinks.Many<TransferTransactionInfo> sink =
+      Sinks.many().unicast().onBackpressureBuffer(Queues.<TransferTransactionInfo>unbounded().get());
+  private final AtomicInteger size = new AtomicInteger();
+  private final int capacity;
+  private final Duration maxWait;
+  private final Counter expiredCounter;
+
+  public TransferSagaQueue(
+      @Value("${application.transfer.async.queue-capacity:1000}") int capacity,
+      @Value("${application.transfer.async.max-wait:5m}") Duration maxWait,
+      MeterRegistry meterRegistry) {
+    this.capacity = capacity;
+    this.maxWait = maxWait;
+    Gauge.builder("transfer.async.queue.size", size, AtomicInteger::get)
+        .description("Количество асинхронных переводов, ожидающих обработки")
+        .register(meterRegistry);
+    this.expiredCounter =
+        Counter.builder("transfer.async.queue.expired")
+            .description("Количество асинхронных переводов, не дождавшихся обработчика за max-wait")
+            .register(meterRegistry);
+  }
+
+  public Duration getMaxWait() {
+    return maxWait;
+  }
+
+  public boolean tryReserve() {
+    if (size.incrementAndGet() > capacity) {
+      size.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  // Освобождает место, если перевод так и не был поставлен в очередь
+  public void release() {
+    size.decrementAndGet();
+  }
+
+  // Занимает ранее зарезервированное место
+  public void enqueue(TransferTransactionInfo info) {
+    sink.emitNext(info, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+  }
+
+  // Место освобождается, когда обработчик забирает перевод из очереди; просроченный перевод завершит восстановление
+  public Flux<TransferTransactionInfo> take() {
+    return sink.asFlux()
+        .doOnNext(info -> size.decrementAndGet())
+        .filter(
+            info -> {
+              if (Instant.ofEpochSecond(info.getCreatedAt()).plus(maxWait).isAfter(Instant.now())) {
+                return true;
+              }
+              expiredCounter.increment();
+              log.warn("Перевод {} не дождался обработчика за {}", info.getId(), maxWait);
+              return false;
+            });
+  }
+}
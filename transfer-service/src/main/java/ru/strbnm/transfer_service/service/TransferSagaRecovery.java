@@ -0,0 +1,342 @@
+package ru.strbnm.transfer_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+import ru.strbnm.transfer_service.client.accounts.api.AccountsServiceApi;
+import ru.strbnm.transfer_service.client.accounts.domain.AccountCurrencyEnum;
+import ru.strbnm.transfer_service.client.accounts.domain.AccountOperationResponse;
+import ru.strbnm.transfer_service.client.accounts.domain.TransferRequest;
+import ru.strbnm.transfer_service.client.accounts.domain.UserContact;
+import ru.strbnm.transfer_service.entity.OutboxNotification;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+import ru.strbnm.transfer_service.exception.PostingOutcomeUnknownException;
+import ru.strbnm.transfer_service.repository.OutboxNotificationRepository;
+import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
+
+@Slf4j
+@Profile("!contracts")
+@Component
+public class TransferSagaRecovery {
+
+  /*
+  Восстановление саг перевода, которые не меняли состояние дольше stuck-after (например, после
+  падения реплики между проводкой в сервисе аккаунтов и итоговой записью). Пачка таких саг
+  захватывается условным UPDATE, поэтому несколько реплик не обрабатывают одну сагу одновременно.
+  - CREATED, CHECKED: проводка не отправлялась (в том числе асинхронный перевод, потерянный из очереди
+    при остановке реплики), сага завершается FAILED с уведомлением отправителя. Перевод в CREATED
+    может ждать в очереди TransferSagaQueue до max-wait, поэтому он считается зависшим только
+    через max-wait + stuck-after;
+  - CONVERTED: клиент не получил подтверждения успеха. Проводка повторяется с прежним ключом
+    идемпотентности: отказ завершает сагу FAILED, успех (прежний или новый) доводит перевод
+    до NOTIFIED с уведомлениями об успешном переводе. Ответ 409 (ключ уже использован) отказом
+    не считается: исход проводки неизвестен, и сага остается в CONVERTED до следующего прохода.
+  Ошибки связи оставляют сагу в прежнем состоянии до следующего прохода. Повтор проводки безопасен,
+  пока ключ хранится в сервисе аккаунтов, поэтому сага в CONVERTED старше max-age не проводится
+  повторно: она один раз переводится в итоговое состояние ABANDONED для ручного разбора
+  (метрика transfer.saga.recovery.abandoned) и больше не захватывается.
+  */
+
+  private static final Set<TransferSagaState> RECOVERABLE =
+      EnumSet.of(
+          TransferSagaState.CREATED,
+          TransferSagaState.CHECKED,
+          TransferSagaState.CONVERTED);
+
+  private record Notification(String email, String message) {}
+
+  private final TransferTransactionInfoRepository transferTransactionInfoRepository;
+  private final OutboxNotificationRepository outboxNotificationRepository;
+  private final AccountsServiceApi accountsServiceApi;
+  private final TransferSagaStateMachine sagaStateMachine;
+  private final TransactionalOperator transactionalOperator;
+  private final ObjectMapper objectMapper;
+  private final TransferSagaQueue transferSagaQueue;
+  private final Duration interval;
+  private final Duration stuckAfter;
+  private final Duration maxAge;
+  private final int batchSize;
+  private final MeterRegistry meterRegistry;
+  private final Counter failedCounter;
+  private final Counter abandonedCounter;
+  private Disposable recoveryTask;
+
+  public TransferSagaRecovery(
+      TransferTransactionInfoRepository transferTransactionInfoRepository,
+      OutboxNotificationRepository outboxNotificationRepository,
+      @Qualifier("accountsServiceApi") AccountsServiceApi accountsServiceApi,
+      TransferSagaStateMachine sagaStateMachine,
+      TransactionalOperator transactionalOperator,
+      ObjectMapper objectMapper,
+      TransferSagaQueue transferSagaQueue,
+      @Value("${application.transfer.saga.recovery-interval:30s}") Duration interval,
+      @Value("${application.transfer.saga.stuck-after:2m}") Duration stuckAfter,
+      @Value("${application.transfer.saga.max-age:12h}") Duration maxAge,
+      @Value("${application.transfer.saga.batch-size:50}") int batchSize,
+      MeterRegistry meterRegistry) {
+    this.transferTransactionInfoRepository = transferTransactionInfoRepository;
+    this.outboxNotificationRepository = outboxNotificationRepository;
+    this.accountsServiceApi = accountsServiceApi;
+    this.sagaStateMachine = sagaStateMachine;
+    this.transactionalOperator = transactionalOperator;
+    this.objectMapper = objectMapper;
+    this.transferSagaQueue = transferSagaQueue;
+    this.interval = interval;
+    this.stuckAfter = stuckAfter;
+    this.maxAge = maxAge;
+    this.batchSize = batchSize;
+    this.meterRegistry = meterRegistry;
+    this.failedCounter =
+        Counter.builder("transfer.saga.recovery.failed")
+            .description("Количество неудачных попыток восстановления саги перевода")
+            .register(meterRegistry);
+    this.abandonedCounter =
+        Counter.builder("transfer.saga.recovery.abandoned")
+            .description("Количество саг перевода старше max-age, переданных на ручной разбор")
+            .register(meterRegistry);
+  }
+
+  // Возвращает число захваченных саг
+  public Mono<Integer> recoverBatch() {
+    long now = Instant.now().toEpochMilli();
+    return transferTransactionInfoRepository
+        .findStuck(
+            RECOVERABLE,
+            now - stuckAfter.toMillis(),
+            now - stuckAfter.plus(transferSagaQueue.getMaxWait()).toMillis(),
+            batchSize)
+        .concatMap(
+            saga ->
+                transferTransactionInfoRepository
+                    .claimForRecovery(saga, now)
+                    .filter(Boolean::booleanValue)
+                    .flatMap(
+                        claimed -> {
+                          saga.setStateChangedAt(now);
+                          saga.setRecoveryAttempts(saga.getRecoveryAttempts() + 1);
+                          return recover(saga)
+                              .doOnError(
+                                  e -> {
+                                    failedCounter.increment();
+                                    log.warn(
+                                        "Не удалось восстановить перевод {} в состоянии {}",
+                                        saga.getId(),
+                                        saga.getState(),
+                                        e);
+                                  })
+                              .onErrorComplete()
+                              .thenReturn(1);
+                        }))
+        .count()
+        .map(Long::intValue);
+  }
+
+  private Mono<Void> recover(TransferTransactionInfo saga) {
+    return switch (saga.getState()) {
+      case CREATED, CHECKED -> {
+        saga.setFailureReason("Обработка перевода была прервана");
+        yield finish(
+            saga,
+            TransferSagaState.FAILED,
+            (from, to) ->
+                List.of(
+                    new Notification(
+                        from.getEmail(),
+                        "Перевод " + amount(saga.getFromAmount(), saga.getFromCurrency())
+                            + " не выполнен: обработка была прервана")));
+      }
+      case CONVERTED -> isExpired(saga) ? abandon(saga) : replayPosting(saga);
+      default -> Mono.empty();
+    };
+  }
+
+  private boolean isExpired(TransferTransactionInfo saga) {
+    return Instant.ofEpochSecond(saga.getCreatedAt()).plus(maxAge).isBefore(Instant.now());
+  }
+
+  // Итоговое состояние исключает сагу из следующих проходов, поэтому она учитывается один раз
+  private Mono<Void> abandon(TransferTransactionInfo saga) {
+    saga.setFailureReason("Исход перевода не установлен, перевод передан на ручной разбор");
+    return sagaStateMachine
+        .moveTo(saga, TransferSagaState.ABANDONED)
+        .doOnSuccess(
+            abandoned -> {
+              abandonedCounter.increment();
+              log.error("Перевод {} старше {} не проведен повторно, нужен ручной разбор", saga.getId(), maxAge);
+            })
+        .then();
+  }
+
+  private Mono<Void> replayPosting(TransferTransactionInfo saga) {
+    TransferRequest request = new TransferRequest();
+    request.setFromCurrency(AccountCurrencyEnum.fromValue(saga.getFromCurrency()));
+    request.setToCurrency(AccountCurrencyEnum.fromValue(saga.getToCurrency()));
+    request.setFromAmount(saga.getFromAmount());
+    request.setToAmount(saga.getToAmount());
+    request.setToLogin(saga.getToLogin());
+    return postTransfer(saga.getFromLogin(), request, TransferSagaStateMachine.postingKey(saga))
+        .flatMap(
+            response -> {
+              if (response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS) {
+                return complete(saga);
+              }
+              saga.setSuccess(false);
+              if (response.getErrors() != null && !response.getErrors().isEmpty()) {
+                saga.setFailureReason(String.join("\n", response.getErrors()));
+              }
+              return finish(
+                  saga,
+                  TransferSagaState.FAILED,
+                  (from, to) ->
+                      List.of(
+                          new Notification(
+                              from.getEmail(),
+                              "Отмена перевода. Список ошибок: " + response.getErrors())));
+            });
+  }
+
+  // Проводка состоялась: перевод завершается успешно с теми же уведомлениями, что и в конвейере
+  private Mono<Void> complete(TransferTransactionInfo saga) {
+    saga.setSuccess(true);
+    saga.setFailureReason(null);
+    return finish(saga, TransferSagaState.NOTIFIED, (from, to) -> postedMessages(saga, from, to));
+  }
+
+  private List<Notification> postedMessages(
+      TransferTransactionInfo saga, UserContact from, UserContact to) {
+    if (saga.getFromLogin().equals(saga.getToLogin())) {
+      return List.of(
+          new Notification(
+              from.getEmail(),
+              "Успешная операция перевода денежных средств между счетами: "
+                  + amount(saga.getFromAmount(), saga.getFromCurrency()) + " -> " + amount(saga.getToAmount(), saga.getToCurrency())));
+    }
+    return List.of(
+        new Notification(
+            from.getEmail(),
+            "Успешный перевод " + amount(saga.getFromAmount(), saga.getFromCurrency()) + " клиенту " + to.getName()),
+        new Notification(
+            to.getEmail(),
+            "Получен перевод " + amount(saga.getToAmount(), saga.getToCurrency()) + " от клиента " + from.getName()));
+  }
+
+  // Суммы из БД приходят с масштабом столбца (1000.0000), в уведомлениях нули отбрасываются
+  private static String amount(BigDecimal value, String currency) {
+    return value.stripTrailingZeros().toPlainString() + currency;
+  }
+
+  // Итоговое состояние и уведомления записываются в одной транзакции
+  private Mono<Void> finish(
+      TransferTransactionInfo saga,
+      TransferSagaState state,
+      BiFunction<UserContact, UserContact, List<Notification>> messages) {
+    return contacts(saga)
+        .flatMap(
+            users -> {
+              List<Notification> notifications = messages.apply(users.getT1(), users.getT2());
+              long createdAt = Instant.now().getEpochSecond();
+              return sagaStateMachine
+                  .moveTo(saga, state)
+                  .thenMany(
+                      Flux.fromIterable(notifications)
+                          .concatMap(
+                              n ->
+                                  outboxNotificationRepository.save(
+                                      OutboxNotification.builder()
+                                          .transactionId(saga.getId())
+                                          .email(n.email())
+                                          .message(n.message())
+                                          .createdAt(createdAt)
+                                          .build())))
+                  .then()
+                  .as(transactionalOperator::transactional);
+            })
+        .doOnSuccess(
+            v -> meterRegistry.counter("transfer.saga.recovered", "state", state.name()).increment());
+  }
+
+  private Mono<Tuple2<UserContact, UserContact>> contacts(TransferTransactionInfo saga) {
+    Mono<UserContact> from = accountsServiceApi.getUserContact(saga.getFromLogin());
+    return saga.getFromLogin().equals(saga.getToLogin())
+        ? from.map(user -> Tuples.of(user, user))
+        : Mono.zip(from, accountsServiceApi.getUserContact(saga.getToLogin()));
+  }
+
+  // Отказ сервиса аккаунтов (4xx, кроме 409) окончателен, прочие ошибки повторяются на следующем проходе
+  private Mono<AccountOperationResponse> postTransfer(
+      String login, TransferRequest request, String idempotencyKey) {
+    return accountsServiceApi
+        .transferTransaction(login, request, idempotencyKey)
+        .onErrorResume(
+            WebClientResponseException.class,
+            ex -> {
+              if (ex.getStatusCode() == HttpStatus.UNPROCESSABLE_ENTITY) {
+                try {
+                  return Mono.just(
+                      objectMapper.readValue(ex.getResponseBodyAsString(), AccountOperationResponse.class));
+                } catch (IOException e) {
+                  return Mono.error(e);
+                }
+              }
+              // Ключ записан для другого тела запроса: проводка могла состояться, сага ждет следующего прохода
+              if (ex.getStatusCode() == HttpStatus.CONFLICT) {
+                return Mono.error(
+                    new PostingOutcomeUnknownException("Исход проводки не установлен: " + ex.getMessage()));
+              }
+              if (ex.getStatusCode().is4xxClientError()) {
+                AccountOperationResponse rejected = new AccountOperationResponse();
+                rejected.setOperationStatus(AccountOperationResponse.OperationStatusEnum.FAILED);
+                rejected.setErrors(List.of(ex.getMessage()));
+                return Mono.just(rejected);
+              }
+              return Mono.error(ex);
+            });
+  }
+
+  // Запуск после старта приложения, когда миграции Liquibase уже применены
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleTask() {
+    recoveryTask =
+        Flux.interval(interval, interval)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    recoverBatch()
+                        .expand(claimed -> claimed == batchSize ? recoverBatch() : Mono.empty())
+                        .doOnError(e -> log.error("Ошибка при восстановлении саг перевода", e))
+                        .onErrorComplete())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (recoveryTask != null) {
+      recoveryTask.dispose();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package ru.strbnm.transfer_service.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+import ru.strbnm.transfer_service.exception.TransferSagaConflictException;
+import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
+
+@Component
+public class TransferSagaStateMachine {
+
+  /*
+  Переходы саги перевода (TransferSagaState). Каждый переход сохраняется условным UPDATE
+  по прежнему состоянию и моменту перехода в него, поэтому запрос клиента и восстановление
+  не продвинут одну сагу дважды: проигравший получает TransferSagaConflictException.
+  Время пребывания в каждом состоянии пишется в таймер transfer.saga.state.duration.
+  */
+
+  private final TransferTransactionInfoRepository transferTransactionInfoRepository;
+  private final Map<TransferSagaState, Timer> stateTimers = new EnumMap<>(TransferSagaState.class);
+
+  public TransferSagaStateMachine(
+      TransferTransactionInfoRepository transferTransactionInfoRepository,
+      MeterRegistry meterRegistry) {
+    this.transferTransactionInfoRepository = transferTransactionInfoRepository;
+    for (TransferSagaState state : TransferSagaState.values()) {
+      stateTimers.put(
+          state,
+          Timer.builder("transfer.saga.state.duration")
+              .description("Время пребывания саги перевода в состоянии")
+              .tag("state", state.name())
+              .register(meterRegistry));
+    }
+  }
+
+  // Ключ постоянен для перевода, поэтому повтор после таймаута или сбоя не проводит перевод дважды
+  public static String postingKey(TransferTransactionInfo info) {
+    return "transfer-" + info.getId();
+  }
+
+  public Mono<TransferTransactionInfo> create(TransferTransactionInfo info) {
+    info.setState(TransferSagaState.CREATED);
+    info.setStateChangedAt(Instant.now().toEpochMilli());
+    return transferTransactionInfoRepository.save(info);
+  }
+
+  // Изменения полей info (toAmount, флаги) сохраняются вместе с переходом
+  public Mono<TransferTransactionInfo> moveTo(TransferTransactionInfo info, TransferSagaState next) {
+    TransferSagaState previous = info.getState();
+    long previousChangedAt = info.getStateChangedAt();
+    if (!previous.next().contains(next)) {
+      return Mono.error(
+          new TransferSagaConflictException(
+              "Недопустимый переход перевода " + info.getId() + ": " + previous + " -> " + next));
+    }
+    Instant now = Instant.now();
+    info.setState(next);
+    info.setStateChangedAt(now.toEpochMilli());
+    info.setUpdatedAt(now.getEpochSecond());
+    return transferTransactionInfoRepository
+        .updateState(info, previous, previousChangedAt)
+        .flatMap(
+            updated -> {
+              if (!updated) {
+                info.setState(previous);
+                info.setStateChangedAt(previousChangedAt);
+                return Mono.error(
+                    new TransferSagaConflictException(
+                        "Перевод " + info.getId() + " уже обработан другим обработчиком"));
+              }
+              stateTimers
+                  .get(previous)
+                  .record(Duration.ofMillis(Math.max(0, now.toEpochMilli() - previousChangedAt)));
+              return Mono.just(info);
+            });
+  }
+}
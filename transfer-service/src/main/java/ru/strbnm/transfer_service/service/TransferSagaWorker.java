@@ -0,0 +1,58 @@
+package ru.strbnm.transfer_service.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+@Slf4j
+@Profile("!contracts")
+@Component
+public class TransferSagaWorker {
+
+  /*
+  Обработчик асинхронных переводов: одновременно выполняется не более concurrency саг,
+  остальные ждут в TransferSagaQueue. Исход каждой саги записывается в БД и outbox,
+  клиент узнает его по GET /api/v1/transfer/{transactionId} или из потока событий.
+  */
+
+  private final TransferSagaQueue transferSagaQueue;
+  private final TransferService transferService;
+  private final int concurrency;
+  private Disposable workerTask;
+
+  public TransferSagaWorker(
+      TransferSagaQueue transferSagaQueue,
+      TransferService transferService,
+      @Value("${application.transfer.async.concurrency:16}") int concurrency) {
+    this.transferSagaQueue = transferSagaQueue;
+    this.transferService = transferService;
+    this.concurrency = concurrency;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    workerTask =
+        transferSagaQueue
+            .take()
+            .flatMap(
+                info ->
+                    transferService
+                        .processTransferSaga(info)
+                        .doOnError(e -> log.error("Ошибка при обработке перевода {}", info.getId(), e))
+                        .onErrorComplete(),
+                concurrency)
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (workerTask != null) {
+      workerTask.dispose();
+    }
+  }
+}
@@ -1,9 +1,16 @@
 package ru.strbnm.transfer_service.service;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.strbnm.transfer_service.domain.TransferOperationRequest;
 import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.domain.TransferStatus;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
 
 public interface TransferService {
     Mono<TransferOperationResponse> processTransferTransaction(TransferOperationRequest transferOperationRequest);
+    Mono<TransferStatus> submitTransferTransaction(TransferOperationRequest transferOperationRequest);
+    Mono<TransferOperationResponse> processTransferSaga(TransferTransactionInfo transactionInfo);
+    Mono<TransferStatus> getTransferStatus(Long transactionId, String login);
+    Flux<TransferStatus> streamTransferStatus(Long transactionId, String login);
 }
@@ -2,22 +2,27 @@ package ru.strbnm.transfer_service.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 import reactor.util.retry.Retry;
-import ru.strbnm.kafka.dto.NotificationMessage;
 import ru.strbnm.transfer_service.client.accounts.api.AccountsServiceApi;
 import ru.strbnm.transfer_service.client.accounts.domain.*;
 import ru.strbnm.transfer_service.client.blocker.api.BlockerServiceApi;
@@ -29,11 +34,19 @@ import ru.strbnm.transfer_service.client.exchange.domain.ConvertRequest;
 import ru.strbnm.transfer_service.client.exchange.domain.ConvertedAmount;
 import ru.strbnm.transfer_service.domain.TransferOperationRequest;
 import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.domain.TransferStatus;
+import ru.strbnm.transfer_service.entity.OutboxNotification;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
 import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
 import ru.strbnm.transfer_service.exception.AccountsServiceException;
 import ru.strbnm.transfer_service.exception.BlockerServiceException;
 import ru.strbnm.transfer_service.exception.CashOperationException;
+import ru.strbnm.transfer_service.exception.PostingOutcomeUnknownException;
+import ru.strbnm.transfer_service.exception.TransferNotFoundException;
+import ru.strbnm.transfer_service.exception.TransferQueueOverflowException;
+import ru.strbnm.transfer_service.exception.TransferSagaConflictException;
 import ru.strbnm.transfer_service.exception.UnavailabilityAccountsServiceException;
+import ru.strbnm.transfer_service.repository.OutboxNotificationRepository;
 import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
 
 @Slf4j
@@ -44,63 +57,143 @@ public class TransferServiceImpl implements TransferService {
   private final BlockerServiceApi blockerServiceApi;
   private final ExchangeServiceApi exchangeServiceApi;
   private final TransferTransactionInfoRepository transferTransactionInfoRepository;
+  private final TransferSagaStateMachine sagaStateMachine;
   private final ObjectMapper objectMapper = new ObjectMapper();
-  private final KafkaTemplate<String, NotificationMessage> kafkaTemplate;
+  private final OutboxNotificationRepository outboxNotificationRepository;
+  private final TransactionalOperator transactionalOperator;
   private final MeterRegistry meterRegistry;
+  private final TransferSagaQueue transferSagaQueue;
+  private final TransferStatusPoller transferStatusPoller;
 
   @Autowired
   public TransferServiceImpl(
           @Qualifier("accountsServiceApi") AccountsServiceApi accountsServiceApi,
           BlockerServiceApi blockerServiceApi, ExchangeServiceApi exchangeServiceApi,
-          TransferTransactionInfoRepository transferTransactionInfoRepository, KafkaTemplate<String, NotificationMessage> kafkaTemplate, MeterRegistry meterRegistry) {
+          TransferTransactionInfoRepository transferTransactionInfoRepository, TransferSagaStateMachine sagaStateMachine,
+          OutboxNotificationRepository outboxNotificationRepository, TransactionalOperator transactionalOperator, MeterRegistry meterRegistry,
+          TransferSagaQueue transferSagaQueue, TransferStatusPoller transferStatusPoller) {
     this.accountsServiceApi = accountsServiceApi;
     this.blockerServiceApi = blockerServiceApi;
       this.exchangeServiceApi = exchangeServiceApi;
       this.transferTransactionInfoRepository = transferTransactionInfoRepository;
-      this.kafkaTemplate = kafkaTemplate;
+      this.sagaStateMachine = sagaStateMachine;
+      this.outboxNotificationRepository = outboxNotificationRepository;
+      this.transactionalOperator = transactionalOperator;
       this.meterRegistry = meterRegistry;
+      this.transferSagaQueue = transferSagaQueue;
+      this.transferStatusPoller = transferStatusPoller;
   }
 
+    /*
+    Этапы перевода (сага TransferSagaState):
+    - запись перевода в состоянии CREATED, идентификатор нужен сервису блокировок и ключу идемпотентности;
+    - параллельно: контактные данные участников, проверка блокировок и конвертация суммы;
+    - переход в CONVERTED с зафиксированной суммой зачисления, чтобы повтор проводки был идентичным;
+    - перевод в сервисе аккаунтов;
+    - итоговое состояние (NOTIFIED или FAILED) в транзакции с уведомлениями в outbox.
+    Если исход проводки неизвестен, сага остается в CONVERTED и ее завершает TransferSagaRecovery,
+    а клиент получает PENDING (202) с идентификатором перевода для запроса состояния.
+    */
     @Override
     public Mono<TransferOperationResponse> processTransferTransaction(TransferOperationRequest transferOperationRequest) {
         log.info("Получен запрос: {}", transferOperationRequest);
         TransferTransactionInfo transactionInfo = buildCashTransactionInfo(transferOperationRequest);
 
-    return transferTransactionInfoRepository
-        .save(transactionInfo)
-        .flatMap(
-            savedInfo -> {
-              if (savedInfo.getFromLogin().equals(savedInfo.getToLogin())) {
-                return performTransferOperationItself(savedInfo);
-              } else {
-                return performTransferOperationOther(savedInfo);
-              }
-            })
+    return sagaStateMachine
+        .create(transactionInfo)
+        .flatMap(this::performTransferOperation)
         .onErrorResume(e -> handleProcessingError(transactionInfo, e));
     }
 
-    private Mono<TransferOperationResponse> performTransferOperationItself(TransferTransactionInfo savedInfo) {
-        return Mono.zip(
-                        getUserDetailResponseMono(savedInfo.getFromLogin()),
-                        checkTransaction(savedInfo))
-                .flatMap(
-                        tuple ->
-                                handleCheckTransactionItself(tuple.getT1(), tuple.getT2(), savedInfo));
+    /*
+    Асинхронный перевод: клиент получает идентификатор сразу после записи перевода в CREATED,
+    остальные этапы саги выполняет TransferSagaWorker. Место в очереди резервируется до записи,
+    поэтому при заполненной очереди перевод не создается и клиент получает 503.
+    */
+    @Override
+    public Mono<TransferStatus> submitTransferTransaction(TransferOperationRequest transferOperationRequest) {
+        log.info("Получен запрос на асинхронный перевод: {}", transferOperationRequest);
+        if (!transferSagaQueue.tryReserve()) {
+            meterRegistry.counter("operation.transfer.async.rejected").increment();
+            return Mono.error(new TransferQueueOverflowException("Очередь переводов заполнена. Повторите попытку позже."));
+        }
+        TransferTransactionInfo transactionInfo = buildCashTransactionInfo(transferOperationRequest);
+        AtomicBoolean enqueued = new AtomicBoolean();
+        return sagaStateMachine
+                .create(transactionInfo)
+                .doOnNext(saved -> {
+                    transferSagaQueue.enqueue(saved);
+                    enqueued.set(true);
+                })
+                .doFinally(signal -> {
+                    if (!enqueued.get()) {
+                        transferSagaQueue.release();
+                    }
+                })
+                .map(TransferServiceImpl::toTransferStatus);
+    }
+
+    @Override
+    public Mono<TransferOperationResponse> processTransferSaga(TransferTransactionInfo transactionInfo) {
+        return performTransferOperation(transactionInfo)
+                .onErrorResume(e -> handleProcessingError(transactionInfo, e));
+    }
+
+    // Перевод доступен только отправителю, чужой перевод неотличим от несуществующего
+    @Override
+    public Mono<TransferStatus> getTransferStatus(Long transactionId, String login) {
+        return transferTransactionInfoRepository
+                .findById(transactionId)
+                .filter(info -> info.getFromLogin().equals(login))
+                .map(TransferServiceImpl::toTransferStatus)
+                .switchIfEmpty(Mono.error(new TransferNotFoundException("Перевод " + transactionId + " не найден")));
     }
 
-    private Mono<TransferOperationResponse> performTransferOperationOther(TransferTransactionInfo savedInfo) {
-        return Mono.zip(
-                        getUserDetailResponseMono(savedInfo.getFromLogin()),
-                        getUserDetailResponseMono(savedInfo.getToLogin()),
-                        checkTransaction(savedInfo))
+    // Первое событие - текущее состояние, далее события при каждой смене состояния из общего опроса
+    @Override
+    public Flux<TransferStatus> streamTransferStatus(Long transactionId, String login) {
+        return getTransferStatus(transactionId, login)
+                .flatMapMany(status -> status.getOperationStatus() == TransferStatus.OperationStatusEnum.PENDING
+                        ? Flux.just(status).concatWith(
+                                transferStatusPoller.watch(transactionId).map(TransferServiceImpl::toTransferStatus))
+                        : Flux.just(status))
+                .distinctUntilChanged(TransferStatus::getState)
+                .takeUntil(status -> status.getOperationStatus() != TransferStatus.OperationStatusEnum.PENDING);
+    }
+
+    // Причина отказа хранится одной строкой, ошибки разделяются переводом строки
+    private static TransferStatus toTransferStatus(TransferTransactionInfo info) {
+        TransferStatus.OperationStatusEnum operationStatus = switch (info.getState()) {
+            case NOTIFIED -> TransferStatus.OperationStatusEnum.SUCCESS;
+            case FAILED, ABANDONED -> TransferStatus.OperationStatusEnum.FAILED;
+            default -> TransferStatus.OperationStatusEnum.PENDING;
+        };
+        List<String> errors = info.getFailureReason() == null
+                ? List.of()
+                : Arrays.asList(info.getFailureReason().split("\n"));
+        return new TransferStatus(
+                info.getId(), TransferStatus.StateEnum.fromValue(info.getState().name()), operationStatus, errors);
+    }
+
+    private static String failureReason(List<String> errors) {
+        return errors == null || errors.isEmpty() ? null : String.join("\n", errors);
+    }
+
+    private Mono<TransferOperationResponse> performTransferOperation(TransferTransactionInfo savedInfo) {
+        Mono<Tuple2<UserContact, UserContact>> users = isItself(savedInfo)
+                ? getUserContactMono(savedInfo.getFromLogin()).map(user -> Tuples.of(user, user))
+                : Mono.zip(getUserContactMono(savedInfo.getFromLogin()), getUserContactMono(savedInfo.getToLogin()));
+        // Ошибка конвертации материализуется, чтобы при блокировке клиент получил причину блокировки
+        return Mono.zip(users, checkTransaction(savedInfo), convertAmount(savedInfo).materialize())
                 .flatMap(
                         tuple ->
-                                handleCheckTransactionOther(
-                                        tuple.getT1(), tuple.getT2(), tuple.getT3(), savedInfo));
+                                handleCheckTransaction(
+                                        tuple.getT1().getT1(), tuple.getT1().getT2(), tuple.getT2(), tuple.getT3(), savedInfo));
     }
 
-    private Mono<TransferOperationResponse> handleCheckTransactionOther(
-            UserDetailResponse fromUser, UserDetailResponse toUser, CheckTransactionResponse check, TransferTransactionInfo info) {
+    private Mono<TransferOperationResponse> handleCheckTransaction(
+            UserContact fromUser, UserContact toUser, CheckTransactionResponse check,
+            Signal<BigDecimal> toAmount, TransferTransactionInfo info) {
         log.info("Ответ blocked-service: {}", check);
         log.info("Пользователь-отправитель: {}", fromUser);
         log.info("Пользователь-получатель: {}", toUser);
@@ -109,20 +202,16 @@ public class TransferServiceImpl implements TransferService {
             return updateBlockedTransactionAndNotify(info, fromUser, "Блокировка операции: " + check.getReason(),
                     List.of(check.getReason()));
         }
+        if (toAmount.hasError()) {
+            return Mono.error(toAmount.getThrowable());
+        }
 
         info.setBlocked(false);
-        info.setUpdatedAt(Instant.now().getEpochSecond());
-        return transferTransactionInfoRepository.save(info)
-                .flatMap(updated -> {
-                    if (updated.getFromCurrency().equals(updated.getToCurrency())) {
-                        updated.setToAmount(updated.getFromAmount());
-                        updated.setUpdatedAt(Instant.now().getEpochSecond());
-                        return transferTransactionInfoRepository.save(updated);
-                    } else {
-                        return performConvertOperation(updated);
-                    }
-                })
-                .flatMap(updatedWithToAmount -> performAccountsOperationOther(updatedWithToAmount, fromUser, toUser));
+        info.setToAmount(toAmount.get());
+        return sagaStateMachine.moveTo(info, TransferSagaState.CONVERTED)
+                .flatMap(converted -> isItself(converted)
+                        ? performAccountsOperationItself(converted, fromUser)
+                        : performAccountsOperationOther(converted, fromUser, toUser));
     }
 
     private TransferTransactionInfo buildCashTransactionInfo(TransferOperationRequest request) {
@@ -135,49 +224,25 @@ public class TransferServiceImpl implements TransferService {
                 .build();
     }
 
-    private Mono<TransferOperationResponse> handleCheckTransactionItself(
-            UserDetailResponse user, CheckTransactionResponse check, TransferTransactionInfo info) {
-      log.info("Ответ blocked-service: {}", check);
-      log.info("Пользователь: {}", user);
-      if (check.getIsBlocked()) {
-            assert check.getReason() != null;
-            return updateBlockedTransactionAndNotify(info, user, "Блокировка операции: " + check.getReason(),
-                    List.of(check.getReason()));
-        }
-
-        info.setBlocked(false);
-        info.setUpdatedAt(Instant.now().getEpochSecond());
-        return transferTransactionInfoRepository.save(info)
-                .flatMap(savedInfo -> {
-                    if (savedInfo.getFromCurrency().equals(savedInfo.getToCurrency())) {
-                        savedInfo.setToAmount(savedInfo.getFromAmount());
-                        savedInfo.setUpdatedAt(Instant.now().getEpochSecond());
-                        return transferTransactionInfoRepository.save(info)
-                                .flatMap(updatedWithToAmount -> performAccountsOperationItself(updatedWithToAmount, user));
-                    } else {
-                     return performConvertOperation(savedInfo)
-                             .flatMap(updatedWithToAmount -> performAccountsOperationItself(updatedWithToAmount, user));
-                    }
-                });
+    private boolean isItself(TransferTransactionInfo info) {
+        return info.getFromLogin().equals(info.getToLogin());
     }
 
-    private Mono<TransferTransactionInfo> performConvertOperation(TransferTransactionInfo info) {
+    private Mono<BigDecimal> convertAmount(TransferTransactionInfo info) {
+        if (info.getFromCurrency().equals(info.getToCurrency())) {
+            return Mono.just(info.getFromAmount());
+        }
         ConvertRequest convertRequest = new ConvertRequest();
         convertRequest.setFrom(info.getFromCurrency());
         convertRequest.setTo(info.getToCurrency());
         convertRequest.setAmount(info.getFromAmount());
-        return getConvertedAmount(convertRequest)
-                .flatMap(convertedAmount -> {
-                    info.setToAmount(convertedAmount.getAmount());
-                    info.setUpdatedAt(Instant.now().getEpochSecond());
-                    return transferTransactionInfoRepository.save(info);
-                });
-        }
+        return getConvertedAmount(convertRequest).map(ConvertedAmount::getAmount);
+    }
 
-    private Mono<TransferOperationResponse> performAccountsOperationItself(TransferTransactionInfo info, UserDetailResponse user) {
+    private Mono<TransferOperationResponse> performAccountsOperationItself(TransferTransactionInfo info, UserContact user) {
         TransferRequest request = buildTransferRequest(info);
         log.info("Запрос на перевод: {}", request);
-        return getAccountOperationResponse(request, user.getLogin())
+        return getAccountOperationResponse(request, user.getLogin(), idempotencyKey(info))
                 .flatMap(response -> {
                     log.info("Ответ сервиса аккаунтов: {}", response);
                     boolean isSuccess = response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS;
@@ -186,9 +251,9 @@ public class TransferServiceImpl implements TransferService {
                             : "Отмена перевода между счетами. Список ошибок: " + response.getErrors();
 
                     info.setSuccess(isSuccess);
-                    info.setUpdatedAt(Instant.now().getEpochSecond());
+                    info.setFailureReason(isSuccess ? null : failureReason(response.getErrors()));
 
-                    return transferTransactionInfoRepository.save(info)
+                    return sagaStateMachine.moveTo(info, isSuccess ? TransferSagaState.NOTIFIED : TransferSagaState.FAILED)
                             .flatMap(saved -> {
                                 if (saved.isSuccess()) {
                                     return sendNotification(saved.getId(), user.getEmail(), msg)
@@ -203,14 +268,15 @@ public class TransferServiceImpl implements TransferService {
                                             .then(getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum.FAILED, response.getErrors()));
                                 }
 
-                            });
+                            })
+                            .as(transactionalOperator::transactional);
                 });
     }
 
-    private Mono<TransferOperationResponse> performAccountsOperationOther(TransferTransactionInfo info, UserDetailResponse fromUser, UserDetailResponse toUser) {
+    private Mono<TransferOperationResponse> performAccountsOperationOther(TransferTransactionInfo info, UserContact fromUser, UserContact toUser) {
         TransferRequest request = buildTransferRequest(info);
 
-        return getAccountOperationResponse(request, fromUser.getLogin())
+        return getAccountOperationResponse(request, fromUser.getLogin(), idempotencyKey(info))
                 .flatMap(response -> {
                     log.info("Ответ сервиса аккаунтов: {}", response);
                     boolean isSuccess = response.getOperationStatus() == AccountOperationResponse.OperationStatusEnum.SUCCESS;
@@ -222,9 +288,9 @@ public class TransferServiceImpl implements TransferService {
 
 
                     info.setSuccess(isSuccess);
-                    info.setUpdatedAt(Instant.now().getEpochSecond());
+                    info.setFailureReason(isSuccess ? null : failureReason(response.getErrors()));
 
-                    return transferTransactionInfoRepository.save(info)
+                    return sagaStateMachine.moveTo(info, isSuccess ? TransferSagaState.NOTIFIED : TransferSagaState.FAILED)
                             .flatMap(saved -> {
                                 if (saved.isSuccess()) {
                                     return sendNotification(saved.getId(), fromUser.getEmail(), fromUserMessage)
@@ -240,7 +306,8 @@ public class TransferServiceImpl implements TransferService {
                                     return sendNotification(saved.getId(), fromUser.getEmail(), fromUserMessage)
                                             .then(getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum.FAILED, response.getErrors()));
                                 }
-                            });
+                            })
+                            .as(transactionalOperator::transactional);
                 });
     }
 
@@ -261,11 +328,11 @@ public class TransferServiceImpl implements TransferService {
     }
 
     private Mono<TransferOperationResponse> updateBlockedTransactionAndNotify(
-            TransferTransactionInfo info, UserDetailResponse user, String message, List<String> errors) {
+            TransferTransactionInfo info, UserContact user, String message, List<String> errors) {
         info.setBlocked(true);
         info.setSuccess(false);
-        info.setUpdatedAt(Instant.now().getEpochSecond());
-        return transferTransactionInfoRepository.save(info)
+        info.setFailureReason(failureReason(errors));
+        return sagaStateMachine.moveTo(info, TransferSagaState.FAILED)
                 .flatMap(saved -> {
                     meterRegistry.counter("operation.transfer.blocked",
                                     "fromLogin", info.getFromLogin(),
@@ -275,21 +342,41 @@ public class TransferServiceImpl implements TransferService {
                             .increment();
                     return sendNotification(saved.getId(), user.getEmail(), message)
                             .then(getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum.FAILED, errors));
-                });
+                })
+                .as(transactionalOperator::transactional);
     }
 
     private Mono<TransferOperationResponse> handleProcessingError(TransferTransactionInfo info, Throwable error) {
+        log.error("Ошибки в процессе обработки:", error);
+        String message = "Ошибка при обработке перевода: " + error.getMessage();
+        if (isOutcomeUnknown(info, error)) {
+            // Проводка могла состояться или сагу уже продвинуло восстановление: итог запишет TransferSagaRecovery,
+            // клиент получает PENDING с идентификатором перевода для запроса состояния
+            log.warn("Перевод {} в состоянии {} оставлен для восстановления", info.getId(), info.getState());
+            TransferOperationResponse pending = new TransferOperationResponse(
+                    TransferOperationResponse.OperationStatusEnum.PENDING,
+                    List.of("Исход перевода уточняется, итог будет доступен по идентификатору перевода"));
+            pending.setTransactionId(info.getId());
+            return Mono.just(pending);
+        }
         info.setBlocked(false);
         info.setSuccess(false);
+        info.setFailureReason(message);
         info.setUpdatedAt(Instant.now().getEpochSecond());
-        log.error("Ошибки в процессе обработки:", error);
-        return transferTransactionInfoRepository.save(info)
-                .flatMap(saved -> {
-                    if (error instanceof CashOperationException err) return Mono.error(err);
-                    String message = "Ошибка при обработке перевода: " + error.getMessage();
-                    return sendNotification(saved.getId(), info.getFromLogin(), message)
-                            .then(getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum.FAILED, List.of(message)));
-                });
+        Mono<TransferTransactionInfo> failed;
+        if (info.getId() == null) {
+            info.setState(TransferSagaState.FAILED);
+            failed = transferTransactionInfoRepository.save(info);
+        } else {
+            failed = sagaStateMachine.moveTo(info, TransferSagaState.FAILED);
+        }
+        if (error instanceof CashOperationException err) {
+            return failed.then(Mono.error(err));
+        }
+        return failed
+                .flatMap(saved -> sendNotification(saved.getId(), info.getFromLogin(), message))
+                .then(getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum.FAILED, List.of(message)))
+                .as(transactionalOperator::transactional);
     }
 
     private TransferRequest buildTransferRequest(TransferTransactionInfo info) {
@@ -306,9 +393,27 @@ public class TransferServiceImpl implements TransferService {
         return "Успешная операция перевода денежных средств между счетами: " + info.getFromAmount() + info.getFromCurrency() + " -> " + info.getToAmount() + info.getToCurrency();
     }
 
-    private Mono<AccountOperationResponse> getAccountOperationResponse(TransferRequest transferRequest, String login) {
+    /*
+    До CONVERTED проводка не отправлялась, и сагу можно сразу завершить FAILED.
+    Отказ сервиса аккаунтов (AccountsServiceException) окончателен. Прочие ошибки после CONVERTED
+    (недоступность, конфликт ключа идемпотентности, сбой итоговой записи) оставляют исход проводки неизвестным.
+    */
+    private boolean isOutcomeUnknown(TransferTransactionInfo info, Throwable error) {
+        if (error instanceof TransferSagaConflictException) {
+            return true;
+        }
+        return info.getState() != null
+                && info.getState() != TransferSagaState.CREATED
+                && !(info.getState() == TransferSagaState.CONVERTED && error instanceof AccountsServiceException);
+    }
+
+    private String idempotencyKey(TransferTransactionInfo info) {
+        return TransferSagaStateMachine.postingKey(info);
+    }
+
+    private Mono<AccountOperationResponse> getAccountOperationResponse(TransferRequest transferRequest, String login, String idempotencyKey) {
       log.info("Логин: {}. Запрос: {}", login, transferRequest);
-        return accountsServiceApi.transferTransaction(login, transferRequest)
+        return accountsServiceApi.transferTransaction(login, transferRequest, idempotencyKey)
                 .retryWhen(
                         Retry.max(1)
                                 .filter(
@@ -329,6 +434,10 @@ public class TransferServiceImpl implements TransferService {
                             return Mono.error(new AccountsServiceException("Не удалось прочитать тело ответа: " + e.getMessage()));
                         }
                     }
+                    // Ключ уже записан для другого тела запроса: проводка могла состояться, это не отказ
+                    if (ex.getStatusCode() == HttpStatus.CONFLICT) {
+                        return Mono.error(new PostingOutcomeUnknownException("Исход проводки не установлен: " + ex.getMessage()));
+                    }
                     return Mono.error(new AccountsServiceException("Ошибка при обработке транзакции: " + ex.getMessage()));
                 });
     }
@@ -359,8 +468,8 @@ public class TransferServiceImpl implements TransferService {
                         new BlockerServiceException("Ошибка при проверке транзакции: " + ex.getMessage())));
     }
 
-    private Mono<UserDetailResponse> getUserDetailResponseMono(String login) {
-        return accountsServiceApi.getUser(login)
+    private Mono<UserContact> getUserContactMono(String login) {
+        return accountsServiceApi.getUserContact(login)
                 .retryWhen(
                         Retry.max(1)
                                 .filter(
@@ -375,24 +484,17 @@ public class TransferServiceImpl implements TransferService {
                         new AccountsServiceException("Ошибка при получении данных клиента: " + ex.getMessage())));
     }
 
-    private Mono<Void> sendNotification(Long userId, String email, String message) {
-        NotificationMessage notificationMessage =
-                NotificationMessage.builder()
+    // Уведомление сохраняется в outbox в транзакции вместе с состоянием перевода, в Kafka его отправляет OutboxNotificationRelay
+    private Mono<Void> sendNotification(Long transactionId, String email, String message) {
+        OutboxNotification notification =
+                OutboxNotification.builder()
+                        .transactionId(transactionId)
                         .email(email)
                         .message(message)
-                        .application("transfer-service")
+                        .createdAt(Instant.now().getEpochSecond())
                         .build();
-        log.info("sendNotification: {}", notificationMessage);
-        return Mono.fromFuture(() ->
-                        kafkaTemplate.send("notifications", notificationMessage)
-                )
-                .doOnSuccess(result -> {
-                    RecordMetadata metadata = result.getRecordMetadata();
-                    log.info("Сообщение отправлено. Topic = {}, partition = {}, offset = {}",
-                            metadata.topic(), metadata.partition(), metadata.offset());
-                })
-                .doOnError(e -> log.error("Ошибка при отправке сообщения", e))
-                .then(); // Mono<Void>
+        log.info("sendNotification: {}", notification);
+        return outboxNotificationRepository.save(notification).then();
     }
 
     private Mono<TransferOperationResponse> getTransferOperationResponse(TransferOperationResponse.OperationStatusEnum status, List<String> errors) {
@@ -0,0 +1,119 @@
+package ru.strbnm.transfer_service.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
+
+@Slf4j
+@Component
+public class TransferStatusPoller {
+
+  /*
+  Общий опрос состояний переводов для потоков событий. Раз в status-poll-interval все отслеживаемые
+  переводы читаются одним запросом, независимо от числа подписчиков. Подписчики одного перевода
+  получают общий поток, новый подписчик сразу получает последнее прочитанное состояние.
+  Перевод перестает отслеживаться, когда достиг итогового состояния или от него отписались все.
+  */
+
+  private static final class Watch {
+    private final Sinks.Many<TransferTransactionInfo> sink = Sinks.many().replay().latest();
+    // Изменяется только внутри ConcurrentHashMap.compute для своего ключа
+    private int subscribers;
+  }
+
+  private final TransferTransactionInfoRepository transferTransactionInfoRepository;
+  private final Duration interval;
+  private final Map<Long, Watch> watches = new ConcurrentHashMap<>();
+  private Disposable pollTask;
+
+  public TransferStatusPoller(
+      TransferTransactionInfoRepository transferTransactionInfoRepository,
+      @Value("${application.transfer.async.status-poll-interval:500ms}") Duration interval,
+      MeterRegistry meterRegistry) {
+    this.transferTransactionInfoRepository = transferTransactionInfoRepository;
+    this.interval = interval;
+    Gauge.builder("transfer.status.watched", watches, Map::size)
+        .description("Количество переводов, состояние которых отслеживают потоки событий")
+        .register(meterRegistry);
+  }
+
+  // Состояния перевода после подписки; поток завершается итоговым состоянием
+  public Flux<TransferTransactionInfo> watch(Long transactionId) {
+    return Flux.defer(
+        () -> {
+          Watch watch =
+              watches.compute(
+                  transactionId,
+                  (id, current) -> {
+                    Watch result = current == null ? new Watch() : current;
+                    result.subscribers++;
+                    return result;
+                  });
+          return watch.sink.asFlux().doFinally(signal -> unsubscribe(transactionId, watch));
+        });
+  }
+
+  // Запись удаляется, только если это та же запись: после итогового состояния ее могла сменить новая
+  private void unsubscribe(Long transactionId, Watch watch) {
+    watches.computeIfPresent(
+        transactionId, (id, current) -> current != watch || --current.subscribers > 0 ? current : null);
+  }
+
+  Mono<Void> poll() {
+    if (watches.isEmpty()) {
+      return Mono.empty();
+    }
+    List<Long> ids = List.copyOf(watches.keySet());
+    return transferTransactionInfoRepository
+        .findAllById(ids)
+        .doOnNext(
+            info -> {
+              Watch watch = watches.get(info.getId());
+              if (watch == null) {
+                return;
+              }
+              watch.sink.tryEmitNext(info);
+              if (info.getState().isTerminal()) {
+                watch.sink.tryEmitComplete();
+                watches.remove(info.getId(), watch);
+              }
+            })
+        .then();
+  }
+
+  // Запуск после старта приложения, когда миграции Liquibase уже применены
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    pollTask =
+        Flux.interval(interval, interval)
+            .onBackpressureDrop()
+            .concatMap(
+                tick ->
+                    poll()
+                        .doOnError(e -> log.error("Ошибка при опросе состояний переводов", e))
+                        .onErrorComplete())
+            .subscribe();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (pollTask != null) {
+      pollTask.dispose();
+    }
+  }
+}
@@ -0,0 +1,350 @@
+package ru.strbnm.transfer_service.controller;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockJwt;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import ru.strbnm.transfer_service.config.LiquibaseConfig;
+import ru.strbnm.transfer_service.config.TestSecurityConfig;
+import ru.strbnm.transfer_service.domain.TransferCurrencyEnum;
+import ru.strbnm.transfer_service.domain.TransferErrorResponse;
+import ru.strbnm.transfer_service.domain.TransferOperationRequest;
+import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.domain.TransferStatus;
+import ru.strbnm.transfer_service.service.TransferSagaQueue;
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {"spring.config.name=application-test"})
+@AutoConfigureWebTestClient(timeout = "36000")
+@Import({TestSecurityConfig.class, LiquibaseConfig.class})
+@EmbeddedKafka(topics = "notifications")
+class TransferAsyncControllerTest {
+
+  private static final String CLEAN_SCRIPT_PATH =
+      "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
+
+  @Autowired private DatabaseClient databaseClient;
+  @Autowired private WebTestClient webTestClient;
+  @Autowired SpringLiquibase liquibase;
+  @Autowired private TransferSagaQueue transferSagaQueue;
+  @Autowired private MeterRegistry meterRegistry;
+
+  // Порты совпадают с spring.rest.*.url из application-test.yml
+  private final WireMockServer blockerService = new WireMockServer(7096);
+  private final WireMockServer accountsService = new WireMockServer(7097);
+  private final WireMockServer exchangeService = new WireMockServer(7098);
+
+  @BeforeAll
+  void setup() throws LiquibaseException {
+    liquibase.afterPropertiesSet();
+    databaseClient.sql("SELECT 1").fetch().rowsUpdated().block();
+    accountsService.start();
+    blockerService.start();
+    exchangeService.start();
+  }
+
+  @BeforeEach
+  void stubServices() {
+    accountsService.resetAll();
+    blockerService.resetAll();
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/test_user1/contact"))
+            .willReturn(
+                okJson("{\"login\":\"test_user1\",\"name\":\"Иванов Иван\",\"email\":\"ivanov@example.ru\"}")));
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/test_user2/contact"))
+            .willReturn(
+                okJson("{\"login\":\"test_user2\",\"name\":\"Петров Петр\",\"email\":\"petrov@example.ru\"}")));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/users/test_user1/transfer"))
+            .willReturn(okJson("{\"operationStatus\":\"SUCCESS\",\"errors\":[]}")));
+  }
+
+  @AfterEach
+  void cleanupDatabase() throws Exception {
+    String sql = new String(Files.readAllBytes(Paths.get(CLEAN_SCRIPT_PATH)));
+    databaseClient.sql(sql).then().block();
+  }
+
+  @AfterAll
+  void tearDown() {
+    accountsService.stop();
+    blockerService.stop();
+    exchangeService.stop();
+  }
+
+  private void stubBlocker(boolean isBlocked, String reason) {
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction"))
+            .willReturn(
+                okJson(
+                    "{\"transactionId\":1,\"isBlocked\":" + isBlocked + ",\"reason\":"
+                        + (reason == null ? "null" : "\"" + reason + "\"") + "}")));
+  }
+
+  private TransferStatus submit() {
+    TransferStatus accepted =
+        webTestClient
+            .mutateWith(mockJwt())
+            .post()
+            .uri("/api/v1/transfer/async")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(
+                new TransferOperationRequest(
+                    "test_user1",
+                    TransferCurrencyEnum.CNY,
+                    "test_user2",
+                    TransferCurrencyEnum.CNY,
+                    new BigDecimal("1000.0")))
+            .exchange()
+            .expectStatus()
+            .isAccepted()
+            .expectBody(TransferStatus.class)
+            .returnResult()
+            .getResponseBody();
+    assertNotNull(accepted);
+    assertNotNull(accepted.getTransactionId());
+    assertEquals(TransferStatus.StateEnum.CREATED, accepted.getState());
+    assertEquals(TransferStatus.OperationStatusEnum.PENDING, accepted.getOperationStatus());
+    return accepted;
+  }
+
+  private TransferStatus lastStreamedStatus(Long transactionId) {
+    List<TransferStatus> events = streamedStatuses(transactionId).block(Duration.ofSeconds(10));
+    assertNotNull(events);
+    assertFalse(events.isEmpty());
+    return events.get(events.size() - 1);
+  }
+
+  private Mono<List<TransferStatus>> streamedStatuses(Long transactionId) {
+    return webTestClient
+            .mutateWith(mockJwt())
+            .get()
+            .uri("/api/v1/transfer/{transactionId}/stream?login=test_user1", transactionId)
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .returnResult(TransferStatus.class)
+            .getResponseBody()
+            .collectList();
+  }
+
+  @Test
+  void submitTransferTransaction_shouldAcceptAndCompleteInBackground() {
+    stubBlocker(false, null);
+
+    TransferStatus accepted = submit();
+
+    TransferStatus last = lastStreamedStatus(accepted.getTransactionId());
+    assertEquals(TransferStatus.StateEnum.NOTIFIED, last.getState());
+    assertEquals(TransferStatus.OperationStatusEnum.SUCCESS, last.getOperationStatus());
+
+    webTestClient
+        .mutateWith(mockJwt())
+        .get()
+        .uri("/api/v1/transfer/{transactionId}?login=test_user1", accepted.getTransactionId())
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody(TransferStatus.class)
+        .value(
+            status -> {
+              assertEquals(accepted.getTransactionId(), status.getTransactionId());
+              assertEquals(TransferStatus.OperationStatusEnum.SUCCESS, status.getOperationStatus());
+              assertTrue(status.getErrors().isEmpty());
+            });
+    accountsService.verify(
+        1,
+        postRequestedFor(urlPathEqualTo("/api/v1/users/test_user1/transfer"))
+            .withHeader("Idempotency-Key", equalTo("transfer-" + accepted.getTransactionId())));
+  }
+
+  @Test
+  void submitTransferTransaction_shouldReportBlockingReason() {
+    stubBlocker(true, "Подозрительная операция");
+
+    TransferStatus accepted = submit();
+
+    TransferStatus last = lastStreamedStatus(accepted.getTransactionId());
+    assertEquals(TransferStatus.StateEnum.FAILED, last.getState());
+    assertEquals(TransferStatus.OperationStatusEnum.FAILED, last.getOperationStatus());
+    assertEquals(List.of("Подозрительная операция"), last.getErrors());
+    accountsService.verify(0, postRequestedFor(urlPathMatching("/api/v1/users/.*/transfer")));
+  }
+
+  @Test
+  void submitTransferTransaction_shouldRejectWhenQueueIsFull() {
+    int reserved = 0;
+    while (transferSagaQueue.tryReserve()) {
+      reserved++;
+    }
+    try {
+      webTestClient
+          .mutateWith(mockJwt())
+          .post()
+          .uri("/api/v1/transfer/async")
+          .contentType(MediaType.APPLICATION_JSON)
+          .bodyValue(
+              new TransferOperationRequest(
+                  "test_user1",
+                  TransferCurrencyEnum.CNY,
+                  "test_user2",
+                  TransferCurrencyEnum.CNY,
+                  new BigDecimal("1000.0")))
+          .exchange()
+          .expectStatus()
+          .isEqualTo(503)
+          .expectBody(TransferErrorResponse.class)
+          .value(error -> assertEquals(503, error.getStatusCode()));
+    } finally {
+      for (int i = 0; i < reserved; i++) {
+        transferSagaQueue.release();
+      }
+    }
+    // Отклоненный перевод не записывается
+    StepVerifier.create(
+            databaseClient.sql("SELECT COUNT(*) AS cnt FROM transfer_transactions")
+                .map(row -> row.get("cnt", Long.class))
+                .one())
+        .expectNext(0L)
+        .verifyComplete();
+  }
+
+  @Test
+  void transferTransaction_shouldReturnPendingWhenPostingOutcomeUnknown() {
+    stubBlocker(false, null);
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/users/test_user1/transfer"))
+            .willReturn(
+                aResponse()
+                    .withStatus(409)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"message\":\"Ключ уже использован для другого запроса\",\"statusCode\":409}")));
+
+    // Конфликт ключа не отказ: клиент получает 202 и запрашивает итог по идентификатору перевода
+    TransferOperationResponse pending =
+        webTestClient
+            .mutateWith(mockJwt())
+            .post()
+            .uri("/api/v1/transfer")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(
+                new TransferOperationRequest(
+                    "test_user1",
+                    TransferCurrencyEnum.CNY,
+                    "test_user2",
+                    TransferCurrencyEnum.CNY,
+                    new BigDecimal("1000.0")))
+            .exchange()
+            .expectStatus()
+            .isAccepted()
+            .expectBody(TransferOperationResponse.class)
+            .returnResult()
+            .getResponseBody();
+    assertNotNull(pending);
+    assertEquals(TransferOperationResponse.OperationStatusEnum.PENDING, pending.getOperationStatus());
+
+    webTestClient
+        .mutateWith(mockJwt())
+        .get()
+        .uri("/api/v1/transfer/{transactionId}?login=test_user1", pending.getTransactionId())
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody(TransferStatus.class)
+        .value(
+            status -> {
+              assertEquals(TransferStatus.StateEnum.CONVERTED, status.getState());
+              assertEquals(TransferStatus.OperationStatusEnum.PENDING, status.getOperationStatus());
+            });
+  }
+
+  @Test
+  void getTransferStatus_shouldReturn404ForUnknownTransfer() {
+    webTestClient
+        .mutateWith(mockJwt())
+        .get()
+        .uri("/api/v1/transfer/{transactionId}?login=test_user1", 999)
+        .exchange()
+        .expectStatus()
+        .isNotFound()
+        .expectBody(TransferErrorResponse.class)
+        .value(error -> assertEquals("Перевод 999 не найден", error.getMessage()));
+  }
+
+  @Test
+  void getTransferStatus_shouldHideTransferOfAnotherUser() {
+    stubBlocker(false, null);
+
+    TransferStatus accepted = submit();
+
+    webTestClient
+        .mutateWith(mockJwt())
+        .get()
+        .uri("/api/v1/transfer/{transactionId}?login=test_user2", accepted.getTransactionId())
+        .exchange()
+        .expectStatus()
+        .isNotFound();
+    webTestClient
+        .mutateWith(mockJwt())
+        .get()
+        .uri("/api/v1/transfer/{transactionId}/stream?login=test_user2", accepted.getTransactionId())
+        .accept(MediaType.TEXT_EVENT_STREAM)
+        .exchange()
+        .expectStatus()
+        .isNotFound();
+  }
+
+  @Test
+  void streamTransferStatus_shouldDeliverFinalStateToEverySubscriber() {
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction"))
+            .willReturn(
+                okJson("{\"transactionId\":1,\"isBlocked\":false,\"reason\":null}")
+                    .withFixedDelay(500)));
+
+    TransferStatus accepted = submit();
+
+    // Подписчики одного перевода получают состояния из общего опроса
+    List<List<TransferStatus>> streams =
+        Flux.range(0, 3)
+            .flatMap(i -> streamedStatuses(accepted.getTransactionId()))
+            .collectList()
+            .block(Duration.ofSeconds(10));
+    assertNotNull(streams);
+    assertEquals(3, streams.size());
+    for (List<TransferStatus> events : streams) {
+      assertEquals(TransferStatus.StateEnum.NOTIFIED, events.get(events.size() - 1).getState());
+      assertEquals(
+          events.size(), events.stream().map(TransferStatus::getState).distinct().count());
+    }
+    // Завершенный перевод больше не опрашивается
+    assertEquals(0.0, meterRegistry.get("transfer.status.watched").gauge().value());
+  }
+}
@@ -0,0 +1,184 @@
+package ru.strbnm.transfer_service.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import ru.strbnm.testing.H2QueryStatistics;
+import ru.strbnm.transfer_service.config.AccountsWebClientConfig;
+import ru.strbnm.transfer_service.config.BlockerWebClientConfig;
+import ru.strbnm.transfer_service.config.ExchangeWebClientConfig;
+import ru.strbnm.transfer_service.config.LiquibaseConfig;
+import ru.strbnm.transfer_service.domain.TransferCurrencyEnum;
+import ru.strbnm.transfer_service.domain.TransferOperationRequest;
+import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
+
+/*
+Проверка этапов конвейера перевода: сервисы аккаунтов, блокировок и конвертации заменены
+WireMock-заглушками. Проверяется, какие удаленные вызовы выполнены и сколько записей
+о переводе сделано в БД (по статистике запросов H2).
+*/
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = {"spring.config.name=application-test"})
+@Import({AccountsWebClientConfig.class, BlockerWebClientConfig.class, ExchangeWebClientConfig.class, LiquibaseConfig.class, TransferServiceImpl.class})
+@EmbeddedKafka(topics = "notifications")
+class TransferPipelineTest {
+
+  private static final String CLEAN_SCRIPT_PATH =
+      "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
+
+  @Autowired private DatabaseClient databaseClient;
+  @Autowired SpringLiquibase liquibase;
+  @Autowired private TransferService transferService;
+  @Autowired private TransferTransactionInfoRepository transferTransactionInfoRepository;
+  private H2QueryStatistics queryStatistics;
+
+  // Порты совпадают с spring.rest.*.url из application-test.yml
+  private final WireMockServer blockerService = new WireMockServer(7096);
+  private final WireMockServer accountsService = new WireMockServer(7097);
+  private final WireMockServer exchangeService = new WireMockServer(7098);
+
+  private final TransferOperationRequest request =
+      new TransferOperationRequest(
+          "test_user1",
+          TransferCurrencyEnum.RUB,
+          "test_user2",
+          TransferCurrencyEnum.USD,
+          new BigDecimal("1000.0"));
+
+  @BeforeAll
+  void setup() throws LiquibaseException {
+    liquibase.afterPropertiesSet();
+    databaseClient.sql("SELECT 1").fetch().rowsUpdated().block();
+    queryStatistics = new H2QueryStatistics(databaseClient);
+    accountsService.start();
+    blockerService.start();
+    exchangeService.start();
+  }
+
+  @BeforeEach
+  void setupStubs() {
+    accountsService.resetAll();
+    blockerService.resetAll();
+    exchangeService.resetAll();
+    stubUser("test_user1", "Иванов Иван", "ivanov@example.ru");
+    stubUser("test_user2", "Петров Петр", "petrov@example.ru");
+    accountsService.stubFor(
+        post(urlPathMatching("/api/v1/users/[^/]+/transfer"))
+            .willReturn(okJson("{\"operationStatus\":\"SUCCESS\",\"errors\":[]}")));
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction"))
+            .willReturn(okJson("{\"transactionId\":1,\"isBlocked\":false,\"reason\":null}")));
+    exchangeService.stubFor(
+        post(urlPathEqualTo("/api/v1/convert")).willReturn(okJson("{\"amount\":12.0}")));
+  }
+
+  private void stubUser(String login, String name, String email) {
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/" + login + "/contact"))
+            .willReturn(
+                okJson(
+                    String.format(
+                        "{\"login\":\"%s\",\"name\":\"%s\",\"email\":\"%s\"}", login, name, email))));
+  }
+
+  @AfterEach
+  void cleanupDatabase() throws Exception {
+    String sql = new String(Files.readAllBytes(Paths.get(CLEAN_SCRIPT_PATH)));
+    databaseClient.sql(sql).then().block();
+  }
+
+  @AfterAll
+  void tearDown() {
+    accountsService.stop();
+    blockerService.stop();
+    exchangeService.stop();
+  }
+
+  private long countNotifications(Long transactionId) {
+    return databaseClient
+        .sql("SELECT COUNT(*) AS cnt FROM outbox_notifications WHERE transaction_id = :transactionId")
+        .bind("transactionId", transactionId)
+        .map(row -> row.get("cnt", Long.class))
+        .one()
+        .block();
+  }
+
+  @Test
+  void processTransferTransaction_shouldCallEachServiceOnceAndWriteTransferThreeTimes() {
+    queryStatistics.start();
+    TransferOperationResponse response = transferService.processTransferTransaction(request).block();
+    long inserts = queryStatistics.executed("INSERT INTO transfer_transactions");
+    long updates = queryStatistics.executed("UPDATE transfer_transactions");
+    queryStatistics.stop();
+
+    assertNotNull(response);
+    assertEquals(TransferOperationResponse.OperationStatusEnum.SUCCESS, response.getOperationStatus());
+    // Для уведомлений запрашиваются только контактные данные, полный профиль клиента не нужен
+    accountsService.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/users/test_user1/contact")));
+    accountsService.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/users/test_user2/contact")));
+    accountsService.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/users/test_user1")));
+    blockerService.verify(1, postRequestedFor(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction")));
+    exchangeService.verify(1, postRequestedFor(urlPathEqualTo("/api/v1/convert")));
+    // Сумма зачисления берется из ответа сервиса конвертации, ключ идемпотентности - из id перевода
+    accountsService.verify(
+        1,
+        postRequestedFor(urlPathEqualTo("/api/v1/users/test_user1/transfer"))
+            .withHeader("Idempotency-Key", equalTo("transfer-1"))
+            .withRequestBody(matchingJsonPath("$.toAmount", equalTo("12.0"))));
+
+    // Запись в CREATED и два перехода: CONVERTED перед проводкой и итоговый NOTIFIED
+    assertEquals(1, inserts);
+    assertEquals(2, updates);
+    TransferTransactionInfo saved = transferTransactionInfoRepository.findById(1L).block();
+    assertNotNull(saved);
+    assertEquals(TransferSagaState.NOTIFIED, saved.getState());
+    assertTrue(saved.isSuccess());
+    assertFalse(saved.isBlocked());
+    assertEquals(0, new BigDecimal("12.0").compareTo(saved.getToAmount()));
+    // Уведомления отправителю и получателю записаны вместе с итоговым состоянием
+    assertEquals(2, countNotifications(1L));
+  }
+
+  @Test
+  void processTransferTransaction_shouldReportBlockReasonWhenConversionFailed() {
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction"))
+            .willReturn(
+                okJson("{\"transactionId\":1,\"isBlocked\":true,\"reason\":\"Подозрительная операция\"}")));
+    exchangeService.stubFor(post(urlPathEqualTo("/api/v1/convert")).willReturn(serverError()));
+
+    TransferOperationResponse response = transferService.processTransferTransaction(request).block();
+
+    // Конвертация запрошена одновременно с проверкой блокировок, но ее ошибка не скрывает причину блокировки
+    assertNotNull(response);
+    assertEquals(TransferOperationResponse.OperationStatusEnum.FAILED, response.getOperationStatus());
+    assertEquals(List.of("Подозрительная операция"), response.getErrors());
+    exchangeService.verify(moreThanOrExactly(1), postRequestedFor(urlPathEqualTo("/api/v1/convert")));
+    accountsService.verify(0, postRequestedFor(urlPathMatching("/api/v1/users/[^/]+/transfer")));
+
+    TransferTransactionInfo saved = transferTransactionInfoRepository.findById(1L).block();
+    assertNotNull(saved);
+    assertEquals(TransferSagaState.FAILED, saved.getState());
+    assertTrue(saved.isBlocked());
+    assertEquals("Подозрительная операция", saved.getFailureReason());
+    assertEquals(1, countNotifications(1L));
+  }
+}
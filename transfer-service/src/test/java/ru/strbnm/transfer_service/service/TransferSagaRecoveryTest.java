@@ -0,0 +1,281 @@
+package ru.strbnm.transfer_service.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.test.StepVerifier;
+import ru.strbnm.transfer_service.config.AccountsWebClientConfig;
+import ru.strbnm.transfer_service.config.BlockerWebClientConfig;
+import ru.strbnm.transfer_service.config.ExchangeWebClientConfig;
+import ru.strbnm.transfer_service.config.LiquibaseConfig;
+import ru.strbnm.transfer_service.domain.TransferCurrencyEnum;
+import ru.strbnm.transfer_service.domain.TransferOperationRequest;
+import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
+import ru.strbnm.transfer_service.entity.TransferTransactionInfo;
+import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = {"spring.config.name=application-test"})
+@Import({AccountsWebClientConfig.class, BlockerWebClientConfig.class, ExchangeWebClientConfig.class, LiquibaseConfig.class, TransferServiceImpl.class})
+@EmbeddedKafka(topics = "notifications")
+class TransferSagaRecoveryTest {
+
+  private static final String CLEAN_SCRIPT_PATH =
+      "src/test/resources/scripts/CLEAN_STORE_RECORD.sql";
+  private static final String SUCCESS = "{\"operationStatus\":\"SUCCESS\",\"errors\":[]}";
+  private static final String FAILED =
+      "{\"operationStatus\":\"FAILED\",\"errors\":[\"На счете недостаточно средств\"]}";
+
+  @Autowired private DatabaseClient databaseClient;
+  @Autowired SpringLiquibase liquibase;
+  @Autowired private TransferTransactionInfoRepository transferTransactionInfoRepository;
+  @Autowired private TransferSagaRecovery transferSagaRecovery;
+  @Autowired private TransferService transferService;
+  @Autowired private MeterRegistry meterRegistry;
+
+  // Порты совпадают с spring.rest.*.url из application-test.yml
+  private final WireMockServer blockerService = new WireMockServer(7096);
+  private final WireMockServer accountsService = new WireMockServer(7097);
+  private final WireMockServer exchangeService = new WireMockServer(7098);
+
+  @BeforeAll
+  void setup() throws LiquibaseException {
+    liquibase.afterPropertiesSet();
+    databaseClient.sql("SELECT 1").fetch().rowsUpdated().block();
+    accountsService.start();
+    blockerService.start();
+    exchangeService.start();
+  }
+
+  @BeforeEach
+  void stubContacts() {
+    accountsService.resetAll();
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/test_user1/contact"))
+            .willReturn(
+                okJson("{\"login\":\"test_user1\",\"name\":\"Иванов Иван\",\"email\":\"ivanov@example.ru\"}")));
+    accountsService.stubFor(
+        get(urlPathEqualTo("/api/v1/users/test_user2/contact"))
+            .willReturn(
+                okJson("{\"login\":\"test_user2\",\"name\":\"Петров Петр\",\"email\":\"petrov@example.ru\"}")));
+  }
+
+  @AfterEach
+  void cleanupDatabase() throws Exception {
+    String sql = new String(Files.readAllBytes(Paths.get(CLEAN_SCRIPT_PATH)));
+    databaseClient.sql(sql).then().block();
+  }
+
+  @AfterAll
+  void tearDown() {
+    accountsService.stop();
+    blockerService.stop();
+    exchangeService.stop();
+  }
+
+  private TransferTransactionInfo saveStuckSaga(TransferSagaState state) {
+    return saveStuckSaga(state, Instant.now().getEpochSecond());
+  }
+
+  private TransferTransactionInfo saveStuckSaga(TransferSagaState state, long createdAt) {
+    return transferTransactionInfoRepository
+        .save(
+            TransferTransactionInfo.builder()
+                .fromLogin("test_user1")
+                .toLogin("test_user2")
+                .fromCurrency("RUB")
+                .toCurrency("CNY")
+                .fromAmount(new BigDecimal("1000.0"))
+                .toAmount(state == TransferSagaState.CREATED ? null : new BigDecimal("110.0"))
+                .createdAt(createdAt)
+                .state(state)
+                .stateChangedAt(Instant.now().minusSeconds(600).toEpochMilli())
+                .build())
+        .block();
+  }
+
+  private void stubTransfer(String login, String idempotencyKey, int status, String body) {
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/users/" + login + "/transfer"))
+            .withHeader("Idempotency-Key", equalTo(idempotencyKey))
+            .willReturn(aResponse().withStatus(status).withHeader("Content-Type", "application/json").withBody(body)));
+  }
+
+  private List<String> outboxMessages(Long transactionId) {
+    return databaseClient
+        .sql("SELECT message FROM outbox_notifications WHERE transaction_id = :id ORDER BY id")
+        .bind("id", transactionId)
+        .map(row -> row.get("message", String.class))
+        .all()
+        .collectList()
+        .block();
+  }
+
+  private void assertState(Long id, TransferSagaState expected) {
+    StepVerifier.create(transferTransactionInfoRepository.findById(id))
+        .assertNext(info -> assertEquals(expected, info.getState()))
+        .verifyComplete();
+  }
+
+  @Test
+  void recoverBatch_shouldFailSagaInterruptedBeforePosting() {
+    TransferTransactionInfo saga = saveStuckSaga(TransferSagaState.CREATED);
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(1).verifyComplete();
+
+    assertState(saga.getId(), TransferSagaState.FAILED);
+    assertEquals(
+        List.of("Перевод 1000RUB не выполнен: обработка была прервана"), outboxMessages(saga.getId()));
+    accountsService.verify(0, postRequestedFor(urlPathMatching("/api/v1/users/.*/transfer")));
+  }
+
+  @Test
+  void recoverBatch_shouldNotFailCreatedSagaThatMayStillBeQueued() {
+    TransferTransactionInfo saga = saveStuckSaga(TransferSagaState.CREATED);
+    // Дольше stuck-after, но меньше max-wait + stuck-after: перевод может ждать обработчика в очереди
+    databaseClient
+        .sql("UPDATE transfer_transactions SET state_changed_at = :stateChangedAt WHERE id = :id")
+        .bind("stateChangedAt", Instant.now().minusSeconds(180).toEpochMilli())
+        .bind("id", saga.getId())
+        .then()
+        .block();
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(0).verifyComplete();
+
+    assertState(saga.getId(), TransferSagaState.CREATED);
+  }
+
+  @Test
+  void recoverBatch_shouldCompletePostingConfirmedOnReplay() {
+    TransferTransactionInfo saga = saveStuckSaga(TransferSagaState.CONVERTED);
+    stubTransfer("test_user1", "transfer-" + saga.getId(), 200, SUCCESS);
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(1).verifyComplete();
+
+    // Подтвержденная проводка доводит перевод до конца с уведомлениями об успехе
+    assertState(saga.getId(), TransferSagaState.NOTIFIED);
+    assertEquals(
+        List.of(
+            "Успешный перевод 1000RUB клиенту Петров Петр",
+            "Получен перевод 110CNY от клиента Иванов Иван"),
+        outboxMessages(saga.getId()));
+    // Повторный проход не трогает завершенную сагу
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(0).verifyComplete();
+  }
+
+  @Test
+  void recoverBatch_shouldAbandonExpiredSagaOnce() {
+    double abandonedBefore = meterRegistry.counter("transfer.saga.recovery.abandoned").count();
+    // Старше max-age (12h по умолчанию): проводка не повторяется
+    TransferTransactionInfo saga =
+        saveStuckSaga(TransferSagaState.CONVERTED, Instant.now().minusSeconds(13 * 3600).getEpochSecond());
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(1).verifyComplete();
+
+    assertState(saga.getId(), TransferSagaState.ABANDONED);
+    accountsService.verify(0, postRequestedFor(urlPathMatching("/api/v1/users/.*/transfer")));
+    assertEquals(abandonedBefore + 1, meterRegistry.counter("transfer.saga.recovery.abandoned").count());
+    // Итоговое состояние больше не захватывается и не учитывается повторно
+    databaseClient
+        .sql("UPDATE transfer_transactions SET state_changed_at = 0 WHERE id = :id")
+        .bind("id", saga.getId())
+        .then()
+        .block();
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(0).verifyComplete();
+    assertEquals(abandonedBefore + 1, meterRegistry.counter("transfer.saga.recovery.abandoned").count());
+  }
+
+  @Test
+  void recoverBatch_shouldFailSagaRejectedOnReplayAndRetryUnavailable() {
+    TransferTransactionInfo rejected = saveStuckSaga(TransferSagaState.CONVERTED);
+    TransferTransactionInfo unavailable = saveStuckSaga(TransferSagaState.CONVERTED);
+    stubTransfer("test_user1", "transfer-" + rejected.getId(), 422, FAILED);
+    stubTransfer("test_user1", "transfer-" + unavailable.getId(), 503, "{}");
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(2).verifyComplete();
+
+    assertState(rejected.getId(), TransferSagaState.FAILED);
+    StepVerifier.create(transferTransactionInfoRepository.findById(unavailable.getId()))
+        .assertNext(
+            info -> {
+              assertEquals(TransferSagaState.CONVERTED, info.getState());
+              assertEquals(1, info.getRecoveryAttempts());
+            })
+        .verifyComplete();
+    // Захваченная сага скрыта от следующего прохода до истечения stuck-after
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(0).verifyComplete();
+  }
+
+  @Test
+  void recoverBatch_shouldKeepSagaConvertedWhenReplayKeyConflicts() {
+    TransferTransactionInfo saga = saveStuckSaga(TransferSagaState.CONVERTED);
+    stubTransfer(
+        "test_user1",
+        "transfer-" + saga.getId(),
+        409,
+        "{\"message\":\"Ключ transfer-" + saga.getId() + " уже использован для другого запроса\",\"statusCode\":409}");
+
+    StepVerifier.create(transferSagaRecovery.recoverBatch()).expectNext(1).verifyComplete();
+
+    // Конфликт ключа не отказ: проводка могла состояться, сага ждет следующего прохода
+    StepVerifier.create(transferTransactionInfoRepository.findById(saga.getId()))
+        .assertNext(
+            info -> {
+              assertEquals(TransferSagaState.CONVERTED, info.getState());
+              assertEquals(1, info.getRecoveryAttempts());
+            })
+        .verifyComplete();
+    assertTrue(outboxMessages(saga.getId()).isEmpty());
+  }
+
+  @Test
+  void processTransferTransaction_shouldLeaveSagaConvertedWhenPostingOutcomeUnknown() {
+    blockerService.stubFor(
+        post(urlPathEqualTo("/api/v1/blocker/checkTransferTransaction"))
+            .willReturn(okJson("{\"transactionId\":1,\"isBlocked\":false,\"reason\":null}")));
+    accountsService.stubFor(
+        post(urlPathEqualTo("/api/v1/users/test_user1/transfer")).willReturn(serverError()));
+
+    StepVerifier.create(
+            transferService.processTransferTransaction(
+                new TransferOperationRequest(
+                    "test_user1",
+                    TransferCurrencyEnum.CNY,
+                    "test_user2",
+                    TransferCurrencyEnum.CNY,
+                    new BigDecimal("1000.0"))))
+        .assertNext(
+            response -> {
+              assertEquals(TransferOperationResponse.OperationStatusEnum.PENDING, response.getOperationStatus());
+              assertNotNull(response.getTransactionId());
+            })
+        .verifyComplete();
+
+    StepVerifier.create(transferTransactionInfoRepository.findAll())
+        .assertNext(
+            info -> {
+              assertEquals(TransferSagaState.CONVERTED, info.getState());
+              assertEquals(0, new BigDecimal("1000.0").compareTo(info.getToAmount()));
+              assertFalse(info.isSuccess());
+            })
+        .verifyComplete();
+  }
+}
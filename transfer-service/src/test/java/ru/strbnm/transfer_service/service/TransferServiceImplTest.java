@@ -37,6 +37,7 @@ import ru.strbnm.transfer_service.config.LiquibaseConfig;
 import ru.strbnm.transfer_service.domain.TransferCurrencyEnum;
 import ru.strbnm.transfer_service.domain.TransferOperationRequest;
 import ru.strbnm.transfer_service.domain.TransferOperationResponse;
+import ru.strbnm.transfer_service.entity.TransferSagaState;
 import ru.strbnm.transfer_service.repository.TransferTransactionInfoRepository;
 
 @Slf4j
@@ -136,6 +137,7 @@ class TransferServiceImplTest {
                       assertEquals(0, new BigDecimal("1000.0").compareTo(cashTransactionInfo.getToAmount()));
                       assertFalse(cashTransactionInfo.isBlocked());
                       assertTrue(cashTransactionInfo.isSuccess());
+                      assertEquals(TransferSagaState.NOTIFIED, cashTransactionInfo.getState());
                     }
             ).verifyComplete();
 
@@ -191,6 +193,7 @@ class TransferServiceImplTest {
                             assertEquals(0, new BigDecimal("12.0").compareTo(cashTransactionInfo.getToAmount()));
                             assertFalse(cashTransactionInfo.isBlocked());
                             assertTrue(cashTransactionInfo.isSuccess());
+                            assertEquals(TransferSagaState.NOTIFIED, cashTransactionInfo.getState());
                         }
                 ).verifyComplete();
     }
@@ -228,6 +231,7 @@ class TransferServiceImplTest {
                             assertEquals(0, new BigDecimal("1000.0").compareTo(cashTransactionInfo.getToAmount()));
                             assertFalse(cashTransactionInfo.isBlocked());
                             assertFalse(cashTransactionInfo.isSuccess());
+                            assertEquals(TransferSagaState.FAILED, cashTransactionInfo.getState());
                         }
                 ).verifyComplete();
     }
@@ -269,6 +273,7 @@ class TransferServiceImplTest {
                             assertEquals(0, new BigDecimal("12.0").compareTo(cashTransactionInfo.getToAmount()));
                             assertFalse(cashTransactionInfo.isBlocked());
                             assertFalse(cashTransactionInfo.isSuccess());
+                            assertEquals(TransferSagaState.FAILED, cashTransactionInfo.getState());
                         }
                 ).verifyComplete();
     }